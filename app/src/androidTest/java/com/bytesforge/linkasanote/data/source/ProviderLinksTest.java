@@ -20,6 +20,8 @@
 
 package com.bytesforge.linkasanote.data.source;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.database.Cursor;
@@ -28,6 +30,7 @@ import android.net.Uri;
 import com.bytesforge.linkasanote.AndroidTestUtils;
 import com.bytesforge.linkasanote.data.Link;
 import com.bytesforge.linkasanote.data.Tag;
+import com.bytesforge.linkasanote.data.source.local.FullTextSearch;
 import com.bytesforge.linkasanote.data.source.local.LocalContract;
 import com.bytesforge.linkasanote.utils.CommonUtils;
 
@@ -134,6 +137,87 @@ public class ProviderLinksTest {
         assertEquals(FAVORITE_TAGS, tags);
     }
 
+    @Test
+    public void provider_applyBatchOfLinksWithTags() throws Exception {
+        final Link link = new Link(
+                ENTRY_KEYS[0], FAVORITE_LINKS[0], FAVORITE_NAMES[0], false, FAVORITE_TAGS);
+        final Link link2 = new Link(
+                ENTRY_KEYS[1], FAVORITE_LINKS[1], FAVORITE_NAMES[1], false, FAVORITE_TAGS);
+        final Uri tagsUri = LocalContract.LinkEntry.buildTagsDirUriWith(0);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (Link batchLink : new Link[]{link, link2}) {
+            int linkIndex = operations.size();
+            operations.add(ContentProviderOperation.newInsert(LocalContract.LinkEntry.buildUri())
+                    .withValues(batchLink.getContentValues())
+                    .build());
+            for (Tag tag : FAVORITE_TAGS) {
+                operations.add(ContentProviderOperation.newInsert(tagsUri)
+                        .withValues(tag.getContentValues())
+                        .withValueBackReference(LocalContract.VALUES_PARENT_ROW_ID, linkIndex)
+                        .build());
+            }
+        }
+        ContentProviderResult[] results =
+                contentResolver.applyBatch(LocalContract.CONTENT_AUTHORITY, operations);
+        assertThat(results.length, equalTo(operations.size()));
+
+        assertEquals(link, queryLinkWithTags(link.getId()));
+        assertEquals(link2, queryLinkWithTags(link2.getId()));
+        assertEquals(FAVORITE_TAGS, queryAllTags());
+    }
+
+    @Test
+    public void provider_searchLinksFollowsTheirChanges() {
+        final String linkId = ENTRY_KEYS[0];
+        insertLinkOnly(new Link(linkId, FAVORITE_LINKS[0], FAVORITE_NAMES[0], false, null));
+        assertEquals(1, querySearchCount("laan"));
+        assertEquals(1, querySearchCount("LINK"));
+
+        insertLinkOnly(new Link(linkId, FAVORITE_LINKS[0], "Renamed", false, null));
+        assertEquals(1, querySearchCount("renam"));
+        assertEquals(1, querySearchCount("link")); // NOTE: URL is still indexed
+
+        deleteLink(linkId);
+        assertEquals(0, querySearchCount("renam"));
+    }
+
+    @Test
+    public void provider_filterLinksByTagsAndState() {
+        final List<Tag> firstTags = FAVORITE_TAGS.subList(0, 1);
+        insertLinkWithTags(new Link(
+                ENTRY_KEYS[0], FAVORITE_LINKS[0], FAVORITE_NAMES[0], false, FAVORITE_TAGS));
+        insertLinkWithTags(new Link(
+                ENTRY_KEYS[1], FAVORITE_LINKS[1], FAVORITE_NAMES[1], false, firstTags));
+        insertLinkOnly(new Link(KEY_PREFIX + 'C', "http://laano.net/link3", "Link #3", false, null));
+
+        assertEquals(1, queryFilterCount(ItemFilter.tags(FAVORITE_TAGS, true)));
+        assertEquals(2, queryFilterCount(ItemFilter.tags(FAVORITE_TAGS, false)));
+        assertEquals(2, queryFilterCount(ItemFilter.tags(firstTags, true)));
+        assertEquals(1, queryFilterCount(ItemFilter.noTags()));
+        assertEquals(0, queryFilterCount(ItemFilter.conflicted()));
+    }
+
+    private int queryFilterCount(ItemFilter filter) {
+        try (Cursor cursor = contentResolver.query(
+                LocalContract.appendFilterUriWith(LocalContract.LinkEntry.buildUri(), filter),
+                new String[]{LocalContract.LinkEntry.COLUMN_NAME_ENTRY_ID}, null, null, null)) {
+            assertNotNull(cursor);
+            return cursor.getCount();
+        }
+    }
+
+    private int querySearchCount(String text) {
+        String matchQuery = FullTextSearch.buildMatchQuery(text);
+        assertNotNull(matchQuery);
+        try (Cursor cursor = contentResolver.query(
+                LocalContract.LinkEntry.buildSearchUri(matchQuery),
+                new String[]{LocalContract.LinkEntry.COLUMN_NAME_ENTRY_ID}, null, null, null)) {
+            assertNotNull(cursor);
+            return cursor.getCount();
+        }
+    }
+
     private int deleteLink(String linkId) {
         final Uri linkUri = LocalContract.LinkEntry.buildUriWith(linkId);
 
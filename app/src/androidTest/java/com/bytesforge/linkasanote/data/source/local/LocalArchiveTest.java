@@ -0,0 +1,107 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bytesforge.linkasanote.data.source.local;
+
+import android.content.ContentResolver;
+
+import com.bytesforge.linkasanote.data.Favorite;
+import com.bytesforge.linkasanote.data.Link;
+import com.bytesforge.linkasanote.data.Note;
+import com.bytesforge.linkasanote.data.Tag;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class LocalArchiveTest {
+
+    private final LocalLinks<Link> localLinks;
+    private final LocalFavorites<Favorite> localFavorites;
+    private final LocalNotes<Note> localNotes;
+    private final LocalTags localTags;
+    private final LocalArchive localArchive;
+
+    public LocalArchiveTest() {
+        ContentResolver contentResolver = InstrumentationRegistry.getInstrumentation()
+                .getTargetContext().getContentResolver();
+        LocalSyncResults localSyncResults = new LocalSyncResults(contentResolver);
+        localTags = new LocalTags(contentResolver);
+        localNotes = new LocalNotes<>(
+                contentResolver, localSyncResults, localTags, Note.getFactory());
+        localLinks = new LocalLinks<>(
+                contentResolver, localSyncResults, localTags, localNotes, Link.getFactory());
+        localFavorites = new LocalFavorites<>(
+                contentResolver, localSyncResults, localTags, Favorite.getFactory());
+        localArchive = new LocalArchive(
+                contentResolver, localLinks, localFavorites, localNotes, localTags);
+    }
+
+    @Before
+    @After
+    public void cleanupLocalItems() {
+        localNotes.delete().blockingGet();
+        localLinks.delete().blockingGet();
+        localFavorites.delete().blockingGet();
+        localTags.deleteTags().blockingGet();
+    }
+
+    @Test
+    public void writtenArchive_isReadBackWithTagsAndRelations() {
+        Link link = new Link("https://laano.net/", "LaaNo", false,
+                Arrays.asList(new Tag("first"), new Tag("second")));
+        Note note = new Note("Note", link.getId(), Collections.singletonList(new Tag("first")));
+        Favorite favorite = new Favorite(
+                "Favorite", false, Collections.singletonList(new Tag("second")));
+        localLinks.save(link).blockingGet();
+        localNotes.save(note).blockingGet();
+        localFavorites.save(favorite).blockingGet();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertEquals(3, (int) localArchive.write(outputStream, true).blockingGet());
+        cleanupLocalItems();
+
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
+        assertEquals(3, (int) localArchive.read(inputStream).blockingGet());
+
+        Link readLink = localLinks.get(link.getId()).blockingGet();
+        assertEquals(link.getLink(), readLink.getLink());
+        assertEquals(2, readLink.getTags().size());
+        assertEquals(1, readLink.getNotes().size());
+        Note readNote = localNotes.get(note.getId()).blockingGet();
+        assertEquals(link.getId(), readNote.getLinkId());
+        Favorite readFavorite = localFavorites.get(favorite.getId()).blockingGet();
+        assertEquals(favorite.getName(), readFavorite.getName());
+    }
+}
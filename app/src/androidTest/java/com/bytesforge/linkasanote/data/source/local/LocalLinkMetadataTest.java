@@ -0,0 +1,95 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bytesforge.linkasanote.data.source.local;
+
+import android.content.ContentResolver;
+
+import com.bytesforge.linkasanote.data.LinkMetadata;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.NoSuchElementException;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static java.lang.System.currentTimeMillis;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class LocalLinkMetadataTest {
+
+    private static final String[] URLS = {
+            "https://laano.net/a", "https://laano.net/b", "https://laano.net/c"};
+
+    private final LocalLinkMetadata localLinkMetadata;
+
+    public LocalLinkMetadataTest() {
+        ContentResolver contentResolver = InstrumentationRegistry.getInstrumentation()
+                .getTargetContext().getContentResolver();
+        localLinkMetadata = new LocalLinkMetadata(contentResolver);
+    }
+
+    @After
+    public void cleanupLinkMetadata() {
+        for (String url : URLS) {
+            localLinkMetadata.delete(url).blockingGet();
+        }
+    }
+
+    @Test
+    public void savedLinkMetadata_isReturnedFromCache() {
+        String[] keywords = {"first", "second"};
+        localLinkMetadata.save(new LinkMetadata(URLS[0], URLS[0], null,
+                "Title", "Description", keywords, "etag", null, currentTimeMillis()))
+                .blockingGet();
+
+        LinkMetadata linkMetadata = localLinkMetadata.get(URLS[0]).blockingGet();
+        assertEquals("Title", linkMetadata.getTitle());
+        assertEquals("etag", linkMetadata.getETag());
+        assertArrayEquals(keywords, linkMetadata.getKeywords());
+    }
+
+    @Test
+    public void leastRecentlyAccessedLinkMetadata_isEvicted() throws InterruptedException {
+        for (String url : URLS) {
+            localLinkMetadata.save(new LinkMetadata(url, url, null,
+                    null, null, null, null, null, currentTimeMillis())).blockingGet();
+            Thread.sleep(10);
+        }
+        localLinkMetadata.get(URLS[0]).blockingGet();
+        localLinkMetadata.evict(2).blockingGet();
+
+        localLinkMetadata.get(URLS[0]).blockingGet();
+        localLinkMetadata.get(URLS[2]).blockingGet();
+        try {
+            localLinkMetadata.get(URLS[1]).blockingGet();
+            fail("The least recently accessed metadata must be evicted");
+        } catch (NoSuchElementException e) {
+            // NOTE: expected
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bytesforge.linkasanote.data.source.local;
+
+import android.content.ContentResolver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class LocalSyncCheckpointsTest {
+
+    private static final String ENTRY = LocalContract.LinkEntry.TABLE_NAME;
+    private static final String SOURCE_ETAG = "abcdefghigklmnopqrstuvwxwz";
+
+    private final LocalSyncCheckpoints localSyncCheckpoints;
+
+    public LocalSyncCheckpointsTest() {
+        ContentResolver contentResolver = InstrumentationRegistry.getInstrumentation()
+                .getTargetContext().getContentResolver();
+        localSyncCheckpoints = new LocalSyncCheckpoints(contentResolver);
+    }
+
+    @Before
+    public void setupCheckpoint() {
+        localSyncCheckpoints.clear(ENTRY).blockingGet();
+    }
+
+    @After
+    public void cleanupCheckpoint() {
+        localSyncCheckpoints.clear(ENTRY).blockingGet();
+    }
+
+    @Test
+    public void checkpoint_isRestoredForTheSameSourceOnly() {
+        Map<String, String> cloudETags = new HashMap<>();
+        cloudETags.put("A", "etag-a");
+        cloudETags.put("B", "etag-b");
+        cloudETags.put("C", "etag-c");
+        localSyncCheckpoints.begin(ENTRY, SOURCE_ETAG, cloudETags).blockingGet();
+        localSyncCheckpoints.markAsProcessed(ENTRY, Collections.singletonMap("A", "etag-a"))
+                .blockingGet();
+        localSyncCheckpoints.markAsProcessed(ENTRY, Collections.singletonMap("B", null))
+                .blockingGet();
+
+        assertTrue(localSyncCheckpoints.isValid(ENTRY, SOURCE_ETAG).blockingGet());
+        assertFalse(localSyncCheckpoints.isValid(ENTRY, "changed").blockingGet());
+        Map<String, String> restoredETags = localSyncCheckpoints.getCloudETags(ENTRY).blockingGet();
+        assertEquals(2, restoredETags.size());
+        assertEquals("etag-a", restoredETags.get("A"));
+        assertEquals("etag-c", restoredETags.get("C"));
+        assertEquals(2, localSyncCheckpoints.getProcessedIds(ENTRY).blockingGet().size());
+
+        localSyncCheckpoints.clear(ENTRY).blockingGet();
+        assertFalse(localSyncCheckpoints.isValid(ENTRY, SOURCE_ETAG).blockingGet());
+    }
+}
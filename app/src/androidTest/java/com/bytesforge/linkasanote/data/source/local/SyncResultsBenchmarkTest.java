@@ -0,0 +1,169 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bytesforge.linkasanote.data.source.local;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.bytesforge.linkasanote.settings.Settings;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SyncResultsBenchmarkTest {
+
+    private static final String TAG = SyncResultsBenchmarkTest.class.getSimpleName();
+
+    private static final int ROWS = 1_000_000;
+    private static final int RUNS = 3;
+    private static final String[] ENTRIES = {
+            LocalContract.LinkEntry.TABLE_NAME,
+            LocalContract.NoteEntry.TABLE_NAME,
+            LocalContract.FavoriteEntry.TABLE_NAME};
+
+    private static final String OLD_FRESH_SELECTION =
+            "datetime(" + LocalContract.SyncResultEntry.COLUMN_NAME_STARTED + " / 1000, 'unixepoch')" +
+                    " > datetime(?, 'unixepoch', ?) AND " +
+                    LocalContract.SyncResultEntry.COLUMN_NAME_RESULT + " <> ?";
+    private static final String NEW_FRESH_SELECTION =
+            LocalContract.SyncResultEntry.COLUMN_NAME_STARTED + " > ?" +
+                    " AND " + LocalContract.SyncResultEntry.COLUMN_NAME_RESULT + " <> ?";
+    private static final String IDS_SELECTION =
+            LocalContract.SyncResultEntry.COLUMN_NAME_ENTRY + " = ?" +
+                    " AND " + LocalContract.SyncResultEntry.COLUMN_NAME_APPLIED + " = ?" +
+                    " AND " + LocalContract.SyncResultEntry._ID + " <= ?";
+
+    private SQLiteDatabase db;
+    private long now;
+
+    @Before
+    public void setupDatabase() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = SQLiteDatabase.create(null);
+        new DatabaseHelper(context).onCreate(db);
+        now = System.currentTimeMillis();
+        // NOTE: one record every 10 seconds, so the last week is a small part of the log
+        final long step = TimeUnit.SECONDS.toMillis(10);
+        final String sql = "INSERT INTO " + LocalContract.SyncResultEntry.TABLE_NAME + " (" +
+                LocalContract.SyncResultEntry.COLUMN_NAME_CREATED + ", " +
+                LocalContract.SyncResultEntry.COLUMN_NAME_STARTED + ", " +
+                LocalContract.SyncResultEntry.COLUMN_NAME_ENTRY + ", " +
+                LocalContract.SyncResultEntry.COLUMN_NAME_ENTRY_ID + ", " +
+                LocalContract.SyncResultEntry.COLUMN_NAME_RESULT + ", " +
+                LocalContract.SyncResultEntry.COLUMN_NAME_APPLIED + ") VALUES (?, ?, ?, ?, ?, ?)";
+        LocalContract.SyncResultEntry.Result[] results = LocalContract.SyncResultEntry.Result.values();
+        db.beginTransaction();
+        try {
+            SQLiteStatement statement = db.compileStatement(sql);
+            for (int i = 0; i < ROWS; i++) {
+                long timestamp = now - (ROWS - i) * step;
+                statement.bindLong(1, timestamp);
+                statement.bindLong(2, timestamp);
+                statement.bindString(3, ENTRIES[i % ENTRIES.length]);
+                statement.bindString(4, Integer.toHexString(i));
+                statement.bindString(5, results[i % results.length].name());
+                statement.bindLong(6, i % 100 == 0 ? 0 : 1);
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @After
+    public void cleanupDatabase() {
+        db.close();
+    }
+
+    @Test
+    public void freshSelection_isEquivalentToDatetimeOne() {
+        final String related = LocalContract.SyncResultEntry.Result.RELATED.name();
+        // NOTE: both selections take the same moment, otherwise the boundary rows may differ
+        String[] oldArgs = {Long.toString(TimeUnit.MILLISECONDS.toSeconds(now)),
+                "-" + Settings.GLOBAL_SYNC_LOG_KEEPING_PERIOD_DAYS + " day", related};
+        String[] newArgs = {Long.toString(LocalSyncResults.getKeepingThreshold(now)), related};
+
+        assertThat(explain(NEW_FRESH_SELECTION, newArgs), containsString("INDEX"));
+        assertEquals(count(OLD_FRESH_SELECTION, oldArgs), count(NEW_FRESH_SELECTION, newArgs));
+
+        long oldTime = measure(OLD_FRESH_SELECTION, oldArgs);
+        long newTime = measure(NEW_FRESH_SELECTION, newArgs);
+        Log.i(TAG, "getFresh() on " + ROWS + " rows: " + oldTime + "ms -> " + newTime + "ms");
+    }
+
+    @Test
+    public void idsSelection_usesCompositeIndex() {
+        String[] args = {LocalContract.LinkEntry.TABLE_NAME, "0", Integer.toString(ROWS)};
+        assertThat(explain(IDS_SELECTION, args), containsString("entry_applied__id_index"));
+
+        long time = measure(IDS_SELECTION, args);
+        Log.i(TAG, "getIds() on " + ROWS + " rows: " + time + "ms");
+    }
+
+    private int count(String selection, String[] selectionArgs) {
+        try (Cursor cursor = db.query(LocalContract.SyncResultEntry.TABLE_NAME,
+                new String[]{LocalContract.SyncResultEntry._ID},
+                selection, selectionArgs, null, null, null)) {
+            return cursor.getCount();
+        }
+    }
+
+    private long measure(String selection, String[] selectionArgs) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long started = SystemClock.elapsedRealtime();
+            count(selection, selectionArgs);
+            best = Math.min(best, SystemClock.elapsedRealtime() - started);
+        }
+        return best;
+    }
+
+    private String explain(String selection, String[] selectionArgs) {
+        StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN SELECT " +
+                LocalContract.SyncResultEntry._ID + " FROM " +
+                LocalContract.SyncResultEntry.TABLE_NAME + " WHERE " + selection, selectionArgs)) {
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(cursor.getColumnCount() - 1)).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+}
@@ -135,6 +135,7 @@ public class FavoritesTabTest {
 
                     @Override
                     public Repository provideRepository(
+                            Context context,
                             LocalDataSource localDataSource, CloudDataSource cloudDataSource,
                             BaseSchedulerProvider schedulerProvider) {
                         return repository;
@@ -131,6 +131,7 @@ public class LinksTabTest {
 
                     @Override
                     public Repository provideRepository(
+                            Context context,
                             LocalDataSource localDataSource, CloudDataSource cloudDataSource,
                             BaseSchedulerProvider schedulerProvider) {
                         return repository;
@@ -133,6 +133,7 @@ public class NotesTabTest {
 
                     @Override
                     public Repository provideRepository(
+                            Context context,
                             LocalDataSource localDataSource, CloudDataSource cloudDataSource,
                             BaseSchedulerProvider schedulerProvider) {
                         return repository;
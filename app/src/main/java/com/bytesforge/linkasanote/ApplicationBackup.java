@@ -24,26 +24,43 @@ import static com.bytesforge.linkasanote.utils.CommonUtils.logStackTrace;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.os.Build;
 import android.os.Environment;
 import android.text.format.DateFormat;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.bytesforge.linkasanote.data.source.local.DatabaseHelper;
 import com.bytesforge.linkasanote.settings.Settings;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public final class ApplicationBackup {
 
@@ -55,6 +72,15 @@ public final class ApplicationBackup {
     private static final Pattern BACKUP_EXTENSION_PATTERN =
             Pattern.compile("\\.\\d{4}-\\d{2}-\\d{2}_\\d{2}-\\d{2}");
 
+    // NOTE: the backup is the manifest of the compressed chunks of the database file,
+    //       the chunks are shared by all the backups, so only the changed ones are written
+    private static final String CHUNK_DIRECTORY = "chunks";
+    private static final String CHUNK_EXTENSION = ".gz";
+    private static final String MANIFEST_HEADER = "LAANO-BACKUP 1";
+    private static final String SNAPSHOT_EXTENSION = ".snapshot";
+    private static final String WAL_SUFFIX = "-wal";
+    private static final String SHM_SUFFIX = "-shm";
+
     private ApplicationBackup() {
     }
 
@@ -84,6 +110,11 @@ public final class ApplicationBackup {
         return backupDir;
     }
 
+    /**
+     * The snapshot of the database is split into the chunks aligned with its pages, the chunks
+     * which are already in the store are not written again. The oldest backups over
+     * GLOBAL_BACKUP_KEEP_COUNT are removed with the chunks nobody refers to anymore
+     */
     public static String backupDB(@NonNull Context context) {
         checkNotNull(context);
 
@@ -92,27 +123,176 @@ public final class ApplicationBackup {
             return null;
 
         File backupDir = getBackupDir(externalDir);
-        if (!backupDir.exists()) {
+        File chunkDir = new File(backupDir, CHUNK_DIRECTORY);
+        if (!chunkDir.exists()) {
             //noinspection ResultOfMethodCallIgnored
-            backupDir.mkdirs();
+            chunkDir.mkdirs();
         }
         String backupExtension = DateFormat.format(BACKUP_EXTENSION_FORMAT, new Date()).toString();
         String backupFile = DatabaseHelper.DATABASE_NAME + backupExtension;
-        File srcPath = context.getDatabasePath(DatabaseHelper.DATABASE_NAME);
-        File dstPath = new File(backupDir, backupFile);
+        File dbPath = context.getDatabasePath(DatabaseHelper.DATABASE_NAME);
+        File snapshotPath = new File(context.getCacheDir(),
+                DatabaseHelper.DATABASE_NAME + SNAPSHOT_EXTENSION);
         try {
-            FileChannel src = new FileInputStream(srcPath).getChannel();
-            FileChannel dst = new FileOutputStream(dstPath).getChannel();
-            src.transferTo(0, src.size(), dst);
-            src.close();
-            dst.close();
+            snapshotDB(dbPath, snapshotPath);
+            List<String> chunks = writeChunks(snapshotPath, chunkDir);
+            writeManifest(new File(backupDir, backupFile), snapshotPath.length(), chunks);
+            Log.i(TAG, "Backup is written [" + backupFile + "; chunks=" + chunks.size() + "]");
         } catch (IOException e) {
             logStackTrace(TAG_E, e);
             return null;
+        } finally {
+            deleteDB(snapshotPath);
         }
+        applyRetentionPolicy(backupDir, chunkDir);
         return backupFile;
     }
 
+    /**
+     * NOTE: the writers are locked out while the database file is copied, the pages which
+     *       have not been checkpointed yet are copied with the log and moved to the snapshot
+     */
+    private static void snapshotDB(
+            @NonNull File dbPath, @NonNull File snapshotPath) throws IOException {
+        deleteDB(snapshotPath);
+        File walPath = new File(dbPath.getPath() + WAL_SUFFIX);
+        File snapshotWalPath = new File(snapshotPath.getPath() + WAL_SUFFIX);
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(
+                dbPath.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            execPragma(db, "PRAGMA wal_checkpoint(TRUNCATE)");
+            db.beginTransactionNonExclusive();
+            try {
+                copyFile(dbPath, snapshotPath);
+                if (walPath.length() > 0) {
+                    copyFile(walPath, snapshotWalPath);
+                }
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            db.close();
+        }
+        if (snapshotWalPath.exists()) {
+            SQLiteDatabase snapshot = SQLiteDatabase.openDatabase(
+                    snapshotPath.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+            try {
+                execPragma(snapshot, "PRAGMA journal_mode = DELETE");
+            } finally {
+                snapshot.close();
+            }
+        }
+    }
+
+    // NOTE: the pragmas return a row, so they cannot be run with execSQL()
+    private static void execPragma(@NonNull SQLiteDatabase db, @NonNull String pragma) {
+        try (Cursor cursor = db.rawQuery(pragma, null)) {
+            cursor.moveToFirst();
+        }
+    }
+
+    /**
+     * @return Returns the content hashes of the chunks of the file in order
+     */
+    private static List<String> writeChunks(
+            @NonNull File srcPath, @NonNull File chunkDir) throws IOException {
+        List<String> chunks = new ArrayList<>();
+        byte[] buffer = new byte[Settings.GLOBAL_BACKUP_CHUNK_SIZE_BYTES];
+        try (InputStream src = new FileInputStream(srcPath)) {
+            int size;
+            while ((size = ByteStreams.read(src, buffer, 0, buffer.length)) > 0) {
+                byte[] content = size == buffer.length ? buffer : Arrays.copyOf(buffer, size);
+                String hash = Hashing.sha256().hashBytes(content).toString();
+                File chunkPath = new File(chunkDir, hash + CHUNK_EXTENSION);
+                if (!chunkPath.exists()) {
+                    File tmpPath = new File(chunkDir, hash + CHUNK_EXTENSION + ".tmp");
+                    try (OutputStream dst = new GZIPOutputStream(new FileOutputStream(tmpPath))) {
+                        dst.write(content);
+                    }
+                    if (!tmpPath.renameTo(chunkPath)) {
+                        throw new IOException("Cannot write the chunk [" + chunkPath + "]");
+                    }
+                }
+                chunks.add(hash);
+            }
+        }
+        return chunks;
+    }
+
+    private static void writeManifest(
+            @NonNull File manifestPath, long size, @NonNull List<String> chunks)
+            throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(manifestPath), Charsets.UTF_8))) {
+            writer.write(MANIFEST_HEADER);
+            writer.newLine();
+            writer.write(Long.toString(size));
+            writer.newLine();
+            for (String chunk : chunks) {
+                writer.write(chunk);
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * @return Returns the content hashes of the chunks or null if the file is a full copy
+     *         of the database made by the previous versions
+     */
+    @Nullable
+    private static List<String> readManifest(@NonNull File manifestPath) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(manifestPath), Charsets.UTF_8))) {
+            char[] header = new char[MANIFEST_HEADER.length()];
+            if (reader.read(header) != header.length
+                    || !MANIFEST_HEADER.equals(new String(header))) {
+                return null;
+            }
+            reader.readLine();
+            reader.readLine(); // size
+            List<String> chunks = new ArrayList<>();
+            String chunk;
+            while ((chunk = reader.readLine()) != null) {
+                if (!chunk.isEmpty()) chunks.add(chunk);
+            }
+            return chunks;
+        }
+    }
+
+    private static void applyRetentionPolicy(@NonNull File backupDir, @NonNull File chunkDir) {
+        List<String> backupFiles = getBackupFileNames(backupDir);
+        if (backupFiles == null) return;
+
+        Set<String> usedChunks = new HashSet<>();
+        for (int i = 0; i < backupFiles.size(); i++) {
+            File backupPath = new File(backupDir, backupFiles.get(i));
+            if (i >= Settings.GLOBAL_BACKUP_KEEP_COUNT) {
+                Log.i(TAG, "Backup is removed [" + backupPath.getName() + "]");
+                //noinspection ResultOfMethodCallIgnored
+                backupPath.delete();
+                continue;
+            }
+            try {
+                List<String> chunks = readManifest(backupPath);
+                if (chunks != null) usedChunks.addAll(chunks);
+            } catch (IOException e) {
+                // NOTE: the chunks must not be removed if it is unknown which ones are in use
+                logStackTrace(TAG_E, e);
+                return;
+            }
+        }
+        File[] chunkFiles = chunkDir.listFiles();
+        if (chunkFiles == null) return;
+
+        for (File chunkFile : chunkFiles) {
+            String chunk = chunkFile.getName().replace(CHUNK_EXTENSION, "");
+            if (!usedChunks.contains(chunk)) {
+                //noinspection ResultOfMethodCallIgnored
+                chunkFile.delete();
+            }
+        }
+    }
+
     public static boolean restoreDB(@NonNull Context context, @NonNull String backupFile) {
         checkNotNull(context);
         checkNotNull(backupFile);
@@ -125,25 +305,79 @@ public final class ApplicationBackup {
         if (!srcPath.exists()) return false;
 
         File dstPath = context.getDatabasePath(DatabaseHelper.DATABASE_NAME);
+        File snapshotPath = new File(context.getCacheDir(),
+                DatabaseHelper.DATABASE_NAME + SNAPSHOT_EXTENSION);
         try {
-            FileChannel src = new FileInputStream(srcPath).getChannel();
-            FileChannel dst = new FileOutputStream(dstPath).getChannel();
-            src.transferTo(0, src.size(), dst);
-            src.close();
-            dst.close();
+            List<String> chunks = readManifest(srcPath);
+            if (chunks != null) {
+                readChunks(new File(backupDir, CHUNK_DIRECTORY), chunks, snapshotPath);
+                srcPath = snapshotPath;
+            }
+            // NOTE: the pages of the current database must not be applied to the restored one
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(
+                    dstPath.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+            try {
+                execPragma(db, "PRAGMA wal_checkpoint(TRUNCATE)");
+            } finally {
+                db.close();
+            }
+            copyFile(srcPath, dstPath);
         } catch (IOException e) {
             logStackTrace(TAG_E, e);
             return false;
+        } finally {
+            deleteDB(snapshotPath);
         }
         return true;
     }
 
+    /**
+     * NOTE: the database is written only if every chunk is found and intact
+     */
+    private static void readChunks(
+            @NonNull File chunkDir, @NonNull List<String> chunks, @NonNull File dstPath)
+            throws IOException {
+        try (OutputStream dst = new FileOutputStream(dstPath)) {
+            for (String chunk : chunks) {
+                File chunkPath = new File(chunkDir, chunk + CHUNK_EXTENSION);
+                byte[] content;
+                try (InputStream src = new GZIPInputStream(new FileInputStream(chunkPath))) {
+                    content = ByteStreams.toByteArray(src);
+                }
+                if (!chunk.equals(Hashing.sha256().hashBytes(content).toString())) {
+                    throw new IOException("The chunk is corrupted [" + chunkPath + "]");
+                }
+                dst.write(content);
+            }
+        }
+    }
+
+    private static void copyFile(@NonNull File srcPath, @NonNull File dstPath) throws IOException {
+        try (FileChannel src = new FileInputStream(srcPath).getChannel();
+             FileChannel dst = new FileOutputStream(dstPath).getChannel()) {
+            src.transferTo(0, src.size(), dst);
+        }
+    }
+
+    private static void deleteDB(@NonNull File dbPath) {
+        //noinspection ResultOfMethodCallIgnored
+        dbPath.delete();
+        //noinspection ResultOfMethodCallIgnored
+        new File(dbPath.getPath() + WAL_SUFFIX).delete();
+        //noinspection ResultOfMethodCallIgnored
+        new File(dbPath.getPath() + SHM_SUFFIX).delete();
+    }
+
     public static List<String> getBackupFileNames(@NonNull Context context) {
         File externalDir = getExternalDir(context);
         if (externalDir == null || !externalDir.canRead())
             return null;
 
-        File backupDir = getBackupDir(externalDir);
+        return getBackupFileNames(getBackupDir(externalDir));
+    }
+
+    @Nullable
+    private static List<String> getBackupFileNames(@NonNull File backupDir) {
         if (!backupDir.exists()) {
             return new ArrayList<>(0);
         }
@@ -20,8 +20,6 @@
 
 package com.bytesforge.linkasanote;
 
-import androidx.annotation.VisibleForTesting;
-
 import com.bytesforge.linkasanote.about.AboutComponent;
 import com.bytesforge.linkasanote.about.AboutFragment;
 import com.bytesforge.linkasanote.about.AboutPresenterModule;
@@ -38,6 +36,7 @@ import com.bytesforge.linkasanote.laano.favorites.addeditfavorite.AddEditFavorit
 import com.bytesforge.linkasanote.laano.favorites.addeditfavorite.AddEditFavoritePresenterModule;
 import com.bytesforge.linkasanote.laano.favorites.conflictresolution.FavoritesConflictResolutionComponent;
 import com.bytesforge.linkasanote.laano.favorites.conflictresolution.FavoritesConflictResolutionPresenterModule;
+import com.bytesforge.linkasanote.laano.links.LinksEnrichmentService;
 import com.bytesforge.linkasanote.laano.links.LinksPresenterModule;
 import com.bytesforge.linkasanote.laano.links.addeditlink.AddEditLinkComponent;
 import com.bytesforge.linkasanote.laano.links.addeditlink.AddEditLinkPresenterModule;
@@ -70,11 +69,11 @@ import dagger.Component;
         SchedulerProviderModule.class})
 public interface ApplicationComponent {
 
-    @VisibleForTesting
     Repository getRepository();
 
     void inject(SyncService syncService);
     void inject(ClipboardService clipboardService);
+    void inject(LinksEnrichmentService linksEnrichmentService);
     void inject(SettingsFragment settingsFragment);
     void inject(AboutFragment.LicenseTermsDialog licenseTermsDialog);
 
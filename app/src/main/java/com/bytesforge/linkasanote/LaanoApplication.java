@@ -30,6 +30,7 @@ import androidx.multidex.MultiDexApplication;
 
 import com.bytesforge.linkasanote.data.source.ProviderModule;
 import com.bytesforge.linkasanote.data.source.RepositoryModule;
+import com.bytesforge.linkasanote.data.source.RepositoryObserver;
 import com.bytesforge.linkasanote.settings.SettingsModule;
 import com.bytesforge.linkasanote.utils.UuidUtils;
 import com.bytesforge.linkasanote.utils.schedulers.SchedulerProviderModule;
@@ -47,6 +48,7 @@ public class LaanoApplication extends MultiDexApplication {
     }
 
     private ApplicationComponent applicationComponent;
+    private RepositoryObserver repositoryObserver;
     private static WeakReference<Context> context;
 
     private static String applicationId;
@@ -64,6 +66,8 @@ public class LaanoApplication extends MultiDexApplication {
                 .providerModule(new ProviderModule())
                 .schedulerProviderModule(new SchedulerProviderModule())
                 .build();
+        repositoryObserver = new RepositoryObserver(applicationComponent.getRepository());
+        repositoryObserver.register(getContentResolver());
 
         if (BuildConfig.DEBUG && STETHO_MODE) {
             Stetho.initializeWithDefaults(this);
@@ -85,6 +89,18 @@ public class LaanoApplication extends MultiDexApplication {
         }
     }
 
+    @Override
+    public void onTerminate() {
+        repositoryObserver.unregister(getContentResolver());
+        super.onTerminate();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        applicationComponent.getRepository().trimMemory(level);
+    }
+
     public ApplicationComponent getApplicationComponent() {
         return applicationComponent;
     }
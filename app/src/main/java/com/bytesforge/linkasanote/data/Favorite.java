@@ -255,6 +255,7 @@ public final class Favorite implements Comparable<Favorite>, Item {
         return id;
     }
 
+    @Override
     public long getCreated() {
         return created;
     }
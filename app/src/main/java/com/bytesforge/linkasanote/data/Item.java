@@ -36,6 +36,7 @@ public interface Item {
     String getRelatedId();
 
     long getRowId();
+    long getCreated();
     @Nullable String getETag();
     boolean isDuplicated();
     boolean isConflicted();
@@ -267,6 +267,7 @@ public final class Link implements Comparable<Link>, Item {
         return id;
     }
 
+    @Override
     public long getCreated() {
         return created;
     }
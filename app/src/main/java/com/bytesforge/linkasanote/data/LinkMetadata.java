@@ -0,0 +1,257 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bytesforge.linkasanote.data;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bytesforge.linkasanote.data.source.local.LocalContract;
+import com.bytesforge.linkasanote.settings.Settings;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+
+import org.jsoup.nodes.Element;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+public final class LinkMetadata {
+
+    private static final String KEYWORDS_SEPARATOR = ", ";
+
+    @NonNull
+    private final String url;
+
+    @Nullable
+    private final String location;
+
+    @Nullable
+    private final String canonicalUrl;
+
+    @Nullable
+    private final String title;
+
+    @Nullable
+    private final String description;
+
+    @Nullable
+    private final String[] keywords;
+
+    @Nullable
+    private final String eTag;
+
+    @Nullable
+    private final String lastModified;
+
+    private final long fetched;
+
+    public LinkMetadata(
+            @NonNull String url, @Nullable String location, @Nullable String canonicalUrl,
+            @Nullable String title, @Nullable String description, @Nullable String[] keywords,
+            @Nullable String eTag, @Nullable String lastModified, long fetched) {
+        this.url = checkNotNull(url);
+        this.location = location;
+        this.canonicalUrl = canonicalUrl;
+        this.title = title;
+        this.description = description;
+        this.keywords = keywords;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.fetched = fetched;
+    }
+
+    /**
+     * The elements of the head are visited once, OpenGraph properties are taken
+     * when the page has no title or description of its own
+     *
+     * @param url normalized URL the metadata is cached with
+     * @param location URL the page has been loaded from
+     */
+    public static LinkMetadata from(
+            @NonNull String url, @Nullable String location, @NonNull Element head,
+            @Nullable String eTag, @Nullable String lastModified, long fetched) {
+        checkNotNull(head);
+        String title = null;
+        String description = null;
+        String keywords = null;
+        String ogTitle = null;
+        String ogDescription = null;
+        String canonicalUrl = null;
+        for (Element element : head.children()) {
+            switch (element.normalName()) {
+                case "title":
+                    // NOTE: the same way as Document.title() does
+                    if (title == null) title = getValue(element.text().replaceAll("\\s+", " "));
+                    break;
+                case "meta":
+                    String value = getValue(element.attr("content"));
+                    if (value == null) break;
+
+                    String name = element.attr("name").toLowerCase(Locale.ROOT);
+                    if (name.equals("description")) {
+                        if (description == null) description = value;
+                    } else if (name.equals("keywords")) {
+                        if (keywords == null) keywords = value;
+                    } else {
+                        String property = element.attr("property").toLowerCase(Locale.ROOT);
+                        if (property.equals("og:title")) {
+                            if (ogTitle == null) ogTitle = value;
+                        } else if (property.equals("og:description")) {
+                            if (ogDescription == null) ogDescription = value;
+                        }
+                    }
+                    break;
+                case "link":
+                    if (canonicalUrl == null
+                            && element.attr("rel").equalsIgnoreCase("canonical")) {
+                        canonicalUrl = getValue(element.absUrl("href"));
+                    }
+                    break;
+            }
+        }
+        return new LinkMetadata(url, location, canonicalUrl,
+                title == null ? ogTitle : title,
+                description == null ? ogDescription : description,
+                splitKeywords(keywords), eTag, lastModified, fetched);
+    }
+
+    public static LinkMetadata from(Cursor cursor) {
+        String url = cursor.getString(cursor.getColumnIndexOrThrow(
+                LocalContract.LinkMetadataEntry.COLUMN_NAME_URL));
+        String location = cursor.getString(cursor.getColumnIndexOrThrow(
+                LocalContract.LinkMetadataEntry.COLUMN_NAME_LOCATION));
+        String canonicalUrl = cursor.getString(cursor.getColumnIndexOrThrow(
+                LocalContract.LinkMetadataEntry.COLUMN_NAME_CANONICAL_URL));
+        String title = cursor.getString(cursor.getColumnIndexOrThrow(
+                LocalContract.LinkMetadataEntry.COLUMN_NAME_TITLE));
+        String description = cursor.getString(cursor.getColumnIndexOrThrow(
+                LocalContract.LinkMetadataEntry.COLUMN_NAME_DESCRIPTION));
+        String keywords = cursor.getString(cursor.getColumnIndexOrThrow(
+                LocalContract.LinkMetadataEntry.COLUMN_NAME_KEYWORDS));
+        String eTag = cursor.getString(cursor.getColumnIndexOrThrow(
+                LocalContract.LinkMetadataEntry.COLUMN_NAME_ETAG));
+        String lastModified = cursor.getString(cursor.getColumnIndexOrThrow(
+                LocalContract.LinkMetadataEntry.COLUMN_NAME_LAST_MODIFIED));
+        long fetched = cursor.getLong(cursor.getColumnIndexOrThrow(
+                LocalContract.LinkMetadataEntry.COLUMN_NAME_FETCHED));
+        return new LinkMetadata(url, location, canonicalUrl, title, description,
+                splitKeywords(keywords), eTag, lastModified, fetched);
+    }
+
+    public ContentValues getContentValues(long accessed) {
+        ContentValues values = new ContentValues();
+        values.put(LocalContract.LinkMetadataEntry.COLUMN_NAME_URL, getUrl());
+        values.put(LocalContract.LinkMetadataEntry.COLUMN_NAME_LOCATION, getLocation());
+        values.put(LocalContract.LinkMetadataEntry.COLUMN_NAME_CANONICAL_URL, getCanonicalUrl());
+        values.put(LocalContract.LinkMetadataEntry.COLUMN_NAME_TITLE, getTitle());
+        values.put(LocalContract.LinkMetadataEntry.COLUMN_NAME_DESCRIPTION, getDescription());
+        values.put(LocalContract.LinkMetadataEntry.COLUMN_NAME_KEYWORDS,
+                keywords == null ? null : Joiner.on(KEYWORDS_SEPARATOR).join(keywords));
+        values.put(LocalContract.LinkMetadataEntry.COLUMN_NAME_ETAG, getETag());
+        values.put(LocalContract.LinkMetadataEntry.COLUMN_NAME_LAST_MODIFIED, getLastModified());
+        values.put(LocalContract.LinkMetadataEntry.COLUMN_NAME_FETCHED, getFetched());
+        values.put(LocalContract.LinkMetadataEntry.COLUMN_NAME_ACCESSED, accessed);
+        return values;
+    }
+
+    /**
+     * @return Returns the same metadata confirmed by the server to be unchanged
+     */
+    public LinkMetadata revalidated(long fetched) {
+        return new LinkMetadata(url, location, canonicalUrl, title, description, keywords,
+                eTag, lastModified, fetched);
+    }
+
+    public boolean isFresh(long now) {
+        return now - fetched < Settings.GLOBAL_LINK_METADATA_TTL_MILLIS;
+    }
+
+    @Nullable
+    private static String getValue(@NonNull String value) {
+        value = value.trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    @Nullable
+    private static String[] splitKeywords(@Nullable String keywords) {
+        if (keywords == null) return null;
+
+        String[] keywordList = keywords.split(
+                "\\s*,\\s*", Settings.GLOBAL_LINK_MAX_KEYWORDS + 1);
+        if (keywordList.length > Settings.GLOBAL_LINK_MAX_KEYWORDS) {
+            return Arrays.copyOf(keywordList, Settings.GLOBAL_LINK_MAX_KEYWORDS);
+        }
+        return keywordList;
+    }
+
+    @NonNull
+    public String getUrl() {
+        return url;
+    }
+
+    @Nullable
+    public String getLocation() {
+        return location;
+    }
+
+    @Nullable
+    public String getCanonicalUrl() {
+        return canonicalUrl;
+    }
+
+    @Nullable
+    public String getTitle() {
+        return title;
+    }
+
+    @Nullable
+    public String getDescription() {
+        return description;
+    }
+
+    @Nullable
+    public String[] getKeywords() {
+        return keywords;
+    }
+
+    @Nullable
+    public String getETag() {
+        return eTag;
+    }
+
+    @Nullable
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public long getFetched() {
+        return fetched;
+    }
+
+    @Override
+    public String toString() {
+        return url + " -> " + title;
+    }
+}
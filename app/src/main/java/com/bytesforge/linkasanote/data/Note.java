@@ -250,6 +250,7 @@ public final class Note implements Comparable<Note>, Item {
         return id;
     }
 
+    @Override
     public long getCreated() {
         return created;
     }
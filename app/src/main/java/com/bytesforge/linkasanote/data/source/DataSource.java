@@ -27,6 +27,8 @@ import com.bytesforge.linkasanote.data.Link;
 import com.bytesforge.linkasanote.data.Note;
 import com.bytesforge.linkasanote.data.Tag;
 
+import java.util.List;
+
 import io.reactivex.Observable;
 import io.reactivex.Single;
 
@@ -54,8 +56,11 @@ public interface DataSource {
     boolean isLinkCacheDirty();
     boolean isLinkCacheNeedRefresh();
     Observable<Link> getLinks();
+    Observable<Link> searchLinks(@NonNull String text);
+    Observable<Link> getLinks(@NonNull ItemFilter filter);
     Single<Link> getLink(@NonNull String linkId);
     Observable<ItemState> saveLink(@NonNull Link link, boolean syncable);
+    Single<Integer> saveLinks(@NonNull List<Link> links);
     Single<ItemState> syncSavedLink(@NonNull String linkId);
     Observable<ItemState> deleteLink(
             @NonNull String linkId, boolean syncable, long started, boolean deleteNotes);
@@ -73,6 +78,8 @@ public interface DataSource {
     boolean isFavoriteCacheDirty();
     boolean isFavoriteCacheNeedRefresh();
     Observable<Favorite> getFavorites();
+    Observable<Favorite> searchFavorites(@NonNull String text);
+    Observable<Favorite> getFavorites(@NonNull ItemFilter filter);
     Single<Favorite> getFavorite(@NonNull String favoriteId);
     Observable<ItemState> saveFavorite(@NonNull Favorite favorite, boolean syncable);
     Single<ItemState> syncSavedFavorite(@NonNull String favoriteId);
@@ -92,6 +99,8 @@ public interface DataSource {
     boolean isNoteCacheDirty();
     boolean isNoteCacheNeedRefresh();
     Observable<Note> getNotes();
+    Observable<Note> searchNotes(@NonNull String text);
+    Observable<Note> getNotes(@NonNull ItemFilter filter);
     Single<Note> getNote(@NonNull String noteId);
     Observable<ItemState> saveNote(@NonNull Note note, boolean syncable);
     Single<ItemState> syncSavedNote(@NonNull String noteId);
@@ -0,0 +1,224 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bytesforge.linkasanote.data.source;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Bounded cache of the items. Iteration follows the order of the list: either the order given
+ * by the comparator or the insertion order. The sorted cache keeps the head of the list, so
+ * the items are evicted from its tail, otherwise eviction follows the access order. Once any item
+ * has been evicted the cache is not complete: the rest of the sorted list must be taken from
+ * the data source after the last cached item, the unsorted one must be taken as a whole.
+ */
+public class ItemCache<V> {
+
+    private final HashMap<String, Entry<V>> items;
+    private final TreeSet<Entry<V>> order;
+    private final LinkedHashMap<String, Boolean> usage;
+
+    private final int maxSize;
+    private final boolean sorted;
+    private boolean complete = true;
+    private long sequence;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    public ItemCache(int maxSize) {
+        this(maxSize, null);
+    }
+
+    /**
+     * @param comparator Order of the list, an item is placed to its position in O(log n),
+     *                   the insertion order is kept for the equal items
+     */
+    public ItemCache(int maxSize, @Nullable final Comparator<? super V> comparator) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.maxSize = maxSize;
+        sorted = comparator != null;
+        items = new HashMap<>();
+        order = new TreeSet<>((a, b) -> {
+            if (comparator != null) {
+                int result = comparator.compare(a.value, b.value);
+                if (result != 0) return result;
+            }
+            return Long.compare(a.sequence, b.sequence);
+        });
+        usage = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    @Nullable
+    public synchronized V get(String key) {
+        Entry<V> entry = items.get(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        usage.get(key);
+        return entry.value;
+    }
+
+    /**
+     * NOTE: the replaced item keeps its place among the equal ones, the item which goes after
+     *       the tail of the incomplete sorted cache is not kept, there may be a gap before it
+     */
+    @Nullable
+    public synchronized V put(String key, V value) {
+        Entry<V> prevEntry = items.remove(key);
+        if (prevEntry != null) {
+            order.remove(prevEntry);
+            usage.remove(key);
+        }
+        Entry<V> entry = new Entry<>(
+                key, value, prevEntry == null ? sequence++ : prevEntry.sequence);
+        if (sorted && !complete && (order.isEmpty()
+                || order.comparator().compare(entry, order.last()) > 0)) {
+            return prevEntry == null ? null : prevEntry.value;
+        }
+        items.put(key, entry);
+        order.add(entry);
+        usage.put(key, Boolean.TRUE);
+        trim(maxSize);
+        return prevEntry == null ? null : prevEntry.value;
+    }
+
+    @Nullable
+    public synchronized V remove(String key) {
+        usage.remove(key);
+        Entry<V> entry = items.remove(key);
+        if (entry == null) return null;
+
+        order.remove(entry);
+        return entry.value;
+    }
+
+    /**
+     * NOTE: the empty cache is complete, it's going to be filled by the whole list
+     */
+    public synchronized void clear() {
+        items.clear();
+        order.clear();
+        usage.clear();
+        complete = true;
+    }
+
+    /**
+     * @return Returns the snapshot of the items in the order of the list
+     */
+    public synchronized List<V> values() {
+        List<V> values = new ArrayList<>(order.size());
+        for (Entry<V> entry : order) {
+            values.add(entry.value);
+        }
+        return values;
+    }
+
+    public synchronized int size() {
+        return items.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Evict the items until the cache fits the size
+     */
+    public synchronized void trimToSize(int size) {
+        trim(Math.max(size, 0));
+    }
+
+    private void trim(int size) {
+        if (sorted) {
+            while (items.size() > size) {
+                Entry<V> entry = order.pollLast();
+                items.remove(entry.key);
+                usage.remove(entry.key);
+                evictionCount++;
+                complete = false;
+            }
+            return;
+        }
+        Iterator<String> iterator = usage.keySet().iterator();
+        while (items.size() > size && iterator.hasNext()) {
+            String key = iterator.next();
+            iterator.remove();
+            order.remove(items.remove(key));
+            evictionCount++;
+            complete = false;
+        }
+    }
+
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    public synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long accesses = hitCount + missCount;
+        int hitPercent = accesses == 0 ? 0 : (int) (100 * hitCount / accesses);
+        return "ItemCache[size=" + items.size() + ",maxSize=" + maxSize +
+                ",hits=" + hitCount + ",misses=" + missCount + ",hitRate=" + hitPercent +
+                "%,evictions=" + evictionCount + ",complete=" + complete + "]";
+    }
+
+    private static class Entry<V> {
+
+        final String key;
+        final V value;
+        final long sequence;
+
+        Entry(String key, V value, long sequence) {
+            this.key = key;
+            this.value = value;
+            this.sequence = sequence;
+        }
+    }
+}
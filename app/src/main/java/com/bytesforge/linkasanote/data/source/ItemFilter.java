@@ -0,0 +1,88 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bytesforge.linkasanote.data.source;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+
+import com.bytesforge.linkasanote.data.Tag;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Filter of the items which is applied by the database, so only matching rows are built
+ */
+public final class ItemFilter {
+
+    public enum Type {
+        CONFLICTED,
+        NO_TAGS,
+        ALL_TAGS, // AND-gate of the Favorite
+        ANY_TAGS // OR-gate of the Favorite
+    }
+
+    private final Type type;
+    private final List<String> tagNames;
+
+    private ItemFilter(@NonNull Type type, @NonNull List<String> tagNames) {
+        this.type = checkNotNull(type);
+        this.tagNames = checkNotNull(tagNames);
+    }
+
+    public static ItemFilter conflicted() {
+        return new ItemFilter(Type.CONFLICTED, Collections.emptyList());
+    }
+
+    public static ItemFilter noTags() {
+        return new ItemFilter(Type.NO_TAGS, Collections.emptyList());
+    }
+
+    public static ItemFilter tags(@NonNull List<Tag> tags, boolean andGate) {
+        checkNotNull(tags);
+        // NOTE: tags are equal by name, so the names must be unique to count the matches
+        Set<String> tagNames = new LinkedHashSet<>(tags.size());
+        for (Tag tag : tags) {
+            String tagName = tag.getName();
+            if (tagName != null) tagNames.add(tagName);
+        }
+        return new ItemFilter(andGate ? Type.ALL_TAGS : Type.ANY_TAGS, new ArrayList<>(tagNames));
+    }
+
+    @NonNull
+    public Type getType() {
+        return type;
+    }
+
+    @NonNull
+    public List<String> getTagNames() {
+        return Collections.unmodifiableList(tagNames);
+    }
+
+    @Override
+    public String toString() {
+        return type + (tagNames.isEmpty() ? "" : tagNames.toString());
+    }
+}
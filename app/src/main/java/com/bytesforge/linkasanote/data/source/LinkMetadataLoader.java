@@ -0,0 +1,140 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bytesforge.linkasanote.data.source;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bytesforge.linkasanote.data.LinkMetadata;
+import com.bytesforge.linkasanote.data.source.local.LocalLinkMetadata;
+import com.bytesforge.linkasanote.settings.Settings;
+
+import org.jsoup.Connection;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.StreamParser;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.NoSuchElementException;
+
+import io.reactivex.Single;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Loads the metadata of the page from the cache if it has not been expired yet, otherwise
+ * the page is requested conditionally, so the unchanged page costs no more than the headers
+ */
+public class LinkMetadataLoader {
+
+    private static final String TAG = LinkMetadataLoader.class.getSimpleName();
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private final LocalLinkMetadata localLinkMetadata;
+
+    public LinkMetadataLoader(@NonNull LocalLinkMetadata localLinkMetadata) {
+        this.localLinkMetadata = checkNotNull(localLinkMetadata);
+    }
+
+    /**
+     * @param url URL to be requested
+     * @param key normalized URL the metadata is cached with
+     */
+    public Single<LinkMetadata> load(
+            @NonNull final String url, @NonNull final String key, final boolean followRedirects) {
+        checkNotNull(url);
+        checkNotNull(key);
+        return Single.fromCallable(() -> {
+            long now = currentTimeMillis();
+            LinkMetadata cached = getCached(key);
+            if (cached != null && cached.isFresh(now)) {
+                Log.d(TAG, "load(): cache hit [" + key + "]");
+                return cached;
+            }
+            Connection connection = Jsoup.connect(url)
+                    .followRedirects(followRedirects)
+                    .maxBodySize(Settings.GLOBAL_LINK_MAX_BODY_SIZE_BYTES);
+            if (cached != null) {
+                if (cached.getETag() != null) {
+                    connection.header(HEADER_IF_NONE_MATCH, cached.getETag());
+                }
+                if (cached.getLastModified() != null) {
+                    connection.header(HEADER_IF_MODIFIED_SINCE, cached.getLastModified());
+                }
+            }
+            Connection.Response response = connection.execute();
+            LinkMetadata linkMetadata;
+            if (cached != null && response.statusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                Log.d(TAG, "load(): not modified [" + key + "]");
+                linkMetadata = cached.revalidated(now);
+            } else {
+                linkMetadata = LinkMetadata.from(key, response.url().toExternalForm(),
+                        readHead(response), response.header(HEADER_ETAG),
+                        response.header(HEADER_LAST_MODIFIED), now);
+            }
+            save(linkMetadata);
+            return linkMetadata;
+        });
+    }
+
+    /**
+     * NOTE: the page is parsed as it is being read and the connection is closed right after
+     * the head, so the body is neither downloaded nor built. The charset is detected by the
+     * parser from the headers or the meta of the page
+     */
+    @NonNull
+    private static Element readHead(@NonNull Connection.Response response) throws IOException {
+        try (StreamParser streamParser = response.streamParser()) {
+            Element head = streamParser.selectFirst("head");
+            return head == null ? streamParser.document().head() : head;
+        }
+    }
+
+    @Nullable
+    private LinkMetadata getCached(@NonNull String key) {
+        try {
+            return localLinkMetadata.get(key).blockingGet();
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    // NOTE: the page has been loaded, so the failure of the cache must not fail the request
+    private void save(@NonNull LinkMetadata linkMetadata) {
+        try {
+            localLinkMetadata.save(linkMetadata).blockingGet();
+            int numRows = localLinkMetadata.evict(Settings.GLOBAL_LINK_METADATA_CACHE_SIZE)
+                    .blockingGet();
+            if (numRows > 0) {
+                Log.d(TAG, "save(): evicted [" + numRows + "]");
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Link metadata was not cached [" + linkMetadata.getUrl() + "]", e);
+        }
+    }
+}
@@ -24,9 +24,12 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static java.lang.System.currentTimeMillis;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
@@ -40,23 +43,35 @@ import androidx.annotation.Nullable;
 import com.bytesforge.linkasanote.data.source.local.BaseEntry;
 import com.bytesforge.linkasanote.data.source.local.DatabaseHelper;
 import com.bytesforge.linkasanote.data.source.local.LocalContract;
+import com.bytesforge.linkasanote.utils.CommonUtils;
 import com.google.common.base.Strings;
 import com.google.common.collect.ObjectArrays;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 public class Provider extends ContentProvider {
 
     private static final int LINK = 100;
     private static final int LINK_ITEM = 101;
     private static final int LINK_TAG = 102;
     private static final int LINK_NOTE = 103;
+    private static final int LINK_TAGS = 104;
+    private static final int LINK_SEARCH = 105;
 
     private static final int NOTE = 200;
     private static final int NOTE_ITEM = 201;
     private static final int NOTE_TAG = 202;
+    private static final int NOTE_TAGS = 203;
+    private static final int NOTE_SEARCH = 204;
 
     private static final int FAVORITE = 300;
     private static final int FAVORITE_ITEM = 301;
     private static final int FAVORITE_TAG = 302;
+    private static final int FAVORITE_TAGS = 303;
+    private static final int FAVORITE_SEARCH = 304;
 
     private static final int TAG = 400;
     private static final int TAG_ITEM = 401;
@@ -66,10 +81,16 @@ public class Provider extends ContentProvider {
     private static final int SYNC_RESULT_NOTE = 502;
     private static final int SYNC_RESULT_FAVORITE = 503;
 
+    private static final int SYNC_CHECKPOINT = 600;
+
+    private static final int LINK_METADATA = 700;
+
     private static final UriMatcher uriMatcher = buildUriMatcher();
 
     private DatabaseHelper databaseHelper;
     private ContentResolver contentResolver;
+    // NOTE: notifications are collected here while the batch is applied on this thread
+    private final ThreadLocal<Set<Uri>> batchNotifyUris = new ThreadLocal<>();
 
     private static UriMatcher buildUriMatcher() {
         final UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
@@ -83,18 +104,24 @@ public class Provider extends ContentProvider {
         matcher.addURI(authority,
                 LocalContract.LinkEntry.TABLE_NAME + "/*/" +
                 LocalContract.NoteEntry.TABLE_NAME, LINK_NOTE);
+        matcher.addURI(authority, LocalContract.LinkEntry.TAG_TABLE_NAME, LINK_TAGS);
+        matcher.addURI(authority, LocalContract.LinkEntry.FTS_TABLE_NAME, LINK_SEARCH);
 
         matcher.addURI(authority, LocalContract.NoteEntry.TABLE_NAME, NOTE);
         matcher.addURI(authority, LocalContract.NoteEntry.TABLE_NAME + "/*", NOTE_ITEM);
         matcher.addURI(authority,
                 LocalContract.NoteEntry.TABLE_NAME + "/*/" +
                 LocalContract.TagEntry.TABLE_NAME, NOTE_TAG);
+        matcher.addURI(authority, LocalContract.NoteEntry.TAG_TABLE_NAME, NOTE_TAGS);
+        matcher.addURI(authority, LocalContract.NoteEntry.FTS_TABLE_NAME, NOTE_SEARCH);
 
         matcher.addURI(authority, LocalContract.FavoriteEntry.TABLE_NAME, FAVORITE);
         matcher.addURI(authority, LocalContract.FavoriteEntry.TABLE_NAME + "/*", FAVORITE_ITEM);
         matcher.addURI(authority,
                 LocalContract.FavoriteEntry.TABLE_NAME + "/*/" +
                 LocalContract.TagEntry.TABLE_NAME, FAVORITE_TAG);
+        matcher.addURI(authority, LocalContract.FavoriteEntry.TAG_TABLE_NAME, FAVORITE_TAGS);
+        matcher.addURI(authority, LocalContract.FavoriteEntry.FTS_TABLE_NAME, FAVORITE_SEARCH);
 
         matcher.addURI(authority, LocalContract.TagEntry.TABLE_NAME, TAG);
         matcher.addURI(authority, LocalContract.TagEntry.TABLE_NAME + "/*", TAG_ITEM);
@@ -110,6 +137,10 @@ public class Provider extends ContentProvider {
                 LocalContract.SyncResultEntry.TABLE_NAME + "/" +
                 LocalContract.FavoriteEntry.TABLE_NAME, SYNC_RESULT_FAVORITE);
 
+        matcher.addURI(authority, LocalContract.SyncCheckpointEntry.TABLE_NAME, SYNC_CHECKPOINT);
+
+        matcher.addURI(authority, LocalContract.LinkMetadataEntry.TABLE_NAME, LINK_METADATA);
+
         return matcher;
     }
 
@@ -135,18 +166,30 @@ public class Provider extends ContentProvider {
                 return LocalContract.LinkEntry.CONTENT_TYPE;
             case LINK_NOTE:
                 return LocalContract.LinkEntry.CONTENT_TYPE;
+            case LINK_TAGS:
+                return LocalContract.TagEntry.CONTENT_TYPE;
+            case LINK_SEARCH:
+                return LocalContract.LinkEntry.CONTENT_TYPE;
             case NOTE:
                 return LocalContract.NoteEntry.CONTENT_TYPE;
             case NOTE_ITEM:
                 return LocalContract.NoteEntry.CONTENT_ITEM_TYPE;
             case NOTE_TAG:
                 return LocalContract.NoteEntry.CONTENT_TYPE;
+            case NOTE_TAGS:
+                return LocalContract.TagEntry.CONTENT_TYPE;
+            case NOTE_SEARCH:
+                return LocalContract.NoteEntry.CONTENT_TYPE;
             case FAVORITE:
                 return LocalContract.FavoriteEntry.CONTENT_TYPE;
             case FAVORITE_ITEM:
                 return LocalContract.FavoriteEntry.CONTENT_ITEM_TYPE;
             case FAVORITE_TAG:
                 return LocalContract.FavoriteEntry.CONTENT_TYPE;
+            case FAVORITE_TAGS:
+                return LocalContract.TagEntry.CONTENT_TYPE;
+            case FAVORITE_SEARCH:
+                return LocalContract.FavoriteEntry.CONTENT_TYPE;
             case TAG:
                 return LocalContract.TagEntry.CONTENT_TYPE;
             case TAG_ITEM:
@@ -159,31 +202,28 @@ public class Provider extends ContentProvider {
                 return LocalContract.SyncResultEntry.CONTENT_TYPE;
             case SYNC_RESULT_FAVORITE:
                 return LocalContract.SyncResultEntry.CONTENT_TYPE;
+            case SYNC_CHECKPOINT:
+                return LocalContract.SyncCheckpointEntry.CONTENT_TYPE;
+            case LINK_METADATA:
+                return LocalContract.LinkMetadataEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri [" + uri + "]");
         }
     }
 
-    // NOTE: all queries take ENTRY_ID (except *_TAG).
+    // NOTE: all queries take ENTRY_ID (except *_TAG). *_TAGS are selected by the parent row IDs
     @Nullable
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection,
             String selection, String[] selectionArgs, String sortOrder) {
         final SQLiteDatabase db = databaseHelper.getReadableDatabase();
         String tableName;
-        String paramLimit = uri.getQueryParameter(LocalContract.QUERY_PARAMETER_LIMIT);
-        String paramOffset = uri.getQueryParameter(LocalContract.QUERY_PARAMETER_OFFSET);
-        String limit = null;
-        if (paramLimit != null) {
-            if (paramOffset != null) {
-                limit = paramOffset + "," + paramLimit;
-            } else {
-                limit = paramLimit;
-            }
-        }
+        String filterTableName = null;
+        String limit = uri.getQueryParameter(LocalContract.QUERY_PARAMETER_LIMIT);
         switch (uriMatcher.match(uri)) {
             case LINK:
                 tableName = LocalContract.LinkEntry.TABLE_NAME;
+                filterTableName = tableName;
                 break;
             case LINK_ITEM:
                 tableName = LocalContract.LinkEntry.TABLE_NAME;
@@ -204,8 +244,28 @@ public class Provider extends ContentProvider {
                 selection = LocalContract.NoteEntry.COLUMN_NAME_LINK_ID + " = ?";
                 selectionArgs = new String[]{LocalContract.LinkEntry.getIdFrom(uri)};
                 break;
+            case LINK_TAGS:
+                tableName = sqlJoinManyToManyWithTags(LocalContract.LinkEntry.TABLE_NAME);
+                if (sortOrder == null) {
+                    sortOrder = sqlDefaultTagsSortOrder(LocalContract.LinkEntry.TABLE_NAME);
+                }
+                break;
+            case LINK_SEARCH:
+                tableName = sqlJoinWithFullTextIndex(LocalContract.LinkEntry.TABLE_NAME);
+                String linkMatch = LocalContract.LinkEntry.FTS_TABLE_NAME + " MATCH ?";
+                String[] linkMatchArgs = new String[]{
+                        uri.getQueryParameter(LocalContract.QUERY_PARAMETER_MATCH)};
+                selection = (selection == null ? linkMatch
+                        : "(" + selection + ") AND " + linkMatch);
+                selectionArgs = (selectionArgs == null ? linkMatchArgs
+                        : ObjectArrays.concat(selectionArgs, linkMatchArgs, String.class));
+                if (sortOrder == null) {
+                    sortOrder = sqlDefaultSearchSortOrder(LocalContract.LinkEntry.TABLE_NAME);
+                }
+                break;
             case FAVORITE:
                 tableName = LocalContract.FavoriteEntry.TABLE_NAME;
+                filterTableName = tableName;
                 break;
             case FAVORITE_ITEM:
                 tableName = LocalContract.FavoriteEntry.TABLE_NAME;
@@ -221,8 +281,28 @@ public class Provider extends ContentProvider {
                     sortOrder = sqlDefaultTagsSortOrder(favoriteTable);
                 }
                 break;
+            case FAVORITE_TAGS:
+                tableName = sqlJoinManyToManyWithTags(LocalContract.FavoriteEntry.TABLE_NAME);
+                if (sortOrder == null) {
+                    sortOrder = sqlDefaultTagsSortOrder(LocalContract.FavoriteEntry.TABLE_NAME);
+                }
+                break;
+            case FAVORITE_SEARCH:
+                tableName = sqlJoinWithFullTextIndex(LocalContract.FavoriteEntry.TABLE_NAME);
+                String favoriteMatch = LocalContract.FavoriteEntry.FTS_TABLE_NAME + " MATCH ?";
+                String[] favoriteMatchArgs = new String[]{
+                        uri.getQueryParameter(LocalContract.QUERY_PARAMETER_MATCH)};
+                selection = (selection == null ? favoriteMatch
+                        : "(" + selection + ") AND " + favoriteMatch);
+                selectionArgs = (selectionArgs == null ? favoriteMatchArgs
+                        : ObjectArrays.concat(selectionArgs, favoriteMatchArgs, String.class));
+                if (sortOrder == null) {
+                    sortOrder = sqlDefaultSearchSortOrder(LocalContract.FavoriteEntry.TABLE_NAME);
+                }
+                break;
             case NOTE:
                 tableName = LocalContract.NoteEntry.TABLE_NAME;
+                filterTableName = tableName;
                 break;
             case NOTE_ITEM:
                 tableName = LocalContract.NoteEntry.TABLE_NAME;
@@ -238,6 +318,25 @@ public class Provider extends ContentProvider {
                     sortOrder = sqlDefaultTagsSortOrder(noteTable);
                 }
                 break;
+            case NOTE_TAGS:
+                tableName = sqlJoinManyToManyWithTags(LocalContract.NoteEntry.TABLE_NAME);
+                if (sortOrder == null) {
+                    sortOrder = sqlDefaultTagsSortOrder(LocalContract.NoteEntry.TABLE_NAME);
+                }
+                break;
+            case NOTE_SEARCH:
+                tableName = sqlJoinWithFullTextIndex(LocalContract.NoteEntry.TABLE_NAME);
+                String noteMatch = LocalContract.NoteEntry.FTS_TABLE_NAME + " MATCH ?";
+                String[] noteMatchArgs = new String[]{
+                        uri.getQueryParameter(LocalContract.QUERY_PARAMETER_MATCH)};
+                selection = (selection == null ? noteMatch
+                        : "(" + selection + ") AND " + noteMatch);
+                selectionArgs = (selectionArgs == null ? noteMatchArgs
+                        : ObjectArrays.concat(selectionArgs, noteMatchArgs, String.class));
+                if (sortOrder == null) {
+                    sortOrder = sqlDefaultSearchSortOrder(LocalContract.NoteEntry.TABLE_NAME);
+                }
+                break;
             case TAG:
                 tableName = LocalContract.TagEntry.TABLE_NAME;
                 break;
@@ -276,9 +375,58 @@ public class Provider extends ContentProvider {
                 selectionArgs = (selectionArgs == null ? favoriteSelectionArgs
                         : ObjectArrays.concat(selectionArgs, favoriteSelectionArgs, String.class));
                 break;
+            case SYNC_CHECKPOINT:
+                tableName = LocalContract.SyncCheckpointEntry.TABLE_NAME;
+                break;
+            case LINK_METADATA:
+                tableName = LocalContract.LinkMetadataEntry.TABLE_NAME;
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown query uri [" + uri + "]");
         }
+        String paramFilter = uri.getQueryParameter(LocalContract.QUERY_PARAMETER_FILTER);
+        if (paramFilter != null) {
+            if (filterTableName == null) {
+                throw new UnsupportedOperationException("Filter is not supported [" + uri + "]");
+            }
+            // NOTE: distinct, every name matches one tag only, so ALL_TAGS counts the distinct ones
+            Set<String> tagNames = new LinkedHashSet<>(
+                    uri.getQueryParameters(LocalContract.QUERY_PARAMETER_TAG));
+            String filterSelection = sqlFilterSelection(
+                    filterTableName, ItemFilter.Type.valueOf(paramFilter), tagNames.size());
+            if (filterSelection != null) {
+                String[] filterSelectionArgs = tagNames.toArray(new String[0]);
+                selection = (selection == null ? filterSelection
+                        : "(" + selection + ") AND " + filterSelection);
+                selectionArgs = (selectionArgs == null ? filterSelectionArgs
+                        : ObjectArrays.concat(selectionArgs, filterSelectionArgs, String.class));
+            }
+        }
+        String paramAfterRowId = uri.getQueryParameter(LocalContract.QUERY_PARAMETER_AFTER_ROW_ID);
+        if (paramAfterRowId != null) {
+            // NOTE: the order must be unique to seek, (key, _id) is covered by the key index
+            String paramAfterCreated = uri.getQueryParameter(LocalContract.QUERY_PARAMETER_AFTER_CREATED);
+            String paramAfterName = uri.getQueryParameter(LocalContract.QUERY_PARAMETER_AFTER_NAME);
+            String seekSelection;
+            String[] seekSelectionArgs;
+            if (paramAfterCreated != null) {
+                seekSelection = sqlSeekSelection(BaseEntry.COLUMN_NAME_CREATED, "<");
+                seekSelectionArgs = new String[]{
+                        paramAfterCreated, paramAfterCreated, paramAfterRowId};
+                sortOrder = BaseEntry.COLUMN_NAME_CREATED + " DESC, " + BaseEntry._ID + " DESC";
+            } else if (paramAfterName != null) {
+                seekSelection = sqlSeekSelection(LocalContract.FavoriteEntry.COLUMN_NAME_NAME, ">");
+                seekSelectionArgs = new String[]{paramAfterName, paramAfterName, paramAfterRowId};
+                sortOrder = LocalContract.FavoriteEntry.COLUMN_NAME_NAME + " ASC, " +
+                        BaseEntry._ID + " ASC";
+            } else {
+                throw new UnsupportedOperationException("Unknown seek key [" + uri + "]");
+            }
+            selection = (selection == null ? seekSelection
+                    : "(" + selection + ") AND " + seekSelection);
+            selectionArgs = (selectionArgs == null ? seekSelectionArgs
+                    : ObjectArrays.concat(selectionArgs, seekSelectionArgs, String.class));
+        }
         Cursor returnCursor = db.query(
                 tableName, projection, selection, selectionArgs, null, null, sortOrder, limit);
         returnCursor.setNotificationUri(contentResolver, uri);
@@ -296,6 +444,8 @@ public class Provider extends ContentProvider {
 
         long rowId;
         Uri returnUri = null;
+        // NOTE: the item is notified by its ID, the URI of the table is left to the batches
+        Uri notifyUri = uri;
         switch (uriMatcher.match(uri)) {
             case LINK:
                 db.beginTransaction();
@@ -304,6 +454,8 @@ public class Provider extends ContentProvider {
                             LocalContract.LinkEntry.COLUMN_NAME_ENTRY_ID, values);
                     db.setTransactionSuccessful();
                     returnUri = LocalContract.LinkEntry.buildUriWith(rowId);
+                    notifyUri = LocalContract.LinkEntry.buildUriWith(
+                            values.getAsString(LocalContract.LinkEntry.COLUMN_NAME_ENTRY_ID));
                 } finally {
                     db.endTransaction();
                 }
@@ -326,6 +478,8 @@ public class Provider extends ContentProvider {
                             LocalContract.FavoriteEntry.COLUMN_NAME_ENTRY_ID, values);
                     db.setTransactionSuccessful();
                     returnUri = LocalContract.FavoriteEntry.buildUriWith(rowId);
+                    notifyUri = LocalContract.FavoriteEntry.buildUriWith(
+                            values.getAsString(LocalContract.FavoriteEntry.COLUMN_NAME_ENTRY_ID));
                 } finally {
                     db.endTransaction();
                 }
@@ -348,6 +502,8 @@ public class Provider extends ContentProvider {
                             LocalContract.NoteEntry.COLUMN_NAME_ENTRY_ID, values);
                     db.setTransactionSuccessful();
                     returnUri = LocalContract.NoteEntry.buildUriWith(rowId);
+                    notifyUri = LocalContract.NoteEntry.buildUriWith(
+                            values.getAsString(LocalContract.NoteEntry.COLUMN_NAME_ENTRY_ID));
                 } finally {
                     db.endTransaction();
                 }
@@ -367,10 +523,18 @@ public class Provider extends ContentProvider {
                 rowId = insertEntry(db, LocalContract.SyncResultEntry.TABLE_NAME, values);
                 returnUri = LocalContract.SyncResultEntry.buildUriWith(rowId);
                 break;
+            case SYNC_CHECKPOINT:
+                rowId = insertEntry(db, LocalContract.SyncCheckpointEntry.TABLE_NAME, values);
+                returnUri = LocalContract.SyncCheckpointEntry.buildUriWith(rowId);
+                break;
+            case LINK_METADATA:
+                rowId = insertEntry(db, LocalContract.LinkMetadataEntry.TABLE_NAME, values);
+                returnUri = LocalContract.LinkMetadataEntry.buildUriWith(rowId);
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown insert uri [" + uri + "]");
         }
-        contentResolver.notifyChange(uri, null);
+        notifyChange(notifyUri);
         return returnUri;
     }
 
@@ -410,12 +574,18 @@ public class Provider extends ContentProvider {
             case SYNC_RESULT:
                 tableName = LocalContract.SyncResultEntry.TABLE_NAME;
                 break;
+            case SYNC_CHECKPOINT:
+                tableName = LocalContract.SyncCheckpointEntry.TABLE_NAME;
+                break;
+            case LINK_METADATA:
+                tableName = LocalContract.LinkMetadataEntry.TABLE_NAME;
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown delete uri [" + uri + "]");
         }
         int rowsDeleted = db.delete(tableName, selection, selectionArgs);
         if (selection == null || rowsDeleted != 0) {
-            contentResolver.notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -507,19 +677,105 @@ public class Provider extends ContentProvider {
                 numRows = db.update(LocalContract.SyncResultEntry.TABLE_NAME,
                         values, selection, selectionArgs);
                 break;
+            case LINK_METADATA:
+                numRows = db.update(LocalContract.LinkMetadataEntry.TABLE_NAME,
+                        values, selection, selectionArgs);
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown update uri [" + uri + "]");
         }
         if (numRows > 0) {
-            contentResolver.notifyChange(uri, null);
+            notifyChange(uri);
         }
         return numRows;
     }
 
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        boolean success = false;
+        beginBatch();
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            success = true;
+            return results;
+        } finally {
+            db.endTransaction();
+            endBatch(success);
+        }
+    }
+
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        final SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        int numRows = 0;
+        boolean success = false;
+        beginBatch();
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (insert(uri, value) != null) numRows++;
+            }
+            db.setTransactionSuccessful();
+            success = true;
+        } finally {
+            db.endTransaction();
+            endBatch(success);
+        }
+        return numRows;
+    }
+
+    private void beginBatch() {
+        if (batchNotifyUris.get() != null) {
+            throw new IllegalStateException("Nested batches are not supported");
+        }
+        batchNotifyUris.set(new LinkedHashSet<>());
+    }
+
+    /**
+     * Notifies once per table, because the notification of the table URI
+     * reaches the observers of all its descendants
+     */
+    private void endBatch(boolean success) {
+        Set<Uri> notifyUris = batchNotifyUris.get();
+        batchNotifyUris.remove();
+        if (!success || notifyUris == null) return;
+
+        Set<Uri> tableUris = new LinkedHashSet<>();
+        for (Uri uri : notifyUris) {
+            tableUris.add(LocalContract.BASE_CONTENT_URI.buildUpon()
+                    .appendEncodedPath(uri.getPathSegments().get(0)).build());
+        }
+        for (Uri uri : tableUris) {
+            contentResolver.notifyChange(uri, null);
+        }
+    }
+
+    private void notifyChange(@NonNull final Uri uri) {
+        Set<Uri> notifyUris = batchNotifyUris.get();
+        if (notifyUris != null) {
+            notifyUris.add(uri);
+        } else {
+            contentResolver.notifyChange(uri, null);
+        }
+    }
+
     private long appendTag(
             @NonNull final SQLiteDatabase db,
-            final String leftTable, final String leftId, final ContentValues values) {
+            final String leftTable, String leftId, ContentValues values) {
         checkNotNull(db);
+        if (values.containsKey(LocalContract.VALUES_PARENT_ROW_ID)) {
+            leftId = values.getAsString(LocalContract.VALUES_PARENT_ROW_ID);
+            values = new ContentValues(values);
+            values.remove(LocalContract.VALUES_PARENT_ROW_ID);
+        }
         // Tag
         final String tagTable = LocalContract.TagEntry.TABLE_NAME;
         final String tagNameField = LocalContract.TagEntry.COLUMN_NAME_NAME;
@@ -629,9 +885,62 @@ public class Provider extends ContentProvider {
                 " ON " + refTable + "." + TAG_ID + "=" + tagTable + "." + BaseEntry._ID;
     }
 
+    private static String sqlJoinWithFullTextIndex(final String table) {
+        final String ftsTable = table + "_fts";
+        return table + " JOIN " + ftsTable +
+                " ON " + table + "." + BaseEntry._ID + "=" + ftsTable + ".docid";
+    }
+
+    /**
+     * NOTE: the tags are matched by name, every name takes one argument
+     *
+     * @return Returns the predicate over the table or null if all the rows are matched
+     */
+    @Nullable
+    private static String sqlFilterSelection(
+            final String table, final ItemFilter.Type filterType, final int numTags) {
+        final String tagTable = LocalContract.TagEntry.TABLE_NAME;
+        final String refTable = table + "_" + tagTable;
+        final String LID = refTable + "." + table + BaseEntry._ID;
+        final String RID = refTable + "." + tagTable + BaseEntry._ID;
+        final String ID = table + "." + BaseEntry._ID;
+        switch (filterType) {
+            case CONFLICTED:
+                return table + "." + BaseEntry.COLUMN_NAME_CONFLICTED + " = 1";
+            case NO_TAGS:
+                return "NOT EXISTS (SELECT 1 FROM " + refTable + " WHERE " + LID + " = " + ID + ")";
+            case ALL_TAGS:
+                if (numTags == 0) return null; // NOTE: the empty set is contained in any
+                // NOTE: fall through, the gates differ only in the HAVING clause below
+            case ANY_TAGS:
+                String tagsSelection = "SELECT " + LID + " FROM " + refTable +
+                        " JOIN " + tagTable + " ON " + RID + " = " + tagTable + "." + BaseEntry._ID +
+                        " WHERE " + tagTable + "." + LocalContract.TagEntry.COLUMN_NAME_NAME +
+                        " IN (" + CommonUtils.strRepeat("?", numTags, ", ") + ")" +
+                        " GROUP BY " + LID;
+                if (filterType == ItemFilter.Type.ALL_TAGS) {
+                    tagsSelection += " HAVING COUNT(" + RID + ") = " + numTags;
+                }
+                return ID + " IN (" + tagsSelection + ")";
+            default:
+                throw new UnsupportedOperationException("Unknown filter [" + filterType + "]");
+        }
+    }
+
+    private static String sqlSeekSelection(final String keyColumn, final String operator) {
+        return "(" + keyColumn + " " + operator + " ? OR (" + keyColumn + " = ? AND " +
+                BaseEntry._ID + " " + operator + " ?))";
+    }
+
     private static String sqlDefaultTagsSortOrder(final String leftTable) {
         final String tagTable = LocalContract.TagEntry.TABLE_NAME;
         final String refTable = leftTable + "_" + tagTable;
         return refTable + "." + BaseEntry.COLUMN_NAME_CREATED + " ASC";
     }
+
+    // NOTE: the rank is calculated on the client side, so the newest go first among the equal
+    private static String sqlDefaultSearchSortOrder(final String table) {
+        return table + "." + BaseEntry.COLUMN_NAME_CREATED + " DESC, " +
+                table + "." + BaseEntry._ID + " DESC";
+    }
 }
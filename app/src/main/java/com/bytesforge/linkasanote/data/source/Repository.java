@@ -23,6 +23,7 @@ package com.bytesforge.linkasanote.data.source;
 import static com.bytesforge.linkasanote.utils.UuidUtils.isKeyValidUuid;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import android.content.ComponentCallbacks2;
 import android.database.sqlite.SQLiteConstraintException;
 import android.util.Log;
 import android.util.Pair;
@@ -32,6 +33,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import com.bytesforge.linkasanote.data.Favorite;
+import com.bytesforge.linkasanote.data.Item;
 import com.bytesforge.linkasanote.data.Link;
 import com.bytesforge.linkasanote.data.Note;
 import com.bytesforge.linkasanote.data.SyncResult;
@@ -39,17 +41,23 @@ import com.bytesforge.linkasanote.data.Tag;
 import com.bytesforge.linkasanote.data.source.cloud.CloudDataSource;
 import com.bytesforge.linkasanote.data.source.local.LocalContract;
 import com.bytesforge.linkasanote.data.source.local.LocalDataSource;
+import com.bytesforge.linkasanote.settings.Settings;
 import com.bytesforge.linkasanote.sync.SyncAdapter;
 import com.bytesforge.linkasanote.sync.SyncState;
 import com.bytesforge.linkasanote.utils.CommonUtils;
 import com.bytesforge.linkasanote.utils.schedulers.BaseSchedulerProvider;
+import com.google.common.collect.Lists;
 
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Singleton;
 
@@ -64,13 +72,34 @@ public class Repository implements DataSource {
 
     private static final String SYNC_COMPLETE_TOKEN = ""; // NOTE: empty String
 
+    // NOTE: must follow the sort order of the Provider, so an item can be placed without reload
+    @VisibleForTesting
+    static final Comparator<Item> CREATED_ORDER = (item, another) -> {
+        int result = Long.compare(another.getCreated(), item.getCreated());
+        return result != 0 ? result : Long.compare(another.getRowId(), item.getRowId());
+    };
+
+    @VisibleForTesting
+    static final Comparator<Favorite> NAME_ORDER = (favorite, another) -> {
+        String name = favorite.getName();
+        String anotherName = another.getName();
+        int result;
+        if (name == null || anotherName == null) {
+            result = name == null ? (anotherName == null ? 0 : -1) : 1; // NOTE: NULLs go first
+        } else {
+            result = name.compareTo(anotherName);
+        }
+        return result != 0 ? result : Long.compare(favorite.getRowId(), another.getRowId());
+    };
+
     private final LocalDataSource localDataSource;
     private final CloudDataSource cloudDataSource;
     private final BaseSchedulerProvider schedulerProvider;
+    private final int cacheSize;
 
     @VisibleForTesting
     @Nullable
-    Map<String, Link> cachedLinks;
+    ItemCache<Link> cachedLinks;
 
     @VisibleForTesting
     @Nullable
@@ -78,7 +107,7 @@ public class Repository implements DataSource {
 
     @VisibleForTesting
     @Nullable
-    Map<String, Favorite> cachedFavorites;
+    ItemCache<Favorite> cachedFavorites;
 
     @VisibleForTesting
     @Nullable
@@ -86,7 +115,7 @@ public class Repository implements DataSource {
 
     @VisibleForTesting
     @Nullable
-    Map<String, Note> cachedNotes;
+    ItemCache<Note> cachedNotes;
 
     @VisibleForTesting
     @Nullable
@@ -94,7 +123,7 @@ public class Repository implements DataSource {
 
     @VisibleForTesting
     @Nullable
-    Map<String, Tag> cachedTags;
+    ItemCache<Tag> cachedTags;
 
     @VisibleForTesting
     public boolean linkCacheIsDirty = true;
@@ -113,9 +142,31 @@ public class Repository implements DataSource {
     public Repository(
             LocalDataSource localDataSource, CloudDataSource cloudDataSource,
             BaseSchedulerProvider schedulerProvider) {
+        this(localDataSource, cloudDataSource, schedulerProvider,
+                Settings.GLOBAL_ITEM_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize Max number of the items kept in each of the caches
+     */
+    public Repository(
+            LocalDataSource localDataSource, CloudDataSource cloudDataSource,
+            BaseSchedulerProvider schedulerProvider, int cacheSize) {
         this.localDataSource = localDataSource;
         this.cloudDataSource = cloudDataSource;
         this.schedulerProvider = schedulerProvider;
+        this.cacheSize = cacheSize;
+        dirtyLinks = newDirtySet();
+        dirtyFavorites = newDirtySet();
+        dirtyNotes = newDirtySet();
+    }
+
+    /**
+     * NOTE: the items are marked dirty by the presenters and RepositoryObserver on the main thread
+     *       while the caches are refreshed on the IO one
+     */
+    private static Set<String> newDirtySet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<>());
     }
 
     // Links
@@ -161,7 +212,9 @@ public class Repository implements DataSource {
 
     @Override
     public boolean isLinkCacheDirty() {
-        return linkCacheIsDirty || cachedLinks == null;
+        // NOTE: the incomplete cache keeps the head of the list, unless it is released entirely
+        return linkCacheIsDirty || cachedLinks == null
+                || (cachedLinks.isEmpty() && !cachedLinks.isComplete());
     }
 
     @Override
@@ -177,10 +230,10 @@ public class Repository implements DataSource {
                     Log.d(TAG, "getLinks() [" + linkCacheIsDirty + "; cached=" +
                             (cachedLinks == null ? "NULL" : cachedLinks.size()) +  "; dirty=" +
                             (dirtyLinks == null ? "NULL" : dirtyLinks.size()) + "]");
-                    if (!linkCacheIsDirty && cachedLinks != null && !needRefresh) {
-                        return Observable.fromIterable(cachedLinks.values());
+                    if (!isLinkCacheDirty() && !needRefresh) {
+                        return getCachedLinks();
                     }
-                    if (needRefresh && !linkCacheIsDirty) {
+                    if (needRefresh && !isLinkCacheDirty()) {
                         return refreshDirtyAndGetCachedLinks();
                     } else {
                         return getAndCacheLocalLinks();
@@ -190,11 +243,11 @@ public class Repository implements DataSource {
 
     private Observable<Link> getAndCacheLocalLinks() {
         if (cachedLinks == null) {
-            cachedLinks = new LinkedHashMap<>();
+            cachedLinks = new ItemCache<>(cacheSize, CREATED_ORDER);
         }
         cachedLinks.clear();
         if (dirtyLinks == null) {
-            dirtyLinks = new HashSet<>();
+            dirtyLinks = newDirtySet();
         }
         dirtyLinks.clear();
         Observable<Link> markSyncResultsAsAppliedObservable =
@@ -212,12 +265,25 @@ public class Repository implements DataSource {
                 });
     }
 
+    /**
+     * NOTE: the list is longer than the cache, so the rest of it is taken from the local source
+     *       right after the last cached link
+     */
+    private Observable<Link> getCachedLinks() {
+        List<Link> links = cachedLinks.values();
+        if (cachedLinks.isComplete() || links.isEmpty()) {
+            return Observable.fromIterable(links);
+        }
+        return Observable.concat(Observable.fromIterable(links),
+                localDataSource.getLinksAfter(links.get(links.size() - 1)));
+    }
+
     private Observable<Link> refreshDirtyAndGetCachedLinks() {
         if (cachedLinks == null) {
-            cachedLinks = new LinkedHashMap<>();
+            cachedLinks = new ItemCache<>(cacheSize, CREATED_ORDER);
         }
         if (dirtyLinks == null) {
-            dirtyLinks = new HashSet<>();
+            dirtyLinks = newDirtySet();
         }
         HashSet<String> dirty = new HashSet<>(dirtyLinks);
         Observable<Link> refreshDirtyLinksObservable = Observable.fromIterable(dirty)
@@ -243,7 +309,16 @@ public class Repository implements DataSource {
                     int size = linkIds.size();
                     if (size > 0) {
                         String[] ids = linkIds.toArray(new String[size]);
-                        return localDataSource.getLinks(ids);
+                        Set<String> inactiveIds = new HashSet<>(linkIds);
+                        return localDataSource.getLinks(ids)
+                                .doOnNext(link -> inactiveIds.remove(link.getId()))
+                                .doOnComplete(() -> {
+                                    // NOTE: the item is not on the list anymore
+                                    for (String id : inactiveIds) {
+                                        removeCachedLink(id);
+                                        dirtyLinks.remove(id);
+                                    }
+                                });
                     } else {
                         return Observable.empty();
                     }
@@ -251,17 +326,58 @@ public class Repository implements DataSource {
                 .doOnNext(link -> {
                     String linkId = link.getId();
                     Log.d(TAG, "refreshDirtyAndGetCachedLinks() -> doOnNext() [" + linkId + "]");
-                    Link prevLink = cachedLinks.put(linkId, link);
-                    if (prevLink == null) {
-                        refreshLinks();
-                        throw new IllegalStateException("New item has been found, reload is required");
-                    }
+                    // NOTE: new item takes its place in the list according to the cache order
+                    cachedLinks.put(linkId, link);
                     dirtyLinks.remove(linkId);
                 })
                 .ignoreElements()
                 .toObservable();
         return Observable.concat(
-                refreshDirtyLinksObservable, Observable.fromIterable(cachedLinks.values()));
+                refreshDirtyLinksObservable, Observable.defer(this::getCachedLinks));
+    }
+
+    /**
+     * The items are taken from the cache when possible, so only the missing ones are built
+     *
+     * @return Returns the active items found by the full-text index in the order of relevance
+     */
+    @Override
+    public Observable<Link> searchLinks(@NonNull final String text) {
+        checkNotNull(text);
+        return localDataSource.searchLinks(text)
+                .flatMapObservable(linkIds -> {
+                    Map<String, Link> links = new HashMap<>(linkIds.size());
+                    List<String> uncachedIds = new ArrayList<>();
+                    boolean cacheIsValid = cachedLinks != null && !linkCacheIsDirty;
+                    for (String linkId : linkIds) {
+                        Link link = null;
+                        if (cacheIsValid && (dirtyLinks == null || !dirtyLinks.contains(linkId))) {
+                            link = cachedLinks.get(linkId);
+                        }
+                        if (link == null) {
+                            uncachedIds.add(linkId);
+                        } else {
+                            links.put(linkId, link);
+                        }
+                    }
+                    return Observable.fromIterable(
+                            Lists.partition(uncachedIds, Settings.GLOBAL_QUERY_IN_CHUNK_SIZE))
+                            .concatMap(chunk -> localDataSource.getLinks(chunk.toArray(new String[0])))
+                            .doOnNext(link -> links.put(link.getId(), link))
+                            .ignoreElements()
+                            .andThen(Observable.fromIterable(linkIds))
+                            .filter(links::containsKey)
+                            .map(links::get);
+                });
+    }
+
+    /**
+     * NOTE: the filter is applied by the database, so only the matching items are built
+     */
+    @Override
+    public Observable<Link> getLinks(@NonNull final ItemFilter filter) {
+        checkNotNull(filter);
+        return localDataSource.getLinks(filter);
     }
 
     @Override
@@ -279,20 +395,20 @@ public class Repository implements DataSource {
 
     private Single<Link> getAndCacheLocalLink(String linkId) {
         if (cachedLinks == null) {
-            cachedLinks = new LinkedHashMap<>();
+            cachedLinks = new ItemCache<>(cacheSize, CREATED_ORDER);
         }
         if (dirtyLinks == null) {
-            dirtyLinks = new HashSet<>();
+            dirtyLinks = newDirtySet();
         }
         return localDataSource.getLink(linkId)
                 .doOnSuccess(link -> {
                     Log.d(TAG, "getAndCacheLocalLink() -> doOnSuccess() [" + linkId + "]");
-                    boolean replaced = cachedLinks.put(linkId, link) != null;
-                    if (replaced) { // if was dirty
+                    if (cachedLinks.get(linkId) != null) { // if was dirty
+                        cachedLinks.put(linkId, link);
                         dirtyLinks.remove(linkId);
-                    } else {
-                        // NOTE: cache must be reloaded to place new Link to the right place
-                        refreshLinks();
+                    } else if (!link.isDeleted() || link.isConflicted()) {
+                        // NOTE: only the active items are on the list
+                        cachedLinks.put(linkId, link);
                     }
                 });
     }
@@ -318,20 +434,17 @@ public class Repository implements DataSource {
                         case DEFERRED:
                             // Link
                             if (cachedLinks == null) {
-                                cachedLinks = new LinkedHashMap<>();
+                                cachedLinks = new ItemCache<>(cacheSize, CREATED_ORDER);
                             }
                             // NOTE: new Link has no rowId to bind to RecyclerView
                             if (link.getRowId() < 0) {
-                                Map<String, Link> map = new LinkedHashMap<>(cachedLinks);
-                                cachedLinks.clear();
                                 // NOTE: new Link goes to the top of the list
                                 cachedLinks.put(linkId, link);
-                                cachedLinks.putAll(map);
                             }
                             refreshLink(linkId);
                             // Tags
                             if (cachedTags == null) {
-                                cachedTags = new LinkedHashMap<>();
+                                cachedTags = new ItemCache<>(cacheSize);
                             }
                             List<Tag> tags = link.getTags();
                             if (tags != null) {
@@ -374,6 +487,30 @@ public class Repository implements DataSource {
         return Observable.concat(localSavingObservable, cloudSavingObservable);
     }
 
+    /**
+     * NOTE: the links are saved locally in one transaction and left to be synced by the adapter
+     */
+    @Override
+    public Single<Integer> saveLinks(@NonNull final List<Link> links) {
+        checkNotNull(links);
+        return localDataSource.saveLinks(links)
+                .doOnSuccess(numRows -> {
+                    if (cachedTags == null) {
+                        cachedTags = new ItemCache<>(cacheSize);
+                    }
+                    for (Link link : links) {
+                        refreshLink(link.getId());
+                        List<Tag> tags = link.getTags();
+                        if (tags != null) {
+                            for (Tag tag : tags) {
+                                cachedTags.put(tag.getName(), tag);
+                            }
+                        }
+                        notifyLinksSaveCallbacks(link.getId(), ItemState.DEFERRED);
+                    }
+                });
+    }
+
     private Single<ItemState> getCloudSaveLinkSingle(@NonNull final String linkId) {
         checkNotNull(linkId);
         return cloudDataSource.saveLink(linkId)
@@ -414,11 +551,11 @@ public class Repository implements DataSource {
         localDataSource.deleteAllLinks(); // blocking
         //cloudDataSource.deleteAllLinks();
         if (cachedLinks == null) {
-            cachedLinks = new LinkedHashMap<>();
+            cachedLinks = new ItemCache<>(cacheSize, CREATED_ORDER);
         }
         cachedLinks.clear();
         if (dirtyLinks == null) {
-            dirtyLinks = new HashSet<>();
+            dirtyLinks = newDirtySet();
         }
         dirtyLinks.clear();
     }
@@ -479,7 +616,7 @@ public class Repository implements DataSource {
                         case DEFERRED:
                         case DELETED:
                             if (cachedLinks == null) {
-                                cachedLinks = new LinkedHashMap<>();
+                                cachedLinks = new ItemCache<>(cacheSize, CREATED_ORDER);
                             }
                             removeCachedLink(linkId);
                             // NOTE: notes & it's cache will be updated in getDeleteLinkNotesObservable
@@ -522,7 +659,7 @@ public class Repository implements DataSource {
                         case DELETED: // visibility was not changed
                             break;
                         case CONFLICTED:
-                            refreshLinks(); // need to be shown again
+                            refreshLink(linkId); // need to be shown again
                             break;
                         case ERROR_LOCAL:
                         case ERROR_CLOUD:
@@ -571,7 +708,7 @@ public class Repository implements DataSource {
         checkNotNull(linkId);
         Log.d(TAG, "refreshLink() [" + linkId + "]");
         if (dirtyLinks == null) {
-            dirtyLinks = new HashSet<>();
+            dirtyLinks = newDirtySet();
         }
         dirtyLinks.add(linkId);
     }
@@ -580,7 +717,7 @@ public class Repository implements DataSource {
     public void checkLinksSyncLog() {
         Log.d(TAG, "checkLinksSyncLog()");
         if (dirtyLinks == null) {
-            dirtyLinks = new HashSet<>();
+            dirtyLinks = newDirtySet();
         }
         dirtyLinks.add(SYNC_COMPLETE_TOKEN);
     }
@@ -590,7 +727,7 @@ public class Repository implements DataSource {
         checkNotNull(linkId);
         Log.d(TAG, "removeCachedLink() [" + linkId + "]");
         if (cachedLinks == null) {
-            cachedLinks = new LinkedHashMap<>();
+            cachedLinks = new ItemCache<>(cacheSize, CREATED_ORDER);
         }
         cachedLinks.remove(linkId);
     }
@@ -643,7 +780,9 @@ public class Repository implements DataSource {
 
     @Override
     public boolean isFavoriteCacheDirty() {
-        return favoriteCacheIsDirty || cachedFavorites == null;
+        // NOTE: the incomplete cache keeps the head of the list, unless it is released entirely
+        return favoriteCacheIsDirty || cachedFavorites == null
+                || (cachedFavorites.isEmpty() && !cachedFavorites.isComplete());
     }
 
     @Override
@@ -659,10 +798,10 @@ public class Repository implements DataSource {
                     Log.d(TAG, "getFavorites() [" + favoriteCacheIsDirty + "; cached=" +
                             (cachedFavorites == null ? "NULL" : cachedFavorites.size()) + "; dirty=" +
                             (dirtyFavorites == null ? "NULL" : dirtyFavorites.size()) + "]");
-                    if (!favoriteCacheIsDirty && cachedFavorites != null && !needRefresh) {
-                        return Observable.fromIterable(cachedFavorites.values());
+                    if (!isFavoriteCacheDirty() && !needRefresh) {
+                        return getCachedFavorites();
                     }
-                    if (needRefresh && !favoriteCacheIsDirty) {
+                    if (needRefresh && !isFavoriteCacheDirty()) {
                         return refreshDirtyAndGetCachedFavorites();
                     } else {
                         return getAndCacheLocalFavorites();
@@ -672,11 +811,11 @@ public class Repository implements DataSource {
 
     private Observable<Favorite> getAndCacheLocalFavorites() {
         if (cachedFavorites == null) {
-            cachedFavorites = new LinkedHashMap<>();
+            cachedFavorites = new ItemCache<>(cacheSize, NAME_ORDER);
         }
         cachedFavorites.clear();
         if (dirtyFavorites == null) {
-            dirtyFavorites = new HashSet<>();
+            dirtyFavorites = newDirtySet();
         }
         dirtyFavorites.clear();
         Observable<Favorite> markSyncResultsAsAppliedObservable =
@@ -694,12 +833,25 @@ public class Repository implements DataSource {
                 });
     }
 
+    /**
+     * NOTE: the list is longer than the cache, so the rest of it is taken from the local source
+     *       right after the last cached favorite
+     */
+    private Observable<Favorite> getCachedFavorites() {
+        List<Favorite> favorites = cachedFavorites.values();
+        if (cachedFavorites.isComplete() || favorites.isEmpty()) {
+            return Observable.fromIterable(favorites);
+        }
+        return Observable.concat(Observable.fromIterable(favorites),
+                localDataSource.getFavoritesAfter(favorites.get(favorites.size() - 1)));
+    }
+
     private Observable<Favorite> refreshDirtyAndGetCachedFavorites() {
         if (cachedFavorites == null) {
-            cachedFavorites = new LinkedHashMap<>();
+            cachedFavorites = new ItemCache<>(cacheSize, NAME_ORDER);
         }
         if (dirtyFavorites == null) {
-            dirtyFavorites = new HashSet<>();
+            dirtyFavorites = newDirtySet();
         }
         HashSet<String> dirty = new HashSet<>(dirtyFavorites);
         Observable<Favorite> refreshDirtyFavoritesObservable = Observable.fromIterable(dirty)
@@ -725,7 +877,16 @@ public class Repository implements DataSource {
                     int size = favoriteIds.size();
                     if (size > 0) {
                         String[] ids = favoriteIds.toArray(new String[size]);
-                        return localDataSource.getFavorites(ids);
+                        Set<String> inactiveIds = new HashSet<>(favoriteIds);
+                        return localDataSource.getFavorites(ids)
+                                .doOnNext(favorite -> inactiveIds.remove(favorite.getId()))
+                                .doOnComplete(() -> {
+                                    // NOTE: the item is not on the list anymore
+                                    for (String id : inactiveIds) {
+                                        removeCachedFavorite(id);
+                                        dirtyFavorites.remove(id);
+                                    }
+                                });
                     } else {
                         return Observable.empty();
                     }
@@ -733,17 +894,53 @@ public class Repository implements DataSource {
                 .doOnNext(favorite -> {
                     String favoriteId = favorite.getId();
                     Log.d(TAG, "refreshDirtyAndGetCachedFavorites() -> doOnNext() [" + favoriteId + "]");
-                    Favorite prevFavorite = cachedFavorites.put(favoriteId, favorite);
-                    if (prevFavorite == null) {
-                        refreshFavorites();
-                        throw new IllegalStateException("New item has been found, reload is required");
-                    }
+                    // NOTE: new item takes its place in the list according to the cache order
+                    cachedFavorites.put(favoriteId, favorite);
                     dirtyFavorites.remove(favoriteId);
                 })
                 .ignoreElements()
                 .toObservable();
         return Observable.concat(
-                refreshDirtyFavoritesObservable, Observable.fromIterable(cachedFavorites.values()));
+                refreshDirtyFavoritesObservable, Observable.defer(this::getCachedFavorites));
+    }
+
+    @Override
+    public Observable<Favorite> searchFavorites(@NonNull final String text) {
+        checkNotNull(text);
+        return localDataSource.searchFavorites(text)
+                .flatMapObservable(favoriteIds -> {
+                    Map<String, Favorite> favorites = new HashMap<>(favoriteIds.size());
+                    List<String> uncachedIds = new ArrayList<>();
+                    boolean cacheIsValid = cachedFavorites != null && !favoriteCacheIsDirty;
+                    for (String favoriteId : favoriteIds) {
+                        Favorite favorite = null;
+                        if (cacheIsValid && (dirtyFavorites == null || !dirtyFavorites.contains(favoriteId))) {
+                            favorite = cachedFavorites.get(favoriteId);
+                        }
+                        if (favorite == null) {
+                            uncachedIds.add(favoriteId);
+                        } else {
+                            favorites.put(favoriteId, favorite);
+                        }
+                    }
+                    return Observable.fromIterable(
+                            Lists.partition(uncachedIds, Settings.GLOBAL_QUERY_IN_CHUNK_SIZE))
+                            .concatMap(chunk -> localDataSource.getFavorites(chunk.toArray(new String[0])))
+                            .doOnNext(favorite -> favorites.put(favorite.getId(), favorite))
+                            .ignoreElements()
+                            .andThen(Observable.fromIterable(favoriteIds))
+                            .filter(favorites::containsKey)
+                            .map(favorites::get);
+                });
+    }
+
+    /**
+     * NOTE: the filter is applied by the database, so only the matching items are built
+     */
+    @Override
+    public Observable<Favorite> getFavorites(@NonNull final ItemFilter filter) {
+        checkNotNull(filter);
+        return localDataSource.getFavorites(filter);
     }
 
     @Override
@@ -761,20 +958,20 @@ public class Repository implements DataSource {
 
     private Single<Favorite> getAndCacheLocalFavorite(String favoriteId) {
         if (cachedFavorites == null) {
-            cachedFavorites = new LinkedHashMap<>();
+            cachedFavorites = new ItemCache<>(cacheSize, NAME_ORDER);
         }
         if (dirtyFavorites == null) {
-            dirtyFavorites = new HashSet<>();
+            dirtyFavorites = newDirtySet();
         }
         return localDataSource.getFavorite(favoriteId)
                 .doOnSuccess(favorite -> {
                     Log.d(TAG, "getAndCacheLocalFavorite() -> doOnSuccess() [" + favoriteId + "]");
-                    boolean replaced = cachedFavorites.put(favoriteId, favorite) != null;
-                    if (replaced) { // if was dirty
+                    if (cachedFavorites.get(favoriteId) != null) { // if was dirty
+                        cachedFavorites.put(favoriteId, favorite);
                         dirtyFavorites.remove(favoriteId);
-                    } else {
-                        // NOTE: cache must be reloaded to place new Favorite to the right place
-                        refreshFavorites();
+                    } else if (!favorite.isDeleted() || favorite.isConflicted()) {
+                        // NOTE: only the active items are on the list
+                        cachedFavorites.put(favoriteId, favorite);
                     }
                 });
     }
@@ -800,24 +997,14 @@ public class Repository implements DataSource {
                         case DEFERRED:
                             // Favorite
                             if (cachedFavorites == null) {
-                                cachedFavorites = new LinkedHashMap<>();
-                            }
-                            // NOTE: new Favorite has no rowId to bind to RecyclerView
-                            Favorite cachedFavorite = cachedFavorites.get(favoriteId);
-                            if (cachedFavorite != null) {
-                                String cachedFavoriteName = cachedFavorite.getName();
-                                if (cachedFavoriteName != null
-                                        && cachedFavoriteName.equals(favorite.getName())) {
-                                    refreshFavorite(favoriteId);
-                                } else {
-                                    refreshFavorites(); // NOTE: new Favorite's position is unknown
-                                }
-                            } else {
-                                refreshFavorites(); // NOTE: new Favorite's position is unknown
+                                cachedFavorites = new ItemCache<>(cacheSize, NAME_ORDER);
                             }
+                            // NOTE: new Favorite has no rowId to bind to RecyclerView,
+                            //       it takes its place by name when the saved one is retrieved
+                            refreshFavorite(favoriteId);
                             // Tags
                             if (cachedTags == null) {
-                                cachedTags = new LinkedHashMap<>();
+                                cachedTags = new ItemCache<>(cacheSize);
                             }
                             List<Tag> tags = favorite.getTags();
                             if (tags != null) {
@@ -898,11 +1085,11 @@ public class Repository implements DataSource {
         localDataSource.deleteAllFavorites(); // blocking
         //cloudDataSource.deleteAllFavorites();
         if (cachedFavorites == null) {
-            cachedFavorites = new LinkedHashMap<>();
+            cachedFavorites = new ItemCache<>(cacheSize, NAME_ORDER);
         }
         cachedFavorites.clear();
         if (dirtyFavorites == null) {
-            dirtyFavorites = new HashSet<>();
+            dirtyFavorites = newDirtySet();
         }
         dirtyFavorites.clear();
     }
@@ -917,7 +1104,7 @@ public class Repository implements DataSource {
                         case DEFERRED:
                         case DELETED:
                             if (cachedFavorites == null) {
-                                cachedFavorites = new LinkedHashMap<>();
+                                cachedFavorites = new ItemCache<>(cacheSize, NAME_ORDER);
                             }
                             removeCachedFavorite(favoriteId);
                             break;
@@ -954,7 +1141,7 @@ public class Repository implements DataSource {
                         case DELETED: // visibility was not changed
                             break;
                         case CONFLICTED:
-                            refreshFavorites(); // need to be shown again
+                            refreshFavorite(favoriteId); // need to be shown again
                             break;
                         case ERROR_LOCAL:
                         case ERROR_CLOUD:
@@ -1003,7 +1190,7 @@ public class Repository implements DataSource {
         checkNotNull(favoriteId);
         Log.d(TAG, "refreshFavorite() [" + favoriteId + "]");
         if (dirtyFavorites == null) {
-            dirtyFavorites = new HashSet<>();
+            dirtyFavorites = newDirtySet();
         }
         dirtyFavorites.add(favoriteId);
     }
@@ -1012,7 +1199,7 @@ public class Repository implements DataSource {
     public void checkFavoritesSyncLog() {
         Log.d(TAG, "checkFavoritesSyncLog()");
         if (dirtyFavorites == null) {
-            dirtyFavorites = new HashSet<>();
+            dirtyFavorites = newDirtySet();
         }
         dirtyFavorites.add(SYNC_COMPLETE_TOKEN);
     }
@@ -1022,7 +1209,7 @@ public class Repository implements DataSource {
         checkNotNull(favoriteId);
         Log.d(TAG, "removeCachedFavorite() [" + favoriteId + "]");
         if (cachedFavorites == null) {
-            cachedFavorites = new LinkedHashMap<>();
+            cachedFavorites = new ItemCache<>(cacheSize, NAME_ORDER);
         }
         cachedFavorites.remove(favoriteId);
     }
@@ -1075,7 +1262,9 @@ public class Repository implements DataSource {
 
     @Override
     public boolean isNoteCacheDirty() {
-        return noteCacheIsDirty || cachedNotes == null;
+        // NOTE: the incomplete cache keeps the head of the list, unless it is released entirely
+        return noteCacheIsDirty || cachedNotes == null
+                || (cachedNotes.isEmpty() && !cachedNotes.isComplete());
     }
 
     @Override
@@ -1091,10 +1280,10 @@ public class Repository implements DataSource {
                     Log.d(TAG, "getNotes() [" + noteCacheIsDirty + "; cached=" +
                             (cachedNotes == null ? "NULL" : cachedNotes.size()) + "; dirty=" +
                             (dirtyNotes == null ? "NULL" : dirtyNotes.size()) + "]");
-                    if (!noteCacheIsDirty && cachedNotes != null && !needRefresh) {
-                        return Observable.fromIterable(cachedNotes.values());
+                    if (!isNoteCacheDirty() && !needRefresh) {
+                        return getCachedNotes();
                     }
-                    if (needRefresh && !noteCacheIsDirty) {
+                    if (needRefresh && !isNoteCacheDirty()) {
                         return refreshDirtyAndGetCachedNotes();
                     } else {
                         return getAndCacheLocalNotes();
@@ -1104,11 +1293,11 @@ public class Repository implements DataSource {
 
     private Observable<Note> getAndCacheLocalNotes() {
         if (cachedNotes == null) {
-            cachedNotes = new LinkedHashMap<>();
+            cachedNotes = new ItemCache<>(cacheSize, CREATED_ORDER);
         }
         cachedNotes.clear();
         if (dirtyNotes == null) {
-            dirtyNotes = new HashSet<>();
+            dirtyNotes = newDirtySet();
         }
         dirtyNotes.clear();
         Observable<Note> markSyncResultsAsAppliedObservable =
@@ -1126,12 +1315,25 @@ public class Repository implements DataSource {
                 });
     }
 
+    /**
+     * NOTE: the list is longer than the cache, so the rest of it is taken from the local source
+     *       right after the last cached note
+     */
+    private Observable<Note> getCachedNotes() {
+        List<Note> notes = cachedNotes.values();
+        if (cachedNotes.isComplete() || notes.isEmpty()) {
+            return Observable.fromIterable(notes);
+        }
+        return Observable.concat(Observable.fromIterable(notes),
+                localDataSource.getNotesAfter(notes.get(notes.size() - 1)));
+    }
+
     private Observable<Note> refreshDirtyAndGetCachedNotes() {
         if (cachedNotes == null) {
-            cachedNotes = new LinkedHashMap<>();
+            cachedNotes = new ItemCache<>(cacheSize, CREATED_ORDER);
         }
         if (dirtyNotes == null) {
-            dirtyNotes = new HashSet<>();
+            dirtyNotes = newDirtySet();
         }
         HashSet<String> dirty = new HashSet<>(dirtyNotes);
         Observable<Note> refreshDirtyNotesObservable = Observable.fromIterable(dirty)
@@ -1157,7 +1359,16 @@ public class Repository implements DataSource {
                     int size = noteIds.size();
                     if (size > 0) {
                         String[] ids = noteIds.toArray(new String[size]);
-                        return localDataSource.getNotes(ids);
+                        Set<String> inactiveIds = new HashSet<>(noteIds);
+                        return localDataSource.getNotes(ids)
+                                .doOnNext(note -> inactiveIds.remove(note.getId()))
+                                .doOnComplete(() -> {
+                                    // NOTE: the item is not on the list anymore
+                                    for (String id : inactiveIds) {
+                                        removeCachedNote(id);
+                                        dirtyNotes.remove(id);
+                                    }
+                                });
                     } else {
                         return Observable.empty();
                     }
@@ -1165,17 +1376,53 @@ public class Repository implements DataSource {
                 .doOnNext(note -> {
                     String noteId = note.getId();
                     Log.d(TAG, "refreshDirtyAndGetCachedNotes() -> doOnNext() [" + noteId + "]");
-                    Note prevNote = cachedNotes.put(noteId, note);
-                    if (prevNote == null) {
-                        refreshNotes();
-                        throw new IllegalStateException("New item has been found, reload is required");
-                    }
+                    // NOTE: new item takes its place in the list according to the cache order
+                    cachedNotes.put(noteId, note);
                     dirtyNotes.remove(noteId);
                 })
                 .ignoreElements()
                 .toObservable();
         return Observable.concat(
-                refreshDirtyNotesObservable, Observable.fromIterable(cachedNotes.values()));
+                refreshDirtyNotesObservable, Observable.defer(this::getCachedNotes));
+    }
+
+    @Override
+    public Observable<Note> searchNotes(@NonNull final String text) {
+        checkNotNull(text);
+        return localDataSource.searchNotes(text)
+                .flatMapObservable(noteIds -> {
+                    Map<String, Note> notes = new HashMap<>(noteIds.size());
+                    List<String> uncachedIds = new ArrayList<>();
+                    boolean cacheIsValid = cachedNotes != null && !noteCacheIsDirty;
+                    for (String noteId : noteIds) {
+                        Note note = null;
+                        if (cacheIsValid && (dirtyNotes == null || !dirtyNotes.contains(noteId))) {
+                            note = cachedNotes.get(noteId);
+                        }
+                        if (note == null) {
+                            uncachedIds.add(noteId);
+                        } else {
+                            notes.put(noteId, note);
+                        }
+                    }
+                    return Observable.fromIterable(
+                            Lists.partition(uncachedIds, Settings.GLOBAL_QUERY_IN_CHUNK_SIZE))
+                            .concatMap(chunk -> localDataSource.getNotes(chunk.toArray(new String[0])))
+                            .doOnNext(note -> notes.put(note.getId(), note))
+                            .ignoreElements()
+                            .andThen(Observable.fromIterable(noteIds))
+                            .filter(notes::containsKey)
+                            .map(notes::get);
+                });
+    }
+
+    /**
+     * NOTE: the filter is applied by the database, so only the matching items are built
+     */
+    @Override
+    public Observable<Note> getNotes(@NonNull final ItemFilter filter) {
+        checkNotNull(filter);
+        return localDataSource.getNotes(filter);
     }
 
     @Override
@@ -1193,20 +1440,20 @@ public class Repository implements DataSource {
 
     private Single<Note> getAndCacheLocalNote(String noteId) {
         if (cachedNotes == null) {
-            cachedNotes = new LinkedHashMap<>();
+            cachedNotes = new ItemCache<>(cacheSize, CREATED_ORDER);
         }
         if (dirtyNotes == null) {
-            dirtyNotes = new HashSet<>();
+            dirtyNotes = newDirtySet();
         }
         return localDataSource.getNote(noteId)
                 .doOnSuccess(note -> {
                     Log.d(TAG, "getAndCacheLocalNote() -> doOnSuccess() [" + noteId + "]");
-                    boolean replaced = cachedNotes.put(noteId, note) != null;
-                    if (replaced) { // if was dirty
+                    if (cachedNotes.get(noteId) != null) { // if was dirty
+                        cachedNotes.put(noteId, note);
                         dirtyNotes.remove(noteId);
-                    } else {
-                        // NOTE: cache must be reloaded to place new Note to the right place
-                        refreshNotes();
+                    } else if (!note.isDeleted() || note.isConflicted()) {
+                        // NOTE: only the active items are on the list
+                        cachedNotes.put(noteId, note);
                     }
                 });
     }
@@ -1232,20 +1479,17 @@ public class Repository implements DataSource {
                         case DEFERRED:
                             // Note
                             if (cachedNotes == null) {
-                                cachedNotes = new LinkedHashMap<>();
+                                cachedNotes = new ItemCache<>(cacheSize, CREATED_ORDER);
                             }
                             // NOTE: new Note has no rowId to bind to RecyclerView
                             if (note.getRowId() < 0) {
-                                Map<String, Note> map = new LinkedHashMap<>(cachedNotes);
-                                cachedNotes.clear();
                                 // NOTE: new Note goes to the top of the list
                                 cachedNotes.put(noteId, note);
-                                cachedNotes.putAll(map);
                             }
                             refreshNote(noteId);
                             // Tags
                             if (cachedTags == null) {
-                                cachedTags = new LinkedHashMap<>();
+                                cachedTags = new ItemCache<>(cacheSize);
                             }
                             List<Tag> tags = note.getTags();
                             if (tags != null) {
@@ -1317,11 +1561,11 @@ public class Repository implements DataSource {
         localDataSource.deleteAllNotes(); // blocking
         //cloudDataSource.deleteAllNotes();
         if (cachedNotes == null) {
-            cachedNotes = new LinkedHashMap<>();
+            cachedNotes = new ItemCache<>(cacheSize, CREATED_ORDER);
         }
         cachedNotes.clear();
         if (dirtyNotes == null) {
-            dirtyNotes = new HashSet<>();
+            dirtyNotes = newDirtySet();
         }
         dirtyNotes.clear();
     }
@@ -1346,7 +1590,7 @@ public class Repository implements DataSource {
                         case DEFERRED:
                         case DELETED:
                             if (cachedNotes == null) {
-                                cachedNotes = new LinkedHashMap<>();
+                                cachedNotes = new ItemCache<>(cacheSize, CREATED_ORDER);
                             }
                             removeCachedNote(noteId);
                             break;
@@ -1384,7 +1628,7 @@ public class Repository implements DataSource {
                         case DELETED: // visibility was not changed
                             break;
                         case CONFLICTED:
-                            refreshNotes(); // need to be shown again
+                            refreshNote(noteId); // need to be shown again
                             break;
                         case ERROR_LOCAL:
                         case ERROR_CLOUD:
@@ -1424,7 +1668,7 @@ public class Repository implements DataSource {
         checkNotNull(noteId);
         Log.d(TAG, "refreshNote() [" + noteId + "]");
         if (dirtyNotes == null) {
-            dirtyNotes = new HashSet<>();
+            dirtyNotes = newDirtySet();
         }
         dirtyNotes.add(noteId);
     }
@@ -1433,7 +1677,7 @@ public class Repository implements DataSource {
     public void checkNotesSyncLog() {
         Log.d(TAG, "checkNotesSyncLog()");
         if (dirtyNotes == null) {
-            dirtyNotes = new HashSet<>();
+            dirtyNotes = newDirtySet();
         }
         dirtyNotes.add(SYNC_COMPLETE_TOKEN);
     }
@@ -1443,7 +1687,7 @@ public class Repository implements DataSource {
         checkNotNull(noteId);
         Log.d(TAG, "removeCachedNote() [" + noteId + "]");
         if (cachedNotes == null) {
-            cachedNotes = new LinkedHashMap<>();
+            cachedNotes = new ItemCache<>(cacheSize, CREATED_ORDER);
         }
         cachedNotes.remove(noteId);
     }
@@ -1457,7 +1701,7 @@ public class Repository implements DataSource {
 
     @Override
     public Observable<Tag> getTags() {
-        if (cachedTags != null) {
+        if (cachedTags != null && cachedTags.isComplete()) {
             return Observable.fromIterable(cachedTags.values());
         }
         return getAndCacheLocalTags();
@@ -1465,8 +1709,9 @@ public class Repository implements DataSource {
 
     private Observable<Tag> getAndCacheLocalTags() {
         if (cachedTags == null) {
-            cachedTags = new LinkedHashMap<>();
+            cachedTags = new ItemCache<>(cacheSize);
         }
+        cachedTags.clear();
         return localDataSource.getTags()
                 .doOnNext(tag -> cachedTags.put(tag.getName(), tag));
     }
@@ -1479,7 +1724,7 @@ public class Repository implements DataSource {
             return Single.just(cachedTag);
         }
         if (cachedTags == null) {
-            cachedTags = new LinkedHashMap<>();
+            cachedTags = new ItemCache<>(cacheSize);
         }
         return localDataSource.getTag(tagName)
                 .doOnSuccess(tag -> cachedTags.put(tagName, tag));
@@ -1500,7 +1745,7 @@ public class Repository implements DataSource {
         checkNotNull(tag);
         localDataSource.saveTag(tag);
         if (cachedTags == null) {
-            cachedTags = new LinkedHashMap<>();
+            cachedTags = new ItemCache<>(cacheSize);
         }
         cachedTags.put(tag.getName(), tag);
     }
@@ -1509,13 +1754,37 @@ public class Repository implements DataSource {
     public void deleteAllTags() {
         localDataSource.deleteAllTags();
         if (cachedTags == null) {
-            cachedTags = new LinkedHashMap<>();
+            cachedTags = new ItemCache<>(cacheSize);
         }
         cachedTags.clear();
     }
 
     // Common
 
+    /**
+     * Release the cached items on the memory pressure, they are taken from the local source
+     * on the next request
+     */
+    public void trimMemory(int level) {
+        int size;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            size = 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            size = cacheSize / 2;
+        } else {
+            return;
+        }
+        for (ItemCache<?> cache : new ItemCache<?>[]{
+                cachedLinks, cachedFavorites, cachedNotes, cachedTags}) {
+            if (cache != null) {
+                cache.trimToSize(size);
+                Log.d(TAG, "trimMemory() [" + level + "] " + cache);
+            }
+        }
+    }
+
     @Override
     public Single<Boolean> isConflicted() {
         return isConflictedLinks()
@@ -21,6 +21,7 @@
 package com.bytesforge.linkasanote.data.source;
 
 import android.accounts.AccountManager;
+import android.app.ActivityManager;
 import android.content.ContentResolver;
 import android.content.Context;
 
@@ -32,10 +33,13 @@ import com.bytesforge.linkasanote.data.Note;
 import com.bytesforge.linkasanote.data.NoteFactory;
 import com.bytesforge.linkasanote.data.source.cloud.CloudDataSource;
 import com.bytesforge.linkasanote.data.source.cloud.CloudItem;
+import com.bytesforge.linkasanote.data.source.local.LocalArchive;
 import com.bytesforge.linkasanote.data.source.local.LocalDataSource;
 import com.bytesforge.linkasanote.data.source.local.LocalFavorites;
+import com.bytesforge.linkasanote.data.source.local.LocalLinkMetadata;
 import com.bytesforge.linkasanote.data.source.local.LocalLinks;
 import com.bytesforge.linkasanote.data.source.local.LocalNotes;
+import com.bytesforge.linkasanote.data.source.local.LocalSyncCheckpoints;
 import com.bytesforge.linkasanote.data.source.local.LocalSyncResults;
 import com.bytesforge.linkasanote.data.source.local.LocalTags;
 import com.bytesforge.linkasanote.settings.Settings;
@@ -118,6 +122,24 @@ public class RepositoryModule {
         return new LocalSyncResults(contentResolver);
     }
 
+    @Provides
+    @Singleton
+    public LocalSyncCheckpoints provideLocalSyncCheckpoints(ContentResolver contentResolver) {
+        return new LocalSyncCheckpoints(contentResolver);
+    }
+
+    @Provides
+    @Singleton
+    public LocalLinkMetadata provideLocalLinkMetadata(ContentResolver contentResolver) {
+        return new LocalLinkMetadata(contentResolver);
+    }
+
+    @Provides
+    @Singleton
+    public LinkMetadataLoader provideLinkMetadataLoader(LocalLinkMetadata localLinkMetadata) {
+        return new LinkMetadataLoader(localLinkMetadata);
+    }
+
     @Provides
     @Singleton
     public LocalDataSource provideLocalDataSource(
@@ -128,6 +150,16 @@ public class RepositoryModule {
                 localSyncResults, localLinks, localFavorites, localNotes, localTags);
     }
 
+    @Provides
+    @Singleton
+    public LocalArchive provideLocalArchive(
+            ContentResolver contentResolver,
+            LocalLinks<Link> localLinks, LocalFavorites<Favorite> localFavorites,
+            LocalNotes<Note> localNotes, LocalTags localTags) {
+        return new LocalArchive(
+                contentResolver, localLinks, localFavorites, localNotes, localTags);
+    }
+
     @Provides
     @Singleton
     public CloudDataSource provideCloudDataSource(
@@ -142,10 +174,16 @@ public class RepositoryModule {
     @Provides
     @Singleton
     public Repository provideRepository(
-            LocalDataSource localDataSource, CloudDataSource cloudDataSource,
+            Context context, LocalDataSource localDataSource, CloudDataSource cloudDataSource,
             BaseSchedulerProvider schedulerProvider) {
         if (repository == null) {
-            repository = new Repository(localDataSource, cloudDataSource, schedulerProvider);
+            ActivityManager activityManager =
+                    (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            int cacheSize = activityManager != null && activityManager.isLowRamDevice()
+                    ? Settings.GLOBAL_ITEM_CACHE_SIZE_LOW_RAM
+                    : Settings.GLOBAL_ITEM_CACHE_SIZE;
+            repository = new Repository(
+                    localDataSource, cloudDataSource, schedulerProvider, cacheSize);
         }
         return repository;
     }
@@ -0,0 +1,99 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bytesforge.linkasanote.data.source;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bytesforge.linkasanote.data.source.local.LocalContract;
+
+import java.util.List;
+
+/**
+ * Patches the caches of the repository by the change notifications of the Provider. The URI of
+ * an item marks only this item to be read again; the URI of a table is sent by the batches and
+ * the changes of many rows, so the changed items are taken from the sync log
+ */
+public final class RepositoryObserver extends ContentObserver {
+
+    private final DataSource repository;
+
+    public RepositoryObserver(@NonNull DataSource repository) {
+        // NOTE: the caches are used by the presenters, so the changes are delivered to their thread
+        super(new Handler(Looper.getMainLooper()));
+        this.repository = checkNotNull(repository);
+    }
+
+    public void register(@NonNull ContentResolver contentResolver) {
+        checkNotNull(contentResolver);
+        contentResolver.registerContentObserver(LocalContract.LinkEntry.CONTENT_URI, true, this);
+        contentResolver.registerContentObserver(LocalContract.FavoriteEntry.CONTENT_URI, true, this);
+        contentResolver.registerContentObserver(LocalContract.NoteEntry.CONTENT_URI, true, this);
+    }
+
+    public void unregister(@NonNull ContentResolver contentResolver) {
+        checkNotNull(contentResolver).unregisterContentObserver(this);
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+        onChange(selfChange, null);
+    }
+
+    @Override
+    public void onChange(boolean selfChange, @Nullable Uri uri) {
+        if (uri == null) return;
+
+        List<String> pathSegments = uri.getPathSegments();
+        if (pathSegments.isEmpty() || pathSegments.size() > 2) return;
+
+        // NOTE: the tags and the notes of an item are referred by its row ID, they are not its change
+        String tableName = pathSegments.get(0);
+        String id = pathSegments.size() == 2 ? pathSegments.get(1) : null;
+        if (LocalContract.LinkEntry.TABLE_NAME.equals(tableName)) {
+            if (id == null) {
+                repository.checkLinksSyncLog();
+            } else {
+                repository.refreshLink(id);
+            }
+        } else if (LocalContract.FavoriteEntry.TABLE_NAME.equals(tableName)) {
+            if (id == null) {
+                repository.checkFavoritesSyncLog();
+            } else {
+                repository.refreshFavorite(id);
+            }
+        } else if (LocalContract.NoteEntry.TABLE_NAME.equals(tableName)) {
+            if (id == null) {
+                repository.checkNotesSyncLog();
+            } else {
+                repository.refreshNote(id);
+            }
+        }
+    }
+}
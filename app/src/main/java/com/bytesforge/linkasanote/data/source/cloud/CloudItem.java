@@ -34,24 +34,24 @@ import com.bytesforge.linkasanote.data.ItemFactory;
 import com.bytesforge.linkasanote.settings.Settings;
 import com.bytesforge.linkasanote.sync.SyncState;
 import com.bytesforge.linkasanote.sync.files.JsonFile;
+import com.bytesforge.linkasanote.sync.operations.nextcloud.DownloadFileOperation;
 import com.bytesforge.linkasanote.sync.operations.nextcloud.UploadFileOperation;
 import com.bytesforge.linkasanote.utils.CloudUtils;
-import com.bytesforge.linkasanote.utils.CommonUtils;
 import com.google.common.base.Charsets;
-import com.google.common.io.Files;
 import com.owncloud.android.lib.common.OwnCloudClient;
 import com.owncloud.android.lib.common.operations.RemoteOperationResult;
-import com.owncloud.android.lib.resources.files.DownloadFileRemoteOperation;
 import com.owncloud.android.lib.resources.files.ReadFileRemoteOperation;
 import com.owncloud.android.lib.resources.files.RemoveFileRemoteOperation;
 import com.owncloud.android.lib.resources.files.model.RemoteFile;
 
 import org.json.JSONObject;
 
-import java.io.File;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.reactivex.Single;
 
@@ -65,6 +65,11 @@ public class CloudItem<T extends Item> {
     private final String cloudDirectory;
     private final String settingLastSyncedETag;
     private final ItemFactory<T> factory;
+    // NOTE: remote folders confirmed by the uploads of the current sync pass
+    private final Set<String> knownFolders =
+            Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private volatile boolean syncPass;
+    private CloudPack pack;
 
     public CloudItem(
             @NonNull Context context, @NonNull AccountManager accountManager,
@@ -83,6 +88,34 @@ public class CloudItem<T extends Item> {
         return CloudUtils.isApplicationConnected(context);
     }
 
+    /**
+     * NOTE: the folders are checked once per pass and the changes of the pack are kept
+     *       until commitPack(), out of the pass every change of the pack is committed immediately
+     */
+    public void beginSyncPass() {
+        knownFolders.clear();
+        getPack().reset();
+        syncPass = true;
+    }
+
+    public void endSyncPass() {
+        syncPass = false;
+        knownFolders.clear();
+        getPack().reset();
+    }
+
+    public boolean isPacked() {
+        return settings.isSyncPacked();
+    }
+
+    /**
+     * @return Returns true if all the changes of the pack have been written to the cloud
+     */
+    public boolean commitPack(@NonNull OwnCloudClient ocClient) {
+        checkNotNull(ocClient);
+        return getPack().commit(ocClient, knownFolders);
+    }
+
     public Single<RemoteOperationResult> upload(@NonNull final T item) {
         return upload(item, null);
     }
@@ -105,25 +138,30 @@ public class CloudItem<T extends Item> {
                 Log.e(TAG, "Item cannot be saved, it's probably empty");
                 return null;
             }
-            final String localPath = CommonUtils.getTempDir(context) + File.separator +
-                    JsonFile.getTempFileName(item.getId());
-            final File localFile = new File(localPath);
-            try {
-                Files.asCharSink(localFile, Charsets.UTF_8).write(itemJson.toString());
-            } catch (IOException e) {
-                Log.e(TAG, "Cannot create temporary file [" + localPath + "]");
-                return null;
-            }
+            final byte[] content = itemJson.toString().getBytes(Charsets.UTF_8);
             final String remotePath = getRemotePath(item.getId());
-            final JsonFile jsonFile = new JsonFile(localPath, remotePath);
-            UploadFileOperation operation = new UploadFileOperation(jsonFile);
-            RemoteOperationResult result =
-                    CloudDataSource.executeRemoteOperation(operation, currentOcClient)
-                            .blockingGet();
-            if (!localFile.delete()) {
-                Log.e(TAG, "Temporary file was not deleted [" + localFile.getName() + "]");
+            final JsonFile jsonFile = new JsonFile(remotePath);
+            jsonFile.setLength(content.length);
+            if (isPacked()) {
+                final CloudPack pack = getPack();
+                final String hash;
+                synchronized (pack) {
+                    if (!syncPass) pack.reset();
+                    hash = pack.put(currentOcClient, item.getId(), content);
+                    if (hash == null || !(syncPass || pack.commit(currentOcClient, knownFolders))) {
+                        return new RemoteOperationResult(RemoteOperationResult.ResultCode.UNKNOWN_ERROR);
+                    }
+                }
+                jsonFile.setETag(hash);
+                RemoteOperationResult result =
+                        new RemoteOperationResult(RemoteOperationResult.ResultCode.OK);
+                result.setData(new ArrayList<>(Collections.singletonList(jsonFile)));
+                return result;
             }
-            return result;
+            UploadFileOperation operation = new UploadFileOperation(
+                    jsonFile, content, knownFolders);
+            return CloudDataSource.executeRemoteOperation(operation, currentOcClient)
+                    .blockingGet();
         });
     }
 
@@ -143,35 +181,33 @@ public class CloudItem<T extends Item> {
             }
             if (currentOcClient == null) return null;
 
-            final String remotePath = getRemotePath(itemId);
-            final String localDirectory = CommonUtils.getTempDir(context);
-            final String localPath = localDirectory + remotePath;
+            if (isPacked()) {
+                final CloudPack pack = getPack();
+                final String jsonString;
+                final String hash;
+                synchronized (pack) {
+                    if (!syncPass) pack.reset();
+                    jsonString = pack.get(currentOcClient, itemId);
+                    hash = pack.getHash(currentOcClient, itemId);
+                }
+                if (jsonString == null || hash == null) return null;
 
-            DownloadFileRemoteOperation operation =
-                    new DownloadFileRemoteOperation(remotePath, localDirectory);
+                return validate(itemId, factory.from(
+                        jsonString, new SyncState(hash, SyncState.State.SYNCED)));
+            }
+            final String remotePath = getRemotePath(itemId);
+            DownloadFileOperation operation = new DownloadFileOperation(
+                    remotePath, Settings.GLOBAL_JSON_MAX_BODY_SIZE_BYTES);
             RemoteOperationResult result =
                     CloudDataSource.executeRemoteOperation(operation, currentOcClient)
                             .blockingGet();
             if (result.isSuccess()) {
-                File localFile = new File(localPath);
-                String jsonString = null;
-                try {
-                    jsonString = Files.asCharSource(localFile, Charsets.UTF_8).read();
-                } catch (IOException e) {
-                    Log.e(TAG, "Cannot read the file downloaded [" + localPath + "]");
-                }
-                if (!localFile.delete()) {
-                    Log.e(TAG, "Item file was not deleted [" + localFile.getName() + "]");
-                }
-                if (jsonString == null) return null;
+                final byte[] content = operation.getContent();
+                if (content == null) return null;
 
+                final String jsonString = new String(content, Charsets.UTF_8);
                 SyncState state = new SyncState(operation.getEtag(), SyncState.State.SYNCED);
-                T item = factory.from(jsonString, state);
-                if (item == null || item.isEmpty() || !itemId.equals(item.getId())) {
-                    Log.e(TAG, "The Item downloaded cannot be validated [" + itemId + "]");
-                    return null;
-                }
-                return item;
+                return validate(itemId, factory.from(jsonString, state));
             } else if (result.getCode() == RemoteOperationResult.ResultCode.FILE_NOT_FOUND) {
                 throw new NoSuchElementException("The requested Item was not found [" + itemId + "]");
             }
@@ -179,6 +215,15 @@ public class CloudItem<T extends Item> {
         });
     }
 
+    @Nullable
+    private T validate(@NonNull final String itemId, @Nullable final T item) {
+        if (item == null || item.isEmpty() || !itemId.equals(item.getId())) {
+            Log.e(TAG, "The Item downloaded cannot be validated [" + itemId + "]");
+            return null;
+        }
+        return item;
+    }
+
     public Single<RemoteOperationResult> delete(@NonNull final String itemId) {
         return delete(itemId, null);
     }
@@ -195,6 +240,18 @@ public class CloudItem<T extends Item> {
             }
             if (currentOcClient == null) return null;
 
+            if (isPacked()) {
+                final CloudPack pack = getPack();
+                final boolean success;
+                synchronized (pack) {
+                    if (!syncPass) pack.reset();
+                    success = pack.remove(currentOcClient, itemId)
+                            && (syncPass || pack.commit(currentOcClient, knownFolders));
+                }
+                return new RemoteOperationResult(success
+                        ? RemoteOperationResult.ResultCode.OK
+                        : RemoteOperationResult.ResultCode.UNKNOWN_ERROR);
+            }
             final String remotePath = getRemotePath(itemId);
             RemoveFileRemoteOperation operation = new RemoveFileRemoteOperation(remotePath);
             RemoteOperationResult result =
@@ -226,6 +283,19 @@ public class CloudItem<T extends Item> {
             if (currentOcClient == null) return null;
 
             final String remotePath = getRemotePath(itemId);
+            if (isPacked()) {
+                final CloudPack pack = getPack();
+                final String hash;
+                synchronized (pack) {
+                    if (!syncPass) pack.reset();
+                    hash = pack.getHash(currentOcClient, itemId);
+                }
+                if (hash == null) return null;
+
+                RemoteFile file = new RemoteFile(remotePath);
+                file.setEtag(hash);
+                return file;
+            }
             final ReadFileRemoteOperation operation = new ReadFileRemoteOperation(remotePath);
             final RemoteOperationResult result =
                     CloudDataSource.executeRemoteOperation(operation, currentOcClient)
@@ -256,9 +326,22 @@ public class CloudItem<T extends Item> {
         return CloudDataSource.getDataSourceETag(ocClient, getDataSourceDirectory(), true);
     }
 
-    @NonNull
+    /**
+     * NOTE: the layout of the data source is migrated to the one selected in the settings
+     *
+     * @return Returns the map of item ID to its ETag or null if the data source cannot be read
+     */
+    @Nullable
     public Map<String, String> getDataSourceMap(@NonNull OwnCloudClient ocClient) {
         checkNotNull(ocClient);
+        final CloudPack pack = getPack();
+        if (isPacked()) {
+            return pack.getDataSourceMap(ocClient);
+        }
+        if (!pack.unpack(ocClient, knownFolders)) {
+            Log.e(TAG, "The pack cannot be returned to the per-file layout [" + cloudDirectory + "]");
+            return null;
+        }
         return CloudDataSource.getDataSourceMap(ocClient, getDataSourceDirectory());
     }
 
@@ -279,6 +362,14 @@ public class CloudItem<T extends Item> {
         return JsonFile.getFileName(checkNotNull(itemId));
     }
 
+    private synchronized CloudPack getPack() {
+        final String directory = getDataSourceDirectory();
+        if (pack == null || !pack.getDirectory().equals(directory)) {
+            pack = new CloudPack(directory);
+        }
+        return pack;
+    }
+
     private OwnCloudClient getDefaultOwnCloudClient() {
         return CloudUtils.getDefaultOwnCloudClient(context, accountManager);
     }
@@ -0,0 +1,541 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bytesforge.linkasanote.data.source.cloud;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bytesforge.linkasanote.settings.Settings;
+import com.bytesforge.linkasanote.sync.files.JsonFile;
+import com.bytesforge.linkasanote.sync.operations.nextcloud.DownloadFileOperation;
+import com.bytesforge.linkasanote.sync.operations.nextcloud.UploadFileOperation;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.owncloud.android.lib.common.OwnCloudClient;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+import com.owncloud.android.lib.resources.files.ReadFileRemoteOperation;
+import com.owncloud.android.lib.resources.files.RemoveFileRemoteOperation;
+import com.owncloud.android.lib.resources.files.model.RemoteFile;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Packed layout of the cloud data source: the items are grouped into the segment files
+ * (JSON Lines) and the manifest keeps the segment and the content hash of every item.
+ * The hash plays the role of the item ETag, so only the changed segments are transferred.
+ */
+final class CloudPack {
+
+    private static final String TAG = CloudPack.class.getSimpleName();
+
+    static final String MANIFEST_FILE_NAME = "pack.manifest";
+    private static final String SEGMENT_PREFIX = "pack-";
+    private static final String SEGMENT_EXTENSION = ".jsonl";
+    private static final int MANIFEST_VERSION = 1;
+
+    private static final String JSON_MANIFEST_VERSION = "version";
+    private static final String JSON_MANIFEST_ITEMS = "items";
+    private static final String JSON_MANIFEST_SEGMENT = "segment";
+    private static final String JSON_MANIFEST_HASH = "hash";
+    private static final String JSON_LINE_ID = "id";
+    private static final String JSON_LINE_ITEM = "item";
+
+    private final String directory;
+
+    private boolean loaded;
+    private String manifestETag; // NOTE: null if there is no manifest in the cloud yet
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, Integer> segmentSizes = new HashMap<>();
+    private final Map<String, String> segmentETags = new HashMap<>();
+    private final Map<String, Map<String, String>> segments = new HashMap<>();
+    private final Set<String> dirtySegments = new HashSet<>();
+    // NOTE: files of the per-file layout which have been folded into the pack
+    private final Map<String, String> looseFiles = new HashMap<>();
+
+    CloudPack(@NonNull String directory) {
+        this.directory = checkNotNull(directory);
+    }
+
+    String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Drops the state, so the pack is read from the cloud again on the next access
+     */
+    synchronized void reset() {
+        loaded = false;
+        manifestETag = null;
+        entries.clear();
+        segmentSizes.clear();
+        segmentETags.clear();
+        segments.clear();
+        dirtySegments.clear();
+        looseFiles.clear();
+    }
+
+    /**
+     * NOTE: the item files of the per-file layout are folded into the pack, it migrates
+     *       the data source and picks up the items uploaded by the clients unaware of the pack
+     *
+     * @return Returns the map of item ID to its content hash or null if the pack cannot be read
+     */
+    @Nullable
+    synchronized Map<String, String> getDataSourceMap(@NonNull OwnCloudClient ocClient) {
+        checkNotNull(ocClient);
+        if (!load(ocClient, true)) return null;
+
+        Map<String, String> dataSourceMap = new HashMap<>(entries.size());
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            dataSourceMap.put(entry.getKey(), entry.getValue().hash);
+        }
+        return dataSourceMap;
+    }
+
+    @Nullable
+    synchronized String getHash(@NonNull OwnCloudClient ocClient, @NonNull String itemId) {
+        checkNotNull(ocClient);
+        checkNotNull(itemId);
+        if (!load(ocClient, true)) return null;
+
+        Entry entry = entries.get(itemId);
+        if (entry == null) {
+            throw new NoSuchElementException("The requested Item was not found in the pack [" + itemId + "]");
+        }
+        return entry.hash;
+    }
+
+    /**
+     * @return Returns JSON of the item or null if the pack cannot be read
+     */
+    @Nullable
+    synchronized String get(@NonNull OwnCloudClient ocClient, @NonNull String itemId) {
+        checkNotNull(ocClient);
+        checkNotNull(itemId);
+        if (!load(ocClient, true)) return null;
+
+        Entry entry = entries.get(itemId);
+        if (entry == null) {
+            throw new NoSuchElementException("The requested Item was not found in the pack [" + itemId + "]");
+        }
+        Map<String, String> segment = loadSegment(ocClient, entry.segment);
+        return segment == null ? null : segment.get(itemId);
+    }
+
+    /**
+     * NOTE: the change is kept in memory until commit()
+     *
+     * @return Returns the content hash of the item or null if the pack cannot be read
+     */
+    @Nullable
+    synchronized String put(
+            @NonNull OwnCloudClient ocClient, @NonNull String itemId, @NonNull byte[] content) {
+        checkNotNull(ocClient);
+        checkNotNull(itemId);
+        checkNotNull(content);
+        if (!load(ocClient, true)) return null;
+
+        Entry entry = entries.get(itemId);
+        String segmentName = entry == null ? getOpenSegmentName() : entry.segment;
+        Map<String, String> segment = loadSegment(ocClient, segmentName);
+        if (segment == null) return null;
+
+        String hash = Hashing.sha256().hashBytes(content).toString();
+        segment.put(itemId, new String(content, Charsets.UTF_8));
+        if (entry == null) {
+            Integer size = segmentSizes.get(segmentName);
+            segmentSizes.put(segmentName, size == null ? 1 : size + 1);
+        }
+        entries.put(itemId, new Entry(segmentName, hash));
+        dirtySegments.add(segmentName);
+        return hash;
+    }
+
+    /**
+     * NOTE: the change is kept in memory until commit()
+     */
+    synchronized boolean remove(@NonNull OwnCloudClient ocClient, @NonNull String itemId) {
+        checkNotNull(ocClient);
+        checkNotNull(itemId);
+        if (!load(ocClient, true)) return false;
+
+        Entry entry = entries.get(itemId);
+        if (entry == null) return true;
+
+        Map<String, String> segment = loadSegment(ocClient, entry.segment);
+        if (segment == null) return false;
+
+        segment.remove(itemId);
+        entries.remove(itemId);
+        Integer size = segmentSizes.get(entry.segment);
+        segmentSizes.put(entry.segment, size == null || size <= 0 ? 0 : size - 1);
+        dirtySegments.add(entry.segment);
+        return true;
+    }
+
+    /**
+     * Writes the changed segments then the manifest, the manifest is replaced only if it has not
+     * been changed by another client in the meantime. The pack is dropped if the commit fails.
+     */
+    synchronized boolean commit(
+            @NonNull OwnCloudClient ocClient, @Nullable Set<String> knownFolders) {
+        checkNotNull(ocClient);
+        if (!loaded || (dirtySegments.isEmpty() && looseFiles.isEmpty())) return true;
+
+        // NOTE: checked before anything is written, the manifest over the limit cannot be read back
+        final byte[] manifest = getManifestContent();
+        if (manifest == null || manifest.length > Settings.GLOBAL_PACK_MAX_SIZE_BYTES) {
+            Log.e(TAG, "The manifest of the pack cannot be written [" + directory + "; items=" + entries.size() + "]");
+            reset();
+            return false;
+        }
+        boolean success = commitSegments(ocClient, knownFolders)
+                && commitManifest(ocClient, manifest, knownFolders);
+        if (success) {
+            for (String remotePath : looseFiles.values()) {
+                // NOTE: a file left behind is folded in again, so the failure is not fatal
+                RemoteOperationResult result = removeFile(ocClient, remotePath);
+                if (!result.isSuccess()) {
+                    Log.e(TAG, "Cannot remove the file folded into the pack [" + remotePath + "]");
+                }
+            }
+            looseFiles.clear();
+        } else {
+            reset();
+        }
+        return success;
+    }
+
+    /**
+     * Returns the items back to the per-file layout, the files uploaded by the clients unaware of
+     * the pack are kept as they are
+     */
+    synchronized boolean unpack(
+            @NonNull OwnCloudClient ocClient, @Nullable Set<String> knownFolders) {
+        checkNotNull(ocClient);
+        final String manifestPath = getRemotePath(MANIFEST_FILE_NAME);
+        ReadFileRemoteOperation operation = new ReadFileRemoteOperation(manifestPath);
+        RemoteOperationResult result =
+                CloudDataSource.executeRemoteOperation(operation, ocClient).blockingGet();
+        if (result.getCode() == RemoteOperationResult.ResultCode.FILE_NOT_FOUND) return true;
+        if (!result.isSuccess()) return false;
+
+        reset();
+        if (!load(ocClient, false)) return false;
+
+        Log.d(TAG, "Unpacking [" + directory + "; items=" + entries.size() + "]");
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            String itemId = entry.getKey();
+            if (looseFiles.containsKey(itemId)) continue;
+
+            Map<String, String> segment = loadSegment(ocClient, entry.getValue().segment);
+            String itemJson = segment == null ? null : segment.get(itemId);
+            if (itemJson == null) {
+                reset();
+                return false;
+            }
+            JsonFile file = new JsonFile(getRemotePath(JsonFile.getFileName(itemId)));
+            byte[] content = itemJson.getBytes(Charsets.UTF_8);
+            file.setLength(content.length);
+            result = CloudDataSource.executeRemoteOperation(
+                    new UploadFileOperation(file, content, knownFolders), ocClient).blockingGet();
+            if (!result.isSuccess()) {
+                reset();
+                return false;
+            }
+        }
+        // NOTE: the manifest goes first, so the pack is never seen without its segments
+        boolean success = removeFile(ocClient, manifestPath).isSuccess();
+        if (success) {
+            for (String segmentName : segmentETags.keySet()) {
+                result = removeFile(ocClient, getRemotePath(segmentName));
+                if (!result.isSuccess()) {
+                    Log.e(TAG, "Cannot remove the segment of the pack [" + segmentName + "]");
+                }
+            }
+        }
+        reset();
+        return success;
+    }
+
+    // Private
+
+    private boolean load(OwnCloudClient ocClient, boolean foldLooseFiles) {
+        if (loaded) return true;
+
+        final List<RemoteFile> files;
+        try {
+            files = CloudDataSource.getRemoteFiles(ocClient, directory).toList().blockingGet();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Cannot list the data source [" + directory + "]");
+            return false;
+        }
+        for (RemoteFile file : files) {
+            String remotePath = file.getRemotePath();
+            String fileName = remotePath.substring(
+                    remotePath.lastIndexOf(JsonFile.PATH_SEPARATOR) + 1);
+            if (MANIFEST_FILE_NAME.equals(fileName)) {
+                manifestETag = file.getEtag();
+            } else if (fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_EXTENSION)) {
+                segmentETags.put(fileName, file.getEtag());
+            } else {
+                String itemId = JsonFile.getId(file.getMimeType(), remotePath);
+                if (itemId != null && file.getSize() <= Settings.GLOBAL_JSON_MAX_BODY_SIZE_BYTES) {
+                    looseFiles.put(itemId, remotePath);
+                }
+            }
+        }
+        if (manifestETag != null && !loadManifest(ocClient)) {
+            reset();
+            return false;
+        }
+        loaded = true;
+        if (!foldLooseFiles || looseFiles.isEmpty()) return true;
+
+        Log.d(TAG, "Folding the files into the pack [" + directory + "; files=" + looseFiles.size() + "]");
+        Iterator<Map.Entry<String, String>> iterator = looseFiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> looseFile = iterator.next();
+            DownloadFileOperation operation = download(ocClient, looseFile.getValue(),
+                    Settings.GLOBAL_JSON_MAX_BODY_SIZE_BYTES);
+            byte[] content = operation == null ? null : operation.getContent();
+            if (content == null) {
+                iterator.remove(); // NOTE: will be folded in on the next pass
+                continue;
+            }
+            if (put(ocClient, looseFile.getKey(), content) == null) {
+                reset();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean loadManifest(OwnCloudClient ocClient) {
+        DownloadFileOperation operation = download(ocClient,
+                getRemotePath(MANIFEST_FILE_NAME), Settings.GLOBAL_PACK_MAX_SIZE_BYTES);
+        byte[] content = operation == null ? null : operation.getContent();
+        if (content == null) return false;
+
+        manifestETag = operation.getEtag();
+        try {
+            JSONObject manifest = new JSONObject(new String(content, Charsets.UTF_8));
+            int version = manifest.getInt(JSON_MANIFEST_VERSION);
+            if (version > MANIFEST_VERSION) {
+                Log.e(TAG, "The pack has been written by a newer version [" + version + "]");
+                return false;
+            }
+            JSONObject items = manifest.getJSONObject(JSON_MANIFEST_ITEMS);
+            Iterator<String> itemIds = items.keys();
+            while (itemIds.hasNext()) {
+                String itemId = itemIds.next();
+                JSONObject item = items.getJSONObject(itemId);
+                String segmentName = item.getString(JSON_MANIFEST_SEGMENT);
+                entries.put(itemId, new Entry(segmentName, item.getString(JSON_MANIFEST_HASH)));
+                Integer size = segmentSizes.get(segmentName);
+                segmentSizes.put(segmentName, size == null ? 1 : size + 1);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "The manifest of the pack cannot be parsed [" + directory + "]");
+            return false;
+        }
+        return true;
+    }
+
+    @Nullable
+    private Map<String, String> loadSegment(OwnCloudClient ocClient, String segmentName) {
+        Map<String, String> segment = segments.get(segmentName);
+        if (segment != null) return segment;
+
+        segment = new LinkedHashMap<>();
+        if (segmentETags.containsKey(segmentName)) {
+            DownloadFileOperation operation = download(ocClient,
+                    getRemotePath(segmentName), Settings.GLOBAL_PACK_MAX_SIZE_BYTES);
+            byte[] content = operation == null ? null : operation.getContent();
+            if (content == null) return null;
+
+            segmentETags.put(segmentName, operation.getEtag());
+            try {
+                for (String line : new String(content, Charsets.UTF_8).split("\n")) {
+                    if (line.isEmpty()) continue;
+                    JSONObject jsonLine = new JSONObject(line);
+                    segment.put(jsonLine.getString(JSON_LINE_ID),
+                            jsonLine.getJSONObject(JSON_LINE_ITEM).toString());
+                }
+            } catch (JSONException e) {
+                Log.e(TAG, "The segment of the pack cannot be parsed [" + segmentName + "]");
+                return null;
+            }
+        }
+        segments.put(segmentName, segment);
+        return segment;
+    }
+
+    private boolean commitSegments(OwnCloudClient ocClient, Set<String> knownFolders) {
+        for (String segmentName : new ArrayList<>(dirtySegments)) {
+            Map<String, String> segment = segments.get(segmentName);
+            String remotePath = getRemotePath(segmentName);
+            if (segment == null) continue;
+
+            if (segment.isEmpty()) {
+                if (segmentETags.containsKey(segmentName)
+                        && !removeFile(ocClient, remotePath).isSuccess()) {
+                    return false;
+                }
+                segmentETags.remove(segmentName);
+                segmentSizes.remove(segmentName);
+            } else {
+                StringBuilder lines = new StringBuilder();
+                for (Map.Entry<String, String> item : segment.entrySet()) {
+                    // NOTE: JSON of the item has no line breaks
+                    lines.append("{\"").append(JSON_LINE_ID).append("\":")
+                            .append(JSONObject.quote(item.getKey()))
+                            .append(",\"").append(JSON_LINE_ITEM).append("\":")
+                            .append(item.getValue()).append("}\n");
+                }
+                String eTag = upload(ocClient, remotePath,
+                        lines.toString().getBytes(Charsets.UTF_8),
+                        knownFolders, segmentETags.get(segmentName), false);
+                if (eTag == null) return false;
+
+                segmentETags.put(segmentName, eTag);
+            }
+            dirtySegments.remove(segmentName);
+        }
+        return true;
+    }
+
+    @Nullable
+    private byte[] getManifestContent() {
+        try {
+            JSONObject items = new JSONObject();
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                JSONObject item = new JSONObject();
+                item.put(JSON_MANIFEST_SEGMENT, entry.getValue().segment);
+                item.put(JSON_MANIFEST_HASH, entry.getValue().hash);
+                items.put(entry.getKey(), item);
+            }
+            JSONObject manifest = new JSONObject();
+            manifest.put(JSON_MANIFEST_VERSION, MANIFEST_VERSION);
+            manifest.put(JSON_MANIFEST_ITEMS, items);
+            return manifest.toString().getBytes(Charsets.UTF_8);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    private boolean commitManifest(
+            OwnCloudClient ocClient, byte[] content, Set<String> knownFolders) {
+        // NOTE: the new manifest must not replace the one created by another client meanwhile
+        String eTag = upload(ocClient, getRemotePath(MANIFEST_FILE_NAME),
+                content, knownFolders, manifestETag, manifestETag == null);
+        if (eTag == null) {
+            Log.e(TAG, "The manifest of the pack has not been written [" + directory + "]");
+            return false;
+        }
+        manifestETag = eTag;
+        return true;
+    }
+
+    private String getOpenSegmentName() {
+        for (Map.Entry<String, Integer> segmentSize : segmentSizes.entrySet()) {
+            if (segmentSize.getValue() < Settings.GLOBAL_PACK_SEGMENT_SIZE) {
+                return segmentSize.getKey();
+            }
+        }
+        // NOTE: random name, so the clients never write the same new segment
+        String segmentName = SEGMENT_PREFIX +
+                UUID.randomUUID().toString().substring(0, 8) + SEGMENT_EXTENSION;
+        segmentSizes.put(segmentName, 0);
+        return segmentName;
+    }
+
+    @Nullable
+    private static DownloadFileOperation download(
+            OwnCloudClient ocClient, String remotePath, long maxSize) {
+        DownloadFileOperation operation = new DownloadFileOperation(remotePath, maxSize);
+        RemoteOperationResult result =
+                CloudDataSource.executeRemoteOperation(operation, ocClient).blockingGet();
+        if (!result.isSuccess()) {
+            Log.e(TAG, "Cannot download the file [" + remotePath + "; code=" + result.getCode() + "]");
+            return null;
+        }
+        return operation;
+    }
+
+    /**
+     * @return Returns ETag of the file uploaded or null if the upload has failed or the file has
+     * been changed (ifMatchETag) or created (ifNoneMatch) by another client
+     */
+    @Nullable
+    private static String upload(
+            OwnCloudClient ocClient, String remotePath, byte[] content,
+            Set<String> knownFolders, String ifMatchETag, boolean ifNoneMatch) {
+        JsonFile file = new JsonFile(remotePath);
+        file.setLength(content.length);
+        UploadFileOperation operation = new UploadFileOperation(
+                file, content, knownFolders, ifMatchETag, ifNoneMatch);
+        RemoteOperationResult result =
+                CloudDataSource.executeRemoteOperation(operation, ocClient).blockingGet();
+        return result.isSuccess() ? file.getETag() : null;
+    }
+
+    private static RemoteOperationResult removeFile(OwnCloudClient ocClient, String remotePath) {
+        RemoveFileRemoteOperation operation = new RemoveFileRemoteOperation(remotePath);
+        RemoteOperationResult result =
+                CloudDataSource.executeRemoteOperation(operation, ocClient).blockingGet();
+        if (result.getCode() == RemoteOperationResult.ResultCode.FILE_NOT_FOUND) {
+            return new RemoteOperationResult(RemoteOperationResult.ResultCode.OK);
+        }
+        return result;
+    }
+
+    private String getRemotePath(String fileName) {
+        return directory + JsonFile.PATH_SEPARATOR + fileName;
+    }
+
+    private static final class Entry {
+
+        final String segment;
+        final String hash;
+
+        Entry(String segment, String hash) {
+            this.segment = segment;
+            this.hash = hash;
+        }
+    }
+}
@@ -23,10 +23,11 @@ package com.bytesforge.linkasanote.data.source.local;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
 
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 5;
     public static final String DATABASE_NAME = "laano.sqlite";
 
     private static final String TEXT_TYPE = " TEXT";
@@ -127,13 +128,48 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             LocalContract.SyncResultEntry.TABLE_NAME, LocalContract.SyncResultEntry.COLUMN_NAME_CREATED);
     private static final String SQL_CREATE_SYNC_RESULT_STARTED_INDEX = sqlCreateIndex(
             LocalContract.SyncResultEntry.TABLE_NAME, LocalContract.SyncResultEntry.COLUMN_NAME_STARTED);
+    // NOTE: covers the unapplied results of the entry up to the threshold row
     private static final String SQL_CREATE_SYNC_RESULT_ENTRY_INDEX = sqlCreateIndex(
-            LocalContract.SyncResultEntry.TABLE_NAME, LocalContract.SyncResultEntry.COLUMN_NAME_ENTRY);
+            LocalContract.SyncResultEntry.TABLE_NAME, LocalContract.SyncResultEntry.COLUMN_NAME_ENTRY,
+            LocalContract.SyncResultEntry.COLUMN_NAME_APPLIED, LocalContract.SyncResultEntry._ID);
     private static final String SQL_CREATE_SYNC_RESULT_RESULT_INDEX = sqlCreateIndex(
             LocalContract.SyncResultEntry.TABLE_NAME, LocalContract.SyncResultEntry.COLUMN_NAME_RESULT);
     private static final String SQL_CREATE_SYNC_RESULT_APPLIED_INDEX = sqlCreateIndex(
             LocalContract.SyncResultEntry.TABLE_NAME, LocalContract.SyncResultEntry.COLUMN_NAME_APPLIED);
 
+    // NOTE: the row of the entry is replaced, so the processed items update the listing
+    private static final String SQL_CREATE_SYNC_CHECKPOINT_ENTRIES =
+            "CREATE TABLE " + LocalContract.SyncCheckpointEntry.TABLE_NAME + " (" +
+                    LocalContract.SyncCheckpointEntry._ID + INTEGER_TYPE + " PRIMARY KEY AUTOINCREMENT," +
+                    LocalContract.SyncCheckpointEntry.COLUMN_NAME_CREATED + DATETIME_TYPE + "," +
+                    LocalContract.SyncCheckpointEntry.COLUMN_NAME_ENTRY + TEXT_TYPE + " NOT NULL," +
+                    LocalContract.SyncCheckpointEntry.COLUMN_NAME_ENTRY_ID + TEXT_TYPE + " NOT NULL," +
+                    LocalContract.SyncCheckpointEntry.COLUMN_NAME_ETAG + TEXT_TYPE + "," +
+                    LocalContract.SyncCheckpointEntry.COLUMN_NAME_PROCESSED + BOOLEAN_TYPE + "," +
+                    "UNIQUE (" + LocalContract.SyncCheckpointEntry.COLUMN_NAME_ENTRY + ", " +
+                    LocalContract.SyncCheckpointEntry.COLUMN_NAME_ENTRY_ID + ") ON CONFLICT REPLACE" +
+            ");";
+
+    // NOTE: the cache is keyed by the normalized URL, the refetched metadata replaces the row
+    private static final String SQL_CREATE_LINK_METADATA_ENTRIES =
+            "CREATE TABLE " + LocalContract.LinkMetadataEntry.TABLE_NAME + " (" +
+                    LocalContract.LinkMetadataEntry._ID + INTEGER_TYPE + " PRIMARY KEY AUTOINCREMENT," +
+                    LocalContract.LinkMetadataEntry.COLUMN_NAME_URL + TEXT_TYPE +
+                    " NOT NULL UNIQUE ON CONFLICT REPLACE," +
+                    LocalContract.LinkMetadataEntry.COLUMN_NAME_LOCATION + TEXT_TYPE + "," +
+                    LocalContract.LinkMetadataEntry.COLUMN_NAME_CANONICAL_URL + TEXT_TYPE + "," +
+                    LocalContract.LinkMetadataEntry.COLUMN_NAME_TITLE + TEXT_TYPE + "," +
+                    LocalContract.LinkMetadataEntry.COLUMN_NAME_DESCRIPTION + TEXT_TYPE + "," +
+                    LocalContract.LinkMetadataEntry.COLUMN_NAME_KEYWORDS + TEXT_TYPE + "," +
+                    LocalContract.LinkMetadataEntry.COLUMN_NAME_ETAG + TEXT_TYPE + "," +
+                    LocalContract.LinkMetadataEntry.COLUMN_NAME_LAST_MODIFIED + TEXT_TYPE + "," +
+                    LocalContract.LinkMetadataEntry.COLUMN_NAME_FETCHED + DATETIME_TYPE + "," +
+                    LocalContract.LinkMetadataEntry.COLUMN_NAME_ACCESSED + DATETIME_TYPE +
+            ");";
+    private static final String SQL_CREATE_LINK_METADATA_ACCESSED_INDEX = sqlCreateIndex(
+            LocalContract.LinkMetadataEntry.TABLE_NAME,
+            LocalContract.LinkMetadataEntry.COLUMN_NAME_ACCESSED);
+
     private static final String SQL_CREATE_LINK_TAG_ENTRIES =
             sqlCreateTableManyToManyWithTags(LocalContract.LinkEntry.TABLE_NAME);
     private static final String SQL_CREATE_LINK_TAG_LEFT_INDEX =
@@ -161,6 +197,24 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String SQL_CREATE_FAVORITE_TAG_CREATED_INDEX =
             sqlCreateCreatedIndexWithTag(LocalContract.FavoriteEntry.TABLE_NAME);
 
+    // NOTE: FTS5 is not guaranteed by the platform SQLite, FTS4 is available since API 11
+    private static final String SQL_CREATE_LINK_FTS = sqlCreateFtsTable(
+            LocalContract.LinkEntry.TABLE_NAME,
+            LocalContract.LinkEntry.COLUMN_NAME_NAME, LocalContract.LinkEntry.COLUMN_NAME_LINK);
+    private static final String[] SQL_CREATE_LINK_FTS_TRIGGERS = sqlCreateFtsTriggers(
+            LocalContract.LinkEntry.TABLE_NAME,
+            LocalContract.LinkEntry.COLUMN_NAME_NAME, LocalContract.LinkEntry.COLUMN_NAME_LINK);
+
+    private static final String SQL_CREATE_NOTE_FTS = sqlCreateFtsTable(
+            LocalContract.NoteEntry.TABLE_NAME, LocalContract.NoteEntry.COLUMN_NAME_NOTE);
+    private static final String[] SQL_CREATE_NOTE_FTS_TRIGGERS = sqlCreateFtsTriggers(
+            LocalContract.NoteEntry.TABLE_NAME, LocalContract.NoteEntry.COLUMN_NAME_NOTE);
+
+    private static final String SQL_CREATE_FAVORITE_FTS = sqlCreateFtsTable(
+            LocalContract.FavoriteEntry.TABLE_NAME, LocalContract.FavoriteEntry.COLUMN_NAME_NAME);
+    private static final String[] SQL_CREATE_FAVORITE_FTS_TRIGGERS = sqlCreateFtsTriggers(
+            LocalContract.FavoriteEntry.TABLE_NAME, LocalContract.FavoriteEntry.COLUMN_NAME_NAME);
+
     public DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
@@ -201,37 +255,53 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         return sqlCreateIndex(leftTable + "_" + rightTable, BaseEntry.COLUMN_NAME_CREATED);
     }
 
-    private static String sqlCreateEntryIdIndex(final String table) {
-        return sqlCreateIndex(table, BaseEntry.COLUMN_NAME_ENTRY_ID);
+    /**
+     * External content table: the index keeps no copy of the text, it is read from the table
+     */
+    private static String sqlCreateFtsTable(final String table, final String... columns) {
+        return "CREATE VIRTUAL TABLE " + table + "_fts USING fts4(" +
+                "content=\"" + table + "\", " + TextUtils.join(", ", columns) +
+                ", tokenize=unicode61)";
     }
 
-    private static String sqlCreateIndex(final String table, final String column) {
-        return "CREATE INDEX " + table + "_" + column + "_index ON " + table + "(" + column + ")";
+    /**
+     * NOTE: the old text must be removed from the index before the row is changed,
+     *       only the updates of the indexed columns are tracked
+     */
+    private static String[] sqlCreateFtsTriggers(final String table, final String... columns) {
+        final String ftsTable = table + "_fts";
+        final String indexedColumns = TextUtils.join(", ", columns);
+        final String newValues = "new." + TextUtils.join(", new.", columns);
+        final String deleteOld = " BEGIN DELETE FROM " + ftsTable +
+                " WHERE docid = old." + BaseEntry._ID + "; END";
+        final String insertNew = " BEGIN INSERT INTO " + ftsTable +
+                "(docid, " + indexedColumns + ") VALUES (new." + BaseEntry._ID + ", " +
+                newValues + "); END";
+        return new String[]{
+                "CREATE TRIGGER " + ftsTable + "_bu BEFORE UPDATE OF " + indexedColumns +
+                        " ON " + table + deleteOld,
+                "CREATE TRIGGER " + ftsTable + "_bd BEFORE DELETE ON " + table + deleteOld,
+                "CREATE TRIGGER " + ftsTable + "_au AFTER UPDATE OF " + indexedColumns +
+                        " ON " + table + insertNew,
+                "CREATE TRIGGER " + ftsTable + "_ai AFTER INSERT ON " + table + insertNew};
     }
 
-    private static String sqlDropLeftIndexWithTag(final String leftTable) {
-        final String rightTable = LocalContract.TagEntry.TABLE_NAME;
-        final String LID = leftTable + BaseEntry._ID;
-        return sqlDropIndex(leftTable + "_" + rightTable, LID);
-    }
-
-    private static String sqlDropRightIndexWithTag(final String leftTable) {
-        final String rightTable = LocalContract.TagEntry.TABLE_NAME;
-        final String RID = rightTable + BaseEntry._ID;
-        return sqlDropIndex(leftTable + "_" + rightTable, RID);
+    private static String sqlRebuildFts(final String table) {
+        final String ftsTable = table + "_fts";
+        return "INSERT INTO " + ftsTable + "(" + ftsTable + ") VALUES ('rebuild')";
     }
 
-    private static String sqlDropCreatedIndexWithTag(final String leftTable) {
-        final String rightTable = LocalContract.TagEntry.TABLE_NAME;
-        return sqlDropIndex(leftTable + "_" + rightTable, BaseEntry.COLUMN_NAME_CREATED);
+    private static String sqlCreateEntryIdIndex(final String table) {
+        return sqlCreateIndex(table, BaseEntry.COLUMN_NAME_ENTRY_ID);
     }
 
-    private static String sqlDropEntryIdIndex(final String table) {
-        return sqlDropIndex(table, BaseEntry.COLUMN_NAME_ENTRY_ID);
+    private static String sqlCreateIndex(final String table, final String... columns) {
+        return "CREATE INDEX " + sqlIndexName(table, columns) +
+                " ON " + table + "(" + TextUtils.join(", ", columns) + ")";
     }
 
-    private static String sqlDropIndex(final String table, final String column) {
-        return "DROP INDEX IF EXISTS " + table + "_" + column + "_index";
+    private static String sqlIndexName(final String table, final String... columns) {
+        return table + "_" + TextUtils.join("_", columns) + "_index";
     }
 
     @Override
@@ -254,6 +324,9 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(SQL_CREATE_SYNC_RESULT_ENTRY_INDEX);
         db.execSQL(SQL_CREATE_SYNC_RESULT_RESULT_INDEX);
         db.execSQL(SQL_CREATE_SYNC_RESULT_APPLIED_INDEX);
+        db.execSQL(SQL_CREATE_SYNC_CHECKPOINT_ENTRIES);
+        db.execSQL(SQL_CREATE_LINK_METADATA_ENTRIES);
+        db.execSQL(SQL_CREATE_LINK_METADATA_ACCESSED_INDEX);
 
         db.execSQL(SQL_CREATE_LINK_TAG_ENTRIES);
         db.execSQL(SQL_CREATE_LINK_TAG_LEFT_INDEX);
@@ -269,52 +342,47 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(SQL_CREATE_FAVORITE_TAG_LEFT_INDEX);
         db.execSQL(SQL_CREATE_FAVORITE_TAG_RIGHT_INDEX);
         db.execSQL(SQL_CREATE_FAVORITE_TAG_CREATED_INDEX);
+
+        createFullTextIndex(db);
+    }
+
+    private void createFullTextIndex(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_LINK_FTS);
+        for (String trigger : SQL_CREATE_LINK_FTS_TRIGGERS) {
+            db.execSQL(trigger);
+        }
+        db.execSQL(SQL_CREATE_NOTE_FTS);
+        for (String trigger : SQL_CREATE_NOTE_FTS_TRIGGERS) {
+            db.execSQL(trigger);
+        }
+        db.execSQL(SQL_CREATE_FAVORITE_FTS);
+        for (String trigger : SQL_CREATE_FAVORITE_FTS_TRIGGERS) {
+            db.execSQL(trigger);
+        }
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + LocalContract.LinkEntry.TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + LocalContract.NoteEntry.TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + LocalContract.FavoriteEntry.TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + LocalContract.TagEntry.TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + LocalContract.SyncResultEntry.TABLE_NAME);
-
-        final String tagTable = LocalContract.TagEntry.TABLE_NAME;
-        final String linkRefTable = LocalContract.LinkEntry.TABLE_NAME + "_" + tagTable;
-        final String noteRefTable = LocalContract.NoteEntry.TABLE_NAME + "_" + tagTable;
-        final String favoriteRefTable = LocalContract.FavoriteEntry.TABLE_NAME + "_" + tagTable;
-
-        db.execSQL("DROP TABLE IF EXISTS " + linkRefTable);
-        db.execSQL("DROP TABLE IF EXISTS " + noteRefTable);
-        db.execSQL("DROP TABLE IF EXISTS " + favoriteRefTable);
-
-        db.execSQL(sqlDropEntryIdIndex(LocalContract.LinkEntry.TABLE_NAME));
-        db.execSQL(sqlDropIndex(LocalContract.LinkEntry.TABLE_NAME, LocalContract.LinkEntry.COLUMN_NAME_CREATED));
-        db.execSQL(sqlDropEntryIdIndex(LocalContract.NoteEntry.TABLE_NAME));
-        db.execSQL(sqlDropIndex(LocalContract.NoteEntry.TABLE_NAME, LocalContract.NoteEntry.COLUMN_NAME_LINK_ID));
-        db.execSQL(sqlDropIndex(LocalContract.NoteEntry.TABLE_NAME, LocalContract.NoteEntry.COLUMN_NAME_CREATED));
-        db.execSQL(sqlDropEntryIdIndex(LocalContract.FavoriteEntry.TABLE_NAME));
-        db.execSQL(sqlDropIndex(LocalContract.FavoriteEntry.TABLE_NAME, LocalContract.FavoriteEntry.COLUMN_NAME_CREATED));
-        db.execSQL(sqlDropIndex(LocalContract.SyncResultEntry.TABLE_NAME, LocalContract.SyncResultEntry.COLUMN_NAME_CREATED));
-        db.execSQL(sqlDropIndex(LocalContract.SyncResultEntry.TABLE_NAME, LocalContract.SyncResultEntry.COLUMN_NAME_STARTED));
-        db.execSQL(sqlDropIndex(LocalContract.SyncResultEntry.TABLE_NAME, LocalContract.SyncResultEntry.COLUMN_NAME_ENTRY));
-        db.execSQL(sqlDropIndex(LocalContract.SyncResultEntry.TABLE_NAME, LocalContract.SyncResultEntry.COLUMN_NAME_RESULT));
-        db.execSQL(sqlDropIndex(LocalContract.SyncResultEntry.TABLE_NAME, LocalContract.SyncResultEntry.COLUMN_NAME_APPLIED));
-
-        db.execSQL(sqlDropIndex(LocalContract.FavoriteEntry.TABLE_NAME, LocalContract.FavoriteEntry.COLUMN_NAME_NAME));
-        db.execSQL(sqlDropLeftIndexWithTag(LocalContract.LinkEntry.TABLE_NAME));
-        db.execSQL(sqlDropRightIndexWithTag(LocalContract.LinkEntry.TABLE_NAME));
-        db.execSQL(sqlDropCreatedIndexWithTag(LocalContract.LinkEntry.TABLE_NAME));
-
-        db.execSQL(sqlDropLeftIndexWithTag(LocalContract.NoteEntry.TABLE_NAME));
-        db.execSQL(sqlDropRightIndexWithTag(LocalContract.NoteEntry.TABLE_NAME));
-        db.execSQL(sqlDropCreatedIndexWithTag(LocalContract.NoteEntry.TABLE_NAME));
-
-        db.execSQL(sqlDropLeftIndexWithTag(LocalContract.FavoriteEntry.TABLE_NAME));
-        db.execSQL(sqlDropRightIndexWithTag(LocalContract.FavoriteEntry.TABLE_NAME));
-        db.execSQL(sqlDropCreatedIndexWithTag(LocalContract.FavoriteEntry.TABLE_NAME));
-
-        onCreate(db);
+        // NOTE: the data must be kept, every version brings its own step
+        if (oldVersion < 2) {
+            createFullTextIndex(db);
+            db.execSQL(sqlRebuildFts(LocalContract.LinkEntry.TABLE_NAME));
+            db.execSQL(sqlRebuildFts(LocalContract.NoteEntry.TABLE_NAME));
+            db.execSQL(sqlRebuildFts(LocalContract.FavoriteEntry.TABLE_NAME));
+        }
+        if (oldVersion < 3) {
+            db.execSQL("DROP INDEX IF EXISTS " + sqlIndexName(
+                    LocalContract.SyncResultEntry.TABLE_NAME,
+                    LocalContract.SyncResultEntry.COLUMN_NAME_ENTRY));
+            db.execSQL(SQL_CREATE_SYNC_RESULT_ENTRY_INDEX);
+        }
+        if (oldVersion < 4) {
+            db.execSQL(SQL_CREATE_SYNC_CHECKPOINT_ENTRIES);
+        }
+        if (oldVersion < 5) {
+            db.execSQL(SQL_CREATE_LINK_METADATA_ENTRIES);
+            db.execSQL(SQL_CREATE_LINK_METADATA_ACCESSED_INDEX);
+        }
     }
 
     @Override
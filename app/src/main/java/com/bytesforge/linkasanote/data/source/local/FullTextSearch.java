@@ -0,0 +1,98 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bytesforge.linkasanote.data.source.local;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Full-text search over the FTS4 index which is kept in sync with the content table by triggers
+ */
+public final class FullTextSearch {
+
+    // NOTE: p - number of phrases, c - number of columns,
+    //       x - hits in this row, hits in all rows and rows with hits for every phrase and column
+    public static final String MATCH_INFO_FORMAT = "pcx";
+    public static final String COLUMN_NAME_MATCH_INFO = "match_info";
+
+    private FullTextSearch() {
+    }
+
+    /**
+     * @return Returns MATCH expression where every word of the text is a prefix,
+     * or null if the text has no words at all
+     */
+    @Nullable
+    public static String buildMatchQuery(@Nullable String text) {
+        if (text == null) return null;
+
+        StringBuilder matchQuery = new StringBuilder();
+        for (String word : text.split("[^\\p{L}\\p{Nd}]+")) {
+            if (word.isEmpty()) continue;
+
+            if (matchQuery.length() > 0) matchQuery.append(' ');
+            // NOTE: * after the closing quote is dropped, the bare word followed by * is never
+            //       an operator, the words have neither quotes nor the other special chars
+            matchQuery.append(word).append('*');
+        }
+        return matchQuery.length() > 0 ? matchQuery.toString() : null;
+    }
+
+    public static String sqlMatchInfo(@NonNull final String ftsTableName) {
+        checkNotNull(ftsTableName);
+        return "matchinfo(" + ftsTableName + ", '" + MATCH_INFO_FORMAT + "') AS " +
+                COLUMN_NAME_MATCH_INFO;
+    }
+
+    /**
+     * The phrase found in the column adds the weight of the column multiplied by the share
+     * of all its hits which fall into this row, so the rare words are ranked higher.
+     *
+     * @param matchInfo Blob of the {@link #MATCH_INFO_FORMAT} format
+     * @param weights Weight of every column of the index
+     */
+    public static double rank(@NonNull byte[] matchInfo, @NonNull double[] weights) {
+        checkNotNull(matchInfo);
+        checkNotNull(weights);
+        // NOTE: matchinfo is an array of 32-bit unsigned integers in the native byte order
+        IntBuffer info = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phrases = info.get(0);
+        int columns = info.get(1);
+        double rank = 0.0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns && column < weights.length; column++) {
+                int index = 2 + 3 * (phrase * columns + column);
+                int rowHits = info.get(index);
+                int allHits = info.get(index + 1);
+                if (rowHits > 0 && allHits > 0) {
+                    rank += weights[column] * rowHits / allHits;
+                }
+            }
+        }
+        return rank;
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bytesforge.linkasanote.data.source.local;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bytesforge.linkasanote.data.Favorite;
+import com.bytesforge.linkasanote.data.Item;
+import com.bytesforge.linkasanote.data.Link;
+import com.bytesforge.linkasanote.data.Note;
+import com.bytesforge.linkasanote.data.Tag;
+import com.bytesforge.linkasanote.settings.Settings;
+import com.bytesforge.linkasanote.sync.SyncState;
+import com.bytesforge.linkasanote.utils.CommonUtils;
+import com.google.common.base.Charsets;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import io.reactivex.Observable;
+import io.reactivex.Single;
+
+/**
+ * Archive of the whole library in JSON Lines: the header, then one item per line in the
+ * cloud format. The items are streamed both ways, so the memory does not depend on
+ * the size of the library. The links go first, so the notes find the links they belong to
+ */
+public class LocalArchive {
+
+    private static final String TAG = LocalArchive.class.getSimpleName();
+    private static final String TAG_E = LocalArchive.class.getCanonicalName();
+
+    private static final String ARCHIVE_FORMAT = "laano";
+    private static final int ARCHIVE_VERSION = 1;
+    private static final String JSON_PROPERTY_FORMAT = "format";
+    private static final String JSON_PROPERTY_VERSION = "version";
+    private static final String JSON_PROPERTY_CREATED = "created";
+    private static final String JSON_PROPERTY_TYPE = "type";
+    private static final String JSON_PROPERTY_ITEM = "item";
+
+    private static final String TYPE_LINK = "link";
+    private static final String TYPE_FAVORITE = "favorite";
+    private static final String TYPE_NOTE = "note";
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private final ContentResolver contentResolver;
+    private final LocalLinks<Link> localLinks;
+    private final LocalFavorites<Favorite> localFavorites;
+    private final LocalNotes<Note> localNotes;
+    private final LocalTags localTags;
+
+    public LocalArchive(
+            @NonNull ContentResolver contentResolver,
+            @NonNull LocalLinks<Link> localLinks, @NonNull LocalFavorites<Favorite> localFavorites,
+            @NonNull LocalNotes<Note> localNotes, @NonNull LocalTags localTags) {
+        this.contentResolver = checkNotNull(contentResolver);
+        this.localLinks = checkNotNull(localLinks);
+        this.localFavorites = checkNotNull(localFavorites);
+        this.localNotes = checkNotNull(localNotes);
+        this.localTags = checkNotNull(localTags);
+    }
+
+    /**
+     * NOTE: the deleted items and the unresolved duplicates are left out of the archive
+     *
+     * @return Returns the number of the written items
+     */
+    public Single<Integer> write(@NonNull final OutputStream outputStream, boolean compressed) {
+        checkNotNull(outputStream);
+        return Single.fromCallable(() -> {
+            OutputStream stream = compressed ? new GZIPOutputStream(outputStream) : outputStream;
+            try (Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(stream, Charsets.UTF_8))) {
+                JSONObject header = new JSONObject();
+                header.put(JSON_PROPERTY_FORMAT, ARCHIVE_FORMAT);
+                header.put(JSON_PROPERTY_VERSION, ARCHIVE_VERSION);
+                header.put(JSON_PROPERTY_CREATED, System.currentTimeMillis());
+                writer.write(header.toString());
+                writer.write('\n');
+
+                int[] numItems = {0};
+                Observable.concat(
+                        getArchived(localLinks.getAll(), TYPE_LINK),
+                        getArchived(localFavorites.getAll(), TYPE_FAVORITE),
+                        getArchived(localNotes.getAll(), TYPE_NOTE))
+                        .blockingForEach(line -> {
+                            writer.write(line);
+                            writer.write('\n');
+                            numItems[0]++;
+                        });
+                return numItems[0];
+            }
+        });
+    }
+
+    private <T extends Item> Observable<String> getArchived(
+            final Observable<T> items, final String type) {
+        return items
+                .filter(item -> !item.isDeleted() && !item.isDuplicated())
+                .concatMap(item -> {
+                    JSONObject jsonItem = item.getJsonObject();
+                    if (jsonItem == null) return Observable.empty();
+
+                    JSONObject jsonLine = new JSONObject();
+                    jsonLine.put(JSON_PROPERTY_TYPE, type);
+                    jsonLine.put(JSON_PROPERTY_ITEM, jsonItem);
+                    return Observable.just(jsonLine.toString());
+                });
+    }
+
+    /**
+     * The items are saved in batches of GLOBAL_ARCHIVE_BATCH_SIZE, one transaction each.
+     * The existing items are replaced and all of them are left to be synced
+     *
+     * @return Returns the number of the saved items
+     */
+    public Single<Integer> read(@NonNull final InputStream inputStream) {
+        checkNotNull(inputStream);
+        return Single.fromCallable(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    getDecompressed(inputStream), Charsets.UTF_8))) {
+                String line = reader.readLine();
+                if (line == null || !isHeader(line)) {
+                    throw new IOException("Unsupported archive format");
+                }
+                final int batchSize = Settings.GLOBAL_ARCHIVE_BATCH_SIZE;
+                final SyncState state = new SyncState(SyncState.State.UNSYNCED);
+                List<Item> batch = new ArrayList<>(batchSize);
+                String batchType = null;
+                int numItems = 0;
+                int numLines = 1;
+                while ((line = reader.readLine()) != null) {
+                    numLines++;
+                    if (line.isEmpty()) continue;
+
+                    String type;
+                    Item item;
+                    try {
+                        JSONObject jsonLine = new JSONObject(line);
+                        type = jsonLine.getString(JSON_PROPERTY_TYPE);
+                        item = getItem(type, jsonLine.getJSONObject(JSON_PROPERTY_ITEM), state);
+                    } catch (JSONException e) {
+                        Log.e(TAG, "Invalid archive line was skipped [" + numLines + "]");
+                        continue;
+                    }
+                    if (item == null) {
+                        Log.e(TAG, "Invalid archive item was skipped [" + numLines + "]");
+                        continue;
+                    }
+                    if (!type.equals(batchType) || batch.size() >= batchSize) {
+                        numItems += saveBatch(batchType, batch);
+                        batch.clear();
+                        batchType = type;
+                    }
+                    batch.add(item);
+                }
+                numItems += saveBatch(batchType, batch);
+                return numItems;
+            }
+        });
+    }
+
+    private static InputStream getDecompressed(InputStream inputStream) throws IOException {
+        BufferedInputStream stream = new BufferedInputStream(inputStream);
+        stream.mark(2);
+        int magic = stream.read() | (stream.read() << 8);
+        stream.reset();
+        return magic == GZIP_MAGIC ? new GZIPInputStream(stream) : stream;
+    }
+
+    private static boolean isHeader(@NonNull String line) {
+        try {
+            JSONObject header = new JSONObject(line);
+            return ARCHIVE_FORMAT.equals(header.optString(JSON_PROPERTY_FORMAT))
+                    && header.optInt(JSON_PROPERTY_VERSION) == ARCHIVE_VERSION;
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    @Nullable
+    private static Item getItem(
+            @NonNull String type, @NonNull JSONObject jsonItem, @NonNull SyncState state) {
+        switch (type) {
+            case TYPE_LINK:
+                return Link.from(jsonItem, state);
+            case TYPE_FAVORITE:
+                return Favorite.from(jsonItem, state);
+            case TYPE_NOTE:
+                return Note.from(jsonItem, state);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * NOTE: if the batch is rejected, e.g. a link is already there under another ID,
+     *       its items are saved one by one and the rejected ones are skipped
+     */
+    private int saveBatch(@Nullable String type, @NonNull List<Item> items)
+            throws RemoteException {
+        if (type == null || items.isEmpty()) return 0;
+
+        Uri uri;
+        Uri tagsUri; // NOTE: row ID of the tags URI is taken from the back reference
+        switch (type) {
+            case TYPE_LINK:
+                uri = LocalContract.LinkEntry.buildUri();
+                tagsUri = LocalContract.LinkEntry.buildTagsDirUriWith(0);
+                break;
+            case TYPE_FAVORITE:
+                uri = LocalContract.FavoriteEntry.buildUri();
+                tagsUri = LocalContract.FavoriteEntry.buildTagsDirUriWith(0);
+                break;
+            case TYPE_NOTE:
+                uri = LocalContract.NoteEntry.buildUri();
+                tagsUri = LocalContract.NoteEntry.buildTagsDirUriWith(0);
+                break;
+            default:
+                throw new IllegalArgumentException("Unexpected item type [" + type + "]");
+        }
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (Item item : items) {
+            addSaveOperations(operations, item, uri, tagsUri);
+        }
+        try {
+            contentResolver.applyBatch(LocalContract.CONTENT_AUTHORITY, operations);
+            return items.size();
+        } catch (OperationApplicationException | RuntimeException e) {
+            CommonUtils.logStackTrace(TAG_E, e);
+        }
+        int numItems = 0;
+        for (Item item : items) {
+            operations.clear();
+            addSaveOperations(operations, item, uri, tagsUri);
+            try {
+                contentResolver.applyBatch(LocalContract.CONTENT_AUTHORITY, operations);
+                numItems++;
+            } catch (OperationApplicationException | RuntimeException e) {
+                Log.e(TAG, "Archive item was not saved [" + type + "; " + item.getId() + "]");
+            }
+        }
+        return numItems;
+    }
+
+    private void addSaveOperations(
+            @NonNull ArrayList<ContentProviderOperation> operations,
+            @NonNull Item item, @NonNull Uri uri, @NonNull Uri tagsUri) {
+        int itemIndex = operations.size();
+        operations.add(ContentProviderOperation.newInsert(uri)
+                .withValues(item.getContentValues())
+                .build());
+        List<Tag> tags = item.getTags();
+        if (tags != null) {
+            for (Tag tag : tags) {
+                operations.add(localTags.buildSaveTagOperation(tag, tagsUri, itemIndex));
+            }
+        }
+    }
+}
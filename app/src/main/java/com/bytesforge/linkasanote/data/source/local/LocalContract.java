@@ -30,6 +30,7 @@ import android.provider.BaseColumns;
 import androidx.annotation.NonNull;
 
 import com.bytesforge.linkasanote.BuildConfig;
+import com.bytesforge.linkasanote.data.source.ItemFilter;
 
 public final class LocalContract {
 
@@ -37,7 +38,18 @@ public final class LocalContract {
     public static final String CONTENT_SCHEME = "content://";
     public static final Uri BASE_CONTENT_URI = Uri.parse(CONTENT_SCHEME + CONTENT_AUTHORITY);
     public static final String QUERY_PARAMETER_LIMIT = "limit";
-    public static final String QUERY_PARAMETER_OFFSET = "offset";
+    // NOTE: keyset pagination, rows are returned after the given (created, _id) in descending
+    // order or after the given (name, _id) of the favorite in ascending one
+    public static final String QUERY_PARAMETER_AFTER_CREATED = "after_created";
+    public static final String QUERY_PARAMETER_AFTER_NAME = "after_name";
+    public static final String QUERY_PARAMETER_AFTER_ROW_ID = "after_row_id";
+    // NOTE: MATCH expression of the full-text search, see FullTextSearch.buildMatchQuery()
+    public static final String QUERY_PARAMETER_MATCH = "match";
+    // NOTE: ItemFilter, the tag parameter is repeated for every tag name of the filter
+    public static final String QUERY_PARAMETER_FILTER = "filter";
+    public static final String QUERY_PARAMETER_TAG = "tag";
+    // NOTE: row ID of the parent entry provided by the back reference in the batch
+    public static final String VALUES_PARENT_ROW_ID = "parent_row_id";
 
     public static final String[] SYNC_STATE_COLUMNS = new String[]{
             BaseEntry._ID,
@@ -54,6 +66,17 @@ public final class LocalContract {
         return cursor.getString(cursor.getColumnIndexOrThrow(BaseEntry._ID));
     }
 
+    public static Uri appendFilterUriWith(@NonNull Uri uri, @NonNull ItemFilter filter) {
+        checkNotNull(uri);
+        checkNotNull(filter);
+        Uri.Builder builder = uri.buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_FILTER, filter.getType().name());
+        for (String tagName : filter.getTagNames()) {
+            builder.appendQueryParameter(QUERY_PARAMETER_TAG, tagName);
+        }
+        return builder.build();
+    }
+
     public static abstract class LinkEntry implements BaseEntry {
 
         public static final String TABLE_NAME = "link";
@@ -70,6 +93,12 @@ public final class LocalContract {
         public static final Uri CONTENT_URI =
                 BASE_CONTENT_URI.buildUpon().appendPath(TABLE_NAME).build();
 
+        // NOTE: many-to-many relation with the tags where parent entries are referred by row ID
+        public static final String TAG_TABLE_NAME = TABLE_NAME + "_" + TagEntry.TABLE_NAME;
+        public static final String TAG_COLUMN_NAME_PARENT_ID = TABLE_NAME + _ID;
+        // NOTE: full-text index, rows are referred by docid which is the row ID of the entry
+        public static final String FTS_TABLE_NAME = TABLE_NAME + "_fts";
+
         public static final String[] LINK_COLUMNS = new String[]{
                 LinkEntry._ID,
                 LinkEntry.COLUMN_NAME_ENTRY_ID,
@@ -92,10 +121,11 @@ public final class LocalContract {
             return ContentUris.withAppendedId(CONTENT_URI, rowId);
         }
 
-        public static Uri appendUriWith(Uri uri, int limit, long offset) {
+        public static Uri appendUriWith(Uri uri, int limit, long afterCreated, long afterRowId) {
             return uri.buildUpon()
                     .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
-                    .appendQueryParameter(QUERY_PARAMETER_OFFSET, String.valueOf(offset))
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_CREATED, String.valueOf(afterCreated))
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ROW_ID, String.valueOf(afterRowId))
                     .build();
         }
 
@@ -103,6 +133,16 @@ public final class LocalContract {
             return CONTENT_URI.buildUpon().appendPath(id).build();
         }
 
+        public static Uri buildTagsUri() {
+            return BASE_CONTENT_URI.buildUpon().appendEncodedPath(TAG_TABLE_NAME).build();
+        }
+
+        public static Uri buildSearchUri(@NonNull String matchQuery) {
+            return BASE_CONTENT_URI.buildUpon().appendEncodedPath(FTS_TABLE_NAME)
+                    .appendQueryParameter(QUERY_PARAMETER_MATCH, checkNotNull(matchQuery))
+                    .build();
+        }
+
         public static Uri buildTagsDirUriWith(long rowId) {
             return ContentUris.withAppendedId(CONTENT_URI, rowId).buildUpon()
                     .appendEncodedPath(TagEntry.TABLE_NAME).build();
@@ -138,6 +178,10 @@ public final class LocalContract {
         public static final Uri CONTENT_URI =
                 BASE_CONTENT_URI.buildUpon().appendEncodedPath(TABLE_NAME).build();
 
+        public static final String TAG_TABLE_NAME = TABLE_NAME + "_" + TagEntry.TABLE_NAME;
+        public static final String TAG_COLUMN_NAME_PARENT_ID = TABLE_NAME + _ID;
+        public static final String FTS_TABLE_NAME = TABLE_NAME + "_fts";
+
         public static final String[] NOTE_COLUMNS = new String[]{
                 NoteEntry._ID,
                 NoteEntry.COLUMN_NAME_ENTRY_ID,
@@ -159,10 +203,11 @@ public final class LocalContract {
             return ContentUris.withAppendedId(CONTENT_URI, rowId);
         }
 
-        public static Uri appendUriWith(Uri uri, int limit, long offset) {
+        public static Uri appendUriWith(Uri uri, int limit, long afterCreated, long afterRowId) {
             return uri.buildUpon()
                     .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
-                    .appendQueryParameter(QUERY_PARAMETER_OFFSET, String.valueOf(offset))
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_CREATED, String.valueOf(afterCreated))
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ROW_ID, String.valueOf(afterRowId))
                     .build();
         }
 
@@ -170,6 +215,16 @@ public final class LocalContract {
             return CONTENT_URI.buildUpon().appendPath(id).build();
         }
 
+        public static Uri buildTagsUri() {
+            return BASE_CONTENT_URI.buildUpon().appendEncodedPath(TAG_TABLE_NAME).build();
+        }
+
+        public static Uri buildSearchUri(@NonNull String matchQuery) {
+            return BASE_CONTENT_URI.buildUpon().appendEncodedPath(FTS_TABLE_NAME)
+                    .appendQueryParameter(QUERY_PARAMETER_MATCH, checkNotNull(matchQuery))
+                    .build();
+        }
+
         public static Uri buildTagsDirUriWith(long rowId) {
             return ContentUris.withAppendedId(CONTENT_URI, rowId).buildUpon()
                     .appendEncodedPath(TagEntry.TABLE_NAME).build();
@@ -200,6 +255,10 @@ public final class LocalContract {
         public static final Uri CONTENT_URI =
                 BASE_CONTENT_URI.buildUpon().appendEncodedPath(TABLE_NAME).build();
 
+        public static final String TAG_TABLE_NAME = TABLE_NAME + "_" + TagEntry.TABLE_NAME;
+        public static final String TAG_COLUMN_NAME_PARENT_ID = TABLE_NAME + _ID;
+        public static final String FTS_TABLE_NAME = TABLE_NAME + "_fts";
+
         public static final String[] FAVORITE_COLUMNS = new String[]{
                 FavoriteEntry._ID,
                 FavoriteEntry.COLUMN_NAME_ENTRY_ID,
@@ -225,10 +284,21 @@ public final class LocalContract {
             return CONTENT_URI.buildUpon().appendPath(id).build();
         }
 
-        public static Uri appendUriWith(Uri uri, int limit, long offset) {
+        public static Uri appendUriWith(Uri uri, int limit, String afterName, long afterRowId) {
             return uri.buildUpon()
                     .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
-                    .appendQueryParameter(QUERY_PARAMETER_OFFSET, String.valueOf(offset))
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_NAME, afterName)
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ROW_ID, String.valueOf(afterRowId))
+                    .build();
+        }
+
+        public static Uri buildTagsUri() {
+            return BASE_CONTENT_URI.buildUpon().appendEncodedPath(TAG_TABLE_NAME).build();
+        }
+
+        public static Uri buildSearchUri(@NonNull String matchQuery) {
+            return BASE_CONTENT_URI.buildUpon().appendEncodedPath(FTS_TABLE_NAME)
+                    .appendQueryParameter(QUERY_PARAMETER_MATCH, checkNotNull(matchQuery))
                     .build();
         }
 
@@ -335,4 +405,80 @@ public final class LocalContract {
             return Long.parseLong(checkNotNull(uri).getPathSegments().get(1));
         }
     }
+
+    public static abstract class SyncCheckpointEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "sync_checkpoint";
+
+        public static final String COLUMN_NAME_CREATED = BaseEntry.COLUMN_NAME_CREATED;
+        public static final String COLUMN_NAME_ENTRY = "entry";
+        public static final String COLUMN_NAME_ENTRY_ID = "entry_id";
+        public static final String COLUMN_NAME_ETAG = "etag";
+        public static final String COLUMN_NAME_PROCESSED = "processed";
+
+        // NOTE: the row with this ID keeps ETag of the cloud data source the pass has been started with
+        public static final String SOURCE_ENTRY_ID = "*";
+
+        public static final String CONTENT_TYPE =
+                "vnd.android.cursor.dir/" + CONTENT_AUTHORITY + SyncCheckpointEntry.TABLE_NAME;
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendEncodedPath(TABLE_NAME).build();
+
+        public static final String[] SYNC_CHECKPOINT_COLUMNS = new String[]{
+                SyncCheckpointEntry.COLUMN_NAME_ENTRY_ID,
+                SyncCheckpointEntry.COLUMN_NAME_ETAG,
+                SyncCheckpointEntry.COLUMN_NAME_PROCESSED};
+
+        public static Uri buildUri() {
+            return CONTENT_URI.buildUpon().build();
+        }
+
+        public static Uri buildUriWith(long rowId) {
+            return ContentUris.withAppendedId(CONTENT_URI, rowId);
+        }
+    }
+
+    public static abstract class LinkMetadataEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "link_metadata";
+
+        public static final String COLUMN_NAME_URL = "url";
+        public static final String COLUMN_NAME_LOCATION = "location";
+        public static final String COLUMN_NAME_CANONICAL_URL = "canonical_url";
+        public static final String COLUMN_NAME_TITLE = "title";
+        public static final String COLUMN_NAME_DESCRIPTION = "description";
+        public static final String COLUMN_NAME_KEYWORDS = "keywords";
+        public static final String COLUMN_NAME_ETAG = "etag";
+        public static final String COLUMN_NAME_LAST_MODIFIED = "last_modified";
+        public static final String COLUMN_NAME_FETCHED = "fetched";
+        public static final String COLUMN_NAME_ACCESSED = "accessed";
+
+        public static final String CONTENT_TYPE =
+                "vnd.android.cursor.dir/" + CONTENT_AUTHORITY + LinkMetadataEntry.TABLE_NAME;
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendEncodedPath(TABLE_NAME).build();
+
+        public static final String[] LINK_METADATA_COLUMNS = new String[]{
+                LinkMetadataEntry._ID,
+                LinkMetadataEntry.COLUMN_NAME_URL,
+                LinkMetadataEntry.COLUMN_NAME_LOCATION,
+                LinkMetadataEntry.COLUMN_NAME_CANONICAL_URL,
+                LinkMetadataEntry.COLUMN_NAME_TITLE,
+                LinkMetadataEntry.COLUMN_NAME_DESCRIPTION,
+                LinkMetadataEntry.COLUMN_NAME_KEYWORDS,
+                LinkMetadataEntry.COLUMN_NAME_ETAG,
+                LinkMetadataEntry.COLUMN_NAME_LAST_MODIFIED,
+                LinkMetadataEntry.COLUMN_NAME_FETCHED,
+                LinkMetadataEntry.COLUMN_NAME_ACCESSED};
+
+        public static Uri buildUri() {
+            return CONTENT_URI.buildUpon().build();
+        }
+
+        public static Uri buildUriWith(long rowId) {
+            return ContentUris.withAppendedId(CONTENT_URI, rowId);
+        }
+    }
 }
@@ -37,9 +37,16 @@ import com.bytesforge.linkasanote.data.Note;
 import com.bytesforge.linkasanote.data.SyncResult;
 import com.bytesforge.linkasanote.data.Tag;
 import com.bytesforge.linkasanote.data.source.DataSource;
+import com.bytesforge.linkasanote.data.source.ItemFilter;
 import com.bytesforge.linkasanote.sync.SyncState;
+import com.google.common.collect.ObjectArrays;
 
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import javax.inject.Singleton;
@@ -79,6 +86,24 @@ public class LocalDataSource {
         return localLinks.getActive(linkIds);
     }
 
+    public Observable<Link> getLinksAfter(@NonNull final Link link) {
+        checkNotNull(link);
+        return localLinks.getActiveAfter(link);
+    }
+
+    public Observable<Link> getLinks(@NonNull final ItemFilter filter) {
+        checkNotNull(filter);
+        return localLinks.getActive(filter);
+    }
+
+    /**
+     * @return Returns IDs of the active links found by the text, the most relevant go first
+     */
+    public Single<List<String>> searchLinks(@NonNull final String text) {
+        checkNotNull(text);
+        return localLinks.search(text);
+    }
+
     public Single<Link> getLink(@NonNull final String linkId) {
         checkNotNull(linkId);
         return localLinks.get(linkId);
@@ -90,6 +115,11 @@ public class LocalDataSource {
                 .map(success -> success ? DataSource.ItemState.DEFERRED : null);
     }
 
+    public Single<Integer> saveLinks(@NonNull final List<Link> links) {
+        checkNotNull(links);
+        return localLinks.saveAll(links);
+    }
+
     @VisibleForTesting
     public void deleteAllLinks() {
         localLinks.delete().blockingGet();
@@ -164,6 +194,24 @@ public class LocalDataSource {
         return localFavorites.getActive(favoriteIds);
     }
 
+    public Observable<Favorite> getFavoritesAfter(@NonNull final Favorite favorite) {
+        checkNotNull(favorite);
+        return localFavorites.getActiveAfter(favorite);
+    }
+
+    public Observable<Favorite> getFavorites(@NonNull final ItemFilter filter) {
+        checkNotNull(filter);
+        return localFavorites.getActive(filter);
+    }
+
+    /**
+     * @return Returns IDs of the active favorites found by the text, the most relevant go first
+     */
+    public Single<List<String>> searchFavorites(@NonNull final String text) {
+        checkNotNull(text);
+        return localFavorites.search(text);
+    }
+
     public Single<Favorite> getFavorite(@NonNull final String favoriteId) {
         checkNotNull(favoriteId);
         return localFavorites.get(favoriteId);
@@ -249,6 +297,24 @@ public class LocalDataSource {
         return localNotes.getActive(noteIds);
     }
 
+    public Observable<Note> getNotesAfter(@NonNull final Note note) {
+        checkNotNull(note);
+        return localNotes.getActiveAfter(note);
+    }
+
+    public Observable<Note> getNotes(@NonNull final ItemFilter filter) {
+        checkNotNull(filter);
+        return localNotes.getActive(filter);
+    }
+
+    /**
+     * @return Returns IDs of the active notes found by the text, the most relevant go first
+     */
+    public Single<List<String>> searchNotes(@NonNull final String text) {
+        checkNotNull(text);
+        return localNotes.search(text);
+    }
+
     public Observable<Note> getNotes(@NonNull final String linkId) {
         checkNotNull(linkId);
         Uri linkNoteUri = LocalContract.LinkEntry.buildNotesDirUriWith(linkId);
@@ -372,6 +438,62 @@ public class LocalDataSource {
         }, Cursor::close);
     }
 
+    /**
+     * @return Returns the map of the entry ID to its sync state, items itself are not built
+     */
+    public static Single<Map<String, SyncState>> getSyncStateMap(
+            final ContentResolver contentResolver, final Uri uri) {
+        final String[] columns = ObjectArrays.concat(
+                BaseEntry.COLUMN_NAME_ENTRY_ID, LocalContract.SYNC_STATE_COLUMNS);
+
+        return Single.fromCallable(() -> {
+            try (Cursor cursor = contentResolver.query(uri, columns, null, null, null)) {
+                if (cursor == null) return null;
+
+                Map<String, SyncState> syncStates = new HashMap<>(cursor.getCount());
+                int entryIdIndex = cursor.getColumnIndexOrThrow(BaseEntry.COLUMN_NAME_ENTRY_ID);
+                while (cursor.moveToNext()) {
+                    syncStates.put(cursor.getString(entryIdIndex), SyncState.from(cursor));
+                }
+                return syncStates;
+            }
+        });
+    }
+
+    /**
+     * @param weights Weight of every column of the full-text index
+     * @return Returns the entry IDs ordered by rank, the order of the query is kept for equal ones
+     */
+    public static Single<List<String>> getRankedIds(
+            final ContentResolver contentResolver, final Uri uri, final String ftsTableName,
+            final String selection, final String[] selectionArgs, final double[] weights) {
+        final String[] columns = new String[]{
+                BaseEntry.COLUMN_NAME_ENTRY_ID, FullTextSearch.sqlMatchInfo(ftsTableName)};
+
+        return Single.fromCallable(() -> {
+            try (Cursor cursor = contentResolver.query(
+                    uri, columns, selection, selectionArgs, null)) {
+                if (cursor == null) return null;
+
+                List<Pair<String, Double>> rankedIds = new ArrayList<>(cursor.getCount());
+                int entryIdIndex = cursor.getColumnIndexOrThrow(BaseEntry.COLUMN_NAME_ENTRY_ID);
+                int matchInfoIndex = cursor.getColumnIndexOrThrow(
+                        FullTextSearch.COLUMN_NAME_MATCH_INFO);
+                while (cursor.moveToNext()) {
+                    double rank = FullTextSearch.rank(cursor.getBlob(matchInfoIndex), weights);
+                    rankedIds.add(Pair.create(cursor.getString(entryIdIndex), rank));
+                }
+                // NOTE: the sort is stable
+                Collections.sort(rankedIds, (a, b) -> Double.compare(b.second, a.second));
+                List<String> ids = new ArrayList<>(rankedIds.size());
+                for (Pair<String, Double> rankedId : rankedIds) {
+                    ids.add(rankedId.first);
+                }
+                return ids;
+            }
+        });
+    }
+
     public static Observable<String> getIds(
             final ContentResolver contentResolver, final Uri uri) {
         final String[] columns = new String[]{BaseEntry.COLUMN_NAME_ENTRY_ID};
@@ -22,6 +22,8 @@ package com.bytesforge.linkasanote.data.source.local;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.database.Cursor;
@@ -34,12 +36,18 @@ import com.bytesforge.linkasanote.data.FavoriteFactory;
 import com.bytesforge.linkasanote.data.Item;
 import com.bytesforge.linkasanote.data.SyncResult;
 import com.bytesforge.linkasanote.data.Tag;
+import com.bytesforge.linkasanote.data.source.ItemFilter;
 import com.bytesforge.linkasanote.settings.Settings;
 import com.bytesforge.linkasanote.sync.SyncState;
 import com.bytesforge.linkasanote.utils.CommonUtils;
+import com.google.common.collect.Lists;
 import com.google.common.collect.ObjectArrays;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import io.reactivex.Observable;
@@ -50,8 +58,11 @@ public class LocalFavorites<T extends Item> implements LocalItems<T> {
     private static final String TAG = LocalFavorites.class.getSimpleName();
     private static final String TAG_E = LocalFavorites.class.getCanonicalName();
 
+    private static final double[] SEARCH_WEIGHTS = {1.0};
+
     // NOTE: static fails Mockito to mock this class
     private final Uri FAVORITE_URI;
+    private final Uri FAVORITE_TAGS_URI;
     private final ContentResolver contentResolver;
     private final LocalSyncResults localSyncResults;
     private final LocalTags localTags;
@@ -66,6 +77,7 @@ public class LocalFavorites<T extends Item> implements LocalItems<T> {
         this.localTags = checkNotNull(localTags);
         this.factory = checkNotNull(factory);
         FAVORITE_URI = LocalContract.FavoriteEntry.buildUri();
+        FAVORITE_TAGS_URI = LocalContract.FavoriteEntry.buildTagsUri();
     }
 
     private Single<T> buildFavorite(final T favorite) {
@@ -75,6 +87,24 @@ public class LocalFavorites<T extends Item> implements LocalItems<T> {
         return Single.zip(singleLink, singleTags, factory::build);
     }
 
+    private Observable<T> buildFavorites(final List<T> favorites) {
+        final List<Long> rowIds = new ArrayList<>(favorites.size());
+        for (T favorite : favorites) {
+            rowIds.add(favorite.getRowId());
+        }
+        return localTags.getTagsMap(
+                FAVORITE_TAGS_URI, LocalContract.FavoriteEntry.TAG_COLUMN_NAME_PARENT_ID, rowIds)
+                .map(tagsMap -> {
+                    List<T> builtFavorites = new ArrayList<>(favorites.size());
+                    for (T favorite : favorites) {
+                        List<Tag> tags = tagsMap.get(favorite.getRowId());
+                        builtFavorites.add(factory.build(
+                                favorite, tags == null ? new ArrayList<>() : tags));
+                    }
+                    return builtFavorites;
+                }).flattenAsObservable(builtFavorites -> builtFavorites);
+    }
+
     // Operations
 
     @Override
@@ -92,7 +122,6 @@ public class LocalFavorites<T extends Item> implements LocalItems<T> {
         String selection = LocalContract.FavoriteEntry.COLUMN_NAME_DELETED + " = ?" +
                 " OR " + LocalContract.FavoriteEntry.COLUMN_NAME_CONFLICTED + " = ?";
         String[] selectionArgs = {"0", "1"};
-        final String sortOrder = LocalContract.FavoriteEntry.COLUMN_NAME_NAME + " ASC";
 
         int size = favoriteIds == null ? 0 : favoriteIds.length;
         if (size > 0) {
@@ -100,7 +129,43 @@ public class LocalFavorites<T extends Item> implements LocalItems<T> {
                     " IN (" + CommonUtils.strRepeat("?", size, ", ") + ")";
             selectionArgs = ObjectArrays.concat(selectionArgs, favoriteIds, String.class);
         }
-        return getByChunk(FAVORITE_URI, selection, selectionArgs, sortOrder);
+        return getByChunk(FAVORITE_URI, selection, selectionArgs, Pair.create("", 0L));
+    }
+
+    /**
+     * @return Returns the active favorites which go after the given one in the order of the list
+     */
+    public Observable<T> getActiveAfter(@NonNull final T favorite) {
+        checkNotNull(favorite);
+        final String selection = LocalContract.FavoriteEntry.COLUMN_NAME_DELETED + " = ?" +
+                " OR " + LocalContract.FavoriteEntry.COLUMN_NAME_CONFLICTED + " = ?";
+        final String[] selectionArgs = {"0", "1"};
+
+        return getByChunk(FAVORITE_URI, selection, selectionArgs,
+                Pair.create(favorite.getDuplicatedKey(), favorite.getRowId()));
+    }
+
+    @Override
+    public Observable<T> getActive(@NonNull final ItemFilter filter) {
+        checkNotNull(filter);
+        final String selection = LocalContract.FavoriteEntry.COLUMN_NAME_DELETED + " = ?" +
+                " OR " + LocalContract.FavoriteEntry.COLUMN_NAME_CONFLICTED + " = ?";
+        final String[] selectionArgs = {"0", "1"};
+
+        return getByChunk(LocalContract.appendFilterUriWith(FAVORITE_URI, filter),
+                selection, selectionArgs, Pair.create("", 0L));
+    }
+
+    @Override
+    public Observable<T> get(final String[] favoriteIds) {
+        checkNotNull(favoriteIds);
+        return Observable.fromIterable(
+                Lists.partition(Arrays.asList(favoriteIds), Settings.GLOBAL_QUERY_IN_CHUNK_SIZE))
+                .concatMap(chunk -> {
+                    final String selection = LocalContract.FavoriteEntry.COLUMN_NAME_ENTRY_ID +
+                            " IN (" + CommonUtils.strRepeat("?", chunk.size(), ", ") + ")";
+                    return get(FAVORITE_URI, selection, chunk.toArray(new String[0]), null);
+                });
     }
 
     @Override
@@ -137,21 +202,35 @@ public class LocalFavorites<T extends Item> implements LocalItems<T> {
             }
             return cursor;
         }, Cursor::close);
-        return favoritesGenerator.flatMap(favorite -> buildFavorite(favorite).toObservable());
+        return favoritesGenerator
+                .buffer(Settings.GLOBAL_QUERY_IN_CHUNK_SIZE)
+                .concatMap(this::buildFavorites);
     }
 
+    /**
+     * Keyset pagination: every chunk is sought right after the last favorite of the previous one
+     */
     private Observable<T> getByChunk(
-            final Uri uri,
-            final String selection, final String[] selectionArgs, final String sortOrder) {
+            final Uri uri, final String selection, final String[] selectionArgs,
+            final Pair<String, Long> firstKey) {
         final int chunkSize = Settings.GLOBAL_QUERY_CHUNK_SIZE;
-        return LocalDataSource.getCount(contentResolver, uri, null, null)
-                .toObservable()
-                .flatMap(numRows -> Observable.rangeLong(0, numRows / chunkSize + 1))
-                .flatMap(chunk -> {
-                    Uri uriChunk = LocalContract.FavoriteEntry.appendUriWith(
-                            uri, chunkSize, chunk * chunkSize);
-                    return get(uriChunk, selection, selectionArgs, sortOrder);
-                });
+        return Observable.<List<T>, Pair<String, Long>>generate(() -> {
+            return firstKey; // (name, _id)
+        }, (lastKey, chunkEmitter) -> {
+            Uri uriChunk = LocalContract.FavoriteEntry.appendUriWith(
+                    uri, chunkSize, lastKey.first, lastKey.second);
+            List<T> favorites = get(uriChunk, selection, selectionArgs, null).toList().blockingGet();
+            if (!favorites.isEmpty()) {
+                chunkEmitter.onNext(favorites);
+            }
+            if (favorites.size() < chunkSize) {
+                chunkEmitter.onComplete();
+                return lastKey;
+            }
+            T lastFavorite = favorites.get(favorites.size() - 1);
+            // NOTE: name is the duplicated key of the favorite
+            return Pair.create(lastFavorite.getDuplicatedKey(), lastFavorite.getRowId());
+        }).concatMapIterable(favorites -> favorites);
     }
 
     @Override
@@ -212,6 +291,34 @@ public class LocalFavorites<T extends Item> implements LocalItems<T> {
                 }).flatMap(this::save);
     }
 
+    @Override
+    public Single<Boolean> saveDownloaded(final List<T> favorites, long started) {
+        checkNotNull(favorites);
+        return Single.fromCallable(() -> {
+            // NOTE: row ID of the tags URI is taken from the back reference
+            Uri tagsUri = LocalContract.FavoriteEntry.buildTagsDirUriWith(0);
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            for (T favorite : favorites) {
+                int favoriteIndex = operations.size();
+                operations.add(ContentProviderOperation.newInsert(FAVORITE_URI)
+                        .withValues(favorite.getContentValues())
+                        .build());
+                List<Tag> tags = favorite.getTags();
+                if (tags != null) {
+                    for (Tag tag : tags) {
+                        operations.add(localTags.buildSaveTagOperation(tag, tagsUri, favoriteIndex));
+                    }
+                }
+                operations.add(localSyncResults.buildLogOperation(new SyncResult(
+                        started, LocalContract.FavoriteEntry.TABLE_NAME, favorite.getId(),
+                        LocalContract.SyncResultEntry.Result.DOWNLOADED, false)));
+            }
+            ContentProviderResult[] results =
+                    contentResolver.applyBatch(LocalContract.CONTENT_AUTHORITY, operations);
+            return results.length == operations.size();
+        });
+    }
+
     @Override
     public Single<Boolean> update(final String favoriteId, final SyncState state) {
         return Single.fromCallable(() -> {
@@ -256,11 +363,30 @@ public class LocalFavorites<T extends Item> implements LocalItems<T> {
         return LocalDataSource.getSyncStates(contentResolver, FAVORITE_URI, null, null, null);
     }
 
+    @Override
+    public Single<Map<String, SyncState>> getSyncStateMap() {
+        return LocalDataSource.getSyncStateMap(contentResolver, FAVORITE_URI);
+    }
+
     @Override
     public Observable<String> getIds() {
         return LocalDataSource.getIds(contentResolver, FAVORITE_URI);
     }
 
+    @Override
+    public Single<List<String>> search(@NonNull final String text) {
+        checkNotNull(text);
+        String matchQuery = FullTextSearch.buildMatchQuery(text);
+        if (matchQuery == null) return Single.just(Collections.emptyList());
+
+        final String selection = LocalContract.FavoriteEntry.COLUMN_NAME_DELETED + " = ?" +
+                " OR " + LocalContract.FavoriteEntry.COLUMN_NAME_CONFLICTED + " = ?";
+        final String[] selectionArgs = {"0", "1"};
+        return LocalDataSource.getRankedIds(contentResolver,
+                LocalContract.FavoriteEntry.buildSearchUri(matchQuery),
+                LocalContract.FavoriteEntry.FTS_TABLE_NAME, selection, selectionArgs, SEARCH_WEIGHTS);
+    }
+
     @Override
     public Single<Boolean> isConflicted() {
         return LocalDataSource.isConflicted(contentResolver, FAVORITE_URI);
@@ -332,17 +458,22 @@ public class LocalFavorites<T extends Item> implements LocalItems<T> {
     }
 
     @Override
-    public Single<Boolean> logSyncResult(
+    public SyncResult buildSyncResult(
             long started, @NonNull final String entryId,
             @NonNull final LocalContract.SyncResultEntry.Result result, boolean applied) {
         checkNotNull(entryId);
         checkNotNull(result);
         if (result == LocalContract.SyncResultEntry.Result.RELATED) {
-            throw new RuntimeException("logSyncResult(): there is no RELATED item implementation available for Favorites");
+            throw new RuntimeException("buildSyncResult(): there is no RELATED item implementation available for Favorites");
         }
-        SyncResult syncResult = new SyncResult(
-                started, LocalContract.FavoriteEntry.TABLE_NAME, entryId, result, applied);
-        return localSyncResults.log(syncResult);
+        return new SyncResult(started, LocalContract.FavoriteEntry.TABLE_NAME, entryId, result, applied);
+    }
+
+    @Override
+    public Single<Boolean> logSyncResult(
+            long started, @NonNull final String entryId,
+            @NonNull final LocalContract.SyncResultEntry.Result result, boolean applied) {
+        return localSyncResults.log(buildSyncResult(started, entryId, result, applied));
     }
 
     @Override
@@ -352,6 +483,11 @@ public class LocalFavorites<T extends Item> implements LocalItems<T> {
         return logSyncResult(started, entryId, result, false);
     }
 
+    @Override
+    public Single<Integer> logSyncResults(@NonNull final List<SyncResult> syncResults) {
+        return localSyncResults.log(syncResults);
+    }
+
     @Override
     public Single<Integer> markSyncResultsAsApplied() {
         return localSyncResults.markAsApplied(LocalContract.FavoriteEntry.TABLE_NAME, 0L);
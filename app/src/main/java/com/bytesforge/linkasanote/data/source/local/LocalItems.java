@@ -25,8 +25,13 @@ import android.util.Pair;
 
 import androidx.annotation.NonNull;
 
+import com.bytesforge.linkasanote.data.SyncResult;
+import com.bytesforge.linkasanote.data.source.ItemFilter;
 import com.bytesforge.linkasanote.sync.SyncState;
 
+import java.util.List;
+import java.util.Map;
+
 import io.reactivex.Observable;
 import io.reactivex.Single;
 
@@ -35,7 +40,9 @@ public interface LocalItems<T> {
     Observable<T> getAll();
     Observable<T> getActive();
     Observable<T> getActive(String[] linkIds);
+    Observable<T> getActive(@NonNull final ItemFilter filter);
     Observable<T> getUnsynced();
+    Observable<T> get(final String[] itemIds);
     Observable<T> get(final Uri uri);
     Observable<T> get(
             final Uri uri,
@@ -43,13 +50,16 @@ public interface LocalItems<T> {
     Single<T> get(final String itemId);
     Single<Boolean> save(final T item);
     Single<Boolean> saveDuplicated(final T item);
+    Single<Boolean> saveDownloaded(final List<T> items, long started);
     Single<Boolean> update(final String itemId, final SyncState state);
     Single<Integer> resetSyncState();
     Single<Boolean> delete(final String itemId);
     Single<Integer> delete();
     Single<SyncState> getSyncState(final String itemId);
     Observable<SyncState> getSyncStates();
+    Single<Map<String, SyncState>> getSyncStateMap();
     Observable<String> getIds();
+    Single<List<String>> search(final String text);
     Single<Boolean> isConflicted();
     Single<Boolean> isUnsynced();
     Single<Integer> getNextDuplicated(final String duplicatedKey);
@@ -61,6 +71,10 @@ public interface LocalItems<T> {
     Single<Boolean> logSyncResult(
             long started, @NonNull final String entryId,
             @NonNull final LocalContract.SyncResultEntry.Result result, boolean applied);
+    SyncResult buildSyncResult(
+            long started, @NonNull final String entryId,
+            @NonNull final LocalContract.SyncResultEntry.Result result, boolean applied);
+    Single<Integer> logSyncResults(@NonNull final List<SyncResult> syncResults);
     Single<Integer> markSyncResultsAsApplied();
     Observable<Pair<String, LocalContract.SyncResultEntry.Result>> getSyncResultsIds();
 }
@@ -0,0 +1,113 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bytesforge.linkasanote.data.source.local;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import androidx.annotation.NonNull;
+
+import com.bytesforge.linkasanote.data.LinkMetadata;
+
+import java.util.NoSuchElementException;
+
+import io.reactivex.Single;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Metadata of the pages the links point to, so the same URL is not fetched again
+ * until its metadata is expired. The least recently accessed rows are evicted first
+ */
+public class LocalLinkMetadata {
+
+    private static final String TAG = LocalLinkMetadata.class.getSimpleName();
+
+    private static final String URL_SELECTION =
+            LocalContract.LinkMetadataEntry.COLUMN_NAME_URL + " = ?";
+    // NOTE: the index on the access time keeps it cheap enough to be run on every save
+    private static final String EVICT_SELECTION =
+            LocalContract.LinkMetadataEntry._ID + " NOT IN (" +
+                    "SELECT " + LocalContract.LinkMetadataEntry._ID +
+                    " FROM " + LocalContract.LinkMetadataEntry.TABLE_NAME +
+                    " ORDER BY " + LocalContract.LinkMetadataEntry.COLUMN_NAME_ACCESSED + " DESC" +
+                    " LIMIT ?)";
+
+    private static Uri LINK_METADATA_URI;
+
+    private final ContentResolver contentResolver;
+
+    public LocalLinkMetadata(@NonNull ContentResolver contentResolver) {
+        this.contentResolver = checkNotNull(contentResolver);
+        LINK_METADATA_URI = LocalContract.LinkMetadataEntry.buildUri();
+    }
+
+    /**
+     * NOTE: the access time of the found metadata is updated
+     */
+    public Single<LinkMetadata> get(@NonNull final String url) {
+        checkNotNull(url);
+        return Single.fromCallable(() -> {
+            try (Cursor cursor = contentResolver.query(LINK_METADATA_URI,
+                    LocalContract.LinkMetadataEntry.LINK_METADATA_COLUMNS,
+                    URL_SELECTION, new String[]{url}, null)) {
+                if (cursor == null) return null;
+
+                if (!cursor.moveToLast()) {
+                    throw new NoSuchElementException("The requested link metadata was not found");
+                }
+                LinkMetadata linkMetadata = LinkMetadata.from(cursor);
+                ContentValues values = new ContentValues();
+                values.put(LocalContract.LinkMetadataEntry.COLUMN_NAME_ACCESSED,
+                        currentTimeMillis());
+                contentResolver.update(LINK_METADATA_URI, values, URL_SELECTION, new String[]{url});
+                return linkMetadata;
+            }
+        });
+    }
+
+    /**
+     * NOTE: the metadata of the same URL is replaced
+     */
+    public Single<Boolean> save(@NonNull final LinkMetadata linkMetadata) {
+        checkNotNull(linkMetadata);
+        return Single.fromCallable(() -> {
+            Uri uri = contentResolver.insert(
+                    LINK_METADATA_URI, linkMetadata.getContentValues(currentTimeMillis()));
+            return uri != null;
+        });
+    }
+
+    /**
+     * @return Returns the number of the evicted rows
+     */
+    public Single<Integer> evict(final int maxSize) {
+        return Single.fromCallable(() -> contentResolver.delete(
+                LINK_METADATA_URI, EVICT_SELECTION, new String[]{Integer.toString(maxSize)}));
+    }
+
+    public Single<Integer> delete(@NonNull final String url) {
+        checkNotNull(url);
+        return Single.fromCallable(() -> contentResolver.delete(
+                LINK_METADATA_URI, URL_SELECTION, new String[]{url}));
+    }
+}
@@ -22,6 +22,8 @@ package com.bytesforge.linkasanote.data.source.local;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.database.Cursor;
@@ -35,12 +37,19 @@ import com.bytesforge.linkasanote.data.LinkFactory;
 import com.bytesforge.linkasanote.data.Note;
 import com.bytesforge.linkasanote.data.SyncResult;
 import com.bytesforge.linkasanote.data.Tag;
+import com.bytesforge.linkasanote.data.source.ItemFilter;
 import com.bytesforge.linkasanote.settings.Settings;
 import com.bytesforge.linkasanote.sync.SyncState;
 import com.bytesforge.linkasanote.utils.CommonUtils;
+import com.google.common.collect.Lists;
 import com.google.common.collect.ObjectArrays;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import io.reactivex.Observable;
@@ -51,8 +60,12 @@ public class LocalLinks<T extends Item> implements LocalItems<T> {
     private static final String TAG = LocalLinks.class.getSimpleName();
     private static final String TAG_E = LocalLinks.class.getCanonicalName();
 
+    // NOTE: name of the link is more relevant than its URL
+    private static final double[] SEARCH_WEIGHTS = {2.0, 1.0};
+
     // NOTE: static fails Mockito to mock this class
     private final Uri LINK_URI;
+    private final Uri LINK_TAGS_URI;
     private final ContentResolver contentResolver;
     private final LocalSyncResults localSyncResults;
     private final LocalTags localTags;
@@ -70,6 +83,7 @@ public class LocalLinks<T extends Item> implements LocalItems<T> {
         this.localNotes = checkNotNull(localNotes);
         this.factory = checkNotNull(factory);
         LINK_URI = LocalContract.LinkEntry.buildUri();
+        LINK_TAGS_URI = LocalContract.LinkEntry.buildTagsUri();
     }
 
     private Single<T> buildLink(final T link) {
@@ -83,6 +97,46 @@ public class LocalLinks<T extends Item> implements LocalItems<T> {
         return Single.zip(singleLink, singleTags, singleNotes, factory::build);
     }
 
+    /**
+     * Build the chunk of links with the constant number of queries instead of two per link
+     */
+    private Observable<T> buildLinks(final List<T> links) {
+        final int size = links.size();
+        final List<Long> rowIds = new ArrayList<>(size);
+        final String[] linkIds = new String[size];
+        for (int i = 0; i < size; i++) {
+            rowIds.add(links.get(i).getRowId());
+            linkIds[i] = links.get(i).getId();
+        }
+        Single<Map<Long, List<Tag>>> singleTags = localTags.getTagsMap(
+                LINK_TAGS_URI, LocalContract.LinkEntry.TAG_COLUMN_NAME_PARENT_ID, rowIds);
+
+        final String selection = LocalContract.NoteEntry.COLUMN_NAME_LINK_ID +
+                " IN (" + CommonUtils.strRepeat("?", size, ", ") + ")";
+        final String sortOrder = LocalContract.NoteEntry.COLUMN_NAME_CREATED + " DESC";
+        Single<Map<String, List<Note>>> singleNotes = localNotes.get(
+                LocalContract.NoteEntry.buildUri(), selection, linkIds, sortOrder)
+                .collect(HashMap::new, (notesMap, note) -> {
+                    List<Note> notes = notesMap.get(note.getLinkId());
+                    if (notes == null) {
+                        notes = new ArrayList<>();
+                        notesMap.put(note.getLinkId(), notes);
+                    }
+                    notes.add(note);
+                });
+        return Single.zip(singleTags, singleNotes, (tagsMap, notesMap) -> {
+            List<T> builtLinks = new ArrayList<>(size);
+            for (T link : links) {
+                List<Tag> tags = tagsMap.get(link.getRowId());
+                List<Note> notes = notesMap.get(link.getId());
+                builtLinks.add(factory.build(link,
+                        tags == null ? new ArrayList<>() : tags,
+                        notes == null ? new ArrayList<>() : notes));
+            }
+            return builtLinks;
+        }).flattenAsObservable(builtLinks -> builtLinks);
+    }
+
     // Operations
 
     @Override
@@ -100,7 +154,6 @@ public class LocalLinks<T extends Item> implements LocalItems<T> {
         String selection = LocalContract.LinkEntry.COLUMN_NAME_DELETED + " = ?" +
                 " OR " + LocalContract.LinkEntry.COLUMN_NAME_CONFLICTED + " = ?";
         String[] selectionArgs = {"0", "1"};
-        final String sortOrder = LocalContract.LinkEntry.COLUMN_NAME_CREATED + " DESC";
 
         int size = (linkIds == null ? 0 : linkIds.length);
         if (size > 0) {
@@ -108,7 +161,44 @@ public class LocalLinks<T extends Item> implements LocalItems<T> {
                     " IN (" + CommonUtils.strRepeat("?", size, ", ") + ")";
             selectionArgs = ObjectArrays.concat(selectionArgs, linkIds, String.class);
         }
-        return getByChunk(LINK_URI, selection, selectionArgs, sortOrder);
+        return getByChunk(LINK_URI, selection, selectionArgs,
+                Pair.create(Long.MAX_VALUE, Long.MAX_VALUE));
+    }
+
+    /**
+     * @return Returns the active links which go after the given one in the order of the list
+     */
+    public Observable<T> getActiveAfter(@NonNull final T link) {
+        checkNotNull(link);
+        final String selection = LocalContract.LinkEntry.COLUMN_NAME_DELETED + " = ?" +
+                " OR " + LocalContract.LinkEntry.COLUMN_NAME_CONFLICTED + " = ?";
+        final String[] selectionArgs = {"0", "1"};
+
+        return getByChunk(LINK_URI, selection, selectionArgs,
+                Pair.create(link.getCreated(), link.getRowId()));
+    }
+
+    @Override
+    public Observable<T> getActive(@NonNull final ItemFilter filter) {
+        checkNotNull(filter);
+        final String selection = LocalContract.LinkEntry.COLUMN_NAME_DELETED + " = ?" +
+                " OR " + LocalContract.LinkEntry.COLUMN_NAME_CONFLICTED + " = ?";
+        final String[] selectionArgs = {"0", "1"};
+
+        return getByChunk(LocalContract.appendFilterUriWith(LINK_URI, filter),
+                selection, selectionArgs, Pair.create(Long.MAX_VALUE, Long.MAX_VALUE));
+    }
+
+    @Override
+    public Observable<T> get(final String[] linkIds) {
+        checkNotNull(linkIds);
+        return Observable.fromIterable(
+                Lists.partition(Arrays.asList(linkIds), Settings.GLOBAL_QUERY_IN_CHUNK_SIZE))
+                .concatMap(chunk -> {
+                    final String selection = LocalContract.LinkEntry.COLUMN_NAME_ENTRY_ID +
+                            " IN (" + CommonUtils.strRepeat("?", chunk.size(), ", ") + ")";
+                    return get(LINK_URI, selection, chunk.toArray(new String[0]), null);
+                });
     }
 
     @Override
@@ -145,21 +235,34 @@ public class LocalLinks<T extends Item> implements LocalItems<T> {
             }
             return cursor;
         }, Cursor::close);
-        return linksGenerator.flatMap(link -> buildLink(link).toObservable());
+        return linksGenerator
+                .buffer(Settings.GLOBAL_QUERY_IN_CHUNK_SIZE)
+                .concatMap(this::buildLinks);
     }
 
+    /**
+     * Keyset pagination: every chunk is sought right after the last link of the previous one
+     */
     private Observable<T> getByChunk(
-            final Uri uri,
-            final String selection, final String[] selectionArgs, final String sortOrder) {
+            final Uri uri, final String selection, final String[] selectionArgs,
+            final Pair<Long, Long> firstKey) {
         final int chunkSize = Settings.GLOBAL_QUERY_CHUNK_SIZE;
-        return LocalDataSource.getCount(contentResolver, uri, null, null)
-                .toObservable()
-                .flatMap(numRows -> Observable.rangeLong(0, numRows / chunkSize + 1))
-                .flatMap(chunk -> {
-                    Uri uriChunk = LocalContract.LinkEntry.appendUriWith(
-                            uri, chunkSize, chunk * chunkSize);
-                    return get(uriChunk, selection, selectionArgs, sortOrder);
-                });
+        return Observable.<List<T>, Pair<Long, Long>>generate(() -> {
+            return firstKey; // (created, _id)
+        }, (lastKey, chunkEmitter) -> {
+            Uri uriChunk = LocalContract.LinkEntry.appendUriWith(
+                    uri, chunkSize, lastKey.first, lastKey.second);
+            List<T> links = get(uriChunk, selection, selectionArgs, null).toList().blockingGet();
+            if (!links.isEmpty()) {
+                chunkEmitter.onNext(links);
+            }
+            if (links.size() < chunkSize) {
+                chunkEmitter.onComplete();
+                return lastKey;
+            }
+            T lastLink = links.get(links.size() - 1);
+            return Pair.create(lastLink.getCreated(), lastLink.getRowId());
+        }).concatMapIterable(links -> links);
     }
 
     @Override
@@ -220,6 +323,61 @@ public class LocalLinks<T extends Item> implements LocalItems<T> {
                 }).flatMap(this::save);
     }
 
+    @Override
+    public Single<Boolean> saveDownloaded(final List<T> links, long started) {
+        checkNotNull(links);
+        return Single.fromCallable(() -> {
+            // NOTE: row ID of the tags URI is taken from the back reference
+            Uri tagsUri = LocalContract.LinkEntry.buildTagsDirUriWith(0);
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            for (T link : links) {
+                int linkIndex = operations.size();
+                operations.add(ContentProviderOperation.newInsert(LINK_URI)
+                        .withValues(link.getContentValues())
+                        .build());
+                List<Tag> tags = link.getTags();
+                if (tags != null) {
+                    for (Tag tag : tags) {
+                        operations.add(localTags.buildSaveTagOperation(tag, tagsUri, linkIndex));
+                    }
+                }
+                operations.add(localSyncResults.buildLogOperation(new SyncResult(
+                        started, LocalContract.LinkEntry.TABLE_NAME, link.getId(),
+                        LocalContract.SyncResultEntry.Result.DOWNLOADED, false)));
+            }
+            ContentProviderResult[] results =
+                    contentResolver.applyBatch(LocalContract.CONTENT_AUTHORITY, operations);
+            return results.length == operations.size();
+        });
+    }
+
+    /**
+     * NOTE: the links are saved in one transaction, their tags are replaced
+     */
+    public Single<Integer> saveAll(final List<T> links) {
+        checkNotNull(links);
+        return Single.fromCallable(() -> {
+            if (links.isEmpty()) return 0;
+
+            Uri tagsUri = LocalContract.LinkEntry.buildTagsDirUriWith(0);
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            for (T link : links) {
+                int linkIndex = operations.size();
+                operations.add(ContentProviderOperation.newInsert(LINK_URI)
+                        .withValues(link.getContentValues())
+                        .build());
+                List<Tag> tags = link.getTags();
+                if (tags != null) {
+                    for (Tag tag : tags) {
+                        operations.add(localTags.buildSaveTagOperation(tag, tagsUri, linkIndex));
+                    }
+                }
+            }
+            contentResolver.applyBatch(LocalContract.CONTENT_AUTHORITY, operations);
+            return links.size();
+        });
+    }
+
     @Override
     public Single<Boolean> update(final String linkId, final SyncState state) {
         return Single.fromCallable(() -> {
@@ -264,11 +422,30 @@ public class LocalLinks<T extends Item> implements LocalItems<T> {
         return LocalDataSource.getSyncStates(contentResolver, LINK_URI, null, null, null);
     }
 
+    @Override
+    public Single<Map<String, SyncState>> getSyncStateMap() {
+        return LocalDataSource.getSyncStateMap(contentResolver, LINK_URI);
+    }
+
     @Override
     public Observable<String> getIds() {
         return LocalDataSource.getIds(contentResolver, LINK_URI);
     }
 
+    @Override
+    public Single<List<String>> search(@NonNull final String text) {
+        checkNotNull(text);
+        String matchQuery = FullTextSearch.buildMatchQuery(text);
+        if (matchQuery == null) return Single.just(Collections.emptyList());
+
+        final String selection = LocalContract.LinkEntry.COLUMN_NAME_DELETED + " = ?" +
+                " OR " + LocalContract.LinkEntry.COLUMN_NAME_CONFLICTED + " = ?";
+        final String[] selectionArgs = {"0", "1"};
+        return LocalDataSource.getRankedIds(contentResolver,
+                LocalContract.LinkEntry.buildSearchUri(matchQuery),
+                LocalContract.LinkEntry.FTS_TABLE_NAME, selection, selectionArgs, SEARCH_WEIGHTS);
+    }
+
     @Override
     public Single<Boolean> isConflicted() {
         return LocalDataSource.isConflicted(contentResolver, LINK_URI);
@@ -340,17 +517,22 @@ public class LocalLinks<T extends Item> implements LocalItems<T> {
     }
 
     @Override
-    public Single<Boolean> logSyncResult(
+    public SyncResult buildSyncResult(
             long started, @NonNull final String entryId,
             @NonNull final LocalContract.SyncResultEntry.Result result, boolean applied) {
         checkNotNull(entryId);
         checkNotNull(result);
         if (result == LocalContract.SyncResultEntry.Result.RELATED) {
-            throw new RuntimeException("logSyncResult(): there is no RELATED item implementation available for Links");
+            throw new RuntimeException("buildSyncResult(): there is no RELATED item implementation available for Links");
         }
-        SyncResult syncResult = new SyncResult(
-                started, LocalContract.LinkEntry.TABLE_NAME, entryId, result, applied);
-        return localSyncResults.log(syncResult);
+        return new SyncResult(started, LocalContract.LinkEntry.TABLE_NAME, entryId, result, applied);
+    }
+
+    @Override
+    public Single<Boolean> logSyncResult(
+            long started, @NonNull final String entryId,
+            @NonNull final LocalContract.SyncResultEntry.Result result, boolean applied) {
+        return localSyncResults.log(buildSyncResult(started, entryId, result, applied));
     }
 
     @Override
@@ -360,6 +542,11 @@ public class LocalLinks<T extends Item> implements LocalItems<T> {
         return logSyncResult(started, entryId, result, false);
     }
 
+    @Override
+    public Single<Integer> logSyncResults(@NonNull final List<SyncResult> syncResults) {
+        return localSyncResults.log(syncResults);
+    }
+
     @Override
     public Single<Integer> markSyncResultsAsApplied() {
         return localSyncResults.markAsApplied(LocalContract.LinkEntry.TABLE_NAME, 0L);
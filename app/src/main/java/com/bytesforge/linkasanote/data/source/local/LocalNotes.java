@@ -22,6 +22,8 @@ package com.bytesforge.linkasanote.data.source.local;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.database.Cursor;
@@ -34,12 +36,18 @@ import com.bytesforge.linkasanote.data.Item;
 import com.bytesforge.linkasanote.data.NoteFactory;
 import com.bytesforge.linkasanote.data.SyncResult;
 import com.bytesforge.linkasanote.data.Tag;
+import com.bytesforge.linkasanote.data.source.ItemFilter;
 import com.bytesforge.linkasanote.settings.Settings;
 import com.bytesforge.linkasanote.sync.SyncState;
 import com.bytesforge.linkasanote.utils.CommonUtils;
+import com.google.common.collect.Lists;
 import com.google.common.collect.ObjectArrays;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import io.reactivex.Observable;
@@ -50,8 +58,11 @@ public class LocalNotes<T extends Item> implements LocalItems<T> {
     private static final String TAG = LocalNotes.class.getSimpleName();
     private static final String TAG_E = LocalNotes.class.getCanonicalName();
 
+    private static final double[] SEARCH_WEIGHTS = {1.0};
+
     // NOTE: static fails Mockito to mock this class
     private final Uri NOTE_URI;
+    private final Uri NOTE_TAGS_URI;
     private final ContentResolver contentResolver;
     private final LocalSyncResults localSyncResults;
     private final LocalTags localTags;
@@ -66,6 +77,7 @@ public class LocalNotes<T extends Item> implements LocalItems<T> {
         this.localTags = checkNotNull(localTags);
         this.factory = checkNotNull(factory);
         NOTE_URI = LocalContract.NoteEntry.buildUri();
+        NOTE_TAGS_URI = LocalContract.NoteEntry.buildTagsUri();
     }
 
     private Single<T> buildNote(final T note) {
@@ -75,6 +87,24 @@ public class LocalNotes<T extends Item> implements LocalItems<T> {
         return Single.zip(singleNote, singleTags, factory::build);
     }
 
+    private Observable<T> buildNotes(final List<T> notes) {
+        final List<Long> rowIds = new ArrayList<>(notes.size());
+        for (T note : notes) {
+            rowIds.add(note.getRowId());
+        }
+        return localTags.getTagsMap(
+                NOTE_TAGS_URI, LocalContract.NoteEntry.TAG_COLUMN_NAME_PARENT_ID, rowIds)
+                .map(tagsMap -> {
+                    List<T> builtNotes = new ArrayList<>(notes.size());
+                    for (T note : notes) {
+                        List<Tag> tags = tagsMap.get(note.getRowId());
+                        builtNotes.add(factory.build(
+                                note, tags == null ? new ArrayList<>() : tags));
+                    }
+                    return builtNotes;
+                }).flattenAsObservable(builtNotes -> builtNotes);
+    }
+
     // Operations
 
     @Override
@@ -92,7 +122,6 @@ public class LocalNotes<T extends Item> implements LocalItems<T> {
         String selection = LocalContract.NoteEntry.COLUMN_NAME_DELETED + " = ?" +
                 " OR " + LocalContract.NoteEntry.COLUMN_NAME_CONFLICTED + " = ?";
         String[] selectionArgs = {"0", "1"};
-        final String sortOrder = LocalContract.NoteEntry.COLUMN_NAME_CREATED + " DESC";
 
         int size = noteIds == null ? 0 : noteIds.length;
         if (size > 0) {
@@ -100,7 +129,44 @@ public class LocalNotes<T extends Item> implements LocalItems<T> {
                     " IN (" + CommonUtils.strRepeat("?", size, ", ") + ")";
             selectionArgs = ObjectArrays.concat(selectionArgs, noteIds, String.class);
         }
-        return getByChunk(NOTE_URI, selection, selectionArgs, sortOrder);
+        return getByChunk(NOTE_URI, selection, selectionArgs,
+                Pair.create(Long.MAX_VALUE, Long.MAX_VALUE));
+    }
+
+    /**
+     * @return Returns the active notes which go after the given one in the order of the list
+     */
+    public Observable<T> getActiveAfter(@NonNull final T note) {
+        checkNotNull(note);
+        final String selection = LocalContract.NoteEntry.COLUMN_NAME_DELETED + " = ?" +
+                " OR " + LocalContract.NoteEntry.COLUMN_NAME_CONFLICTED + " = ?";
+        final String[] selectionArgs = {"0", "1"};
+
+        return getByChunk(NOTE_URI, selection, selectionArgs,
+                Pair.create(note.getCreated(), note.getRowId()));
+    }
+
+    @Override
+    public Observable<T> getActive(@NonNull final ItemFilter filter) {
+        checkNotNull(filter);
+        final String selection = LocalContract.NoteEntry.COLUMN_NAME_DELETED + " = ?" +
+                " OR " + LocalContract.NoteEntry.COLUMN_NAME_CONFLICTED + " = ?";
+        final String[] selectionArgs = {"0", "1"};
+
+        return getByChunk(LocalContract.appendFilterUriWith(NOTE_URI, filter),
+                selection, selectionArgs, Pair.create(Long.MAX_VALUE, Long.MAX_VALUE));
+    }
+
+    @Override
+    public Observable<T> get(final String[] noteIds) {
+        checkNotNull(noteIds);
+        return Observable.fromIterable(
+                Lists.partition(Arrays.asList(noteIds), Settings.GLOBAL_QUERY_IN_CHUNK_SIZE))
+                .concatMap(chunk -> {
+                    final String selection = LocalContract.NoteEntry.COLUMN_NAME_ENTRY_ID +
+                            " IN (" + CommonUtils.strRepeat("?", chunk.size(), ", ") + ")";
+                    return get(NOTE_URI, selection, chunk.toArray(new String[0]), null);
+                });
     }
 
     @Override
@@ -137,21 +203,34 @@ public class LocalNotes<T extends Item> implements LocalItems<T> {
             }
             return cursor;
         }, Cursor::close);
-        return notesGenerator.flatMap(note -> buildNote(note).toObservable());
+        return notesGenerator
+                .buffer(Settings.GLOBAL_QUERY_IN_CHUNK_SIZE)
+                .concatMap(this::buildNotes);
     }
 
+    /**
+     * Keyset pagination: every chunk is sought right after the last note of the previous one
+     */
     private Observable<T> getByChunk(
-            final Uri uri,
-            final String selection, final String[] selectionArgs, final String sortOrder) {
+            final Uri uri, final String selection, final String[] selectionArgs,
+            final Pair<Long, Long> firstKey) {
         final int chunkSize = Settings.GLOBAL_QUERY_CHUNK_SIZE;
-        return LocalDataSource.getCount(contentResolver, uri, null, null)
-                .toObservable()
-                .flatMap(numRows -> Observable.rangeLong(0, numRows / chunkSize + 1))
-                .flatMap(chunk -> {
-                    Uri uriChunk = LocalContract.NoteEntry.appendUriWith(
-                            uri, chunkSize, chunk * chunkSize);
-                    return get(uriChunk, selection, selectionArgs, sortOrder);
-                });
+        return Observable.<List<T>, Pair<Long, Long>>generate(() -> {
+            return firstKey; // (created, _id)
+        }, (lastKey, chunkEmitter) -> {
+            Uri uriChunk = LocalContract.NoteEntry.appendUriWith(
+                    uri, chunkSize, lastKey.first, lastKey.second);
+            List<T> notes = get(uriChunk, selection, selectionArgs, null).toList().blockingGet();
+            if (!notes.isEmpty()) {
+                chunkEmitter.onNext(notes);
+            }
+            if (notes.size() < chunkSize) {
+                chunkEmitter.onComplete();
+                return lastKey;
+            }
+            T lastNote = notes.get(notes.size() - 1);
+            return Pair.create(lastNote.getCreated(), lastNote.getRowId());
+        }).concatMapIterable(notes -> notes);
     }
 
     @Override
@@ -209,6 +288,40 @@ public class LocalNotes<T extends Item> implements LocalItems<T> {
                 .flatMap(this::save);
     }
 
+    @Override
+    public Single<Boolean> saveDownloaded(final List<T> notes, long started) {
+        checkNotNull(notes);
+        return Single.fromCallable(() -> {
+            // NOTE: row ID of the tags URI is taken from the back reference
+            Uri tagsUri = LocalContract.NoteEntry.buildTagsDirUriWith(0);
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            for (T note : notes) {
+                int noteIndex = operations.size();
+                operations.add(ContentProviderOperation.newInsert(NOTE_URI)
+                        .withValues(note.getContentValues())
+                        .build());
+                List<Tag> tags = note.getTags();
+                if (tags != null) {
+                    for (Tag tag : tags) {
+                        operations.add(localTags.buildSaveTagOperation(tag, tagsUri, noteIndex));
+                    }
+                }
+                operations.add(localSyncResults.buildLogOperation(new SyncResult(
+                        started, LocalContract.NoteEntry.TABLE_NAME, note.getId(),
+                        LocalContract.SyncResultEntry.Result.DOWNLOADED, false)));
+                String relatedId = note.getRelatedId();
+                if (relatedId != null) {
+                    operations.add(localSyncResults.buildLogOperation(new SyncResult(
+                            started, LocalContract.LinkEntry.TABLE_NAME, relatedId,
+                            LocalContract.SyncResultEntry.Result.RELATED, false)));
+                }
+            }
+            ContentProviderResult[] results =
+                    contentResolver.applyBatch(LocalContract.CONTENT_AUTHORITY, operations);
+            return results.length == operations.size();
+        });
+    }
+
     @Override
     public Single<Boolean> update(final String noteId, final SyncState state) {
         return Single.fromCallable(() -> {
@@ -257,11 +370,30 @@ public class LocalNotes<T extends Item> implements LocalItems<T> {
         return LocalDataSource.getSyncStates(contentResolver, NOTE_URI, null, null, null);
     }
 
+    @Override
+    public Single<Map<String, SyncState>> getSyncStateMap() {
+        return LocalDataSource.getSyncStateMap(contentResolver, NOTE_URI);
+    }
+
     @Override
     public Observable<String> getIds() {
         return LocalDataSource.getIds(contentResolver, NOTE_URI);
     }
 
+    @Override
+    public Single<List<String>> search(@NonNull final String text) {
+        checkNotNull(text);
+        String matchQuery = FullTextSearch.buildMatchQuery(text);
+        if (matchQuery == null) return Single.just(Collections.emptyList());
+
+        final String selection = LocalContract.NoteEntry.COLUMN_NAME_DELETED + " = ?" +
+                " OR " + LocalContract.NoteEntry.COLUMN_NAME_CONFLICTED + " = ?";
+        final String[] selectionArgs = {"0", "1"};
+        return LocalDataSource.getRankedIds(contentResolver,
+                LocalContract.NoteEntry.buildSearchUri(matchQuery),
+                LocalContract.NoteEntry.FTS_TABLE_NAME, selection, selectionArgs, SEARCH_WEIGHTS);
+    }
+
     @Override
     public Single<Boolean> isConflicted() {
         return LocalDataSource.isConflicted(contentResolver, NOTE_URI);
@@ -288,7 +420,7 @@ public class LocalNotes<T extends Item> implements LocalItems<T> {
     }
 
     @Override
-    public Single<Boolean> logSyncResult(
+    public SyncResult buildSyncResult(
             long started, @NonNull final String entryId,
             @NonNull final LocalContract.SyncResultEntry.Result result, boolean applied) {
         checkNotNull(entryId);
@@ -299,8 +431,14 @@ public class LocalNotes<T extends Item> implements LocalItems<T> {
         } else {
             entry = LocalContract.NoteEntry.TABLE_NAME;
         }
-        SyncResult syncResult = new SyncResult(started, entry, entryId, result, applied);
-        return localSyncResults.log(syncResult);
+        return new SyncResult(started, entry, entryId, result, applied);
+    }
+
+    @Override
+    public Single<Boolean> logSyncResult(
+            long started, @NonNull final String entryId,
+            @NonNull final LocalContract.SyncResultEntry.Result result, boolean applied) {
+        return localSyncResults.log(buildSyncResult(started, entryId, result, applied));
     }
 
     @Override
@@ -310,6 +448,11 @@ public class LocalNotes<T extends Item> implements LocalItems<T> {
         return logSyncResult(started, entryId, result, false);
     }
 
+    @Override
+    public Single<Integer> logSyncResults(@NonNull final List<SyncResult> syncResults) {
+        return localSyncResults.log(syncResults);
+    }
+
     @Override
     public Single<Integer> markSyncResultsAsApplied() {
         return localSyncResults.markAsApplied(LocalContract.NoteEntry.TABLE_NAME, 0L);
@@ -0,0 +1,192 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bytesforge.linkasanote.data.source.local;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import io.reactivex.Single;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Durable state of the sync pass of the entry: the listing of the cloud data source
+ * the pass has been started with and the items which have been processed by it
+ */
+public class LocalSyncCheckpoints {
+
+    private static final String TAG = LocalSyncCheckpoints.class.getSimpleName();
+
+    private static final String ENTRY_SELECTION =
+            LocalContract.SyncCheckpointEntry.COLUMN_NAME_ENTRY + " = ?";
+    private static final String ITEMS_SELECTION = ENTRY_SELECTION + " AND " +
+            LocalContract.SyncCheckpointEntry.COLUMN_NAME_ENTRY_ID + " <> ?";
+
+    private static Uri SYNC_CHECKPOINT_URI;
+
+    private final ContentResolver contentResolver;
+
+    public LocalSyncCheckpoints(@NonNull ContentResolver contentResolver) {
+        this.contentResolver = checkNotNull(contentResolver);
+        SYNC_CHECKPOINT_URI = LocalContract.SyncCheckpointEntry.buildUri();
+    }
+
+    /**
+     * @return Returns true if the checkpoint of the entry has been taken
+     *         at the given state of the cloud data source
+     */
+    public Single<Boolean> isValid(@NonNull final String entry, @NonNull final String sourceETag) {
+        checkNotNull(entry);
+        checkNotNull(sourceETag);
+        return Single.fromCallable(() -> {
+            final String selection = ENTRY_SELECTION + " AND " +
+                    LocalContract.SyncCheckpointEntry.COLUMN_NAME_ENTRY_ID + " = ?";
+            final String[] selectionArgs = {
+                    entry, LocalContract.SyncCheckpointEntry.SOURCE_ENTRY_ID};
+            try (Cursor cursor = contentResolver.query(SYNC_CHECKPOINT_URI,
+                    LocalContract.SyncCheckpointEntry.SYNC_CHECKPOINT_COLUMNS,
+                    selection, selectionArgs, null)) {
+                if (cursor == null) return null;
+
+                return cursor.moveToLast() && sourceETag.equals(cursor.getString(
+                        cursor.getColumnIndexOrThrow(LocalContract.SyncCheckpointEntry.COLUMN_NAME_ETAG)));
+            }
+        });
+    }
+
+    // NOTE: items which have been deleted from the cloud by the pass have no ETag
+    public Single<Map<String, String>> getCloudETags(@NonNull final String entry) {
+        checkNotNull(entry);
+        return Single.fromCallable(() -> {
+            final String selection = ITEMS_SELECTION + " AND " +
+                    LocalContract.SyncCheckpointEntry.COLUMN_NAME_ETAG + " IS NOT NULL";
+            final String[] selectionArgs = {
+                    entry, LocalContract.SyncCheckpointEntry.SOURCE_ENTRY_ID};
+            try (Cursor cursor = contentResolver.query(SYNC_CHECKPOINT_URI,
+                    LocalContract.SyncCheckpointEntry.SYNC_CHECKPOINT_COLUMNS,
+                    selection, selectionArgs, null)) {
+                if (cursor == null) return null;
+
+                Map<String, String> cloudETags = new HashMap<>(cursor.getCount());
+                while (cursor.moveToNext()) {
+                    cloudETags.put(cursor.getString(0), cursor.getString(1));
+                }
+                return cloudETags;
+            }
+        });
+    }
+
+    public Single<Set<String>> getProcessedIds(@NonNull final String entry) {
+        checkNotNull(entry);
+        return Single.fromCallable(() -> {
+            final String selection = ITEMS_SELECTION + " AND " +
+                    LocalContract.SyncCheckpointEntry.COLUMN_NAME_PROCESSED + " = ?";
+            final String[] selectionArgs = {
+                    entry, LocalContract.SyncCheckpointEntry.SOURCE_ENTRY_ID, "1"};
+            try (Cursor cursor = contentResolver.query(SYNC_CHECKPOINT_URI,
+                    LocalContract.SyncCheckpointEntry.SYNC_CHECKPOINT_COLUMNS,
+                    selection, selectionArgs, null)) {
+                if (cursor == null) return null;
+
+                Set<String> processedIds = new HashSet<>(cursor.getCount());
+                while (cursor.moveToNext()) {
+                    processedIds.add(cursor.getString(0));
+                }
+                return processedIds;
+            }
+        });
+    }
+
+    /**
+     * NOTE: the previous checkpoint of the entry is replaced in one transaction
+     */
+    public Single<Boolean> begin(
+            @NonNull final String entry, @NonNull final String sourceETag,
+            @NonNull final Map<String, String> cloudETags) {
+        checkNotNull(entry);
+        checkNotNull(sourceETag);
+        checkNotNull(cloudETags);
+        return Single.fromCallable(() -> {
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            operations.add(ContentProviderOperation.newDelete(SYNC_CHECKPOINT_URI)
+                    .withSelection(ENTRY_SELECTION, new String[]{entry})
+                    .build());
+            for (Map.Entry<String, String> cloudETag : cloudETags.entrySet()) {
+                operations.add(buildInsertOperation(
+                        entry, cloudETag.getKey(), cloudETag.getValue(), false));
+            }
+            operations.add(buildInsertOperation(
+                    entry, LocalContract.SyncCheckpointEntry.SOURCE_ENTRY_ID, sourceETag, false));
+            contentResolver.applyBatch(LocalContract.CONTENT_AUTHORITY, operations);
+            return true;
+        });
+    }
+
+    /**
+     * @param processed item IDs with their cloud ETags after the processing
+     */
+    public Single<Integer> markAsProcessed(
+            @NonNull final String entry, @NonNull final Map<String, String> processed) {
+        checkNotNull(entry);
+        checkNotNull(processed);
+        return Single.fromCallable(() -> {
+            if (processed.isEmpty()) return 0;
+
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>(processed.size());
+            for (Map.Entry<String, String> item : processed.entrySet()) {
+                operations.add(buildInsertOperation(
+                        entry, item.getKey(), item.getValue(), true));
+            }
+            return contentResolver.applyBatch(
+                    LocalContract.CONTENT_AUTHORITY, operations).length;
+        });
+    }
+
+    public Single<Integer> clear(@NonNull final String entry) {
+        checkNotNull(entry);
+        return Single.fromCallable(() -> contentResolver.delete(
+                SYNC_CHECKPOINT_URI, ENTRY_SELECTION, new String[]{entry}));
+    }
+
+    private static ContentProviderOperation buildInsertOperation(
+            final String entry, final String entryId, final String eTag, boolean processed) {
+        ContentValues values = new ContentValues();
+        values.put(LocalContract.SyncCheckpointEntry.COLUMN_NAME_CREATED, currentTimeMillis());
+        values.put(LocalContract.SyncCheckpointEntry.COLUMN_NAME_ENTRY, entry);
+        values.put(LocalContract.SyncCheckpointEntry.COLUMN_NAME_ENTRY_ID, entryId);
+        values.put(LocalContract.SyncCheckpointEntry.COLUMN_NAME_ETAG, eTag);
+        values.put(LocalContract.SyncCheckpointEntry.COLUMN_NAME_PROCESSED, processed);
+        return ContentProviderOperation.newInsert(SYNC_CHECKPOINT_URI)
+                .withValues(values)
+                .build();
+    }
+}
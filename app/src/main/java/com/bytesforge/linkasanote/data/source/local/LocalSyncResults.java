@@ -20,16 +20,21 @@
 
 package com.bytesforge.linkasanote.data.source.local;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.net.Uri;
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 import android.util.Pair;
 
 import com.bytesforge.linkasanote.data.SyncResult;
 import com.bytesforge.linkasanote.settings.Settings;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import io.reactivex.Observable;
@@ -50,13 +55,21 @@ public class LocalSyncResults {
         SYNC_RESULT_URI = LocalContract.SyncResultEntry.buildUri();
     }
 
+    /**
+     * NOTE: the column must be compared as is, so the index on it can be used
+     *
+     * @return Returns the earliest start time (epoch millis) of the records to be kept
+     */
+    @VisibleForTesting
+    static long getKeepingThreshold(long now) {
+        return now - TimeUnit.DAYS.toMillis(Settings.GLOBAL_SYNC_LOG_KEEPING_PERIOD_DAYS);
+    }
+
     public Observable<SyncResult> getFresh() {
-        final String selection =
-                "datetime(" + LocalContract.SyncResultEntry.COLUMN_NAME_STARTED + " / 1000, 'unixepoch')" +
-                        " > datetime('now', ?) AND " +
-                        LocalContract.SyncResultEntry.COLUMN_NAME_RESULT + " <> ?";
+        final String selection = LocalContract.SyncResultEntry.COLUMN_NAME_STARTED + " > ?" +
+                " AND " + LocalContract.SyncResultEntry.COLUMN_NAME_RESULT + " <> ?";
         final String[] selectionArgs = {
-                "-" + Settings.GLOBAL_SYNC_LOG_KEEPING_PERIOD_DAYS + " day",
+                Long.toString(getKeepingThreshold(System.currentTimeMillis())),
                 LocalContract.SyncResultEntry.Result.RELATED.name()};
         final String sortOrder = LocalContract.SyncResultEntry.COLUMN_NAME_CREATED + " ASC";
         return get(SYNC_RESULT_URI, selection, selectionArgs, sortOrder);
@@ -157,14 +170,37 @@ public class LocalSyncResults {
 
     public Single<Integer> cleanup() {
         return Single.fromCallable(() -> {
-            String selection =
-                    "datetime(" + LocalContract.SyncResultEntry.COLUMN_NAME_STARTED + " / 1000, 'unixepoch')" +
-                            " <= datetime('now', ?)";
-            String[] selectionArgs = {"-" + Settings.GLOBAL_SYNC_LOG_KEEPING_PERIOD_DAYS + " day"};
+            String selection = LocalContract.SyncResultEntry.COLUMN_NAME_STARTED + " <= ?";
+            String[] selectionArgs = {
+                    Long.toString(getKeepingThreshold(System.currentTimeMillis()))};
             return contentResolver.delete(SYNC_RESULT_URI, selection, selectionArgs);
         });
     }
 
+    public ContentProviderOperation buildLogOperation(@NonNull final SyncResult syncResult) {
+        checkNotNull(syncResult);
+        return ContentProviderOperation.newInsert(SYNC_RESULT_URI)
+                .withValues(syncResult.getContentValues())
+                .build();
+    }
+
+    /**
+     * NOTE: the whole batch is inserted in one transaction with a single change notification
+     */
+    public Single<Integer> log(@NonNull final List<SyncResult> syncResults) {
+        checkNotNull(syncResults);
+        return Single.fromCallable(() -> {
+            if (syncResults.isEmpty()) return 0;
+
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>(syncResults.size());
+            for (SyncResult syncResult : syncResults) {
+                operations.add(buildLogOperation(syncResult));
+            }
+            return contentResolver.applyBatch(
+                    LocalContract.CONTENT_AUTHORITY, operations).length;
+        });
+    }
+
     public Single<Boolean> log(@NonNull final SyncResult syncResult) {
         checkNotNull(syncResult);
         return Single.fromCallable(() -> {
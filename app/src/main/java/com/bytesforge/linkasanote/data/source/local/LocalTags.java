@@ -22,6 +22,7 @@ package com.bytesforge.linkasanote.data.source.local;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.database.Cursor;
@@ -30,7 +31,15 @@ import android.net.Uri;
 import androidx.annotation.NonNull;
 
 import com.bytesforge.linkasanote.data.Tag;
-
+import com.bytesforge.linkasanote.settings.Settings;
+import com.bytesforge.linkasanote.utils.CommonUtils;
+import com.google.common.collect.Lists;
+import com.google.common.collect.ObjectArrays;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import io.reactivex.Observable;
@@ -83,6 +92,45 @@ public class LocalTags {
         }, Cursor::close);
     }
 
+    /**
+     * @param uri Many-to-many relation URI like LinkEntry.buildTagsUri()
+     * @param parentColumn Column which refers to the row ID of the parent entry
+     * @return Returns tags of the requested entries grouped by the parent row ID
+     */
+    public Single<Map<Long, List<Tag>>> getTagsMap(
+            final Uri uri, final String parentColumn, final List<Long> parentRowIds) {
+        final String[] columns = ObjectArrays.concat(
+                LocalContract.TagEntry.TAG_COLUMNS, parentColumn);
+        return Single.fromCallable(() -> {
+            Map<Long, List<Tag>> tagsMap = new HashMap<>();
+            for (List<Long> chunk : Lists.partition(
+                    parentRowIds, Settings.GLOBAL_QUERY_IN_CHUNK_SIZE)) {
+                final String selection = parentColumn +
+                        " IN (" + CommonUtils.strRepeat("?", chunk.size(), ", ") + ")";
+                final String[] selectionArgs = new String[chunk.size()];
+                for (int i = 0; i < selectionArgs.length; i++) {
+                    selectionArgs[i] = chunk.get(i).toString();
+                }
+                try (Cursor cursor = contentResolver.query(
+                        uri, columns, selection, selectionArgs, null)) {
+                    if (cursor == null) return null;
+
+                    int parentIndex = cursor.getColumnIndexOrThrow(parentColumn);
+                    while (cursor.moveToNext()) {
+                        long parentRowId = cursor.getLong(parentIndex);
+                        List<Tag> tags = tagsMap.get(parentRowId);
+                        if (tags == null) {
+                            tags = new ArrayList<>();
+                            tagsMap.put(parentRowId, tags);
+                        }
+                        tags.add(Tag.from(cursor));
+                    }
+                }
+            }
+            return tagsMap;
+        });
+    }
+
     public Single<Tag> getTag(String tagName) {
         return Single.fromCallable(() -> {
             try (Cursor cursor = contentResolver.query(
@@ -105,6 +153,17 @@ public class LocalTags {
         });
     }
 
+    /**
+     * @param parentIndex Index of the batch operation which inserts the parent entry
+     */
+    public ContentProviderOperation buildSaveTagOperation(
+            final Tag tag, final Uri uri, int parentIndex) {
+        return ContentProviderOperation.newInsert(uri)
+                .withValues(tag.getContentValues())
+                .withValueBackReference(LocalContract.VALUES_PARENT_ROW_ID, parentIndex)
+                .build();
+    }
+
     public Single<Integer> deleteTag(final String tagName) {
         Uri uri = LocalContract.TagEntry.buildUriWith(tagName);
         return Single.fromCallable(() -> contentResolver.delete(uri, null, null));
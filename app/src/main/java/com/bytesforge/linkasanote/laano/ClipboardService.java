@@ -26,7 +26,6 @@ import android.content.ClipDescription;
 import android.content.ClipboardManager;
 import android.content.Context;
 import android.content.Intent;
-import android.net.Uri;
 import android.os.Binder;
 import android.os.Handler;
 import android.os.IBinder;
@@ -36,21 +35,17 @@ import android.widget.Toast;
 
 import com.bytesforge.linkasanote.LaanoApplication;
 import com.bytesforge.linkasanote.R;
+import com.bytesforge.linkasanote.data.source.LinkMetadataLoader;
 import com.bytesforge.linkasanote.settings.Settings;
 import com.bytesforge.linkasanote.utils.CommonUtils;
 import com.bytesforge.linkasanote.utils.schedulers.BaseSchedulerProvider;
-import com.google.common.base.Strings;
 
 import org.jsoup.HttpStatusException;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
 
 import java.util.Arrays;
 
 import javax.inject.Inject;
 
-import io.reactivex.Single;
 import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.exceptions.UndeliverableException;
@@ -82,6 +77,9 @@ public class ClipboardService extends Service {
     @Inject
     BaseSchedulerProvider schedulerProvider;
 
+    @Inject
+    LinkMetadataLoader linkMetadataLoader;
+
     private ClipboardService.Callback callback;
     private CompositeDisposable compositeDisposable;
     private ClipboardManager clipboardManager;
@@ -229,51 +227,23 @@ public class ClipboardService extends Service {
     }
 
     private String normalizeUrl(@NonNull String url) {
-        checkNotNull(url);
-        Uri uri = Uri.parse(url);
-        // NOTE: fragment part is omitted
-        Uri.Builder uriBuilder = new Uri.Builder()
-                .scheme(uri.getScheme())
-                .encodedAuthority(uri.getAuthority())
-                .encodedPath(uri.getPath());
-        for (String parameterName : settings.getClipboardParameterWhiteListArray()) {
-            try {
-                String parameterValue = uri.getQueryParameter(parameterName);
-                if (parameterValue != null) {
-                    uriBuilder.appendQueryParameter(parameterName, parameterValue);
-                }
-            } catch (UnsupportedOperationException e) {
-                return null;
-            }
-        }
-        return uriBuilder.build().toString();
+        return CommonUtils.normalizeUrl(url, settings.getClipboardParameterWhiteListArray());
     }
 
     private void loadLinkExtra(@NonNull final String link) {
         checkNotNull(link);
-        Disposable disposable = Single
-                .fromCallable(() -> Jsoup.connect(link)
-                        .followRedirects(settings.isClipboardLinkFollow())
-                        .maxBodySize(Settings.GLOBAL_LINK_MAX_BODY_SIZE_BYTES)
-                        .get())
+        String normalizedLink = normalizeUrl(link);
+        String key = normalizedLink == null ? link : normalizedLink;
+        Disposable disposable = linkMetadataLoader
+                .load(link, key, settings.isClipboardLinkFollow())
                 .subscribeOn(schedulerProvider.io())
                 .observeOn(schedulerProvider.ui())
-                .subscribe(document -> {
-                    normalizedClipboard = normalizeUrl(document.location());
-                    String title = document.title(); // trimmed
-                    linkTitle = Strings.isNullOrEmpty(title) ? null : title;
-                    linkDescription = selectMeta(document, "description");
-                    String keywords = selectMeta(document, "keywords");
-                    if (keywords != null) {
-                        String[] keywordList = keywords.split(
-                                "\\s*,\\s*", Settings.GLOBAL_LINK_MAX_KEYWORDS + 1);
-                        if (keywordList.length > Settings.GLOBAL_LINK_MAX_KEYWORDS) {
-                            linkKeywords = Arrays.copyOf(
-                                    keywordList, Settings.GLOBAL_LINK_MAX_KEYWORDS);
-                        } else {
-                            linkKeywords = keywordList;
-                        }
-                    }
+                .subscribe(linkMetadata -> {
+                    normalizedClipboard = normalizeUrl(linkMetadata.getLocation() == null
+                            ? link : linkMetadata.getLocation());
+                    linkTitle = linkMetadata.getTitle();
+                    linkDescription = linkMetadata.getDescription();
+                    linkKeywords = linkMetadata.getKeywords();
                     notifySubscriber();
                     Log.d(TAG, "URL [" + normalizedClipboard + "]");
                     Log.d(TAG, "Title [" + linkTitle + "]");
@@ -308,17 +278,6 @@ public class ClipboardService extends Service {
         compositeDisposable.add(disposable);
     }
 
-    private String selectMeta(@NonNull final Document document, @NonNull final String metaName) {
-        checkNotNull(document);
-        checkNotNull(metaName);
-        Element metaElement = document.select("meta[name=" + metaName + "]").first();
-        String metaValue = (metaElement == null ? null : metaElement.attr("content"));
-        if (metaValue == null) return null;
-
-        metaValue = metaValue.trim();
-        return metaValue.isEmpty() ? null : metaValue;
-    }
-
     private void clipboardCheck() {
         if (!isCacheDirty()) return;
         Log.i(TAG, "ClipboardCheck()");
@@ -498,7 +498,13 @@ public class LaanoActivity extends AppCompatActivity implements
                     throw new IllegalArgumentException(
                             "Unexpected action has been received in SyncBroadcastReceiver [" + action + "]");
             }
-            if (status == SyncNotifications.STATUS_UPLOADED) {
+            if (status == SyncNotifications.STATUS_PROGRESS) {
+                // NOTE: the batch of item changes since the previous progress
+                int uploaded = intent.getIntExtra(SyncNotifications.EXTRA_UPLOADED, -1);
+                int downloaded = intent.getIntExtra(SyncNotifications.EXTRA_DOWNLOADED, -1);
+                if (uploaded >= 0) laanoUiManager.setUploaded(tabPosition, uploaded);
+                if (downloaded >= 0) laanoUiManager.setDownloaded(tabPosition, downloaded);
+            } else if (status == SyncNotifications.STATUS_UPLOADED) {
                 if (count >= 0) laanoUiManager.setUploaded(tabPosition, count);
                 else laanoUiManager.incUploaded(tabPosition);
             } else if (status == SyncNotifications.STATUS_DOWNLOADED) {
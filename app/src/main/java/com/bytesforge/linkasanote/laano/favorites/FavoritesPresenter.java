@@ -32,6 +32,7 @@ import androidx.annotation.Nullable;
 import com.bytesforge.linkasanote.R;
 import com.bytesforge.linkasanote.data.Favorite;
 import com.bytesforge.linkasanote.data.source.DataSource;
+import com.bytesforge.linkasanote.data.source.ItemFilter;
 import com.bytesforge.linkasanote.data.source.Repository;
 import com.bytesforge.linkasanote.laano.BaseItemPresenter;
 import com.bytesforge.linkasanote.laano.FilterType;
@@ -168,13 +169,8 @@ public final class FavoritesPresenter extends BaseItemPresenter implements
             repository.checkFavoritesSyncLog();
             updateTabNormalState();
         }
-        final String searchText;
-        String text = viewModel.getSearchText();
-        if (!Strings.isNullOrEmpty(text)) {
-            searchText = text.toLowerCase();
-        } else {
-            searchText = null;
-        }
+        // NOTE: the search goes to the full-text index, the items are matched by the word prefixes
+        final String searchText = Strings.emptyToNull(viewModel.getSearchText());
         boolean filterIsActive = (searchText != null || filterType != FilterType.ALL);
         boolean loadByChunk = repository.isFavoriteCacheDirty();
         boolean showProgress = ((!loadByChunk || filterIsActive)
@@ -182,7 +178,7 @@ public final class FavoritesPresenter extends BaseItemPresenter implements
         final AtomicBoolean firstChunk = new AtomicBoolean(true);
         if (showProgress) viewModel.showProgressOverlay();
         Log.d(TAG, "loadFavorites(): getFavorites() [showProgress=" + showProgress + ", loadByChunk=" + loadByChunk + "]");
-        Disposable disposable = repository.getFavorites()
+        Disposable disposable = getFavorites(searchText)
                 .subscribeOn(schedulerProvider.computation())
                 .retryWhen(throwableObservable -> throwableObservable.flatMap(throwable -> {
                     if (throwable instanceof IllegalStateException) {
@@ -197,13 +193,6 @@ public final class FavoritesPresenter extends BaseItemPresenter implements
                     return Observable.error(throwable);
                 }))
                 .filter(favorite -> {
-                    if (searchText != null) {
-                        String favoriteName = favorite.getName();
-                        if (favoriteName == null
-                                || !favoriteName.toLowerCase().contains(searchText)) {
-                            return false;
-                        }
-                    }
                     switch (filterType) {
                         case CONFLICTED:
                             return favorite.isConflicted();
@@ -251,6 +240,15 @@ public final class FavoritesPresenter extends BaseItemPresenter implements
         compositeDisposable.add(disposable);
     }
 
+    private Observable<Favorite> getFavorites(@Nullable String searchText) {
+        if (searchText != null) {
+            return repository.searchFavorites(searchText);
+        }
+        return filterType == FilterType.CONFLICTED
+                ? repository.getFavorites(ItemFilter.conflicted())
+                : repository.getFavorites();
+    }
+
     @Override
     public void onFavoriteClick(String favoriteId, boolean isConflicted) {
         // NOTE: only click on chevrons will select the Favorite
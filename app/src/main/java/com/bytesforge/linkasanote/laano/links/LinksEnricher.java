@@ -0,0 +1,288 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bytesforge.linkasanote.laano.links;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.bytesforge.linkasanote.data.Link;
+import com.bytesforge.linkasanote.data.LinkMetadata;
+import com.bytesforge.linkasanote.data.Tag;
+import com.bytesforge.linkasanote.data.source.DataSource;
+import com.bytesforge.linkasanote.data.source.LinkMetadataLoader;
+import com.bytesforge.linkasanote.data.source.local.LocalLinkMetadata;
+import com.bytesforge.linkasanote.settings.Settings;
+import com.bytesforge.linkasanote.sync.SyncState;
+import com.bytesforge.linkasanote.utils.CommonUtils;
+import com.bytesforge.linkasanote.utils.schedulers.BaseSchedulerProvider;
+import com.google.common.base.Optional;
+
+import org.jsoup.HttpStatusException;
+import org.jsoup.UnsupportedMimeTypeException;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.Single;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Fills the empty names and tags of the links from the metadata of their pages. The pages are
+ * fetched by the bounded number of workers, the requests to one host are started at the interval
+ * from each other (they may overlap if the host is slow), and the enriched links are saved in
+ * batches. The queue is the links which are still not enriched, so the interrupted run is resumed
+ * by the next one and the pages which have been fetched already are taken from the metadata cache
+ */
+public class LinksEnricher {
+
+    private static final String TAG = LinksEnricher.class.getSimpleName();
+
+    private final DataSource repository;
+    private final LinkMetadataLoader linkMetadataLoader;
+    private final LocalLinkMetadata localLinkMetadata;
+    private final BaseSchedulerProvider schedulerProvider;
+    private final boolean followRedirects;
+    private final String[] parameterWhiteList;
+    private final HostRateLimiter hostRateLimiter =
+            new HostRateLimiter(Settings.GLOBAL_ENRICHMENT_HOST_INTERVAL_MILLIS);
+
+    public static final class Progress {
+
+        private final int total;
+        private final int processed;
+        private final int enriched;
+
+        Progress(int total, int processed, int enriched) {
+            this.total = total;
+            this.processed = processed;
+            this.enriched = enriched;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getProcessed() {
+            return processed;
+        }
+
+        public int getEnriched() {
+            return enriched;
+        }
+    }
+
+    public LinksEnricher(
+            @NonNull DataSource repository, @NonNull LinkMetadataLoader linkMetadataLoader,
+            @NonNull LocalLinkMetadata localLinkMetadata,
+            @NonNull BaseSchedulerProvider schedulerProvider, boolean followRedirects,
+            @NonNull String[] parameterWhiteList) {
+        this.repository = checkNotNull(repository);
+        this.linkMetadataLoader = checkNotNull(linkMetadataLoader);
+        this.localLinkMetadata = checkNotNull(localLinkMetadata);
+        this.schedulerProvider = checkNotNull(schedulerProvider);
+        this.followRedirects = followRedirects;
+        this.parameterWhiteList = checkNotNull(parameterWhiteList);
+    }
+
+    /**
+     * @return Returns the progress after every saved batch, the first one is the size of the queue
+     */
+    public Observable<Progress> enrich() {
+        return repository.getLinks()
+                .filter(LinksEnricher::isEnrichable)
+                .toList()
+                .flatMapObservable(links -> {
+                    final int total = links.size();
+                    final AtomicInteger processed = new AtomicInteger();
+                    final AtomicInteger enriched = new AtomicInteger();
+                    Observable<Progress> enrichObservable = Observable.fromIterable(links)
+                            .flatMap(link -> enrich(link)
+                                            .subscribeOn(schedulerProvider.io())
+                                            .toObservable(),
+                                    Settings.GLOBAL_ENRICHMENT_WORKERS)
+                            .buffer(Settings.GLOBAL_ENRICHMENT_BATCH_INTERVAL_MILLIS,
+                                    TimeUnit.MILLISECONDS, schedulerProvider.computation(),
+                                    Settings.GLOBAL_ENRICHMENT_BATCH_SIZE)
+                            .filter(batch -> !batch.isEmpty())
+                            .concatMapSingle(batch -> save(batch).map(numRows -> new Progress(
+                                    total, processed.addAndGet(batch.size()),
+                                    enriched.addAndGet(numRows))));
+                    return Observable.just(new Progress(total, 0, 0)).concatWith(enrichObservable);
+                });
+    }
+
+    @VisibleForTesting
+    static boolean isEnrichable(@NonNull Link link) {
+        return link.getLink() != null && !link.isConflicted()
+                && (link.getName() == null || link.getTags() == null);
+    }
+
+    /**
+     * @return Returns the enriched link or absent if there is nothing to be changed
+     */
+    private Single<Optional<Link>> enrich(@NonNull final Link link) {
+        final String url = checkNotNull(link.getLink());
+        // NOTE: the same key as the one of the clipboard, so the metadata cache is shared
+        final String normalizedUrl = CommonUtils.normalizeUrl(url, parameterWhiteList);
+        final String key = normalizedUrl == null ? url : normalizedUrl;
+        final String host = getHost(url);
+        final AtomicInteger attempt = new AtomicInteger();
+        // NOTE: every attempt takes its own slot of the host
+        return Single.defer(() -> Single.timer(hostRateLimiter.reserve(host, currentTimeMillis()),
+                        TimeUnit.MILLISECONDS, schedulerProvider.io()))
+                .flatMap(delay -> linkMetadataLoader.load(url, key, followRedirects))
+                .retryWhen(errors -> errors.flatMap(throwable -> {
+                    int retry = attempt.incrementAndGet();
+                    if (retry > Settings.GLOBAL_RETRY_ON_NETWORK_ERROR || !isTransient(throwable)) {
+                        return Flowable.<Long>error(throwable);
+                    }
+                    long delay = Settings.GLOBAL_DELAY_ON_NETWORK_ERROR_MILLIS << (retry - 1);
+                    Log.w(TAG, "Retry on error [" + retry + "/" +
+                            Settings.GLOBAL_RETRY_ON_NETWORK_ERROR + "; url=" + url +
+                            "; delay=" + delay + "ms]");
+                    return Flowable.timer(delay, TimeUnit.MILLISECONDS, schedulerProvider.io());
+                }))
+                .map(linkMetadata -> apply(link, linkMetadata))
+                .onErrorReturn(throwable -> {
+                    Log.e(TAG, "Link metadata was not loaded [" + url + "]: " + throwable);
+                    if (!isTransient(throwable)) {
+                        // NOTE: the page will not be requested again until the cache is expired
+                        localLinkMetadata.save(new LinkMetadata(key,
+                                null, null, null, null, null, null, null, currentTimeMillis()))
+                                .onErrorReturnItem(false)
+                                .blockingGet();
+                    }
+                    return Optional.<Link>absent();
+                });
+    }
+
+    @VisibleForTesting
+    static Optional<Link> apply(@NonNull Link link, @NonNull LinkMetadata linkMetadata) {
+        List<Tag> tags = null;
+        String[] keywords = linkMetadata.getKeywords();
+        if (keywords != null) {
+            tags = new ArrayList<>(keywords.length);
+            for (String keyword : keywords) {
+                if (!keyword.isEmpty()) {
+                    tags.add(new Tag(keyword));
+                }
+            }
+        }
+        return fill(link, linkMetadata.getTitle(), tags);
+    }
+
+    /**
+     * @return Returns the link with the empty fields taken from the enriched one or absent
+     * if the link has been changed so that there is nothing to be filled
+     */
+    @VisibleForTesting
+    static Optional<Link> apply(@NonNull Link link, @NonNull Link enrichedLink) {
+        if (!isEnrichable(link) || !link.getLink().equals(enrichedLink.getLink())) {
+            return Optional.absent();
+        }
+        return fill(link, enrichedLink.getName(), enrichedLink.getTags());
+    }
+
+    private static Optional<Link> fill(
+            @NonNull Link link, @Nullable String name, @Nullable List<Tag> tags) {
+        boolean fillName = name != null && link.getName() == null;
+        boolean fillTags = tags != null && !tags.isEmpty() && link.getTags() == null;
+        if (!fillName && !fillTags) return Optional.absent();
+
+        SyncState state = new SyncState(link.getState(), SyncState.State.UNSYNCED);
+        return Optional.of(new Link(link.getId(), link.getLink(),
+                fillName ? name : link.getName(), link.isDisabled(),
+                fillTags ? tags : link.getTags(), state));
+    }
+
+    /**
+     * NOTE: the links are read again, so the changes made while the pages were fetched are kept
+     */
+    private Single<Integer> save(@NonNull List<Optional<Link>> batch) {
+        return Observable.fromIterable(batch)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .concatMapSingle(enrichedLink -> repository.getLink(enrichedLink.getId())
+                        .map(link -> apply(link, enrichedLink))
+                        .onErrorReturnItem(Optional.absent()))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .toList()
+                .flatMap(enrichedLinks -> enrichedLinks.isEmpty()
+                        ? Single.just(0)
+                        : repository.saveLinks(enrichedLinks));
+    }
+
+    @VisibleForTesting
+    static boolean isTransient(@NonNull Throwable throwable) {
+        if (throwable instanceof HttpStatusException) {
+            int statusCode = ((HttpStatusException) throwable).getStatusCode();
+            return statusCode == 429 || statusCode >= 500;
+        }
+        return throwable instanceof IOException
+                && !(throwable instanceof UnsupportedMimeTypeException);
+    }
+
+    private static String getHost(@NonNull String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host == null ? url : host;
+        } catch (IllegalArgumentException e) {
+            return url;
+        }
+    }
+
+    /**
+     * Slots of the hosts are reserved one after another with the interval between them
+     */
+    @VisibleForTesting
+    static final class HostRateLimiter {
+
+        private final long intervalMillis;
+        private final Map<String, Long> nextSlots = new HashMap<>();
+
+        HostRateLimiter(long intervalMillis) {
+            this.intervalMillis = intervalMillis;
+        }
+
+        /**
+         * @return Returns the delay before the request to the host can be made
+         */
+        synchronized long reserve(@NonNull String host, long now) {
+            Long nextSlot = nextSlots.get(host);
+            long slot = (nextSlot == null || nextSlot < now) ? now : nextSlot;
+            nextSlots.put(host, slot + intervalMillis);
+            return slot - now;
+        }
+    }
+}
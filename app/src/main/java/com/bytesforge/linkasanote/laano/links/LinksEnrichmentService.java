@@ -0,0 +1,168 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bytesforge.linkasanote.laano.links;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.IBinder;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+import androidx.core.content.ContextCompat;
+
+import com.bytesforge.linkasanote.LaanoApplication;
+import com.bytesforge.linkasanote.R;
+import com.bytesforge.linkasanote.data.source.LinkMetadataLoader;
+import com.bytesforge.linkasanote.data.source.Repository;
+import com.bytesforge.linkasanote.data.source.local.LocalLinkMetadata;
+import com.bytesforge.linkasanote.settings.Settings;
+import com.bytesforge.linkasanote.utils.CommonUtils;
+import com.bytesforge.linkasanote.utils.schedulers.BaseSchedulerProvider;
+
+import javax.inject.Inject;
+
+import io.reactivex.disposables.Disposable;
+
+public class LinksEnrichmentService extends Service {
+
+    private static final String TAG = LinksEnrichmentService.class.getSimpleName();
+    private static final String TAG_E = LinksEnrichmentService.class.getCanonicalName();
+
+    private static final String CHANNEL_NAME_LINKS = "links_channel";
+    private static final int NOTIFICATION_ENRICHMENT = 1;
+
+    @Inject
+    Repository repository;
+
+    @Inject
+    LinkMetadataLoader linkMetadataLoader;
+
+    @Inject
+    LocalLinkMetadata localLinkMetadata;
+
+    @Inject
+    Settings settings;
+
+    @Inject
+    BaseSchedulerProvider schedulerProvider;
+
+    private NotificationManagerCompat notificationManager;
+    private Disposable disposable;
+    private LinksEnricher.Progress progress;
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        LaanoApplication application = (LaanoApplication) getApplication();
+        application.getApplicationComponent().inject(this);
+        notificationManager = NotificationManagerCompat.from(this);
+        initChannels();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // NOTE: the run in progress takes the links which are added meanwhile on the next one
+        if (disposable != null && !disposable.isDisposed()) return START_NOT_STICKY;
+
+        LinksEnricher linksEnricher = new LinksEnricher(repository, linkMetadataLoader,
+                localLinkMetadata, schedulerProvider, settings.isClipboardLinkFollow(),
+                settings.getClipboardParameterWhiteListArray());
+        disposable = linksEnricher.enrich()
+                .observeOn(schedulerProvider.ui())
+                .subscribe(progress -> {
+                    this.progress = progress;
+                    notifyProgress(progress);
+                }, throwable -> {
+                    CommonUtils.logStackTrace(TAG_E, throwable);
+                    notifyFinished(getString(R.string.links_enrichment_failed));
+                    stopSelf();
+                }, () -> {
+                    if (progress != null) {
+                        Log.i(TAG, "Links enriched [" + progress.getEnriched() + "/" +
+                                progress.getTotal() + "]");
+                        notifyFinished(getString(R.string.links_enrichment_finished,
+                                progress.getEnriched(), progress.getTotal()));
+                    }
+                    stopSelf();
+                });
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        // NOTE: the run has not finished, so the ongoing progress must not be left behind
+        if (disposable != null && !disposable.isDisposed()) {
+            disposable.dispose();
+            notificationManager.cancel(NOTIFICATION_ENRICHMENT);
+        }
+        super.onDestroy();
+    }
+
+    private void initChannels() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return;
+
+        NotificationManager manager =
+                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (manager == null) {
+            Log.e(TAG, "Error while retrieving Notification Service");
+            return;
+        }
+        NotificationChannel channel = new NotificationChannel(CHANNEL_NAME_LINKS,
+                getString(R.string.links_enrichment_channel_name),
+                NotificationManager.IMPORTANCE_LOW);
+        channel.setDescription(getString(R.string.links_enrichment_channel_description));
+        manager.createNotificationChannel(channel);
+    }
+
+    private NotificationCompat.Builder buildNotification(String text) {
+        return new NotificationCompat.Builder(this, CHANNEL_NAME_LINKS)
+                .setSmallIcon(R.drawable.ic_sync_white_18dp)
+                .setColor(ContextCompat.getColor(this, R.color.color_primary))
+                .setContentTitle(getString(R.string.links_enrichment_title))
+                .setContentText(text)
+                .setOnlyAlertOnce(true);
+    }
+
+    private void notifyProgress(LinksEnricher.Progress progress) {
+        String text = getString(R.string.links_enrichment_progress,
+                progress.getProcessed(), progress.getTotal());
+        notificationManager.notify(NOTIFICATION_ENRICHMENT, buildNotification(text)
+                .setOngoing(true)
+                .setProgress(progress.getTotal(), progress.getProcessed(), false)
+                .build());
+    }
+
+    private void notifyFinished(String text) {
+        notificationManager.notify(NOTIFICATION_ENRICHMENT, buildNotification(text).build());
+    }
+}
@@ -217,6 +217,10 @@ public class LinksFragment extends BaseItemFragment implements LinksContract.Vie
             case R.id.toolbar_links_collapse_all:
                 collapseAllLinks();
                 break;
+            case R.id.toolbar_links_enrich:
+                if (context != null)
+                    context.startService(new Intent(context, LinksEnrichmentService.class));
+                break;
             case R.id.toolbar_links_clear_clipboard:
                 if (context != null)
                     ActivityUtils.clearClipboard(context);
@@ -32,6 +32,7 @@ import com.bytesforge.linkasanote.data.Link;
 import com.bytesforge.linkasanote.data.Note;
 import com.bytesforge.linkasanote.data.Tag;
 import com.bytesforge.linkasanote.data.source.DataSource;
+import com.bytesforge.linkasanote.data.source.ItemFilter;
 import com.bytesforge.linkasanote.data.source.Repository;
 import com.bytesforge.linkasanote.laano.BaseItemPresenter;
 import com.bytesforge.linkasanote.laano.FilterType;
@@ -178,6 +179,8 @@ public final class LinksPresenter extends BaseItemPresenter implements
             repository.checkLinksSyncLog();
             updateTabNormalState();
         }
+        // NOTE: the search goes to the full-text index, the items are matched by the word prefixes
+        final String searchText = Strings.emptyToNull(viewModel.getSearchText());
         Observable<Link> loadLinks = null;
         if (extendedFilter == FilterType.FAVORITE) {
             loadLinks = repository.getFavorite(favoriteFilterId)
@@ -189,7 +192,7 @@ public final class LinksPresenter extends BaseItemPresenter implements
                         favoriteHashCode = favorite.hashCode();
                         settings.setFavoriteFilter(favorite);
                         laanoUiManager.setFilterType(TAB, filterType);
-                        return repository.getLinks();
+                        return getLinks(searchText, favorite);
                     }).doOnError(throwable -> {
                         if (throwable instanceof NoSuchElementException) {
                             setDefaultLinksFilterType();
@@ -201,7 +204,7 @@ public final class LinksPresenter extends BaseItemPresenter implements
                         }
                     }).onErrorResumeNext(throwable -> {
                         if (throwable instanceof NoSuchElementException) {
-                            return repository.getLinks();
+                            return getLinks(searchText, null);
                         } else {
                             return Observable.empty();
                         }
@@ -215,7 +218,7 @@ public final class LinksPresenter extends BaseItemPresenter implements
                         noteHashCode = note.hashCode();
                         settings.setNoteFilter(note);
                         laanoUiManager.setFilterType(TAB, filterType);
-                        return repository.getLinks();
+                        return getLinks(searchText, null);
                     }).doOnError(throwable -> {
                         if (throwable instanceof NoSuchElementException) {
                             setDefaultLinksFilterType();
@@ -227,21 +230,14 @@ public final class LinksPresenter extends BaseItemPresenter implements
                         }
                     }).onErrorResumeNext(throwable -> {
                         if (throwable instanceof NoSuchElementException) {
-                            return repository.getLinks();
+                            return getLinks(searchText, null);
                         } else {
                             return Observable.empty();
                         }
                     });
         }
         if (loadLinks == null) {
-            loadLinks = repository.getLinks();
-        }
-        final String searchText;
-        String text = viewModel.getSearchText();
-        if (!Strings.isNullOrEmpty(text)) {
-            searchText = text.toLowerCase();
-        } else {
-            searchText = null;
+            loadLinks = getLinks(searchText, null);
         }
         boolean filterIsActive = (searchText != null || filterType != FilterType.ALL);
         boolean loadByChunk = repository.isLinkCacheDirty();
@@ -266,19 +262,7 @@ public final class LinksPresenter extends BaseItemPresenter implements
                     return Observable.error(throwable);
                 }))
                 .filter(link -> {
-                    if (searchText != null) {
-                        boolean found = false;
-                        String linkName = link.getName();
-                        if (linkName != null && linkName.toLowerCase().contains(searchText)) {
-                            found = true;
-                        }
-                        String linkLink = link.getLink();
-                        if (linkLink != null && linkLink.toLowerCase().contains(searchText)) {
-                            found = true;
-                        }
-                        if (!found) return false;
-                    }
-                    // OPTIMIZATION: query the filtered data set may be more efficient
+                    // NOTE: the database has already applied the filter unless it was a search
                     switch (filterType) {
                         case CONFLICTED:
                             return link.isConflicted();
@@ -354,6 +338,27 @@ public final class LinksPresenter extends BaseItemPresenter implements
         compositeDisposable.add(disposable);
     }
 
+    private Observable<Link> getLinks(
+            @Nullable String searchText, @Nullable Favorite favoriteFilter) {
+        if (searchText != null) {
+            return repository.searchLinks(searchText);
+        }
+        switch (filterType) {
+            case CONFLICTED:
+                return repository.getLinks(ItemFilter.conflicted());
+            case NO_TAGS:
+                return repository.getLinks(ItemFilter.noTags());
+            case FAVORITE:
+                if (favoriteFilter != null && favoriteFilter.getTags() != null) {
+                    return repository.getLinks(ItemFilter.tags(
+                            favoriteFilter.getTags(), favoriteFilter.isAndGate()));
+                }
+                return repository.getLinks();
+            default:
+                return repository.getLinks();
+        }
+    }
+
     @Override
     public void onLinkClick(String linkId, boolean isConflicted, int numNotes) {
         if (viewModel.isActionMode()) {
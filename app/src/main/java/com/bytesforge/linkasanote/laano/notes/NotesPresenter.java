@@ -31,6 +31,7 @@ import com.bytesforge.linkasanote.data.Link;
 import com.bytesforge.linkasanote.data.Note;
 import com.bytesforge.linkasanote.data.Tag;
 import com.bytesforge.linkasanote.data.source.DataSource;
+import com.bytesforge.linkasanote.data.source.ItemFilter;
 import com.bytesforge.linkasanote.data.source.Repository;
 import com.bytesforge.linkasanote.laano.BaseItemPresenter;
 import com.bytesforge.linkasanote.laano.FilterType;
@@ -176,6 +177,8 @@ public final class NotesPresenter extends BaseItemPresenter implements
             repository.checkNotesSyncLog();
             updateTabNormalState();
         }
+        // NOTE: the search goes to the full-text index, the items are matched by the word prefixes
+        final String searchText = Strings.emptyToNull(viewModel.getSearchText());
         Observable<Note> loadNotes = null;
         if (extendedFilter == FilterType.FAVORITE) {
             loadNotes = repository.getFavorite(favoriteFilterId)
@@ -187,7 +190,7 @@ public final class NotesPresenter extends BaseItemPresenter implements
                         favoriteHashCode = favorite.hashCode();
                         settings.setFavoriteFilter(favorite);
                         laanoUiManager.setFilterType(TAB, filterType);
-                        return repository.getNotes();
+                        return getNotes(searchText, favorite);
                     }).doOnError(throwable -> {
                         if (throwable instanceof NoSuchElementException) {
                             setDefaultNotesFilterType();
@@ -198,7 +201,7 @@ public final class NotesPresenter extends BaseItemPresenter implements
                         }
                     }).onErrorResumeNext(throwable -> {
                         if (throwable instanceof NoSuchElementException) {
-                            return repository.getNotes();
+                            return getNotes(searchText, null);
                         } else {
                             return Observable.empty();
                         }
@@ -212,7 +215,7 @@ public final class NotesPresenter extends BaseItemPresenter implements
                         linkHashCode = link.hashCode();
                         settings.setLinkFilter(link);
                         laanoUiManager.setFilterType(TAB, filterType);
-                        return repository.getNotes();
+                        return getNotes(searchText, null);
                     }).doOnError(throwable -> {
                         if (throwable instanceof NoSuchElementException) {
                             setDefaultNotesFilterType();
@@ -223,21 +226,14 @@ public final class NotesPresenter extends BaseItemPresenter implements
                         }
                     }).onErrorResumeNext(throwable -> {
                         if (throwable instanceof NoSuchElementException) {
-                            return repository.getNotes();
+                            return getNotes(searchText, null);
                         } else {
                             return Observable.empty();
                         }
                     });
         }
         if (loadNotes == null) {
-            loadNotes = repository.getNotes();
-        }
-        final String searchText;
-        String text = viewModel.getSearchText();
-        if (!Strings.isNullOrEmpty(text)) {
-            searchText = text.toLowerCase();
-        } else {
-            searchText = null;
+            loadNotes = getNotes(searchText, null);
         }
         boolean filterIsActive = (searchText != null || filterType != FilterType.ALL);
         boolean loadByChunk = repository.isNoteCacheDirty();
@@ -261,13 +257,7 @@ public final class NotesPresenter extends BaseItemPresenter implements
                     return Observable.error(throwable);
                 }))
                 .filter(note -> {
-                    if (searchText != null) {
-                        String noteNote = note.getNote();
-                        if (noteNote == null
-                                || !noteNote.toLowerCase().contains(searchText)) {
-                            return false;
-                        }
-                    }
+                    // NOTE: the database has already applied the filter unless it was a search
                     switch (filterType) {
                         case CONFLICTED:
                             return note.isConflicted();
@@ -341,6 +331,27 @@ public final class NotesPresenter extends BaseItemPresenter implements
         compositeDisposable.add(disposable);
     }
 
+    private Observable<Note> getNotes(
+            @Nullable String searchText, @Nullable Favorite favoriteFilter) {
+        if (searchText != null) {
+            return repository.searchNotes(searchText);
+        }
+        switch (filterType) {
+            case CONFLICTED:
+                return repository.getNotes(ItemFilter.conflicted());
+            case NO_TAGS:
+                return repository.getNotes(ItemFilter.noTags());
+            case FAVORITE:
+                if (favoriteFilter != null && favoriteFilter.getTags() != null) {
+                    return repository.getNotes(ItemFilter.tags(
+                            favoriteFilter.getTags(), favoriteFilter.isAndGate()));
+                }
+                return repository.getNotes();
+            default:
+                return repository.getNotes();
+        }
+    }
+
     @Override
     public void onNoteClick(String noteId, boolean isConflicted) {
         if (viewModel.isActionMode()) {
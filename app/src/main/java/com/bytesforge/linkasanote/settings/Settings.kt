@@ -67,6 +67,26 @@ class Settings(context: Context, private val sharedPreferences: SharedPreference
             resources.getString(R.string.pref_key_sync_protect_local),
             DEFAULT_SYNC_PROTECT_LOCAL
         )
+    val isSyncPacked: Boolean
+        get() = sharedPreferences.getBoolean(
+            resources.getString(R.string.pref_key_sync_packed), DEFAULT_SYNC_PACKED
+        )
+    val isSyncConcurrent: Boolean
+        get() = sharedPreferences.getBoolean(
+            resources.getString(R.string.pref_key_sync_concurrent), DEFAULT_SYNC_CONCURRENT
+        )
+    val syncParallelism: Int
+        get() {
+            val syncParallelism = sharedPreferences.getString(
+                resources.getString(R.string.pref_key_sync_parallelism),
+                DEFAULT_SYNC_PARALLELISM.toString()
+            )
+            return try {
+                syncParallelism!!.toInt()
+            } catch (e: NumberFormatException) {
+                DEFAULT_SYNC_PARALLELISM
+            }
+        }
     val isClipboardLinkGetMetadata: Boolean
         get() = sharedPreferences.getBoolean(
             resources.getString(
@@ -409,6 +429,12 @@ class Settings(context: Context, private val sharedPreferences: SharedPreference
         const val GLOBAL_TAGS_AUTOCOMPLETE_THRESHOLD = 1
         const val GLOBAL_LINK_MAX_KEYWORDS = 10
         const val GLOBAL_LINK_MAX_BODY_SIZE_BYTES = 10 * 1024
+        const val GLOBAL_LINK_METADATA_TTL_MILLIS = 7L * 24 * 60 * 60 * 1000
+        const val GLOBAL_LINK_METADATA_CACHE_SIZE = 1000
+        const val GLOBAL_ENRICHMENT_WORKERS = 4
+        const val GLOBAL_ENRICHMENT_HOST_INTERVAL_MILLIS = 1000
+        const val GLOBAL_ENRICHMENT_BATCH_SIZE = 50
+        const val GLOBAL_ENRICHMENT_BATCH_INTERVAL_MILLIS = 2000
         const val GLOBAL_CLIPBOARD_LINK_UPDATED_TOAST = true
         const val GLOBAL_CLIPBOARD_MONITOR_ON_START = true
         const val GLOBAL_JSON_MAX_BODY_SIZE_BYTES = (10 * 1024).toLong()
@@ -419,12 +445,27 @@ class Settings(context: Context, private val sharedPreferences: SharedPreference
         const val GLOBAL_SYNC_LOG_KEEPING_PERIOD_DAYS = 7
         const val GLOBAL_DEFER_RELOAD_DELAY_MILLIS = 100
         const val GLOBAL_QUERY_CHUNK_SIZE = 20
+        const val GLOBAL_QUERY_IN_CHUNK_SIZE = 500 // NOTE: SQLite variables limit is 999
+        const val GLOBAL_SYNC_BATCH_SIZE = 50
+        const val GLOBAL_SYNC_LOG_BATCH_SIZE = 200
+        const val GLOBAL_SYNC_PROGRESS_INTERVAL_MILLIS = 250
+        const val GLOBAL_SYNC_MIN_CONNECTIONS = 2
+        const val GLOBAL_PACK_SEGMENT_SIZE = 250 // NOTE: items, 2.5MB at most
+        const val GLOBAL_PACK_MAX_SIZE_BYTES = (4 * 1024 * 1024).toLong()
+        const val GLOBAL_BACKUP_CHUNK_SIZE_BYTES = 64 * 1024 // NOTE: multiple of the page size
+        const val GLOBAL_BACKUP_KEEP_COUNT = 10
+        const val GLOBAL_ARCHIVE_BATCH_SIZE = 500 // NOTE: items per transaction
+        const val GLOBAL_ITEM_CACHE_SIZE = 2000
+        const val GLOBAL_ITEM_CACHE_SIZE_LOW_RAM = 500
 
         private const val DEFAULT_EXPAND_LINKS = false
         private const val DEFAULT_EXPAND_NOTES = true
         private const val DEFAULT_SYNC_DIRECTORY = "/.laano_sync"
         private const val DEFAULT_SYNC_UPLOAD_TO_EMPTY = true
         private const val DEFAULT_SYNC_PROTECT_LOCAL = true
+        private const val DEFAULT_SYNC_PACKED = false
+        private const val DEFAULT_SYNC_PARALLELISM = 1
+        private const val DEFAULT_SYNC_CONCURRENT = false
         private const val DEFAULT_CLIPBOARD_LINK_GET_METADATA = true
         private const val DEFAULT_CLIPBOARD_LINK_FOLLOW = false
         private const val DEFAULT_CLIPBOARD_FILL_IN_FORMS = true
@@ -21,9 +21,13 @@ package com.bytesforge.linkasanote.settings
 
 import android.Manifest
 import android.accounts.Account
+import android.app.Activity
+import android.content.Intent
 import android.content.pm.PackageManager
+import android.net.Uri
 import android.os.Build
 import android.os.Bundle
+import android.text.format.DateFormat
 import android.text.format.Formatter
 import android.view.View
 import android.widget.Toast
@@ -36,13 +40,18 @@ import com.bytesforge.linkasanote.LaanoApplication
 import com.bytesforge.linkasanote.R
 import com.bytesforge.linkasanote.data.source.Repository
 import com.bytesforge.linkasanote.data.source.local.DatabaseHelper
+import com.bytesforge.linkasanote.data.source.local.LocalArchive
 import com.bytesforge.linkasanote.utils.CommonUtils
 import com.bytesforge.linkasanote.utils.schedulers.BaseSchedulerProvider
 import com.google.android.material.snackbar.Snackbar
 import com.google.common.base.Joiner
 import com.google.common.base.Preconditions
 import com.google.common.base.Strings
+import io.reactivex.Single
 import io.reactivex.disposables.CompositeDisposable
+import java.io.FileNotFoundException
+import java.io.InputStream
+import java.io.OutputStream
 import java.text.ParseException
 import java.text.SimpleDateFormat
 import java.util.*
@@ -52,6 +61,8 @@ class SettingsFragment : PreferenceFragmentCompat() {
     private var account: Account? = null
     private var prefBackup: Preference? = null
     private var prefRestore: ListPreference? = null
+    private var prefExport: Preference? = null
+    private var prefImport: Preference? = null
     private var prefSyncInterval: ListPreference? = null
 
     @JvmField
@@ -62,6 +73,10 @@ class SettingsFragment : PreferenceFragmentCompat() {
     @Inject
     var settings: Settings? = null
 
+    @JvmField
+    @Inject
+    var localArchive: LocalArchive? = null
+
     @JvmField
     @Inject
     var schedulerProvider: BaseSchedulerProvider? = null
@@ -151,6 +166,13 @@ class SettingsFragment : PreferenceFragmentCompat() {
             }
         refreshBackupEntries()
 
+        prefExport = findPreference(
+            resources.getString(R.string.pref_key_export)
+        )
+        prefImport = findPreference(
+            resources.getString(R.string.pref_key_import)
+        )
+
         val prefSyncUploadToEmpty = findPreference<Preference>(
             resources.getString(R.string.pref_key_sync_upload_to_empty)
         ) as CheckBoxPreference?
@@ -272,6 +294,20 @@ class SettingsFragment : PreferenceFragmentCompat() {
     override fun onPreferenceTreeClick(preference: Preference): Boolean {
         if (preference === prefBackup) {
             checkWriteExternalStoragePermission()
+        } else if (preference === prefExport) {
+            val archiveName = ARCHIVE_NAME +
+                    DateFormat.format(ApplicationBackup.BACKUP_EXTENSION_FORMAT, Date()) +
+                    ARCHIVE_EXTENSION
+            val intent = Intent(Intent.ACTION_CREATE_DOCUMENT)
+                .addCategory(Intent.CATEGORY_OPENABLE)
+                .setType(ARCHIVE_MIME_TYPE)
+                .putExtra(Intent.EXTRA_TITLE, archiveName)
+            startActivityForResult(intent, REQUEST_EXPORT_ARCHIVE)
+        } else if (preference === prefImport) {
+            val intent = Intent(Intent.ACTION_OPEN_DOCUMENT)
+                .addCategory(Intent.CATEGORY_OPENABLE)
+                .setType("*/*")
+            startActivityForResult(intent, REQUEST_IMPORT_ARCHIVE)
         } else {
             return false
         }
@@ -346,6 +382,78 @@ class SettingsFragment : PreferenceFragmentCompat() {
         }
     }
 
+    // Archive
+
+    override fun onActivityResult(requestCode: Int, resultCode: Int, data: Intent?) {
+        val uri = data?.data
+        if (resultCode != Activity.RESULT_OK || uri == null) {
+            super.onActivityResult(requestCode, resultCode, data)
+            return
+        }
+        when (requestCode) {
+            REQUEST_EXPORT_ARCHIVE -> exportArchive(uri)
+            REQUEST_IMPORT_ARCHIVE -> importArchive(uri)
+            else -> super.onActivityResult(requestCode, resultCode, data)
+        }
+    }
+
+    private fun exportArchive(uri: Uri) {
+        val contentResolver = requireContext().contentResolver
+        val disposable = Single.using(
+            { contentResolver.openOutputStream(uri) ?: throw FileNotFoundException(uri.toString()) },
+            { outputStream: OutputStream -> localArchive!!.write(outputStream, true) },
+            { outputStream: OutputStream -> outputStream.close() })
+            .subscribeOn(schedulerProvider!!.io())
+            .observeOn(schedulerProvider!!.ui())
+            .subscribe(
+                { count: Int ->
+                    if (isActive) {
+                        Toast.makeText(
+                            context, resources.getQuantityString(
+                                R.plurals.settings_fragment_export_success, count, count
+                            ), Toast.LENGTH_SHORT
+                        ).show()
+                    }
+                }
+            ) { throwable: Throwable? ->
+                CommonUtils.logStackTrace(TAG_E!!, throwable!!)
+                if (isActive) {
+                    showSnackbar(R.string.pref_snackbar_export_failed, Snackbar.LENGTH_LONG)
+                }
+            }
+        compositeDisposable.add(disposable)
+    }
+
+    private fun importArchive(uri: Uri) {
+        val contentResolver = requireContext().contentResolver
+        val disposable = Single.using(
+            { contentResolver.openInputStream(uri) ?: throw FileNotFoundException(uri.toString()) },
+            { inputStream: InputStream -> localArchive!!.read(inputStream) },
+            { inputStream: InputStream -> inputStream.close() })
+            .subscribeOn(schedulerProvider!!.io())
+            .observeOn(schedulerProvider!!.ui())
+            .subscribe(
+                { count: Int ->
+                    repository!!.refreshLinks()
+                    repository!!.refreshFavorites()
+                    repository!!.refreshNotes()
+                    if (isActive) {
+                        Toast.makeText(
+                            context, resources.getQuantityString(
+                                R.plurals.settings_fragment_import_success, count, count
+                            ), Toast.LENGTH_SHORT
+                        ).show()
+                    }
+                }
+            ) { throwable: Throwable? ->
+                CommonUtils.logStackTrace(TAG_E!!, throwable!!)
+                if (isActive) {
+                    showSnackbar(R.string.pref_snackbar_import_failed, Snackbar.LENGTH_LONG)
+                }
+            }
+        compositeDisposable.add(disposable)
+    }
+
     // Sync
 
     private fun populateSyncInterval(account: Account?, isDelay: Boolean = false) {
@@ -479,6 +587,11 @@ class SettingsFragment : PreferenceFragmentCompat() {
         private val compositeDisposable: CompositeDisposable = CompositeDisposable()
 
         private const val REQUEST_PERMISSION_WRITE_EXTERNAL_STORAGE = 0
+        private const val REQUEST_EXPORT_ARCHIVE = 1
+        private const val REQUEST_IMPORT_ARCHIVE = 2
+        private const val ARCHIVE_NAME = "laano"
+        private const val ARCHIVE_EXTENSION = ".jsonl.gz"
+        private const val ARCHIVE_MIME_TYPE = "application/gzip"
         private const val PERMISSION_WRITE_EXTERNAL_STORAGE =
             Manifest.permission.WRITE_EXTERNAL_STORAGE
         private val PERMISSIONS_WRITE_EXTERNAL_STORAGE = arrayOf(PERMISSION_WRITE_EXTERNAL_STORAGE)
@@ -29,25 +29,35 @@ import android.widget.Toast
 import androidx.annotation.StringRes
 import com.bytesforge.linkasanote.R
 import com.bytesforge.linkasanote.data.Favorite
+import com.bytesforge.linkasanote.data.Item
 import com.bytesforge.linkasanote.data.Link
 import com.bytesforge.linkasanote.data.Note
 import com.bytesforge.linkasanote.data.source.cloud.CloudItem
+import com.bytesforge.linkasanote.data.source.local.LocalContract
 import com.bytesforge.linkasanote.data.source.local.LocalFavorites
+import com.bytesforge.linkasanote.data.source.local.LocalItems
 import com.bytesforge.linkasanote.data.source.local.LocalLinks
 import com.bytesforge.linkasanote.data.source.local.LocalNotes
+import com.bytesforge.linkasanote.data.source.local.LocalSyncCheckpoints
 import com.bytesforge.linkasanote.data.source.local.LocalSyncResults
 import com.bytesforge.linkasanote.settings.Settings
 import com.bytesforge.linkasanote.utils.CloudUtils
 import com.google.common.base.Joiner
+import com.owncloud.android.lib.common.OwnCloudClient
 import io.reactivex.Single
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 
-class SyncAdapter(
+class SyncAdapter @JvmOverloads constructor(
     private val contextVal: Context?, private val settings: Settings?, autoInitialize: Boolean,
     private val accountManager: AccountManager?, private val syncNotifications: SyncNotifications,
     private val localSyncResults: LocalSyncResults?,
     localLinks: LocalLinks<Link>?, cloudLinks: CloudItem<Link>?,
     localFavorites: LocalFavorites<Favorite>?, cloudFavorites: CloudItem<Favorite>?,
-    localNotes: LocalNotes<Note>?, cloudNotes: CloudItem<Note>?
+    localNotes: LocalNotes<Note>?, cloudNotes: CloudItem<Note>?,
+    private val localSyncCheckpoints: LocalSyncCheckpoints? = null
 ) : AbstractThreadedSyncAdapter(
     contextVal, autoInitialize
 ) {
@@ -96,63 +106,58 @@ class SyncAdapter(
         var linksSyncResult: SyncItemResult? = null
         var notesSyncResult: SyncItemResult? = null
 
-        // Favorites
-        syncNotifications.sendSyncBroadcast(
-            SyncNotifications.ACTION_SYNC_FAVORITES,
-            SyncNotifications.STATUS_SYNC_START
-        )
-        val syncFavorites = SyncItem(
-            ocClient, localFavorites, cloudFavorites,
-            syncNotifications, SyncNotifications.ACTION_SYNC_FAVORITES,
-            settings!!.isSyncUploadToEmpty, settings.isSyncProtectLocal, started
-        )
-        favoritesSyncResult = syncFavorites.sync()
-        settings.updateLastFavoritesSyncTime()
-        syncNotifications.sendSyncBroadcast(
-            SyncNotifications.ACTION_SYNC_FAVORITES,
-            SyncNotifications.STATUS_SYNC_STOP
-        )
-        fatalError = favoritesSyncResult.isFatal
+        // NOTE: one pool per pass, so the connections opened by the first requests are reused by the rest
+        val syncClient = SyncClient(ocClient, getMaxConnections())
+        try {
+            if (settings!!.isSyncConcurrent) {
+                val results = syncConcurrently(syncClient.ocClient, started)
+                favoritesSyncResult = results[FAVORITES]!!
+                linksSyncResult = results[LINKS]
+                notesSyncResult = results[NOTES]
+                fatalError = results.any { it != null && it.isFatal }
+            } else {
+                // Favorites
+                syncNotifications.sendSyncBroadcast(
+                    SyncNotifications.ACTION_SYNC_FAVORITES,
+                    SyncNotifications.STATUS_SYNC_START
+                )
+                favoritesSyncResult = newSyncItem(
+                    syncClient.ocClient, localFavorites, cloudFavorites,
+                    LocalContract.FavoriteEntry.TABLE_NAME, SyncNotifications.ACTION_SYNC_FAVORITES, started
+                ).sync()
+                stopFavorites()
+                fatalError = favoritesSyncResult.isFatal
 
-        // Links
-        if (!fatalError) {
-            syncNotifications.sendSyncBroadcast(
-                SyncNotifications.ACTION_SYNC_LINKS,
-                SyncNotifications.STATUS_SYNC_START
-            )
-            val syncLinks = SyncItem(
-                ocClient, localLinks, cloudLinks,
-                syncNotifications, SyncNotifications.ACTION_SYNC_LINKS,
-                settings.isSyncUploadToEmpty, settings.isSyncProtectLocal, started
-            )
-            linksSyncResult = syncLinks.sync()
-            settings.updateLastLinksSyncTime()
-            syncNotifications.sendSyncBroadcast(
-                SyncNotifications.ACTION_SYNC_LINKS,
-                SyncNotifications.STATUS_SYNC_STOP
-            )
-            fatalError = linksSyncResult.isFatal
-        }
+                // Links
+                if (!fatalError) {
+                    syncNotifications.sendSyncBroadcast(
+                        SyncNotifications.ACTION_SYNC_LINKS,
+                        SyncNotifications.STATUS_SYNC_START
+                    )
+                    linksSyncResult = newSyncItem(
+                        syncClient.ocClient, localLinks, cloudLinks,
+                        LocalContract.LinkEntry.TABLE_NAME, SyncNotifications.ACTION_SYNC_LINKS, started
+                    ).sync()
+                    stopLinks()
+                    fatalError = linksSyncResult.isFatal
+                }
 
-        // Notes
-        if (!fatalError) {
-            syncNotifications.sendSyncBroadcast(
-                SyncNotifications.ACTION_SYNC_NOTES,
-                SyncNotifications.STATUS_SYNC_START
-            )
-            val syncNotes = SyncItem(
-                ocClient, localNotes, cloudNotes,
-                syncNotifications, SyncNotifications.ACTION_SYNC_NOTES,
-                settings.isSyncUploadToEmpty, settings.isSyncProtectLocal, started
-            )
-            notesSyncResult = syncNotes.sync()
-            settings.updateLastNotesSyncTime()
-            settings.updateLastLinksSyncTime() // NOTE: because there are related links
-            syncNotifications.sendSyncBroadcast(
-                SyncNotifications.ACTION_SYNC_NOTES,
-                SyncNotifications.STATUS_SYNC_STOP
-            )
-            fatalError = notesSyncResult.isFatal
+                // Notes
+                if (!fatalError) {
+                    syncNotifications.sendSyncBroadcast(
+                        SyncNotifications.ACTION_SYNC_NOTES,
+                        SyncNotifications.STATUS_SYNC_START
+                    )
+                    notesSyncResult = newSyncItem(
+                        syncClient.ocClient, localNotes, cloudNotes,
+                        LocalContract.NoteEntry.TABLE_NAME, SyncNotifications.ACTION_SYNC_NOTES, started
+                    ).sync()
+                    stopNotes()
+                    fatalError = notesSyncResult.isFatal
+                }
+            }
+        } finally {
+            syncClient.close()
         }
 
         // Stop
@@ -165,9 +170,9 @@ class SyncAdapter(
 
         // Error notifications
         if (fatalError) {
-            var fatalResult = favoritesSyncResult
-            if (linksSyncResult != null) fatalResult = linksSyncResult
-            if (notesSyncResult != null) fatalResult = notesSyncResult
+            val fatalResult = listOfNotNull(
+                favoritesSyncResult, linksSyncResult, notesSyncResult
+            ).first { it.isFatal }
             if (fatalResult.isDbAccessError) {
                 syncNotifications.notifyFailedSynchronization(
                     resources.getString(R.string.sync_adapter_title_failed_database),
@@ -219,6 +224,100 @@ class SyncAdapter(
         }
     }
 
+    private fun <T : Item?> newSyncItem(
+        ocClient: OwnCloudClient, localItems: LocalItems<T>, cloudItem: CloudItem<T>,
+        entry: String, notificationAction: String, started: Long
+    ): SyncItem<T> {
+        val syncCheckpoint = localSyncCheckpoints?.let { SyncCheckpoint(it, entry) }
+        return SyncItem(
+            ocClient, localItems, cloudItem,
+            syncNotifications, notificationAction,
+            settings!!.isSyncUploadToEmpty, settings.isSyncProtectLocal, started,
+            settings.syncParallelism, syncCheckpoint
+        )
+    }
+
+    private fun getMaxConnections(): Int {
+        val passes = if (settings!!.isSyncConcurrent) 3 else 1
+        return Math.max(settings.syncParallelism * passes, Settings.GLOBAL_SYNC_MIN_CONNECTIONS)
+    }
+
+    /**
+     * Favorites are kept apart from the rest, so they are synced alongside the links and notes.
+     * Notes refer to the links, so they are synced only after the links are done, otherwise
+     * the notes of the links which are not downloaded yet would be saved as orphaned conflicts
+     */
+    private fun syncConcurrently(ocClient: OwnCloudClient, started: Long): List<SyncItemResult?> {
+        syncNotifications.sendSyncBroadcast(
+            SyncNotifications.ACTION_SYNC_FAVORITES, SyncNotifications.STATUS_SYNC_START
+        )
+        val executor = Executors.newSingleThreadExecutor()
+        try {
+            val favorites = executor.submit(Callable {
+                newSyncItem(
+                    ocClient, localFavorites, cloudFavorites,
+                    LocalContract.FavoriteEntry.TABLE_NAME, SyncNotifications.ACTION_SYNC_FAVORITES, started
+                ).sync()
+            })
+            // Links
+            syncNotifications.sendSyncBroadcast(
+                SyncNotifications.ACTION_SYNC_LINKS, SyncNotifications.STATUS_SYNC_START
+            )
+            val linksResult = newSyncItem(
+                ocClient, localLinks, cloudLinks,
+                LocalContract.LinkEntry.TABLE_NAME, SyncNotifications.ACTION_SYNC_LINKS, started
+            ).sync()
+            stopLinks()
+
+            // Notes
+            val notesResult = if (linksResult.isFatal) null else {
+                syncNotifications.sendSyncBroadcast(
+                    SyncNotifications.ACTION_SYNC_NOTES, SyncNotifications.STATUS_SYNC_START
+                )
+                newSyncItem(
+                    ocClient, localNotes, cloudNotes,
+                    LocalContract.NoteEntry.TABLE_NAME, SyncNotifications.ACTION_SYNC_NOTES, started
+                ).sync().also { stopNotes() }
+            }
+            val favoritesResult = getResult(favorites)
+            stopFavorites()
+            return listOf(favoritesResult, linksResult, notesResult)
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    private fun getResult(future: Future<SyncItemResult>): SyncItemResult {
+        return try {
+            future.get()
+        } catch (e: ExecutionException) {
+            val cause = e.cause
+            throw cause as? RuntimeException ?: RuntimeException(cause)
+        }
+    }
+
+    private fun stopFavorites() {
+        settings!!.updateLastFavoritesSyncTime()
+        syncNotifications.sendSyncBroadcast(
+            SyncNotifications.ACTION_SYNC_FAVORITES, SyncNotifications.STATUS_SYNC_STOP
+        )
+    }
+
+    private fun stopLinks() {
+        settings!!.updateLastLinksSyncTime()
+        syncNotifications.sendSyncBroadcast(
+            SyncNotifications.ACTION_SYNC_LINKS, SyncNotifications.STATUS_SYNC_STOP
+        )
+    }
+
+    private fun stopNotes() {
+        settings!!.updateLastNotesSyncTime()
+        settings.updateLastLinksSyncTime() // NOTE: because there are related links
+        syncNotifications.sendSyncBroadcast(
+            SyncNotifications.ACTION_SYNC_NOTES, SyncNotifications.STATUS_SYNC_STOP
+        )
+    }
+
     private fun saveLastSyncStatus(success: Boolean) {
         val syncStatus: Int
         if (success) {
@@ -263,6 +362,9 @@ class SyncAdapter(
 
     companion object {
         private val TAG = SyncAdapter::class.java.simpleName
+        private const val FAVORITES = 0
+        private const val LINKS = 1
+        private const val NOTES = 2
         const val SYNC_STATUS_UNKNOWN = 0
         const val SYNC_STATUS_SYNCED = 1
         const val SYNC_STATUS_UNSYNCED = 2
@@ -0,0 +1,101 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bytesforge.linkasanote.sync
+
+import android.util.Log
+import com.bytesforge.linkasanote.data.source.local.LocalSyncCheckpoints
+import com.bytesforge.linkasanote.settings.Settings
+import com.bytesforge.linkasanote.utils.CommonUtils
+
+/**
+ * Durable progress of the sync pass, the interrupted pass is continued by the next one with
+ * the same listing of the cloud and without the items which have already been processed,
+ * if the cloud data source has not been changed since. The checkpoint is auxiliary,
+ * so any error of it just makes the pass start from scratch
+ */
+class SyncCheckpoint(
+    private val localSyncCheckpoints: LocalSyncCheckpoints, private val entry: String
+) {
+    private val pending: MutableMap<String, String?> = LinkedHashMap()
+    private var enabled = true
+
+    var processedIds: Set<String> = emptySet()
+        private set
+
+    // NOTE: null if there is no checkpoint taken at this state of the cloud data source
+    fun restore(sourceETag: String): Map<String, String>? {
+        return try {
+            if (!localSyncCheckpoints.isValid(entry, sourceETag).blockingGet()) return null
+
+            val cloudETags = localSyncCheckpoints.getCloudETags(entry).blockingGet()
+            processedIds = localSyncCheckpoints.getProcessedIds(entry).blockingGet()
+            Log.d(TAG, "Checkpoint is restored [$entry: ${processedIds.size}/${cloudETags.size}]")
+            cloudETags
+        } catch (e: RuntimeException) {
+            CommonUtils.logStackTrace(TAG_E, e)
+            null
+        }
+    }
+
+    fun begin(sourceETag: String, cloudETags: Map<String, String>) {
+        processedIds = emptySet()
+        execute { localSyncCheckpoints.begin(entry, sourceETag, cloudETags).blockingGet() }
+    }
+
+    fun processed(itemId: String, cloudETag: String?) {
+        if (!enabled) return
+
+        pending[itemId] = cloudETag
+        if (pending.size >= Settings.GLOBAL_SYNC_BATCH_SIZE) {
+            flush()
+        }
+    }
+
+    fun flush() {
+        if (pending.isEmpty()) return
+
+        val processed = LinkedHashMap(pending)
+        pending.clear()
+        execute { localSyncCheckpoints.markAsProcessed(entry, processed).blockingGet() }
+    }
+
+    // NOTE: the pass has been completed, so there is nothing to continue
+    fun clear() {
+        pending.clear()
+        processedIds = emptySet()
+        enabled = true
+        execute { localSyncCheckpoints.clear(entry).blockingGet() }
+    }
+
+    private fun execute(operation: () -> Unit) {
+        if (!enabled) return
+        try {
+            operation()
+        } catch (e: RuntimeException) {
+            CommonUtils.logStackTrace(TAG_E, e)
+            enabled = false
+        }
+    }
+
+    companion object {
+        private val TAG = SyncCheckpoint::class.java.simpleName
+        private val TAG_E = SyncCheckpoint::class.java.canonicalName
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bytesforge.linkasanote.sync
+
+import android.util.Log
+import com.owncloud.android.lib.common.OwnCloudClient
+import org.apache.commons.httpclient.HostConfiguration
+import org.apache.commons.httpclient.HttpConnection
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Client of the sync pass with its own pool of the persistent connections sized for the parallel
+ * transfers, so TLS handshake is paid once per connection and not once per small file. The pool
+ * is not shared, so the singleton client of the account is never touched by the pass
+ */
+class SyncClient(sharedClient: OwnCloudClient, private val maxConnections: Int) : AutoCloseable {
+    private val connectionManager = CountingConnectionManager()
+    val ocClient: OwnCloudClient = OwnCloudClient(sharedClient.baseUri, connectionManager)
+
+    // NOTE: connections which have been opened by the pass, every one of them costs a handshake
+    val handshakes: Int
+        get() = connectionManager.opened.get()
+
+    val requests: Int
+        get() = connectionManager.acquired.get()
+
+    val reused: Int
+        get() = requests - handshakes
+
+    init {
+        ocClient.credentials = sharedClient.credentials
+        ocClient.userId = sharedClient.userId
+        ocClient.ownCloudVersion = sharedClient.ownCloudVersion
+        ocClient.isFollowRedirects = sharedClient.isFollowRedirects
+        connectionManager.params.apply {
+            defaultMaxConnectionsPerHost = maxConnections
+            maxTotalConnections = maxConnections
+            // NOTE: the timeouts of the shared client are kept
+            sharedClient.httpConnectionManager?.params?.let {
+                connectionTimeout = it.connectionTimeout
+                soTimeout = it.soTimeout
+            }
+            // NOTE: requests are small, so they must not wait for the rest of the segment
+            tcpNoDelay = true
+            // NOTE: mobile networks drop idle connections silently
+            isStaleCheckingEnabled = true
+        }
+    }
+
+    override fun close() {
+        // NOTE: the transfers are done by now, so all the connections of the pool are idle
+        connectionManager.shutdown()
+        Log.d(TAG, "Connections of the sync pass [requests=$requests, handshakes=$handshakes, reused=$reused]")
+    }
+
+    private class CountingConnectionManager : MultiThreadedHttpConnectionManager() {
+        val acquired = AtomicInteger()
+        val opened = AtomicInteger()
+
+        override fun getConnectionWithTimeout(
+            hostConfiguration: HostConfiguration, timeout: Long
+        ): HttpConnection {
+            val connection = super.getConnectionWithTimeout(hostConfiguration, timeout)
+            acquired.incrementAndGet()
+            if (!connection.isOpen) opened.incrementAndGet()
+            return connection
+        }
+    }
+
+    companion object {
+        private val TAG = SyncClient::class.java.simpleName
+    }
+}
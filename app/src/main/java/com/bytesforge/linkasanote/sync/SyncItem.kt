@@ -26,159 +26,285 @@ import com.bytesforge.linkasanote.data.Item
 import com.bytesforge.linkasanote.data.source.cloud.CloudItem
 import com.bytesforge.linkasanote.data.source.local.LocalContract.SyncResultEntry
 import com.bytesforge.linkasanote.data.source.local.LocalItems
+import com.bytesforge.linkasanote.settings.Settings
 import com.bytesforge.linkasanote.sync.files.JsonFile
 import com.bytesforge.linkasanote.utils.CommonUtils
 import com.owncloud.android.lib.common.OwnCloudClient
 import com.owncloud.android.lib.common.operations.RemoteOperationResult
+import io.reactivex.Observable
+import io.reactivex.Scheduler
+import io.reactivex.schedulers.Schedulers
+import java.util.concurrent.Executors
 
 class SyncItem<T : Item?>(
     private val ocClient: OwnCloudClient,
     private val localItems: LocalItems<T>, private val cloudItem: CloudItem<T>,
     private val syncNotifications: SyncNotifications, private val notificationAction: String,
     private val uploadToEmpty: Boolean, private val protectLocal: Boolean,
-    private val started: Long
+    private val started: Long, private val parallelism: Int = 1,
+    private val syncCheckpoint: SyncCheckpoint? = null
 ) {
     private var uploaded: Int
     private var downloaded: Int
     private var syncResult: SyncItemResult
+    private var scheduler: Scheduler? = null
+    private var snapshot: SyncSnapshot? = null
+    private var checkpoint: SyncCheckpoint? = null
+    private val pendingSaves: MutableList<Pair<T, Int>> = ArrayList()
+    private val syncLog = SyncLog(localItems, started)
+
+    private enum class Action {
+        SKIP, DELETE_LOCAL, DELETE_CLOUD, UPLOAD, CONFLICT, DOWNLOAD, DOWNLOAD_NEW
+    }
+
+    // NOTE: network stage fills the results in, the local stage applies them
+    private class SyncTask<T>(val itemId: String, val item: T?, val action: Action) {
+        var cloudItem: T? = null
+        var uploadResult: RemoteOperationResult? = null
+        var deleteResult: RemoteOperationResult? = null
+        var failed = false
+    }
 
     fun sync(): SyncItemResult {
         val dataStorageETag = cloudItem.getDataSourceETag(ocClient)
             ?: return SyncItemResult(SyncItemResult.Status.SOURCE_NOT_READY)
         val isCloudChanged = cloudItem.isCloudDataSourceChanged(dataStorageETag)
-        syncItems(isCloudChanged)
+        val executor = if (parallelism > 1) Executors.newFixedThreadPool(parallelism) else null
+        scheduler = if (executor != null) Schedulers.from(executor) else null
+        // NOTE: the pack is a single listing already, so there is nothing to be resumed
+        checkpoint = if (cloudItem.isPacked) null else syncCheckpoint
+        cloudItem.beginSyncPass()
+        try {
+            syncItems(isCloudChanged, dataStorageETag)
+        } finally {
+            syncLog.flush()
+            checkpoint?.flush()
+            cloudItem.endSyncPass()
+            executor?.shutdown()
+            scheduler = null
+            snapshot = null
+        }
         if (syncResult.isSuccess) {
+            checkpoint?.clear()
             cloudItem.updateLastSyncedETag(dataStorageETag)
         }
+        checkpoint = null
         return syncResult
     }
 
-    private fun syncItems(isCloudChanged: Boolean) {
+    private fun syncItems(isCloudChanged: Boolean, dataStorageETag: String) {
         if (!isCloudChanged) {
-            localItems.unsynced
-                .subscribe(
-                    { item: T -> syncItem(item, item!!.eTag) }
-                ) { throwable: Throwable? -> setDbAccessError() }
+            process(localItems.unsynced.map { item: T -> classify(item, item!!.eTag) })
             return
         }
-        val cloudDataSourceMap = cloudItem.getDataSourceMap(ocClient)
+        // NOTE: the only listing of the cloud directory in this pass, unless the interrupted one is continued
+        val restoredDataSourceMap = checkpoint?.restore(dataStorageETag)
+        val cloudDataSourceMap = restoredDataSourceMap ?: cloudItem.getDataSourceMap(ocClient) ?: run {
+            syncResult = SyncItemResult(SyncItemResult.Status.SOURCE_NOT_READY)
+            return
+        }
+        if (restoredDataSourceMap == null) {
+            checkpoint?.begin(dataStorageETag, cloudDataSourceMap)
+        }
+        val processedIds = checkpoint?.processedIds ?: emptySet()
         if (cloudDataSourceMap.isEmpty() && uploadToEmpty) {
             val numRows = localItems.resetSyncState().blockingGet()
             if (numRows > 0) {
                 Log.d(TAG, "Cloud storage loss is detected, starting to upload [$numRows]")
             }
         }
-        // Sync Local
-        localItems.all
-            .subscribe({ item: T ->
-                val cloudETag = cloudDataSourceMap[item!!.id]
-                syncItem(item, cloudETag)
-            }) { throwable: Throwable? ->
-                CommonUtils.logStackTrace(TAG_E, throwable!!)
-                setDbAccessError()
-            }
-        if (syncResult.isDbAccessError) return
+        // NOTE: ETag of the local item is the last known ETag of the cloud one
+        val localSyncStates = try {
+            localItems.syncStateMap.blockingGet()
+        } catch (e: RuntimeException) {
+            CommonUtils.logStackTrace(TAG_E, e)
+            setDbAccessError()
+            return
+        }
+        val snapshot = SyncSnapshot(cloudDataSourceMap, localSyncStates)
+        this.snapshot = snapshot
 
-        // OPTIMIZATION: Local Map can be taken from previous step
-        val localIds: MutableSet<String> = HashSet()
-        localItems.ids
-            .subscribe(
-                { e: String -> localIds.add(e) }
-            ) { throwable: Throwable? -> setDbAccessError() }
+        // Sync Local (changed only)
+        val changedIds = snapshot.changedLocalIds.filter { it !in processedIds }
+        Log.d(TAG, "Local items to be checked [${changedIds.size}/${localSyncStates.size}]")
+        if (changedIds.isNotEmpty()) {
+            process(localItems.get(changedIds.toTypedArray()).map { item: T ->
+                classify(item, snapshot.getCloudETag(item!!.id))
+            })
+        }
         if (syncResult.isDbAccessError) return
 
         // New cloud records
-        // OPTIMIZATION: Cloud Map can be updated in the previous step
-        val cloudIds: Set<String> = cloudItem.getDataSourceMap(ocClient).keys
-        for (cloudId in cloudIds) {
-            if (localIds.contains(cloudId)) {
-                continue
+        process(Observable.fromIterable(snapshot.newCloudIds.filter { it !in processedIds })
+            .map { cloudId: String -> SyncTask<T>(cloudId, null, Action.DOWNLOAD_NEW) })
+    }
+
+    /**
+     * Runs the network stage of the tasks on the bounded worker pool if parallelism is enabled,
+     * local stage is always applied sequentially on the calling thread in the order of completion
+     */
+    private fun process(tasks: Observable<SyncTask<T>>) {
+        val scheduler = scheduler
+        if (cloudItem.isPacked) {
+            processPacked(tasks)
+        } else if (scheduler == null) {
+            tasks.subscribe({ task: SyncTask<T> ->
+                applyLocal(transfer(task))
+            }) { throwable: Throwable? ->
+                CommonUtils.logStackTrace(TAG_E, throwable!!)
+                setDbAccessError()
             }
-            val cloudItem = download(cloudId) ?: continue
-            syncNotifications.sendSyncBroadcast(
-                notificationAction,
-                SyncNotifications.STATUS_DOWNLOADED, cloudId, ++downloaded
-            )
-            val notifyChanged = save(cloudItem)
-            if (notifyChanged) {
-                syncNotifications.sendSyncBroadcast(
-                    notificationAction,
-                    SyncNotifications.STATUS_CREATED, cloudId
-                )
+        } else {
+            try {
+                tasks.flatMap({ task: SyncTask<T> ->
+                    Observable.fromCallable { transfer(task) }.subscribeOn(scheduler)
+                }, parallelism).blockingForEach { task: SyncTask<T> -> applyLocal(task) }
+            } catch (e: RuntimeException) {
+                CommonUtils.logStackTrace(TAG_E, e)
+                setDbAccessError()
+            }
+        }
+        flushSaves()
+        // NOTE: checkpoint, the phase is logged at once
+        syncLog.flush()
+        checkpoint?.flush()
+    }
+
+    /**
+     * NOTE: the changes of the pack are committed at once, so the local stage waits for the commit
+     *       and the cloud changes are considered failed if it has not happened
+     */
+    private fun processPacked(tasks: Observable<SyncTask<T>>) {
+        val transferred = try {
+            tasks.map { task: SyncTask<T> -> transfer(task) }.toList().blockingGet()
+        } catch (e: RuntimeException) {
+            CommonUtils.logStackTrace(TAG_E, e)
+            setDbAccessError()
+            return
+        }
+        val committed = cloudItem.commitPack(ocClient)
+        for (task in transferred) {
+            if (!committed) {
+                task.uploadResult = null
+                if (task.deleteResult != null) {
+                    task.deleteResult =
+                        RemoteOperationResult(RemoteOperationResult.ResultCode.UNKNOWN_ERROR)
+                }
             }
+            applyLocal(task)
         }
     }
 
-    private fun syncItem(item: T, cloudETag: String?) {
+    private fun classify(item: T, cloudETag: String?): SyncTask<T> {
+        val itemId = item!!.id
         // NOTE: some updates on the conflicted state may cause constraint violation, so let it be resolved first
-        if (item!!.isConflicted) return
-        val itemId = item.id
+        if (item.isConflicted) return SyncTask(itemId, item, Action.SKIP)
+
         val itemETag = item.eTag
-        var notifyChanged = false
-        var statusChanged: Int = SyncNotifications.STATUS_UPDATED
-        if (itemETag == null) { // New
+        val action = if (itemETag == null) { // New
             // duplicated && conflicted can be ignored
             if (item.isDeleted) {
-                // DELETE local
                 Log.e(TAG, "The records never synced must be deleted immediately [$itemId]")
-                notifyChanged = deleteLocal(item)
-                statusChanged = SyncNotifications.STATUS_DELETED
+                Action.DELETE_LOCAL
             } else { // synced is ignored (!synced)
-                // UPLOAD
                 // NOTE: local unsynced will replace cloud with the same ID (acceptable behaviour)
-                notifyChanged = upload(item)
+                Action.UPLOAD
             }
         } else if (itemETag == cloudETag) { // Green light
             // conflicted can be ignored
-            if (!item.isSynced) {
-                if (item.isDeleted) {
-                    // DELETE cloud
-                    notifyChanged = deleteCloud(item)
-                    statusChanged = SyncNotifications.STATUS_DELETED
-                } else if (!item.isDuplicated) {
-                    // UPLOAD
-                    notifyChanged = upload(item)
-                }
+            if (item.isSynced) {
+                Action.SKIP
+            } else if (item.isDeleted) {
+                Action.DELETE_CLOUD
+            } else if (!item.isDuplicated) {
+                Action.UPLOAD
+            } else {
+                Action.SKIP
             }
         } else if (cloudETag == null) { // Was deleted on cloud
             if (item.isSynced) {
-                if (protectLocal) {
-                    // SET conflicted (as if it has been changed)
-                    val state = SyncState(SyncState.State.CONFLICTED_UPDATE)
-                    notifyChanged = update(item, state)
-                } else {
-                    // DELETE local
-                    notifyChanged = deleteLocal(item)
-                    statusChanged = SyncNotifications.STATUS_DELETED
-                }
+                // SET conflicted (as if it has been changed)
+                if (protectLocal) Action.CONFLICT else Action.DELETE_LOCAL
             } else {
-                if (item.isDeleted) {
-                    // DELETE local
-                    notifyChanged = deleteLocal(item)
-                    statusChanged = SyncNotifications.STATUS_DELETED
-                } else {
-                    // SET conflicted
-                    val state = SyncState(SyncState.State.CONFLICTED_UPDATE)
-                    notifyChanged = update(item, state)
-                }
+                if (item.isDeleted) Action.DELETE_LOCAL else Action.CONFLICT
             }
         } else { // Was changed on cloud
             // duplicated && conflicted can be ignored
             // DOWNLOAD (with synced state by default)
-            val cloudItem = download(itemId)
-            if (cloudItem != null) {
+            Action.DOWNLOAD
+        }
+        return SyncTask(itemId, item, action)
+    }
+
+    // NOTE: network stage, must not touch the local storage or notifications
+    private fun transfer(task: SyncTask<T>): SyncTask<T> {
+        val item = task.item
+        when (task.action) {
+            Action.UPLOAD -> {
+                Log.d(TAG, task.itemId + ": UPLOAD")
+                task.uploadResult = cloudItem.upload(item, ocClient).blockingGet()
+            }
+            Action.DELETE_CLOUD -> {
+                Log.d(TAG, task.itemId + ": DELETE cloud")
+                task.deleteResult = cloudItem.delete(task.itemId, ocClient).blockingGet()
+            }
+            Action.DOWNLOAD, Action.DOWNLOAD_NEW -> {
+                val cloudItem = download(task.itemId)
+                task.cloudItem = cloudItem
+                task.failed = cloudItem == null
+                // NOTE: the only remote follow-up of the download, see applyLocal()
+                if (item != null && item.isDeleted && item == cloudItem) {
+                    Log.d(TAG, task.itemId + ": DELETE cloud")
+                    task.deleteResult = this.cloudItem.delete(task.itemId, ocClient).blockingGet()
+                }
+            }
+            else -> {}
+        }
+        return task
+    }
+
+    // NOTE: local stage
+    private fun applyLocal(task: SyncTask<T>) {
+        val itemId = task.itemId
+        val item = task.item
+        var notifyChanged = false
+        var statusChanged: Int = SyncNotifications.STATUS_UPDATED
+        when (task.action) {
+            Action.SKIP -> {}
+            Action.DELETE_LOCAL -> {
+                notifyChanged = deleteLocal(item!!)
+                statusChanged = SyncNotifications.STATUS_DELETED
+            }
+            Action.DELETE_CLOUD -> {
+                if (task.deleteResult!!.isSuccess) snapshot?.removeCloud(itemId)
+                notifyChanged = task.deleteResult!!.isSuccess && deleteLocal(item!!)
+                statusChanged = SyncNotifications.STATUS_DELETED
+            }
+            Action.UPLOAD -> notifyChanged = upload(item!!, task.uploadResult)
+            Action.CONFLICT -> {
+                val state = SyncState(SyncState.State.CONFLICTED_UPDATE)
+                notifyChanged = update(item!!, state)
+            }
+            Action.DOWNLOAD -> {
+                if (task.failed) {
+                    logError(itemId)
+                    return
+                }
+                val cloudItem = task.cloudItem!!
                 syncNotifications.sendSyncBroadcast(
                     notificationAction,
                     SyncNotifications.STATUS_DOWNLOADED, itemId, ++downloaded
                 )
-                if (item.isSynced && !item.isDeleted) {
+                if (item!!.isSynced && !item.isDeleted) {
                     // SAVE local
-                    notifyChanged = save(cloudItem)
+                    deferSave(cloudItem, statusChanged)
+                    return
                 } else { // !synced || deleted
                     if (item == cloudItem) {
                         if (item.isDeleted) {
                             // DELETE cloud
-                            notifyChanged = deleteCloud(item)
+                            if (task.deleteResult!!.isSuccess) snapshot?.removeCloud(itemId)
+                            notifyChanged = task.deleteResult!!.isSuccess && deleteLocal(item)
                             statusChanged = SyncNotifications.STATUS_DELETED
                         } else {
                             // UPDATE state
@@ -200,10 +326,59 @@ class SyncItem<T : Item?>(
                     }
                 }
             }
+            Action.DOWNLOAD_NEW -> {
+                if (task.failed) {
+                    logError(itemId)
+                    return
+                }
+                syncNotifications.sendSyncBroadcast(
+                    notificationAction,
+                    SyncNotifications.STATUS_DOWNLOADED, itemId, ++downloaded
+                )
+                deferSave(task.cloudItem!!, SyncNotifications.STATUS_CREATED)
+                return
+            }
         }
         if (notifyChanged) {
             syncNotifications.sendSyncBroadcast(notificationAction, statusChanged, itemId)
         }
+        if (notifyChanged || task.action == Action.SKIP) {
+            markProcessed(itemId)
+        }
+    }
+
+    // NOTE: the local changes of the item must be in place already
+    private fun markProcessed(itemId: String) {
+        val snapshot = snapshot ?: return
+        checkpoint?.processed(itemId, snapshot.getCloudETag(itemId))
+    }
+
+    private fun deferSave(item: T, statusChanged: Int) {
+        pendingSaves.add(Pair(item, statusChanged))
+        if (pendingSaves.size >= Settings.GLOBAL_SYNC_BATCH_SIZE) {
+            flushSaves()
+        }
+    }
+
+    // NOTE: downloaded items are saved in one transaction, the failed batch goes one by one
+    private fun flushSaves() {
+        if (pendingSaves.isEmpty()) return
+
+        val saves = ArrayList(pendingSaves)
+        pendingSaves.clear()
+        val batchSaved = try {
+            localItems.saveDownloaded(saves.map { it.first }, started).blockingGet()
+        } catch (e: RuntimeException) {
+            Log.d(TAG, "Batch of downloaded items is failed, saving one by one [${saves.size}]")
+            false
+        }
+        for ((item, statusChanged) in saves) {
+            val notifyChanged = batchSaved || save(item)
+            if (notifyChanged) {
+                syncNotifications.sendSyncBroadcast(notificationAction, statusChanged, item!!.id)
+                markProcessed(item.id)
+            }
+        }
     }
 
     // NOTE: any cloud item can violate the DB constraints
@@ -215,13 +390,7 @@ class SyncItem<T : Item?>(
         try {
             val success = localItems.save(item).blockingGet()
             if (success) {
-                localItems.logSyncResult(started, itemId,
-                    SyncResultEntry.Result.DOWNLOADED).blockingGet()
-                val relatedId = item.relatedId
-                if (relatedId != null) {
-                    localItems.logSyncResult(started, relatedId,
-                        SyncResultEntry.Result.RELATED).blockingGet()
-                }
+                syncLog.log(itemId, SyncResultEntry.Result.DOWNLOADED, item.relatedId)
             }
             return success
         } catch (e: NullPointerException) {
@@ -234,13 +403,7 @@ class SyncItem<T : Item?>(
         try {
             val success = localItems.saveDuplicated(item).blockingGet()
             if (success) {
-                localItems.logSyncResult(started, itemId,
-                    SyncResultEntry.Result.DOWNLOADED).blockingGet()
-                val relatedId = item.relatedId
-                if (relatedId != null) {
-                    localItems.logSyncResult(started, relatedId,
-                        SyncResultEntry.Result.RELATED).blockingGet()
-                }
+                syncLog.log(itemId, SyncResultEntry.Result.DOWNLOADED, item.relatedId)
             }
             return success
         } catch (e: NullPointerException) {
@@ -259,25 +422,12 @@ class SyncItem<T : Item?>(
         Log.d(TAG, "$itemId: DELETE local")
         val success = localItems.delete(itemId).blockingGet()
         if (success) {
-            localItems.logSyncResult(started, itemId,
-                SyncResultEntry.Result.DELETED).blockingGet()
-            if (relatedId != null) {
-                localItems.logSyncResult(started, relatedId,
-                    SyncResultEntry.Result.RELATED).blockingGet()
-            }
+            snapshot?.removeLocal(itemId)
+            syncLog.log(itemId, SyncResultEntry.Result.DELETED, relatedId)
         }
         return success
     }
 
-    private fun deleteCloud(item: T): Boolean {
-        checkNotNull(item)
-
-        val itemId = item.id
-        Log.d(TAG, "$itemId: DELETE cloud")
-        val result = cloudItem.delete(itemId, ocClient).blockingGet()
-        return result.isSuccess && deleteLocal(item)
-    }
-
     private fun update(item: T, state: SyncState): Boolean {
         checkNotNull(item)
 
@@ -291,23 +441,17 @@ class SyncItem<T : Item?>(
             } else {
                 SyncResultEntry.Result.SYNCED
             }
-            localItems.logSyncResult(started, itemId, result).blockingGet()
-            if (relatedId != null) {
-                localItems.logSyncResult(started, relatedId,
-                    SyncResultEntry.Result.RELATED).blockingGet()
-            }
+            syncLog.log(itemId, result, relatedId)
         }
         return success
     }
 
-    private fun upload(item: T): Boolean {
+    private fun upload(item: T, result: RemoteOperationResult?): Boolean {
         checkNotNull(item)
 
         val itemId = item.id
         val relatedId = item.relatedId
-        Log.d(TAG, item.id + ": UPLOAD")
         var success = false
-        val result = cloudItem.upload(item, ocClient).blockingGet()
         if (result == null) {
             logError(itemId)
             return false
@@ -318,15 +462,11 @@ class SyncItem<T : Item?>(
                 SyncNotifications.STATUS_UPLOADED, itemId, ++uploaded
             )
             val jsonFile = result.data[0] as JsonFile
+            snapshot?.putCloud(itemId, jsonFile.eTag!!)
             val state = SyncState(jsonFile.eTag!!, SyncState.State.SYNCED)
             success = localItems.update(itemId, state).blockingGet()
             if (success) {
-                localItems.logSyncResult(started, itemId,
-                    SyncResultEntry.Result.UPLOADED).blockingGet()
-                if (relatedId != null) {
-                    localItems.logSyncResult(started, relatedId,
-                        SyncResultEntry.Result.RELATED).blockingGet()
-                }
+                syncLog.log(itemId, SyncResultEntry.Result.UPLOADED, relatedId)
             }
         } else if (result.code == RemoteOperationResult.ResultCode.SYNC_CONFLICT) {
             val state = SyncState(SyncState.State.CONFLICTED_UPDATE)
@@ -337,21 +477,19 @@ class SyncItem<T : Item?>(
 
     private fun logError(itemId: String) {
         syncResult.incFailsCount()
-        localItems.logSyncResult(started, itemId,
-            SyncResultEntry.Result.ERROR).blockingGet()
+        syncLog.log(itemId, SyncResultEntry.Result.ERROR)
     }
 
+    // NOTE: error is logged in the local stage
     private fun download(itemId: String): T? {
         Log.d(TAG, "$itemId: DOWNLOAD")
         return try {
             // Note: will be logged in save() or update()
             cloudItem.download(itemId, ocClient).blockingGet()
         } catch (e: NullPointerException) {
-            logError(itemId)
             null
         } catch (e: NoSuchElementException) {
             // NOTE: unexpected error, file has to be in place already
-            logError(itemId)
             null
         }
     }
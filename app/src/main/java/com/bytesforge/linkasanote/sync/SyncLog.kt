@@ -0,0 +1,68 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bytesforge.linkasanote.sync
+
+import android.util.Log
+import com.bytesforge.linkasanote.data.SyncResult
+import com.bytesforge.linkasanote.data.source.local.LocalContract.SyncResultEntry
+import com.bytesforge.linkasanote.data.source.local.LocalItems
+import com.bytesforge.linkasanote.settings.Settings
+import com.bytesforge.linkasanote.utils.CommonUtils
+
+/**
+ * Sync results of the pass are collected in memory and written in batched transactions,
+ * so an item costs no separate insert and change notification of its own
+ */
+class SyncLog<T>(private val localItems: LocalItems<T>, private val started: Long) {
+    private val pending: MutableList<SyncResult> = ArrayList()
+
+    fun log(entryId: String, result: SyncResultEntry.Result) {
+        pending.add(localItems.buildSyncResult(started, entryId, result, false))
+        if (pending.size >= Settings.GLOBAL_SYNC_LOG_BATCH_SIZE) {
+            flush()
+        }
+    }
+
+    fun log(entryId: String, result: SyncResultEntry.Result, relatedId: String?) {
+        log(entryId, result)
+        if (relatedId != null) {
+            log(relatedId, SyncResultEntry.Result.RELATED)
+        }
+    }
+
+    // NOTE: the log is auxiliary, so the failed batch must not fail the sync
+    fun flush() {
+        if (pending.isEmpty()) return
+
+        val syncResults = ArrayList(pending)
+        pending.clear()
+        try {
+            localItems.logSyncResults(syncResults).blockingGet()
+        } catch (e: RuntimeException) {
+            Log.e(TAG, "Batch of sync results is lost [${syncResults.size}]")
+            CommonUtils.logStackTrace(TAG_E, e)
+        }
+    }
+
+    companion object {
+        private val TAG = SyncLog::class.java.simpleName
+        private val TAG_E = SyncLog::class.java.canonicalName
+    }
+}
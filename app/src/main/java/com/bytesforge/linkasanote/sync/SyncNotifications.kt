@@ -26,12 +26,14 @@ import android.content.Intent
 import android.graphics.Bitmap
 import android.graphics.drawable.BitmapDrawable
 import android.os.Build
+import android.os.SystemClock
 import android.util.Log
 import androidx.core.app.NotificationCompat
 import androidx.core.app.NotificationManagerCompat
 import androidx.core.content.ContextCompat
 import com.bytesforge.linkasanote.BuildConfig
 import com.bytesforge.linkasanote.R
+import com.bytesforge.linkasanote.settings.Settings
 import com.bytesforge.linkasanote.sync.SyncNotifications
 import com.google.common.base.Preconditions
 
@@ -40,9 +42,36 @@ class SyncNotifications(private val context: Context?) {
         NotificationManagerCompat.from(context!!)
 
     private var accountName: String? = null
+
+    // NOTE: changes of the items are accumulated per action until the next progress broadcast
+    private class Progress {
+        var uploaded = -1
+        var downloaded = -1
+
+        val isEmpty: Boolean
+            get() = uploaded < 0 && downloaded < 0
+    }
+
+    private val progress: MutableMap<String, Progress> = LinkedHashMap()
+    private var progressSent = 0L
+
+    /**
+     * Item statuses are coalesced into STATUS_PROGRESS which is sent at most once per
+     * GLOBAL_SYNC_PROGRESS_INTERVAL_MILLIS, any other status flushes the progress of its action first
+     */
+    @Synchronized
     @JvmOverloads
     fun sendSyncBroadcast(action: String?, status: Int, id: String? = null, count: Int = -1) {
         Preconditions.checkNotNull(accountName)
+        if (action != null && accumulateProgress(action, status, id, count)) {
+            val now = SystemClock.elapsedRealtime()
+            if (now - progressSent >= Settings.GLOBAL_SYNC_PROGRESS_INTERVAL_MILLIS) {
+                flushProgress(null)
+                progressSent = now
+            }
+            return
+        }
+        flushProgress(action)
         val intent = Intent(action)
         intent.putExtra(EXTRA_ACCOUNT_NAME, accountName)
         if (status >= 0) intent.putExtra(EXTRA_STATUS, status)
@@ -51,6 +80,42 @@ class SyncNotifications(private val context: Context?) {
         context!!.sendBroadcast(intent)
     }
 
+    private fun accumulateProgress(action: String, status: Int, id: String?, count: Int): Boolean {
+        val actionProgress = progress.getOrPut(action) { Progress() }
+        when (status) {
+            STATUS_UPLOADED -> {
+                if (count < 0) return false
+                actionProgress.uploaded = count
+            }
+            STATUS_DOWNLOADED -> {
+                if (count < 0) return false
+                actionProgress.downloaded = count
+            }
+            // NOTE: the changed items are not sent, the caches are patched by the sync log
+            STATUS_CREATED, STATUS_UPDATED, STATUS_DELETED -> if (id == null) return false
+            else -> return false
+        }
+        return true
+    }
+
+    // NOTE: null action means all of them
+    private fun flushProgress(action: String?) {
+        for ((progressAction, actionProgress) in progress) {
+            if (action != null && action != progressAction || actionProgress.isEmpty) continue
+
+            val intent = Intent(progressAction)
+            intent.putExtra(EXTRA_ACCOUNT_NAME, accountName)
+            intent.putExtra(EXTRA_STATUS, STATUS_PROGRESS)
+            if (actionProgress.uploaded >= 0) intent.putExtra(EXTRA_UPLOADED, actionProgress.uploaded)
+            if (actionProgress.downloaded >= 0) {
+                intent.putExtra(EXTRA_DOWNLOADED, actionProgress.downloaded)
+            }
+            context!!.sendBroadcast(intent)
+            actionProgress.uploaded = -1
+            actionProgress.downloaded = -1
+        }
+    }
+
     fun notifyFailedSynchronization(text: String) {
         Preconditions.checkNotNull(text)
         notifyFailedSynchronization(null, text)
@@ -114,6 +179,8 @@ class SyncNotifications(private val context: Context?) {
         const val EXTRA_STATUS = "STATUS"
         const val EXTRA_ID = "ID"
         const val EXTRA_COUNT = "COUNT"
+        const val EXTRA_UPLOADED = "UPLOADED"
+        const val EXTRA_DOWNLOADED = "DOWNLOADED"
         const val STATUS_SYNC_START = 10
         const val STATUS_SYNC_STOP = 11
         const val STATUS_CREATED = 20
@@ -121,6 +188,7 @@ class SyncNotifications(private val context: Context?) {
         const val STATUS_DELETED = 22
         const val STATUS_UPLOADED = 30
         const val STATUS_DOWNLOADED = 31
+        const val STATUS_PROGRESS = 40
         private const val NOTIFICATION_SYNC = 0
     }
 
@@ -32,6 +32,7 @@ import com.bytesforge.linkasanote.data.source.cloud.CloudItem
 import com.bytesforge.linkasanote.data.source.local.LocalFavorites
 import com.bytesforge.linkasanote.data.source.local.LocalLinks
 import com.bytesforge.linkasanote.data.source.local.LocalNotes
+import com.bytesforge.linkasanote.data.source.local.LocalSyncCheckpoints
 import com.bytesforge.linkasanote.data.source.local.LocalSyncResults
 import com.bytesforge.linkasanote.settings.Settings
 import javax.inject.Inject
@@ -53,6 +54,10 @@ class SyncService : Service() {
     @Inject
     var localSyncResults: LocalSyncResults? = null
 
+    @JvmField
+    @Inject
+    var localSyncCheckpoints: LocalSyncCheckpoints? = null
+
     @JvmField
     @Inject
     var localLinks: LocalLinks<Link>? = null
@@ -88,7 +93,8 @@ class SyncService : Service() {
                     localSyncResults,
                     localLinks, cloudLinks,
                     localFavorites, cloudFavorites,
-                    localNotes, cloudNotes
+                    localNotes, cloudNotes,
+                    localSyncCheckpoints
                 )
             }
         }
@@ -0,0 +1,58 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bytesforge.linkasanote.sync
+
+/**
+ * State of the both sides taken once per sync pass and shared across all its phases,
+ * it is kept up to date by the local stage, so no repeated listing is required
+ */
+class SyncSnapshot(cloudETags: Map<String, String>, localStates: Map<String, SyncState>) {
+    private val cloudETags: MutableMap<String, String> = HashMap(cloudETags)
+    private val localStates: MutableMap<String, SyncState> = HashMap(localStates)
+
+    val newCloudIds: List<String>
+        get() = cloudETags.keys.filter { !localStates.containsKey(it) }
+
+    /**
+     * Local items which have to be checked against the cloud, the synced ones with the same
+     * ETag as on the cloud and the conflicted ones are skipped by the sync anyway
+     */
+    val changedLocalIds: List<String>
+        get() = localStates.filter { (itemId, state) ->
+            !state.isConflicted
+                    && !(state.isSynced && state.eTag != null && state.eTag == cloudETags[itemId])
+        }.keys.toList()
+
+    fun getCloudETag(itemId: String): String? {
+        return cloudETags[itemId]
+    }
+
+    fun removeLocal(itemId: String) {
+        localStates.remove(itemId)
+    }
+
+    fun putCloud(itemId: String, eTag: String) {
+        cloudETags[itemId] = eTag
+    }
+
+    fun removeCloud(itemId: String) {
+        cloudETags.remove(itemId)
+    }
+}
@@ -22,7 +22,6 @@ package com.bytesforge.linkasanote.sync.files
 import android.net.Uri
 import android.os.Parcel
 import android.os.Parcelable
-import com.bytesforge.linkasanote.utils.CloudUtils
 import com.bytesforge.linkasanote.utils.UuidUtils
 import com.google.common.base.Objects
 import java.io.File
@@ -114,11 +113,6 @@ class JsonFile : Parcelable, Comparable<JsonFile> {
             return id + FILE_EXTENSION
         }
 
-        @JvmStatic
-        fun getTempFileName(id: String): String {
-            return id + "." + CloudUtils.getApplicationId()
-        }
-
         @JvmStatic
         fun getId(mimeType: String?, filePath: String?): String? {
             if (mimeType == null || filePath == null) return null
@@ -0,0 +1,93 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bytesforge.linkasanote.sync.operations.nextcloud
+
+import com.owncloud.android.lib.common.OwnCloudClient
+import com.owncloud.android.lib.common.network.WebdavUtils
+import com.owncloud.android.lib.common.operations.RemoteOperation
+import com.owncloud.android.lib.common.operations.RemoteOperationResult
+import org.apache.commons.httpclient.HttpStatus
+import org.apache.commons.httpclient.methods.GetMethod
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+
+/**
+ * NOTE: the body is read straight from the response into memory and is limited by maxSize
+ */
+class DownloadFileOperation(
+    private val remotePath: String,
+    private val maxSize: Long
+) : RemoteOperation() {
+    var content: ByteArray? = null
+        private set
+    var etag: String? = null
+        private set
+
+    override fun run(ocClient: OwnCloudClient): RemoteOperationResult {
+        val getMethod = GetMethod(
+            ocClient.webdavUri.toString() + WebdavUtils.encodePath(remotePath)
+        )
+        return try {
+            val status = ocClient.executeMethod(getMethod)
+            if (status == HttpStatus.SC_OK) {
+                content = readContent(getMethod)
+                etag = WebdavUtils.getEtagFromResponse(getMethod)
+            } else {
+                ocClient.exhaustResponse(getMethod.responseBodyAsStream)
+            }
+            RemoteOperationResult(status == HttpStatus.SC_OK, getMethod)
+        } catch (e: Exception) {
+            content = null
+            getMethod.abort()
+            RemoteOperationResult(e)
+        } finally {
+            getMethod.releaseConnection()
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun readContent(getMethod: GetMethod): ByteArray {
+        val contentLength = getMethod.responseContentLength
+        if (contentLength > maxSize) {
+            throw IOException("The file is too big [$remotePath, $contentLength]")
+        }
+        val output = ByteArrayOutputStream(
+            if (contentLength > 0) contentLength.toInt() else BUFFER_SIZE
+        )
+        getMethod.responseBodyAsStream?.use { input ->
+            val buffer = ByteArray(BUFFER_SIZE)
+            var length = 0L
+            while (true) {
+                val read = input.read(buffer)
+                if (read < 0) break
+                length += read
+                if (length > maxSize) {
+                    throw IOException("The file exceeds the limit [$remotePath, $maxSize]")
+                }
+                output.write(buffer, 0, read)
+            }
+        }
+        return output.toByteArray()
+    }
+
+    companion object {
+        private const val BUFFER_SIZE = 4096
+    }
+}
@@ -28,31 +28,48 @@ import com.owncloud.android.lib.common.operations.RemoteOperationResult
 import com.owncloud.android.lib.resources.files.CreateFolderRemoteOperation
 import com.owncloud.android.lib.resources.files.ExistenceCheckRemoteOperation
 import com.owncloud.android.lib.resources.files.ReadFileRemoteOperation
-import com.owncloud.android.lib.resources.files.UploadFileRemoteOperation
 import com.owncloud.android.lib.resources.files.model.RemoteFile
 import org.apache.commons.httpclient.Header
+import org.apache.commons.httpclient.HttpStatus
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity
 import org.apache.commons.httpclient.methods.PutMethod
 import java.io.File
 
-class UploadFileOperation(private val file: JsonFile) : RemoteOperation() {
+/**
+ * NOTE: the content is put straight from memory, so no temporary file is involved
+ *
+ * @param knownFolders Remote folders known to exist, shared by the uploads of one sync pass
+ * @param ifMatchETag The file is replaced only if it has not been changed since this ETag
+ * @param ifNoneMatch The file is written only if it does not exist yet
+ */
+class UploadFileOperation @JvmOverloads constructor(
+    private val file: JsonFile,
+    private val content: ByteArray,
+    private val knownFolders: MutableSet<String>? = null,
+    private val ifMatchETag: String? = null,
+    private val ifNoneMatch: Boolean = false
+) : RemoteOperation() {
     override fun run(ocClient: OwnCloudClient): RemoteOperationResult {
-        val localFile = File(file.localPath!!)
-        if (!localFile.exists()) {
-            return RemoteOperationResult(RemoteOperationResult.ResultCode.LOCAL_FILE_NOT_FOUND)
+        val remoteParent = File(file.remotePath!!).parent
+        if (knownFolders == null || !knownFolders.contains(remoteParent)) {
+            val result = createRemoteParent(remoteParent, ocClient)
+            if (!result.isSuccess) return result
+            knownFolders?.add(remoteParent)
         }
-        var result = createRemoteParent(file.remotePath!!, ocClient)
-        if (!result.isSuccess) return result
-        val uploadOperation = EnhancedUploadFileRemoteOperation(
-            file.localPath, file.remotePath, file.mimeType
+        val uploadOperation = UploadContentRemoteOperation(
+            content, file.remotePath!!, file.mimeType
         )
-        result = uploadOperation.execute(ocClient)
+        val result = uploadOperation.execute(ocClient)
         val data = ArrayList<Any>()
         data.add(file)
         result.data = data
         if (result.isSuccess) {
+            // NOTE: ETag is taken from the PUT response, PROPFIND only if the server has not sent it
             val eTag = uploadOperation.getETag()
             file.eTag = eTag
         } else {
+            // NOTE: the folder may have been removed in the meantime
+            knownFolders?.remove(remoteParent)
             file.eTag = null
             return RemoteOperationResult(RemoteOperationResult.ResultCode.SYNC_CONFLICT)
         }
@@ -60,10 +77,9 @@ class UploadFileOperation(private val file: JsonFile) : RemoteOperation() {
     }
 
     private fun createRemoteParent(
-        remotePath: String,
+        remoteParent: String,
         ocClient: OwnCloudClient
     ): RemoteOperationResult {
-        val remoteParent = File(remotePath).parent
         val existenceOperation = ExistenceCheckRemoteOperation(remoteParent, false)
         var result = existenceOperation.execute(ocClient)
         if (result.code == RemoteOperationResult.ResultCode.FILE_NOT_FOUND) {
@@ -73,13 +89,11 @@ class UploadFileOperation(private val file: JsonFile) : RemoteOperation() {
         return result
     }
 
-    private inner class EnhancedUploadFileRemoteOperation(
-        localPath: String?, remotePath: String?, mimeType: String?
-    ) : UploadFileRemoteOperation(
-        localPath, remotePath, mimeType, java.lang.Long.toString(
-            System.currentTimeMillis() / 1000
-        )
-    ) {
+    private inner class UploadContentRemoteOperation(
+        private val content: ByteArray,
+        private val remotePath: String,
+        private val mimeType: String
+    ) : RemoteOperation() {
         private var ocClient: OwnCloudClient? = null
         private var fileId: String? = null
         private var eTag: String? = null
@@ -106,21 +120,42 @@ class UploadFileOperation(private val file: JsonFile) : RemoteOperation() {
             }
         }
 
-        override fun execute(ocClient: OwnCloudClient): RemoteOperationResult {
+        override fun run(ocClient: OwnCloudClient): RemoteOperationResult {
             this.ocClient = ocClient
-            val result = super.execute(ocClient)
-            // TODO: make sure this replacement of this.putMethod is working well
             val putMethod = PutMethod(
-                ocClient.webdavUri.toString() + WebdavUtils.encodePath(
-                    remotePath
-                )
+                ocClient.webdavUri.toString() + WebdavUtils.encodePath(remotePath)
             )
-            val nextcloudHeaders = extractNextcloudResponseHeaders(putMethod.responseHeaders)
-            if (nextcloudHeaders != null) {
-                fileId = nextcloudHeaders[NEXTCLOUD_FILE_ID_HEADER]
-                eTag = nextcloudHeaders[NEXTCLOUD_E_TAG_HEADER]
+            return try {
+                putMethod.requestEntity = ByteArrayRequestEntity(content, mimeType)
+                putMethod.addRequestHeader(OC_TOTAL_LENGTH_HEADER, content.size.toString())
+                if (ifMatchETag != null) {
+                    putMethod.addRequestHeader(IF_MATCH_HEADER, "\"" + ifMatchETag + "\"")
+                }
+                if (ifNoneMatch) {
+                    putMethod.addRequestHeader(IF_NONE_MATCH_HEADER, "*")
+                }
+                putMethod.addRequestHeader(
+                    OC_X_OC_MTIME_HEADER, (System.currentTimeMillis() / 1000).toString()
+                )
+                val status = ocClient.executeMethod(putMethod)
+                ocClient.exhaustResponse(putMethod.responseBodyAsStream)
+                val nextcloudHeaders = extractNextcloudResponseHeaders(putMethod.responseHeaders)
+                if (nextcloudHeaders != null) {
+                    fileId = nextcloudHeaders[NEXTCLOUD_FILE_ID_HEADER]
+                    eTag = nextcloudHeaders[NEXTCLOUD_E_TAG_HEADER]
+                }
+                RemoteOperationResult(isSuccess(status), putMethod)
+            } catch (e: Exception) {
+                RemoteOperationResult(e)
+            } finally {
+                putMethod.releaseConnection()
             }
-            return result
+        }
+
+        private fun isSuccess(status: Int): Boolean {
+            return status == HttpStatus.SC_OK
+                    || status == HttpStatus.SC_CREATED
+                    || status == HttpStatus.SC_NO_CONTENT
         }
 
         private fun extractNextcloudResponseHeaders(headers: Array<Header>?): Map<String, String>? {
@@ -142,6 +177,10 @@ class UploadFileOperation(private val file: JsonFile) : RemoteOperation() {
         private val NEXTCLOUD_HEADER_PREFIX = "OC-".toLowerCase()
         private val NEXTCLOUD_FILE_ID_HEADER = NEXTCLOUD_HEADER_PREFIX + "FileId".toLowerCase()
         private val NEXTCLOUD_E_TAG_HEADER = NEXTCLOUD_HEADER_PREFIX + "ETag".toLowerCase()
+        private const val OC_TOTAL_LENGTH_HEADER = "OC-Total-Length"
+        private const val OC_X_OC_MTIME_HEADER = "X-OC-Mtime"
+        private const val IF_MATCH_HEADER = "If-Match"
+        private const val IF_NONE_MATCH_HEADER = "If-None-Match"
     }
 
 }
\ No newline at end of file
@@ -24,6 +24,7 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.net.Uri;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import android.text.format.DateFormat;
 import android.util.Log;
 import android.util.Patterns;
@@ -110,6 +111,33 @@ public final class CommonUtils {
         return url;
     }
 
+    /**
+     * NOTE: the fragment and the query parameters which are not in the white list are omitted
+     *
+     * @return Returns the URL which identifies the page or null if it cannot be normalized
+     */
+    @Nullable
+    public static String normalizeUrl(@NonNull String url, @NonNull String[] parameterWhiteList) {
+        checkNotNull(url);
+        checkNotNull(parameterWhiteList);
+        Uri uri = Uri.parse(url);
+        Uri.Builder uriBuilder = new Uri.Builder()
+                .scheme(uri.getScheme())
+                .encodedAuthority(uri.getAuthority())
+                .encodedPath(uri.getPath());
+        for (String parameterName : parameterWhiteList) {
+            try {
+                String parameterValue = uri.getQueryParameter(parameterName);
+                if (parameterValue != null) {
+                    uriBuilder.appendQueryParameter(parameterName, parameterValue);
+                }
+            } catch (UnsupportedOperationException e) {
+                return null;
+            }
+        }
+        return uriBuilder.build().toString();
+    }
+
     public static <T> T[] arrayAdd(@NonNull final T[] array, final T element) {
         checkNotNull(array);
         final T[] newArray = Arrays.copyOf(array, array.length + 1);
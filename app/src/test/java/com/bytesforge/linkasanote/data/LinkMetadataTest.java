@@ -0,0 +1,66 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bytesforge.linkasanote.data;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.junit.Test;
+
+public class LinkMetadataTest {
+
+    private static final String URL = "https://laano.net/page";
+
+    @Test
+    public void from_readsAllTheFieldsOfTheHead() {
+        Element head = Jsoup.parse("<html><head>" +
+                "<meta charset=\"utf-8\"><title> Page  title </title>" +
+                "<meta name=\"Description\" content=\" Description \">" +
+                "<meta name=\"keywords\" content=\"first, second ,third\">" +
+                "<meta property=\"og:title\" content=\"OpenGraph title\">" +
+                "<link rel=\"canonical\" href=\"/canonical\">" +
+                "</head><body><title>Body</title></body></html>", URL).head();
+        LinkMetadata linkMetadata = LinkMetadata.from(URL, URL, head, "etag", null, 0);
+
+        assertThat(linkMetadata.getTitle(), is("Page title"));
+        assertThat(linkMetadata.getDescription(), is("Description"));
+        assertArrayEquals(new String[]{"first", "second", "third"}, linkMetadata.getKeywords());
+        assertThat(linkMetadata.getCanonicalUrl(), is("https://laano.net/canonical"));
+        assertThat(linkMetadata.getETag(), is("etag"));
+    }
+
+    @Test
+    public void from_fallsBackToOpenGraph() {
+        Element head = Jsoup.parse("<head>" +
+                "<meta property=\"og:title\" content=\"OpenGraph title\">" +
+                "<meta property=\"og:description\" content=\"OpenGraph description\">" +
+                "</head>", URL).head();
+        LinkMetadata linkMetadata = LinkMetadata.from(URL, URL, head, null, null, 0);
+
+        assertThat(linkMetadata.getTitle(), is("OpenGraph title"));
+        assertThat(linkMetadata.getDescription(), is("OpenGraph description"));
+        assertNull(linkMetadata.getKeywords());
+        assertNull(linkMetadata.getCanonicalUrl());
+    }
+}
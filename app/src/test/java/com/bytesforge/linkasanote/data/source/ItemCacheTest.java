@@ -0,0 +1,109 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bytesforge.linkasanote.data.source;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+public class ItemCacheTest {
+
+    private ItemCache<String> cache;
+
+    @Before
+    public void setupCache() {
+        cache = new ItemCache<>(3);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("c", "C");
+    }
+
+    @Test
+    public void put_keepsOrderOfListWhileFits() {
+        assertThat(cache.get("a"), is("A"));
+        assertTrue(cache.isComplete());
+        assertThat(cache.values(), is(Arrays.asList("A", "B", "C")));
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedItemAndBecomesIncomplete() {
+        cache.get("a");
+        cache.put("d", "D");
+
+        assertNull(cache.get("b"));
+        assertFalse(cache.isComplete());
+        assertThat(cache.values(), is(Arrays.asList("A", "C", "D")));
+        assertThat(cache.evictionCount(), is(1L));
+        assertThat(cache.hitCount(), is(1L));
+        assertThat(cache.missCount(), is(1L));
+    }
+
+    @Test
+    public void put_placesItemAccordingToComparator() {
+        ItemCache<String> sortedCache = new ItemCache<>(5, Comparator.reverseOrder());
+        sortedCache.put("b", "B");
+        sortedCache.put("d", "D");
+        sortedCache.put("a", "A");
+        sortedCache.put("c", "C");
+        sortedCache.put("d", "A");
+
+        assertThat(sortedCache.values(), is(Arrays.asList("C", "B", "A", "A")));
+        assertThat(sortedCache.remove("a"), is("A"));
+        assertThat(sortedCache.values(), is(Arrays.asList("C", "B", "A")));
+        assertThat(sortedCache.get("d"), is("A"));
+    }
+
+    @Test
+    public void put_keepsHeadOfSortedListAndDropsItemsAfterItsTail() {
+        ItemCache<String> sortedCache = new ItemCache<>(2, Comparator.naturalOrder());
+        sortedCache.put("b", "B");
+        sortedCache.put("a", "A");
+        sortedCache.get("b");
+        sortedCache.put("c", "C");
+
+        assertFalse(sortedCache.isComplete());
+        assertThat(sortedCache.values(), is(Arrays.asList("A", "B")));
+        sortedCache.remove("b");
+        sortedCache.put("d", "D");
+        assertThat(sortedCache.values(), is(Collections.singletonList("A")));
+        sortedCache.put("0", "0");
+        assertThat(sortedCache.values(), is(Arrays.asList("0", "A")));
+    }
+
+    @Test
+    public void trimToSize_releasesItemsUntilCleared() {
+        cache.trimToSize(0);
+
+        assertThat(cache.values(), is(Collections.<String>emptyList()));
+        assertFalse(cache.isComplete());
+        cache.clear();
+        assertTrue(cache.isComplete());
+    }
+}
@@ -25,6 +25,8 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.util.Log;
@@ -116,6 +118,25 @@ public class RepositoryLinkTest {
         }
     }
 
+    @Test
+    public void getLinks_takesRestOfListLongerThanCacheAfterLastCachedLink() {
+        repository = new Repository(localDataSource, cloudDataSource,
+                new ImmediateSchedulerProvider(), LINKS.size() - 1);
+        Link lastCachedLink = LINKS.get(LINKS.size() - 2);
+        List<Link> restLinks = LINKS.subList(LINKS.size() - 1, LINKS.size());
+        when(localDataSource.getLinks(isNull()))
+                .thenReturn(Observable.fromIterable(LINKS));
+        when(localDataSource.getLinksAfter(eq(lastCachedLink)))
+                .thenReturn(Observable.fromIterable(restLinks));
+        when(localDataSource.markLinksSyncResultsAsApplied()).thenReturn(Single.just(0));
+
+        repository.getLinks().toList().test().assertValue(LINKS);
+        assertThat(repository.isLinkCacheDirty(), is(false));
+        repository.getLinks().toList().test().assertValue(LINKS);
+        verify(localDataSource, times(1)).getLinks(isNull());
+        verify(localDataSource).getLinksAfter(eq(lastCachedLink));
+    }
+
     @Test
     public void getLink_requestsSingleLinkFromLocalSource() {
         repository.linkCacheIsDirty = true;
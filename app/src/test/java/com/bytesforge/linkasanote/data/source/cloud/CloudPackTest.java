@@ -0,0 +1,311 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bytesforge.linkasanote.data.source.cloud;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.bytesforge.linkasanote.sync.files.JsonFile;
+import com.bytesforge.linkasanote.sync.operations.nextcloud.DownloadFileOperation;
+import com.bytesforge.linkasanote.sync.operations.nextcloud.UploadFileOperation;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.owncloud.android.lib.common.OwnCloudClient;
+import com.owncloud.android.lib.common.operations.RemoteOperation;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+import com.owncloud.android.lib.resources.files.ReadFileRemoteOperation;
+import com.owncloud.android.lib.resources.files.RemoveFileRemoteOperation;
+import com.owncloud.android.lib.resources.files.model.RemoteFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.MockedConstruction;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import io.reactivex.Observable;
+import io.reactivex.Single;
+
+public class CloudPackTest {
+
+    private static final String DIRECTORY = "/laano/links";
+    private static final String MANIFEST_PATH = DIRECTORY + "/" + CloudPack.MANIFEST_FILE_NAME;
+    private static final String ID_1 = "AAAAAAAAAAAAAAAAAAAAAA";
+    private static final String ID_2 = "BBBBBBBBBBBBBBBBBBBBBB";
+    private static final String ID_3 = "CCCCCCCCCCCCCCCCCCCCCC";
+    private static final String CONTENT_1 = "{\"name\":\"one\"}";
+    private static final String CONTENT_2 = "{\"name\":\"two\"}";
+    private static final String CONTENT_3 = "{\"name\":\"three\"}";
+
+    private final OwnCloudClient ocClient = mock(OwnCloudClient.class);
+
+    // NOTE: the cloud is a map of the remote path to the content of the file
+    private final Map<String, byte[]> files = new HashMap<>();
+    private final Map<String, String> eTags = new HashMap<>();
+    private final Map<Object, Callable<RemoteOperationResult>> operations =
+            new IdentityHashMap<>();
+    private int lastETag;
+
+    private MockedStatic<Log> mockedLog;
+    private MockedStatic<Uri> mockedUri;
+    private MockedStatic<CloudDataSource> mockedCloudDataSource;
+    private List<MockedConstruction<?>> mockedOperations;
+
+    @Before
+    public void setupCloud() {
+        mockedLog = Mockito.mockStatic(Log.class);
+        mockedUri = Mockito.mockStatic(Uri.class);
+        mockedUri.when(() -> Uri.parse(anyString())).thenAnswer(invocation -> {
+            String path = invocation.getArgument(0);
+            Uri uri = mock(Uri.class);
+            when(uri.getLastPathSegment()).thenReturn(path.substring(path.lastIndexOf('/') + 1));
+            return uri;
+        });
+        mockedCloudDataSource = Mockito.mockStatic(CloudDataSource.class);
+        mockedCloudDataSource.when(() -> CloudDataSource.getRemoteFiles(
+                any(OwnCloudClient.class), eq(DIRECTORY)))
+                .thenAnswer(invocation -> Observable.fromIterable(getRemoteFiles()));
+        mockedCloudDataSource.when(() -> CloudDataSource.executeRemoteOperation(
+                any(RemoteOperation.class), any(OwnCloudClient.class)))
+                .thenAnswer(invocation -> Single.just(
+                        operations.get(invocation.getArgument(0)).call()));
+        mockedOperations = new ArrayList<>();
+        mockedOperations.add(Mockito.mockConstruction(DownloadFileOperation.class,
+                (operation, context) -> {
+                    String remotePath = (String) context.arguments().get(0);
+                    long maxSize = (Long) context.arguments().get(1);
+                    operations.put(operation, () -> download(remotePath, maxSize));
+                    when(operation.getContent()).thenAnswer(invocation -> files.get(remotePath));
+                    when(operation.getEtag()).thenAnswer(invocation -> eTags.get(remotePath));
+                }));
+        mockedOperations.add(Mockito.mockConstruction(UploadFileOperation.class,
+                (operation, context) -> {
+                    List<?> arguments = context.arguments();
+                    JsonFile file = (JsonFile) arguments.get(0);
+                    byte[] content = (byte[]) arguments.get(1);
+                    String ifMatchETag = arguments.size() > 3 ? (String) arguments.get(3) : null;
+                    boolean ifNoneMatch = arguments.size() > 4 && (Boolean) arguments.get(4);
+                    operations.put(operation,
+                            () -> upload(file, content, ifMatchETag, ifNoneMatch));
+                }));
+        mockedOperations.add(Mockito.mockConstruction(ReadFileRemoteOperation.class,
+                (operation, context) -> {
+                    String remotePath = (String) context.arguments().get(0);
+                    operations.put(operation, () -> new RemoteOperationResult(
+                            files.containsKey(remotePath)
+                                    ? RemoteOperationResult.ResultCode.OK
+                                    : RemoteOperationResult.ResultCode.FILE_NOT_FOUND));
+                }));
+        mockedOperations.add(Mockito.mockConstruction(RemoveFileRemoteOperation.class,
+                (operation, context) -> {
+                    String remotePath = (String) context.arguments().get(0);
+                    operations.put(operation, () -> {
+                        eTags.remove(remotePath);
+                        return new RemoteOperationResult(files.remove(remotePath) != null
+                                ? RemoteOperationResult.ResultCode.OK
+                                : RemoteOperationResult.ResultCode.FILE_NOT_FOUND);
+                    });
+                }));
+    }
+
+    @After
+    public void closeCloud() {
+        for (MockedConstruction<?> mockedOperation : mockedOperations) {
+            mockedOperation.close();
+        }
+        mockedCloudDataSource.close();
+        mockedUri.close();
+        mockedLog.close();
+    }
+
+    @Test
+    public void getDataSourceMap_foldsFilesOfPerFileLayoutIntoPack() {
+        putFile(getFilePath(ID_1), CONTENT_1);
+        putFile(getFilePath(ID_2), CONTENT_2);
+        CloudPack pack = new CloudPack(DIRECTORY);
+
+        Map<String, String> dataSourceMap = pack.getDataSourceMap(ocClient);
+        assertThat(dataSourceMap.size(), is(2));
+        assertThat(dataSourceMap.get(ID_1), is(hash(CONTENT_1)));
+        assertThat(dataSourceMap.get(ID_2), is(hash(CONTENT_2)));
+        assertTrue(pack.commit(ocClient, null));
+        assertTrue(files.containsKey(MANIFEST_PATH));
+        assertFalse(files.containsKey(getFilePath(ID_1)));
+        assertFalse(files.containsKey(getFilePath(ID_2)));
+
+        CloudPack otherPack = new CloudPack(DIRECTORY);
+        assertThat(otherPack.get(ocClient, ID_1), is(CONTENT_1));
+        assertThat(otherPack.get(ocClient, ID_2), is(CONTENT_2));
+    }
+
+    @Test
+    public void putAndRemove_areWrittenToCloudOnCommit() {
+        CloudPack pack = new CloudPack(DIRECTORY);
+        assertThat(pack.put(ocClient, ID_1, bytes(CONTENT_1)), is(hash(CONTENT_1)));
+        assertThat(pack.put(ocClient, ID_2, bytes(CONTENT_2)), is(hash(CONTENT_2)));
+        assertTrue(files.isEmpty());
+        assertTrue(pack.commit(ocClient, null));
+
+        assertTrue(pack.remove(ocClient, ID_1));
+        assertTrue(pack.commit(ocClient, null));
+
+        CloudPack otherPack = new CloudPack(DIRECTORY);
+        Map<String, String> dataSourceMap = otherPack.getDataSourceMap(ocClient);
+        assertThat(dataSourceMap.keySet(), is(Collections.singleton(ID_2)));
+        assertThat(otherPack.getHash(ocClient, ID_2), is(hash(CONTENT_2)));
+        assertThat(otherPack.get(ocClient, ID_2), is(CONTENT_2));
+    }
+
+    @Test
+    public void commit_failsAndDropsPackIfCloudHasBeenChangedByAnotherClient() {
+        CloudPack pack = new CloudPack(DIRECTORY);
+        pack.put(ocClient, ID_1, bytes(CONTENT_1));
+        assertTrue(pack.commit(ocClient, null));
+        CloudPack otherPack = new CloudPack(DIRECTORY);
+        otherPack.getDataSourceMap(ocClient);
+        pack.getDataSourceMap(ocClient);
+
+        otherPack.put(ocClient, ID_2, bytes(CONTENT_2));
+        assertTrue(otherPack.commit(ocClient, null));
+        pack.put(ocClient, ID_3, bytes(CONTENT_3));
+        assertFalse(pack.commit(ocClient, null));
+
+        Map<String, String> dataSourceMap = pack.getDataSourceMap(ocClient);
+        assertThat(dataSourceMap.keySet(), is(Sets.newHashSet(ID_1, ID_2)));
+    }
+
+    @Test
+    public void commit_failsIfPackHasBeenCreatedByAnotherClient() {
+        CloudPack pack = new CloudPack(DIRECTORY);
+        CloudPack otherPack = new CloudPack(DIRECTORY);
+        pack.put(ocClient, ID_1, bytes(CONTENT_1));
+        otherPack.put(ocClient, ID_2, bytes(CONTENT_2));
+        assertTrue(pack.commit(ocClient, null));
+        assertFalse(otherPack.commit(ocClient, null));
+
+        Map<String, String> dataSourceMap = otherPack.getDataSourceMap(ocClient);
+        assertThat(dataSourceMap.keySet(), is(Collections.singleton(ID_1)));
+    }
+
+    @Test
+    public void commit_refusesManifestWhichCannotBeReadBack() {
+        CloudPack pack = new CloudPack(DIRECTORY);
+        byte[] content = bytes(CONTENT_1);
+        for (int i = 0; i < 40000; i++) {
+            pack.put(ocClient, String.format(Locale.US, "item%018d", i), content);
+        }
+        assertFalse(pack.commit(ocClient, null));
+        assertTrue(files.isEmpty());
+    }
+
+    @Test
+    public void unpack_returnsItemsToPerFileLayout() {
+        CloudPack pack = new CloudPack(DIRECTORY);
+        pack.put(ocClient, ID_1, bytes(CONTENT_1));
+        pack.put(ocClient, ID_2, bytes(CONTENT_2));
+        assertTrue(pack.commit(ocClient, null));
+
+        assertTrue(new CloudPack(DIRECTORY).unpack(ocClient, null));
+        assertThat(files.keySet(), is(Sets.newHashSet(getFilePath(ID_1), getFilePath(ID_2))));
+        assertThat(new String(files.get(getFilePath(ID_1)), Charsets.UTF_8), is(CONTENT_1));
+        assertThat(new String(files.get(getFilePath(ID_2)), Charsets.UTF_8), is(CONTENT_2));
+    }
+
+    // Cloud
+
+    private List<RemoteFile> getRemoteFiles() {
+        List<RemoteFile> remoteFiles = new ArrayList<>();
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            RemoteFile remoteFile = mock(RemoteFile.class);
+            when(remoteFile.getRemotePath()).thenReturn(file.getKey());
+            when(remoteFile.getEtag()).thenReturn(eTags.get(file.getKey()));
+            when(remoteFile.getMimeType()).thenReturn("application/json");
+            when(remoteFile.getSize()).thenReturn((long) file.getValue().length);
+            remoteFiles.add(remoteFile);
+        }
+        return remoteFiles;
+    }
+
+    private RemoteOperationResult download(String remotePath, long maxSize) {
+        byte[] content = files.get(remotePath);
+        if (content == null) {
+            return new RemoteOperationResult(RemoteOperationResult.ResultCode.FILE_NOT_FOUND);
+        } else if (content.length > maxSize) {
+            return new RemoteOperationResult(RemoteOperationResult.ResultCode.UNKNOWN_ERROR);
+        }
+        return new RemoteOperationResult(RemoteOperationResult.ResultCode.OK);
+    }
+
+    private RemoteOperationResult upload(
+            JsonFile file, byte[] content, String ifMatchETag, boolean ifNoneMatch) {
+        String remotePath = file.getRemotePath();
+        if ((ifMatchETag != null && !ifMatchETag.equals(eTags.get(remotePath)))
+                || (ifNoneMatch && files.containsKey(remotePath))) {
+            file.setETag(null);
+            return new RemoteOperationResult(RemoteOperationResult.ResultCode.SYNC_CONFLICT);
+        }
+        putFile(remotePath, content);
+        file.setETag(eTags.get(remotePath));
+        return new RemoteOperationResult(RemoteOperationResult.ResultCode.OK);
+    }
+
+    private void putFile(String remotePath, String content) {
+        putFile(remotePath, bytes(content));
+    }
+
+    private void putFile(String remotePath, byte[] content) {
+        files.put(remotePath, content);
+        eTags.put(remotePath, "eTag" + (++lastETag));
+    }
+
+    private static String getFilePath(String itemId) {
+        return DIRECTORY + "/" + JsonFile.getFileName(itemId);
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(Charsets.UTF_8);
+    }
+
+    private static String hash(String content) {
+        return Hashing.sha256().hashBytes(bytes(content)).toString();
+    }
+}
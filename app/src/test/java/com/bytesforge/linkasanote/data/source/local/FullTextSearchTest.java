@@ -0,0 +1,64 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bytesforge.linkasanote.data.source.local;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class FullTextSearchTest {
+
+    @Test
+    public void buildMatchQuery_turnsEveryWordToPrefix() {
+        String note = "\u0437\u0430\u043c\u0435\u0442\u043a\u0430";
+        assertThat(FullTextSearch.buildMatchQuery(" laano.net/Link  \"OR\" " + note),
+                is("laano* net* Link* OR* " + note + "*"));
+        assertNull(FullTextSearch.buildMatchQuery(" ./- "));
+        assertNull(FullTextSearch.buildMatchQuery(null));
+    }
+
+    @Test
+    public void rank_prefersRareWordsAndWeightedColumns() {
+        double[] weights = {2.0, 1.0};
+        // NOTE: one phrase, two columns: {hits in this row, hits in all rows, rows with hits}
+        double nameHit = FullTextSearch.rank(buildMatchInfo(1, 2, 1, 4, 4, 0, 10, 5), weights);
+        double linkHit = FullTextSearch.rank(buildMatchInfo(1, 2, 0, 4, 4, 1, 10, 5), weights);
+        double rareHit = FullTextSearch.rank(buildMatchInfo(1, 2, 0, 4, 4, 1, 1, 1), weights);
+
+        assertThat(nameHit, is(0.5));
+        assertThat(linkHit, is(0.1));
+        assertTrue(rareHit > nameHit);
+    }
+
+    private static byte[] buildMatchInfo(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(ByteOrder.nativeOrder());
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+}
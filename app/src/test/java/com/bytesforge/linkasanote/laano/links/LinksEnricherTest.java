@@ -0,0 +1,98 @@
+/*
+ * LaaNo Android application
+ *
+ * @author Aleksandr Borisenko <developer@laano.net>
+ * Copyright (C) 2017 Aleksandr Borisenko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bytesforge.linkasanote.laano.links;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.bytesforge.linkasanote.data.Link;
+import com.bytesforge.linkasanote.data.LinkMetadata;
+import com.bytesforge.linkasanote.data.Tag;
+import com.google.common.base.Optional;
+
+import org.jsoup.HttpStatusException;
+import org.jsoup.UnsupportedMimeTypeException;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+
+public class LinksEnricherTest {
+
+    private static final String URL = "https://laano.net/page";
+
+    @Test
+    public void apply_fillsOnlyEmptyNameAndTags() {
+        LinkMetadata linkMetadata = new LinkMetadata(URL, URL, null,
+                "Title", null, new String[]{"first", "second"}, null, null, 0);
+        Link emptyLink = new Link(URL, null, false, null);
+        Link namedLink = new Link(URL, "Name", false, null);
+        Link completeLink = new Link(URL, "Name", false,
+                Collections.singletonList(new Tag("tag")));
+
+        Link enrichedLink = LinksEnricher.apply(emptyLink, linkMetadata).get();
+        assertThat(enrichedLink.getId(), is(emptyLink.getId()));
+        assertThat(enrichedLink.getName(), is("Title"));
+        assertThat(enrichedLink.getTags().size(), is(2));
+        assertThat(LinksEnricher.apply(namedLink, linkMetadata).get().getName(), is("Name"));
+        assertThat(LinksEnricher.apply(completeLink, linkMetadata), is(Optional.absent()));
+        assertFalse(LinksEnricher.isEnrichable(completeLink));
+        assertTrue(LinksEnricher.isEnrichable(namedLink));
+    }
+
+    @Test
+    public void apply_keepsChangesMadeToLinkDuringRun() {
+        Link link = new Link(URL, null, false, null);
+        Link enrichedLink = new Link(link.getId(), URL, "Title", false,
+                Collections.singletonList(new Tag("keyword")), link.getState());
+        Link renamedLink = new Link(link.getId(), URL, "Name", false, null, link.getState());
+        Link movedLink = new Link(link.getId(), URL + "/moved", null, false, null,
+                link.getState());
+
+        Link savedLink = LinksEnricher.apply(renamedLink, enrichedLink).get();
+        assertThat(savedLink.getName(), is("Name"));
+        assertThat(savedLink.getTags().size(), is(1));
+        assertThat(LinksEnricher.apply(link, enrichedLink).get().getName(), is("Title"));
+        assertThat(LinksEnricher.apply(movedLink, enrichedLink), is(Optional.absent()));
+    }
+
+    @Test
+    public void isTransient_retriesOnlyRecoverableErrors() {
+        assertTrue(LinksEnricher.isTransient(new SocketTimeoutException()));
+        assertTrue(LinksEnricher.isTransient(new HttpStatusException("", 503, URL)));
+        assertTrue(LinksEnricher.isTransient(new HttpStatusException("", 429, URL)));
+        assertFalse(LinksEnricher.isTransient(new HttpStatusException("", 404, URL)));
+        assertFalse(LinksEnricher.isTransient(
+                new UnsupportedMimeTypeException("", "image/png", URL)));
+    }
+
+    @Test
+    public void hostRateLimiter_spacesRequestsToTheSameHost() {
+        LinksEnricher.HostRateLimiter hostRateLimiter = new LinksEnricher.HostRateLimiter(1000);
+
+        assertThat(hostRateLimiter.reserve("a", 0), is(0L));
+        assertThat(hostRateLimiter.reserve("a", 100), is(900L));
+        assertThat(hostRateLimiter.reserve("a", 100), is(1900L));
+        assertThat(hostRateLimiter.reserve("b", 100), is(0L));
+        assertThat(hostRateLimiter.reserve("a", 5000), is(0L));
+    }
+}
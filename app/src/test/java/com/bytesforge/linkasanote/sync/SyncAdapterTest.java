@@ -25,7 +25,9 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -44,7 +46,6 @@ import com.bytesforge.linkasanote.data.Favorite;
 import com.bytesforge.linkasanote.data.Link;
 import com.bytesforge.linkasanote.data.Note;
 import com.bytesforge.linkasanote.data.source.cloud.CloudItem;
-import com.bytesforge.linkasanote.data.source.local.LocalContract;
 import com.bytesforge.linkasanote.data.source.local.LocalFavorites;
 import com.bytesforge.linkasanote.data.source.local.LocalLinks;
 import com.bytesforge.linkasanote.data.source.local.LocalNotes;
@@ -55,6 +56,7 @@ import com.bytesforge.linkasanote.utils.CloudUtils;
 import com.owncloud.android.lib.common.OwnCloudClient;
 import com.owncloud.android.lib.common.operations.RemoteOperationResult;
 
+import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -62,7 +64,9 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
+import org.mockito.MockedConstruction;
 import org.mockito.MockedStatic;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -138,6 +142,7 @@ public class SyncAdapterTest {
     private static MockedStatic<Log> mockedLog;
     private static MockedStatic<CloudUtils> mockedCloudUtils;
     private static MockedStatic<Uri> mockedUri;
+    private MockedConstruction<SyncClient> mockedSyncClient;
 
     private SyncAdapter syncAdapter;
 
@@ -172,6 +177,9 @@ public class SyncAdapterTest {
 
         mockedCloudUtils.when(() -> CloudUtils.getOwnCloudClient(eq(account), any(Context.class)))
                 .thenAnswer((Answer<OwnCloudClient>) invocation -> ownCloudClient);
+        // NOTE: the client of the sync pass is the one of the account, so the stubs below apply
+        mockedSyncClient = Mockito.mockConstruction(SyncClient.class,
+                (syncClient, construction) -> when(syncClient.getOcClient()).thenReturn(ownCloudClient));
         mockedCloudUtils.when(() -> CloudUtils.getAccountName(eq(account)))
                 .thenAnswer((Answer<String>) invocation -> ACCOUNT_NAME);
         mockedCloudUtils.when(() -> CloudUtils.updateUserProfile(
@@ -191,6 +199,11 @@ public class SyncAdapterTest {
                 localNotes, cloudNotes);
     }
 
+    @After
+    public void closeSyncAdapter() {
+        mockedSyncClient.close();
+    }
+
     @Test
     public void newLocalFavorite_goesToUploadThenChangesStateToSynced() {
         Favorite favorite = new Favorite(
@@ -213,8 +226,7 @@ public class SyncAdapterTest {
         when(localFavorites.update(eq(favoriteId), any(SyncState.class)))
                 .thenReturn(Single.just(true));
         when(localSyncResults.cleanup()).thenReturn(Single.just(0));
-        when(localFavorites.logSyncResult(any(long.class), eq(favoriteId),
-                any(LocalContract.SyncResultEntry.Result.class))).thenReturn(Single.just(true));
+        when(localFavorites.logSyncResults(anyList())).thenReturn(Single.just(1));
 
         syncAdapter.onPerformSync(account, extras, "", provider, syncResult);
         verify(cloudFavorites).upload(eq(favorite), eq(ownCloudClient));
@@ -240,14 +252,14 @@ public class SyncAdapterTest {
         // Download
         when(cloudFavorites.download(eq(favoriteId), eq(ownCloudClient)))
                 .thenReturn(Single.just(cloudFavorite));
-        when(localFavorites.save(eq(cloudFavorite))).thenReturn(Single.just(true));
+        when(localFavorites.saveDownloaded(anyList(), any(long.class)))
+                .thenReturn(Single.just(true));
         when(localSyncResults.cleanup()).thenReturn(Single.just(0));
-        when(localFavorites.logSyncResult(any(long.class), eq(favoriteId),
-                any(LocalContract.SyncResultEntry.Result.class))).thenReturn(Single.just(true));
 
         syncAdapter.onPerformSync(account, extras, "", provider, syncResult);
         verify(cloudFavorites).download(eq(favoriteId), eq(ownCloudClient));
-        verify(localFavorites).save(eq(cloudFavorite));
+        verify(localFavorites).saveDownloaded(
+                eq(singletonList(cloudFavorite)), any(long.class));
         verify(syncNotifications).sendSyncBroadcast(
                 eq(SyncNotifications.ACTION_SYNC_FAVORITES),
                 eq(SyncNotifications.STATUS_CREATED),
@@ -273,8 +285,7 @@ public class SyncAdapterTest {
         when(localFavorites.update(eq(favoriteId), any(SyncState.class)))
                 .thenReturn(Single.just(true));
         when(localSyncResults.cleanup()).thenReturn(Single.just(0));
-        when(localFavorites.logSyncResult(any(long.class), eq(favoriteId),
-                any(LocalContract.SyncResultEntry.Result.class))).thenReturn(Single.just(true));
+        when(localFavorites.logSyncResults(anyList())).thenReturn(Single.just(1));
 
         syncAdapter.onPerformSync(account, extras, "", provider, syncResult);
         verify(cloudFavorites).download(eq(favoriteId), eq(ownCloudClient));
@@ -308,8 +319,7 @@ public class SyncAdapterTest {
                 .thenReturn(Single.just(result));
         when(localFavorites.delete(eq(favoriteId))).thenReturn(Single.just(true));
         when(localSyncResults.cleanup()).thenReturn(Single.just(0));
-        when(localFavorites.logSyncResult(any(long.class), eq(favoriteId),
-                any(LocalContract.SyncResultEntry.Result.class))).thenReturn(Single.just(true));
+        when(localFavorites.logSyncResults(anyList())).thenReturn(Single.just(1));
 
         syncAdapter.onPerformSync(account, extras, "", provider, syncResult);
         verify(cloudFavorites).download(eq(favoriteId), eq(ownCloudClient));
@@ -340,8 +350,7 @@ public class SyncAdapterTest {
         when(localFavorites.update(eq(favoriteId), any(SyncState.class)))
                 .thenReturn(Single.just(true));
         when(localSyncResults.cleanup()).thenReturn(Single.just(0));
-        when(localFavorites.logSyncResult(any(long.class), eq(favoriteId),
-                any(LocalContract.SyncResultEntry.Result.class))).thenReturn(Single.just(true));
+        when(localFavorites.logSyncResults(anyList())).thenReturn(Single.just(1));
 
         syncAdapter.onPerformSync(account, extras, "", provider, syncResult);
         verify(cloudFavorites).download(eq(favoriteId), eq(ownCloudClient));
@@ -369,14 +378,14 @@ public class SyncAdapterTest {
         setCloudFavorites(cloudFavorites, singletonList(cloudFavorite));
         when(cloudFavorites.download(eq(favoriteId), eq(ownCloudClient)))
                 .thenReturn(Single.just(cloudFavorite));
-        when(localFavorites.save(eq(cloudFavorite))).thenReturn(Single.just(true));
+        when(localFavorites.saveDownloaded(anyList(), any(long.class)))
+                .thenReturn(Single.just(true));
         when(localSyncResults.cleanup()).thenReturn(Single.just(0));
-        when(localFavorites.logSyncResult(any(long.class), eq(favoriteId),
-                any(LocalContract.SyncResultEntry.Result.class))).thenReturn(Single.just(true));
 
         syncAdapter.onPerformSync(account, extras, "", provider, syncResult);
         verify(cloudFavorites).download(eq(favoriteId), eq(ownCloudClient));
-        verify(localFavorites).save(eq(cloudFavorite));
+        verify(localFavorites).saveDownloaded(
+                eq(singletonList(cloudFavorite)), any(long.class));
         verify(syncNotifications).sendSyncBroadcast(
                 eq(SyncNotifications.ACTION_SYNC_FAVORITES),
                 eq(SyncNotifications.STATUS_UPDATED),
@@ -396,8 +405,7 @@ public class SyncAdapterTest {
         setCloudFavorites(cloudFavorites, Collections.emptyList());
         when(localFavorites.delete(eq(favoriteId))).thenReturn(Single.just(true));
         when(localSyncResults.cleanup()).thenReturn(Single.just(0));
-        when(localFavorites.logSyncResult(any(long.class), eq(favoriteId),
-                any(LocalContract.SyncResultEntry.Result.class))).thenReturn(Single.just(true));
+        when(localFavorites.logSyncResults(anyList())).thenReturn(Single.just(1));
 
         syncAdapter.onPerformSync(account, extras, "", provider, syncResult);
         verify(localFavorites).delete(eq(favoriteId));
@@ -426,8 +434,7 @@ public class SyncAdapterTest {
                 .thenReturn(Single.just(result));
         when(localFavorites.delete(eq(favoriteId))).thenReturn(Single.just(true));
         when(localSyncResults.cleanup()).thenReturn(Single.just(0));
-        when(localFavorites.logSyncResult(any(long.class), eq(favoriteId),
-                any(LocalContract.SyncResultEntry.Result.class))).thenReturn(Single.just(true));
+        when(localFavorites.logSyncResults(anyList())).thenReturn(Single.just(1));
 
         syncAdapter.onPerformSync(account, extras, "", provider, syncResult);
         verify(cloudFavorites).delete(eq(favoriteId), eq(ownCloudClient));
@@ -451,8 +458,7 @@ public class SyncAdapterTest {
         setCloudFavorites(cloudFavorites, Collections.emptyList());
         when(localFavorites.delete(eq(favoriteId))).thenReturn(Single.just(true));
         when(localSyncResults.cleanup()).thenReturn(Single.just(0));
-        when(localFavorites.logSyncResult(any(long.class), eq(favoriteId),
-                any(LocalContract.SyncResultEntry.Result.class))).thenReturn(Single.just(true));
+        when(localFavorites.logSyncResults(anyList())).thenReturn(Single.just(1));
 
         syncAdapter.onPerformSync(account, extras, "", provider, syncResult);
         verify(localFavorites).delete(eq(favoriteId));
@@ -476,8 +482,7 @@ public class SyncAdapterTest {
         when(localFavorites.update(eq(favoriteId), any(SyncState.class)))
                 .thenReturn(Single.just(true));
         when(localSyncResults.cleanup()).thenReturn(Single.just(0));
-        when(localFavorites.logSyncResult(any(long.class), eq(favoriteId),
-                any(LocalContract.SyncResultEntry.Result.class))).thenReturn(Single.just(true));
+        when(localFavorites.logSyncResults(anyList())).thenReturn(Single.just(1));
 
         syncAdapter.onPerformSync(account, extras, "", provider, syncResult);
         verify(localFavorites).update(eq(favoriteId), syncStateCaptor.capture());
@@ -502,8 +507,7 @@ public class SyncAdapterTest {
         setCloudFavorites(cloudFavorites, Collections.emptyList());
         when(localFavorites.delete(eq(favoriteId))).thenReturn(Single.just(true));
         when(localSyncResults.cleanup()).thenReturn(Single.just(0));
-        when(localFavorites.logSyncResult(any(long.class), eq(favoriteId),
-                any(LocalContract.SyncResultEntry.Result.class))).thenReturn(Single.just(true));
+        when(localFavorites.logSyncResults(anyList())).thenReturn(Single.just(1));
 
         syncAdapter.onPerformSync(account, extras, "", provider, syncResult);
         verify(localFavorites).delete(eq(favoriteId));
@@ -540,8 +544,7 @@ public class SyncAdapterTest {
         when(localFavorites.update(eq(favoriteId), any(SyncState.class)))
                 .thenReturn(Single.just(true));
         when(localSyncResults.cleanup()).thenReturn(Single.just(0));
-        when(localFavorites.logSyncResult(any(long.class), eq(favoriteId),
-                any(LocalContract.SyncResultEntry.Result.class))).thenReturn(Single.just(true));
+        when(localFavorites.logSyncResults(anyList())).thenReturn(Single.just(1));
 
         syncAdapter.onPerformSync(account, extras, "", provider, syncResult);
         verify(cloudFavorites).upload(eq(localFavorite), eq(ownCloudClient));
@@ -553,15 +556,114 @@ public class SyncAdapterTest {
         //assertEquals(syncAdapter.getFailsCount(), 0);
     }
 
+    @Test
+    public void parallelSync_uploadsLocalAndDownloadsCloudFavorites() {
+        Favorite localFavorite = new Favorite(
+                TestUtils.KEY_PREFIX + 'A', "Favorite", false, TestUtils.TAGS);
+        assertNotNull(localFavorite);
+        String localFavoriteId = localFavorite.getId();
+        Favorite favorite = new Favorite(
+                TestUtils.KEY_PREFIX + 'B', "Favorite #2", false, TestUtils.TAGS);
+        assertNotNull(favorite);
+        String cloudFavoriteId = favorite.getId();
+        SyncState state = new SyncState(E_TAGC, SyncState.State.SYNCED);
+        Favorite cloudFavorite = new Favorite(favorite, state);
+
+        when(settings.getSyncParallelism()).thenReturn(4);
+        setLocalFavorites(localFavorites, singletonList(localFavorite));
+        setCloudFavorites(cloudFavorites, singletonList(cloudFavorite));
+        // Upload
+        RemoteOperationResult result =
+                new RemoteOperationResult(RemoteOperationResult.ResultCode.OK);
+        ArrayList<Object> data = new ArrayList<>();
+        JsonFile file = new JsonFile(REMOTE_PATH);
+        file.setETag(E_TAGL);
+        data.add(file);
+        result.setData(data);
+        when(cloudFavorites.upload(any(Favorite.class), eq(ownCloudClient)))
+                .thenReturn(Single.just(result));
+        when(localFavorites.update(eq(localFavoriteId), any(SyncState.class)))
+                .thenReturn(Single.just(true));
+        // Download
+        when(cloudFavorites.download(eq(cloudFavoriteId), eq(ownCloudClient)))
+                .thenReturn(Single.just(cloudFavorite));
+        when(localFavorites.saveDownloaded(anyList(), any(long.class)))
+                .thenReturn(Single.just(true));
+        when(localSyncResults.cleanup()).thenReturn(Single.just(0));
+        when(localFavorites.logSyncResults(anyList())).thenReturn(Single.just(1));
+
+        syncAdapter.onPerformSync(account, extras, "", provider, syncResult);
+        verify(cloudFavorites).upload(eq(localFavorite), eq(ownCloudClient));
+        verify(localFavorites).update(eq(localFavoriteId), syncStateCaptor.capture());
+        assertTrue(syncStateCaptor.getValue().isSynced());
+        verify(cloudFavorites).download(eq(cloudFavoriteId), eq(ownCloudClient));
+        verify(localFavorites).saveDownloaded(
+                eq(singletonList(cloudFavorite)), any(long.class));
+        verify(syncNotifications).sendSyncBroadcast(
+                eq(SyncNotifications.ACTION_SYNC_FAVORITES),
+                eq(SyncNotifications.STATUS_CREATED),
+                eq(cloudFavoriteId), any(int.class));
+    }
+
+    @Test
+    public void concurrentSync_savesNotesAfterTheirLinksAreDownloaded() {
+        SyncState state = new SyncState(E_TAGC, SyncState.State.SYNCED);
+        Link link = new Link(TestUtils.KEY_PREFIX + 'A', "https://laano.net/", "Link",
+                false, TestUtils.TAGS);
+        String linkId = link.getId();
+        Link cloudLink = new Link(link, state);
+        Note cloudNote = new Note(
+                TestUtils.KEY_PREFIX + 'B', "Note", linkId, TestUtils.TAGS, state);
+        String noteId = cloudNote.getId();
+
+        when(settings.isSyncConcurrent()).thenReturn(true);
+        setLocalFavorites(localFavorites, Collections.emptyList());
+        setCloudFavorites(cloudFavorites, Collections.emptyList());
+        // Links
+        Map<String, String> cloudLinksMap = new HashMap<>();
+        cloudLinksMap.put(linkId, E_TAGC);
+        when(cloudLinks.getDataSourceETag(ownCloudClient)).thenReturn(E_TAGL);
+        when(cloudLinks.isCloudDataSourceChanged(E_TAGL)).thenReturn(true);
+        when(cloudLinks.getDataSourceMap(eq(ownCloudClient))).thenReturn(cloudLinksMap);
+        when(localLinks.getSyncStateMap()).thenReturn(Single.just(new HashMap<>()));
+        when(cloudLinks.download(eq(linkId), eq(ownCloudClient)))
+                .thenReturn(Single.just(cloudLink));
+        when(localLinks.saveDownloaded(anyList(), any(long.class)))
+                .thenReturn(Single.just(true));
+        // Notes
+        Map<String, String> cloudNotesMap = new HashMap<>();
+        cloudNotesMap.put(noteId, E_TAGC);
+        when(cloudNotes.getDataSourceETag(ownCloudClient)).thenReturn(E_TAGL);
+        when(cloudNotes.isCloudDataSourceChanged(E_TAGL)).thenReturn(true);
+        when(cloudNotes.getDataSourceMap(eq(ownCloudClient))).thenReturn(cloudNotesMap);
+        when(localNotes.getSyncStateMap()).thenReturn(Single.just(new HashMap<>()));
+        when(cloudNotes.download(eq(noteId), eq(ownCloudClient)))
+                .thenReturn(Single.just(cloudNote));
+        when(localNotes.saveDownloaded(anyList(), any(long.class)))
+                .thenReturn(Single.just(true));
+        when(localSyncResults.cleanup()).thenReturn(Single.just(0));
+
+        syncAdapter.onPerformSync(account, extras, "", provider, syncResult);
+        InOrder inOrder = Mockito.inOrder(localLinks, localNotes);
+        inOrder.verify(localLinks).saveDownloaded(
+                eq(Collections.singletonList(cloudLink)), any(long.class));
+        inOrder.verify(localNotes).saveDownloaded(
+                eq(Collections.singletonList(cloudNote)), any(long.class));
+        verify(localNotes, never()).saveDuplicated(any(Note.class));
+    }
+
     // Helpers
 
     private void setLocalFavorites(LocalFavorites localFavorites, List<Favorite> favorites) {
-        when(localFavorites.getAll()).thenReturn(Observable.fromIterable(favorites));
-        List<String> localFavoriteIds = new ArrayList<>(favorites.size());
+        Map<String, SyncState> localSyncStates = new HashMap<>(favorites.size());
         for (Favorite favorite : favorites) {
-            localFavoriteIds.add(favorite.getId());
+            localSyncStates.put(favorite.getId(), favorite.getState());
+        }
+        when(localFavorites.getSyncStateMap()).thenReturn(Single.just(localSyncStates));
+        if (!favorites.isEmpty()) {
+            when(localFavorites.get(any(String[].class)))
+                    .thenReturn(Observable.fromIterable(favorites));
         }
-        when(localFavorites.getIds()).thenReturn(Observable.fromIterable(localFavoriteIds));
     }
 
     private void setCloudFavorites(CloudItem<Favorite> cloudFavorites, List<Favorite> favorites) {